@@ -36,7 +36,7 @@ public class ByteCodeDump extends CodeAnalysisBase {
   }
 
   public void dumpContract() {
-    ByteCodePrinter printer = new ByteCodePrinter(this.code);
+    ByteCodePrinter printer = new ByteCodePrinter(this.simple.getInstructions());
     printer.print(0, this.simple.getEndOfCode() + 1);
   }
 
@@ -16,7 +16,7 @@ package tech.pegasys.poc.witnesscodeanalysis.bytecodedump;
 
 import org.apache.logging.log4j.Logger;
 import org.apache.tuweni.bytes.Bytes;
-import tech.pegasys.poc.witnesscodeanalysis.vm.MainnetEvmRegistries;
+import tech.pegasys.poc.witnesscodeanalysis.vm.InstructionIndex;
 import tech.pegasys.poc.witnesscodeanalysis.vm.Operation;
 
 import static java.lang.Math.min;
@@ -25,9 +25,15 @@ import static org.apache.logging.log4j.LogManager.getLogger;
 public class ByteCodePrinter {
   private static final Logger LOG = getLogger();
   Bytes code;
+  InstructionIndex instructions;
 
   public ByteCodePrinter(Bytes code) {
-    this.code = code;
+    this(InstructionIndex.decode(code));
+  }
+
+  public ByteCodePrinter(InstructionIndex instructions) {
+    this.code = instructions.getCode();
+    this.instructions = instructions;
   }
 
   public void print(int start, int end) {
@@ -35,7 +41,7 @@ public class ByteCodePrinter {
     boolean done = false;
     while (!done) {
       byte opCodeValue = this.code.get(pc);
-      Operation opCode = MainnetEvmRegistries.REGISTRY.get(opCodeValue, 0);
+      Operation opCode = this.instructions.getOperationAt(pc);
       int operationLength;
       String opCodeName;
       if (opCode != null) {
@@ -7,7 +7,6 @@ import org.apache.tuweni.bytes.Bytes;
 import tech.pegasys.poc.witnesscodeanalysis.BasicBlockWithCode;
 import tech.pegasys.poc.witnesscodeanalysis.MainNetContractDataSet;
 import tech.pegasys.poc.witnesscodeanalysis.common.ChunkData;
-import tech.pegasys.poc.witnesscodeanalysis.common.ChunkDataReader;
 import tech.pegasys.poc.witnesscodeanalysis.common.UnableToProcessReason;
 import tech.pegasys.poc.witnesscodeanalysis.functionid.CodeVisitor;
 import tech.pegasys.poc.witnesscodeanalysis.functionid.FunctionIdAllResult;
@@ -17,12 +16,12 @@ import tech.pegasys.poc.witnesscodeanalysis.functionid.FunctionIdMerklePatriciaT
 import java.io.FileWriter;
 import java.io.IOException;
 import java.io.Writer;
-import java.util.ArrayList;
+import java.nio.file.Files;
+import java.nio.file.Paths;
 import java.util.HashMap;
-import java.util.Iterator;
+import java.util.HashSet;
 import java.util.Map;
 import java.util.Set;
-import java.util.TreeSet;
 
 import static org.apache.logging.log4j.LogManager.getLogger;
 
@@ -32,10 +31,22 @@ public class BlockAnalysis {
   // Contract id, Start, Length
   private Map<Integer, Map<Integer, Integer>> contractCodeExecuted = new HashMap<>();
 
-  private int functionIdRawLeafSizeWithoutCode = 0;
-  private int functionIdNumberOfLeaves = 0;
+  // Record how much each transaction adds to the function id witness, in the results.
+  public static boolean TRANSACTION_SIZES = false;
+
+  private final WitnessAccumulator functionIdWitness = new WitnessAccumulator(TRANSACTION_SIZES);
   private int functionIdWitnessSize = 0;
 
+  // Calculate the size of the proofs of the leaves used, as well as the leaves and code. The
+  // chunk proofs depend on the code, so this is only done if there is a contract store.
+  public static boolean PROOF_SIZES = false;
+
+  // Function ids of the leaves used, for each contract, when calculating proof sizes.
+  private final Map<Integer, Set<Bytes>> functionIdLeavesUsed = new HashMap<>();
+  // Proof size for each scheme, including FUNCTION_ID, in each kind of trie.
+  private final int[] hexaryProofSizes = new int[NUM_CHUNK_SCHEMES + 1];
+  private final int[] binaryProofSizes = new int[NUM_CHUNK_SCHEMES + 1];
+
 
   private int failContractIdNotFoundInFunctionIdDataSet = 0;
   private int failContractNotProcessedCorrectlyByFunctionIdAnalysis = 0;
@@ -86,92 +97,227 @@ public class BlockAnalysis {
       this.contractCodeExecuted.put(id, contractCodeBlocks);
     }
     for (BasicBlockWithCode codeBlock: codeBlocks) {
-      contractCodeBlocks.put(codeBlock.getStart(), codeBlock.getLength());
+      contractCodeBlocks.merge(codeBlock.getStart(), codeBlock.getLength(), Math::max);
     }
 
-    // TODO this is a bug - will count multiple times, for each time the same leaf is used.
-    // Do part of the function id analysis here.
-    this.functionIdRawLeafSizeWithoutCode += codeBlocks.length * 4 + 4;
-    this.functionIdNumberOfLeaves++;
+    // Leaves and code already in the block's witness are not counted again.
+    this.functionIdWitness.addLeaf(id, leaf.getFunctionId(), codeBlocks);
+    if (PROOF_SIZES) {
+      this.functionIdLeavesUsed.computeIfAbsent(id, k -> new HashSet<>()).add(leaf.getFunctionId());
+    }
+  }
+
+  /**
+   * Called before the calls of each transaction are processed.
+   */
+  public void startTransaction() {
+    this.functionIdWitness.startTransaction();
+  }
+
+  /**
+   * Called after the calls of each transaction have been processed.
+   */
+  public void endTransaction() {
+    this.functionIdWitness.endTransaction();
   }
 
   public void calculateLeafPlusCodeSizes() throws IOException {
     LOG.info("calculateLeafPlusCodeSizes");
 
-    // Find the amount of code sent.
-    int functionIdCodeUsed = 0;
+    // The proofs are calculated separately, in calculateProofSizes.
+    this.functionIdWitnessSize = this.functionIdWitness.getWitnessSize();
+
+    // The chunks used under each scheme are found in one pass over each contract's code blocks.
+    int maxBlocks = 0;
     for (Map<Integer, Integer> codeBlocks : this.contractCodeExecuted.values()) {
-      for (Integer lengths : codeBlocks.values()) {
-        functionIdCodeUsed += lengths;
-      }
+      maxBlocks = Math.max(maxBlocks, codeBlocks.size());
     }
-    // TODO need to combine in the proof piece of this.
-    this.functionIdWitnessSize = functionIdCodeUsed + this.functionIdRawLeafSizeWithoutCode;
-
+    int[] starts = new int[maxBlocks];
+    int[] ends = new int[maxBlocks];
+    int[] used = new int[NUM_CHUNK_SCHEMES];
     int jumpDestDataUsed = 0;
+    int fixedDataUsed = 0;
+    int strictDataUsed = 0;
     for (Integer id : this.contractCodeExecuted.keySet()) {
-      Map<Integer, Integer> codeBlocks = this.contractCodeExecuted.get(id);
-      ChunkData chunkData = getJumpDestLeaves(id);
-      Map<Integer, Integer> startOffsetsAndLengths = chunkData.getChunks();
-      Set<Integer> chunksUsed = determineChunksUsed(codeBlocks, startOffsetsAndLengths );
-      for (Integer startUsed: chunksUsed) {
-        jumpDestDataUsed += startOffsetsAndLengths.get(startUsed);
+      int numRanges = ChunkLayout.mergeBlocks(this.contractCodeExecuted.get(id), starts, ends);
+      ChunkData[] chunkData = chunkData(id);
+      ChunkLayout[] layouts = chunkLayouts(chunkData);
+      ChunkLayout.usedBytes(starts, ends, numRanges, layouts, used, null);
+      jumpDestDataUsed += used[JUMPDEST];
+      fixedDataUsed += used[FIXED];
+      strictDataUsed += used[STRICT];
+      if (PROOF_SIZES) {
+        addChunkProofSizes(chunkData, layouts, starts, ends, numRanges);
       }
     }
     this.jumpDestWitnessSize = jumpDestDataUsed;
+    this.fixedWitnessSize = fixedDataUsed;
+    this.strictWitnessSize = strictDataUsed;
+
+    if (PROOF_SIZES) {
+      addFunctionIdProofSizes();
+    }
+  }
+
+  /**
+   * Add the size of the proofs of the chunks of one contract which were used, for each scheme.
+   */
+  private void addChunkProofSizes(ChunkData[] chunkData, ChunkLayout[] layouts, int[] starts, int[] ends,
+                                  int numRanges) {
+    int[][] chunksUsed = new int[NUM_CHUNK_SCHEMES][];
+    int[] numChunksUsed = new int[NUM_CHUNK_SCHEMES];
+    for (int scheme = 0; scheme < NUM_CHUNK_SCHEMES; scheme++) {
+      if (layouts[scheme] != null) {
+        chunksUsed[scheme] = new int[layouts[scheme].getNumChunks()];
+      }
+    }
+    ChunkLayout.visitUsedChunks(starts, ends, numRanges, layouts, (scheme, first, last) -> {
+      for (int chunk = first; chunk <= last; chunk++) {
+        chunksUsed[scheme][numChunksUsed[scheme]++] = chunk;
+      }
+    });
+    int[] proofSizes = new int[2];
+    for (int scheme = 0; scheme < NUM_CHUNK_SCHEMES; scheme++) {
+      if (numChunksUsed[scheme] > 0) {
+        codeProofs().chunkProofSizes(scheme, chunkData[scheme], layouts[scheme], chunksUsed[scheme],
+            numChunksUsed[scheme], proofSizes);
+        this.hexaryProofSizes[scheme] += proofSizes[CodeProofs.HEXARY];
+        this.binaryProofSizes[scheme] += proofSizes[CodeProofs.BINARY];
+      }
+    }
+  }
 
+  private void addFunctionIdProofSizes() throws IOException {
+    int[] proofSizes = new int[2];
+    for (Map.Entry<Integer, Set<Bytes>> leavesUsed : this.functionIdLeavesUsed.entrySet()) {
+      FunctionIdAllResult result = functionIdResult(leavesUsed.getKey());
+      codeProofs().functionIdProofSizes(result, leavesUsed.getValue(), proofSizes);
+      this.hexaryProofSizes[FUNCTION_ID] += proofSizes[CodeProofs.HEXARY];
+      this.binaryProofSizes[FUNCTION_ID] += proofSizes[CodeProofs.BINARY];
+    }
+  }
 
+  // Chunking schemes, as indexes into the array returned by chunkLayouts.
+  static final int JUMPDEST = 0;
+  static final int FIXED = 1;
+  static final int STRICT = 2;
+  static final int NUM_CHUNK_SCHEMES = 3;
+  // The function id scheme, when results are kept for all schemes.
+  static final int FUNCTION_ID = NUM_CHUNK_SCHEMES;
+
+  /**
+   * @return The chunk layout of the contract's code under each scheme, or null for a scheme
+   *   whose data set does not have the contract.
+   */
+  ChunkLayout[] chunkLayouts(int id) throws IOException {
+    return chunkLayouts(chunkData(id));
+  }
 
+  /**
+   * @return The analysis result for the contract under each scheme, or null for a scheme
+   *   whose data set does not have the contract.
+   */
+  ChunkData[] chunkData(int id) throws IOException {
+    ChunkData[] chunkData = new ChunkData[NUM_CHUNK_SCHEMES];
+    chunkData[JUMPDEST] = getJumpDestLeaves(id);
+    chunkData[FIXED] = getFixedLeaves(id);
+    chunkData[STRICT] = getStrictLeaves(id);
+    return chunkData;
+  }
 
-    int fixedDataUsed = 0;
-    for (Integer id : this.contractCodeExecuted.keySet()) {
-      Map<Integer, Integer> codeBlocks = this.contractCodeExecuted.get(id);
-      ChunkData chunkData = getFixedLeaves(id);
-      Map<Integer, Integer> startOffsetsAndLengths = chunkData.getChunks();
-      Set<Integer> chunksUsed = determineChunksUsed(codeBlocks, startOffsetsAndLengths );
-      for (Integer startUsed: chunksUsed) {
-        fixedDataUsed += startOffsetsAndLengths.get(startUsed);
-      }
+  static ChunkLayout[] chunkLayouts(ChunkData[] chunkData) {
+    ChunkLayout[] layouts = new ChunkLayout[NUM_CHUNK_SCHEMES];
+    if (chunkData[JUMPDEST] != null) {
+      layouts[JUMPDEST] = ChunkLayout.of(chunkData[JUMPDEST]);
     }
-    this.fixedWitnessSize = fixedDataUsed;
+    if (chunkData[FIXED] != null) {
+      layouts[FIXED] = ChunkLayout.of(chunkData[FIXED]);
+    }
+    // The strict results are compared using chunks of the threshold size, rather than the
+    // chunk start offsets in the results.
+    ChunkData strict = chunkData[STRICT];
+    if (strict != null) {
+      layouts[STRICT] = ChunkLayout.fixedSize(strict.getCodeLength(), strict.getThreshold());
+    }
+    return layouts;
+  }
 
-    int strictDataUsed = 0;
-    for (Integer id : this.contractCodeExecuted.keySet()) {
-      Map<Integer, Integer> codeBlocks = this.contractCodeExecuted.get(id);
-      ChunkData chunkData = getStrictLeaves(id);
-      if (chunkData != null) {
-        Map<Integer, Integer> startOffsetsAndLengths = chunkData.getChunks();
-        Set<Integer> chunksUsed = determineChunksUsed(codeBlocks, startOffsetsAndLengths );
-        for (Integer startUsed: chunksUsed) {
-          if (startUsed == null) {
-            LOG.error("WHY IS STARTUSED NULL? Id: {}", id);
-          }
-          else {
-            try {
-              strictDataUsed += startOffsetsAndLengths.get(startUsed);
-            } catch (NullPointerException ex) {
-              LOG.error("WHERE IS NULL POINTER EXCEPTION id: {}", id);
-            }
-          }
-        }
+  Map<Integer, Map<Integer, Integer>> getContractCodeExecuted() {
+    return contractCodeExecuted;
+  }
+
+
+  // Results are read from the analysis files as contracts are used, and shared by all blocks.
+  private static ResultStore<ChunkData> jumpDestStore;
+  private static ResultStore<ChunkData> fixedStore;
+  private static ResultStore<ChunkData> strictStore;
+  private static ResultStore<FunctionIdAllResult> functionIdStore;
+  private static CodeProofs codeProofs;
+
+  private static synchronized ResultStore<ChunkData> jumpDestStore() throws IOException {
+    if (jumpDestStore == null) {
+      jumpDestStore = new JsonResultStore<>("analysis_jumpdest.json", ChunkData.class, ChunkData::getId);
+    }
+    return jumpDestStore;
+  }
+
+  private static synchronized ResultStore<ChunkData> fixedStore() throws IOException {
+    if (fixedStore == null) {
+      fixedStore = new JsonResultStore<>("analysis_fixed.json", ChunkData.class, ChunkData::getId);
+    }
+    return fixedStore;
+  }
+
+  private static synchronized ResultStore<ChunkData> strictStore() throws IOException {
+    if (strictStore == null) {
+      strictStore = new JsonResultStore<>("analysis_strictfixed.json", ChunkData.class, ChunkData::getId);
+    }
+    return strictStore;
+  }
+
+  private static synchronized ResultStore<FunctionIdAllResult> functionIdStore() throws IOException {
+    if (functionIdStore == null) {
+      if (!Files.exists(Paths.get(FunctionIdDataSetReader.DEFAULT_FILE_IN))
+          && Files.exists(Paths.get(FunctionIdDataSetReader.DEFAULT_BINARY_FILE_IN))) {
+        functionIdStore = new FunctionIdBinaryResultStore(FunctionIdDataSetReader.DEFAULT_BINARY_FILE_IN);
+      }
+      else {
+        functionIdStore = new JsonResultStore<>(FunctionIdDataSetReader.DEFAULT_FILE_IN,
+            FunctionIdAllResult.class, FunctionIdAllResult::getId);
       }
     }
-    this.strictWitnessSize = strictDataUsed;
+    return functionIdStore;
   }
 
+  private static synchronized CodeProofs codeProofs() {
+    if (codeProofs == null) {
+      codeProofs = new CodeProofs(CombinedAnalysis::getCode, CodeProofs.DEFAULT_CACHE_CAPACITY);
+    }
+    return codeProofs;
+  }
 
-  private static Map<Integer, ChunkData> jumpDestEverything = new HashMap<>();
-  private ChunkData getJumpDestLeaves(int id) throws IOException {
-    if (jumpDestEverything.isEmpty()) {
-      LOG.info("Loading analysis_jumpdest.json");
-      ChunkDataReader dataSetReader = new ChunkDataReader("analysis_jumpdest.json");
-      ChunkData result;
-      while ((result = dataSetReader.next()) != null) {
-        jumpDestEverything.put(result.getId(), result);
+  /**
+   * Show how the result stores have been used, and close them.
+   */
+  public static synchronized void closeStores() throws IOException {
+    for (ResultStore<?> store : new ResultStore<?>[]{functionIdStore, jumpDestStore, fixedStore, strictStore}) {
+      if (store != null) {
+        store.showSummary();
+        store.close();
       }
     }
+    if (codeProofs != null) {
+      codeProofs.showSummary();
+    }
+    functionIdStore = null;
+    codeProofs = null;
+    jumpDestStore = null;
+    fixedStore = null;
+    strictStore = null;
+  }
 
-    ChunkData chunkData = jumpDestEverything.get(id);
+  private ChunkData getJumpDestLeaves(int id) throws IOException {
+    ChunkData chunkData = jumpDestStore().get(id);
     if (chunkData == null) {
       // TODO consider throwing an error. Arriving here would imply the contract is in the function id data set, but not his one.
       LOG.error("Contract id {} not found in JumpDest dataset!", id);
@@ -181,18 +327,8 @@ public class BlockAnalysis {
     return chunkData;
   }
 
-  private static Map<Integer, ChunkData> fixedEverything = new HashMap<>();
   private ChunkData getFixedLeaves(int id) throws IOException {
-    if (fixedEverything.isEmpty()) {
-      LOG.info("Loading analysis_fixed.json");
-      ChunkDataReader dataSetReader = new ChunkDataReader("analysis_fixed.json");
-      ChunkData result;
-      while ((result = dataSetReader.next()) != null) {
-        fixedEverything.put(result.getId(), result);
-      }
-    }
-
-    ChunkData chunkData = fixedEverything.get(id);
+    ChunkData chunkData = fixedStore().get(id);
     if (chunkData == null) {
       // TODO consider throwing an error. Arriving here would imply the contract is in the function id data set, but not his one.
       LOG.error("Contract id {} not found in Fixed dataset!", id);
@@ -202,27 +338,8 @@ public class BlockAnalysis {
     return chunkData;
   }
 
-  private static Map<Integer, ChunkData> strictEverything = new HashMap<>();
   private ChunkData getStrictLeaves(int id) throws IOException {
-    if (strictEverything.isEmpty()) {
-      LOG.info("Loading analysis_strict.json");
-      ChunkDataReader dataSetReader = new ChunkDataReader("analysis_strictfixed.json");
-      ChunkData result;
-      while ((result = dataSetReader.next()) != null) {
-        int codeLen = result.getCodeLength();
-        int chunkSize = result.getThreshold();
-        ArrayList<Integer> chunkStartOffsets = new ArrayList<>();
-        for (int ofs = 0; ofs< codeLen; ofs+=chunkSize) {
-          chunkStartOffsets.add(ofs);
-        }
-
-        ChunkData chunkData1 = new ChunkData(result.getId(), chunkStartOffsets,
-            Bytes.wrap(new byte[codeLen]), result.isStartAddressesAsKeys(), result.getThreshold());
-        strictEverything.put(result.getId(), chunkData1);
-      }
-    }
-
-    ChunkData chunkData = strictEverything.get(id);
+    ChunkData chunkData = strictStore().get(id);
     if (chunkData == null) {
       // TODO consider throwing an error. Arriving here would imply the contract is in the function id data set, but not his one.
       LOG.error("Contract id {} not found in Fixed dataset!", id);
@@ -232,65 +349,25 @@ public class BlockAnalysis {
     return chunkData;
   }
 
-
-  private Set<Integer> determineChunksUsed(Map<Integer, Integer> codeBlocks, Map<Integer, Integer> startOffsetsAndLengths) {
-    Set<Integer> chunksUsed = new TreeSet<>();
-    for (Integer start: codeBlocks.keySet()) {
-      int length = codeBlocks.get(start);
-      // Determine the chunks needed for this code block.
-      int lastChunkStart = 0;
-      int chunkStart = 0;
-      Iterator<Integer> chunkStartIter = startOffsetsAndLengths.keySet().iterator();
-
-      // Iterate to the start of the chunk.
-      while (chunkStartIter.hasNext() && chunkStart < start) {
-        lastChunkStart = chunkStart;
-        chunkStart = chunkStartIter.next();
-      }
-
-      // If the function id chunk is after the start of the last chunk
-      if (!chunkStartIter.hasNext()) {
-        chunksUsed.add(chunkStart);
-      }
-      else {
-        if (chunkStart == start) {
-          chunksUsed.add(chunkStart);
-        }
-        else {
-          // Chunk start must be greater than
-          chunksUsed.add(lastChunkStart);
-        }
-
-        // Add all the chunks that are within the function id chunk
-        while (chunkStartIter.hasNext() && chunkStart < start+length) {
-          chunksUsed.add(chunkStart);
-          chunkStart = chunkStartIter.next();
-        }
-      }
-    }
-
-    return chunksUsed;
-  }
-
-  private static Map<Integer, FunctionIdAllResult> functionIdEverything = new HashMap<>();
   public FunctionIdAllResult functionIdResult(int id) throws IOException {
-    if (functionIdEverything.isEmpty()) {
-      LOG.info("Loading analysis_functionid.json");
-      FunctionIdDataSetReader functionIdDataSetReader = new FunctionIdDataSetReader();
-      FunctionIdAllResult result;
-      while ((result = functionIdDataSetReader.next()) != null) {
-        functionIdEverything.put(result.getId(), result);
-      }
-    }
-
-    return functionIdEverything.get(id);
+    return functionIdStore().get(id);
   }
 
   public void showStats() {
     LOG.info("  functionIdWitnessSize: {} ", this.functionIdWitnessSize);
+    LOG.info("  functionIdLeaves: {} distinct of {} used, {} bytes of leaf data, {} bytes of code",
+        this.functionIdWitness.getNumDistinctLeaves(), this.functionIdWitness.getNumLeafUses(),
+        this.functionIdWitness.getLeafBytes(), this.functionIdWitness.getCodeBytes());
     LOG.info("  jumpDestWitnessSize: {} ", this.jumpDestWitnessSize);
     LOG.info("  fixedWitnessSize: {} ", this.fixedWitnessSize);
     LOG.info("  strictWitnessSize: {} ", this.strictWitnessSize);
+    if (PROOF_SIZES) {
+      LOG.info("  proof sizes, hexary / binary: functionId {} / {}, jumpDest {} / {}, fixed {} / {}, strict {} / {}",
+          this.hexaryProofSizes[FUNCTION_ID], this.binaryProofSizes[FUNCTION_ID],
+          this.hexaryProofSizes[JUMPDEST], this.binaryProofSizes[JUMPDEST],
+          this.hexaryProofSizes[FIXED], this.binaryProofSizes[FIXED],
+          this.hexaryProofSizes[STRICT], this.binaryProofSizes[STRICT]);
+    }
 
     LOG.info("  failContractIdNotFoundInFunctionIdDataSet: {} ", this.failContractIdNotFoundInFunctionIdDataSet);
     LOG.info("  failContractNotProcessedCorrectlyByFunctionIdAnalysis: {} ", this.failContractNotProcessedCorrectlyByFunctionIdAnalysis);
@@ -302,9 +379,21 @@ public class BlockAnalysis {
 
   public void setResultInformation(WitnessResult result) {
     result.functionIdWitnessSize = this.functionIdWitnessSize;
+    result.functionIdDistinctLeaves = this.functionIdWitness.getNumDistinctLeaves();
+    result.transactionFunctionIdWitnessSizes = this.functionIdWitness.getTransactionSizes();
     result.jumpDestWitnessSize = this.jumpDestWitnessSize;
     result.fixedWitnessSize = fixedWitnessSize;
     result.strictWitnessSize = strictWitnessSize;
+    if (PROOF_SIZES) {
+      result.functionIdHexaryProofSize = this.hexaryProofSizes[FUNCTION_ID];
+      result.jumpDestHexaryProofSize = this.hexaryProofSizes[JUMPDEST];
+      result.fixedHexaryProofSize = this.hexaryProofSizes[FIXED];
+      result.strictHexaryProofSize = this.hexaryProofSizes[STRICT];
+      result.functionIdBinaryProofSize = this.binaryProofSizes[FUNCTION_ID];
+      result.jumpDestBinaryProofSize = this.binaryProofSizes[JUMPDEST];
+      result.fixedBinaryProofSize = this.binaryProofSizes[FIXED];
+      result.strictBinaryProofSize = this.binaryProofSizes[STRICT];
+    }
   }
 
 }
@@ -0,0 +1,202 @@
+/*
+ * Copyright ConsenSys AG.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+package tech.pegasys.poc.witnesscodeanalysis.combined;
+
+import tech.pegasys.poc.witnesscodeanalysis.common.ChunkData;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Map;
+
+/**
+ * How the code of a contract is split into chunks, for one chunking scheme: the sorted chunk
+ * start offsets and the code length. A chunk runs from its start to the start of the next
+ * chunk, or to the end of the code.
+ *
+ * usedBytes finds the chunks which overlap the code that was executed, for several schemes in
+ * one pass over the executed code.
+ */
+public class ChunkLayout {
+  private final int[] starts;
+  private final int codeLength;
+
+  public ChunkLayout(int[] starts, int codeLength) {
+    this.starts = starts;
+    this.codeLength = codeLength;
+  }
+
+  public static ChunkLayout of(ChunkData chunkData) {
+    ArrayList<Integer> chunkStartAddresses = chunkData.getChunkStartAddresses();
+    int[] starts = new int[chunkStartAddresses.size()];
+    boolean sorted = true;
+    for (int i = 0; i < starts.length; i++) {
+      starts[i] = chunkStartAddresses.get(i);
+      sorted = sorted && (i == 0 || starts[i - 1] < starts[i]);
+    }
+    if (!sorted) {
+      starts = Arrays.stream(starts).sorted().distinct().toArray();
+    }
+    return new ChunkLayout(starts, chunkData.getCodeLength());
+  }
+
+  /**
+   * @return Layout of chunks of a fixed size, starting at offset zero.
+   */
+  public static ChunkLayout fixedSize(int codeLength, int chunkSize) {
+    if (chunkSize <= 0 || codeLength == 0) {
+      return new ChunkLayout(new int[]{0}, codeLength);
+    }
+    int[] starts = new int[(codeLength + chunkSize - 1) / chunkSize];
+    for (int i = 0; i < starts.length; i++) {
+      starts[i] = i * chunkSize;
+    }
+    return new ChunkLayout(starts, codeLength);
+  }
+
+  public int getNumChunks() {
+    return starts.length;
+  }
+
+  public int getCodeLength() {
+    return codeLength;
+  }
+
+  public int chunkStart(int chunk) {
+    return this.starts[chunk];
+  }
+
+  public int chunkEnd(int chunk) {
+    return chunk + 1 < this.starts.length ? this.starts[chunk + 1] : this.codeLength;
+  }
+
+  /**
+   * @return The index of the last chunk starting at or before the offset, searching from
+   *   the chunk fromChunk on, or fromChunk - 1 if there is none.
+   */
+  int findChunk(int offset, int fromChunk) {
+    int first = fromChunk;
+    int last = this.starts.length - 1;
+    while (first <= last) {
+      int mid = (first + last) >>> 1;
+      if (this.starts[mid] <= offset) {
+        first = mid + 1;
+      }
+      else {
+        last = mid - 1;
+      }
+    }
+    return last;
+  }
+
+  /**
+   * Convert executed code blocks to sorted, non overlapping ranges.
+   *
+   * @param codeBlocks Executed code, as start offset to length.
+   * @return Start and end offsets of the ranges, in starts[0..n) and ends[0..n), where n is
+   *   the number of ranges.
+   */
+  public static int mergeBlocks(Map<Integer, Integer> codeBlocks, int[] starts, int[] ends) {
+    int num = 0;
+    for (Map.Entry<Integer, Integer> block : codeBlocks.entrySet()) {
+      starts[num++] = block.getKey();
+    }
+    Arrays.sort(starts, 0, num);
+    int numRanges = 0;
+    for (int i = 0; i < num; i++) {
+      int start = starts[i];
+      // An empty block still needs the chunk it starts in.
+      int end = start + Math.max(1, codeBlocks.get(start));
+      if (numRanges > 0 && start <= ends[numRanges - 1]) {
+        ends[numRanges - 1] = Math.max(ends[numRanges - 1], end);
+      }
+      else {
+        starts[numRanges] = start;
+        ends[numRanges] = end;
+        numRanges++;
+      }
+    }
+    return numRanges;
+  }
+
+  public interface UsedChunksVisitor {
+    /**
+     * Called for each run of consecutive chunks which overlap the executed code.
+     *
+     * @param layout Index of the layout in the array of layouts.
+     */
+    void visit(int layout, int firstChunk, int lastChunk);
+  }
+
+  /**
+   * Determine the size of the chunks which overlap the executed code, for each layout. A chunk
+   * which overlaps several ranges is counted once.
+   *
+   * @param starts Start offsets of the executed ranges, sorted and not overlapping.
+   * @param ends End offsets, exclusive, of the executed ranges.
+   * @param numRanges Number of executed ranges.
+   * @param layouts Layouts of the contract's code. Null entries are skipped.
+   * @param usedBytes Set to the total size of the chunks used, for each layout.
+   * @param usedChunks Set to the number of chunks used, for each layout. May be null.
+   */
+  public static void usedBytes(int[] starts, int[] ends, int numRanges, ChunkLayout[] layouts,
+                               int[] usedBytes, int[] usedChunks) {
+    Arrays.fill(usedBytes, 0, layouts.length, 0);
+    if (usedChunks != null) {
+      Arrays.fill(usedChunks, 0, layouts.length, 0);
+    }
+    visitUsedChunks(starts, ends, numRanges, layouts, (l, first, last) -> {
+      usedBytes[l] += layouts[l].chunkEnd(last) - layouts[l].chunkStart(first);
+      if (usedChunks != null) {
+        usedChunks[l] += last - first + 1;
+      }
+    });
+  }
+
+  /**
+   * Find the chunks which overlap the executed code, for each layout, in one pass over the
+   * executed ranges. Each chunk is visited once, in order.
+   *
+   * @param starts Start offsets of the executed ranges, sorted and not overlapping.
+   * @param ends End offsets, exclusive, of the executed ranges.
+   * @param numRanges Number of executed ranges.
+   * @param layouts Layouts of the contract's code. Null entries are skipped.
+   */
+  public static void visitUsedChunks(int[] starts, int[] ends, int numRanges, ChunkLayout[] layouts,
+                                     UsedChunksVisitor visitor) {
+    int numLayouts = layouts.length;
+    // The next chunk which has not been visited yet, for each layout.
+    int[] nextChunk = new int[numLayouts];
+
+    for (int r = 0; r < numRanges; r++) {
+      int start = starts[r];
+      int end = ends[r];
+      for (int l = 0; l < numLayouts; l++) {
+        ChunkLayout layout = layouts[l];
+        if (layout == null || nextChunk[l] >= layout.starts.length) {
+          continue;
+        }
+        // The chunk containing the start of the range, or the first chunk if the range starts
+        // before it.
+        int first = Math.max(nextChunk[l], layout.findChunk(start, nextChunk[l]));
+        int last = layout.findChunk(end - 1, first);
+        if (last < first) {
+          continue;
+        }
+        visitor.visit(l, first, last);
+        nextChunk[l] = last + 1;
+      }
+    }
+  }
+}
@@ -0,0 +1,175 @@
+/*
+ * Copyright ConsenSys AG.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+package tech.pegasys.poc.witnesscodeanalysis.combined;
+
+import org.apache.logging.log4j.Logger;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+import static org.apache.logging.log4j.LogManager.getLogger;
+
+/**
+ * Compares the time to find the chunks used by the code executed in real blocks, using
+ * ChunkLayout and using the TreeMap iteration which BlockAnalysis used before.
+ *
+ * The executed code and chunk layouts of the contracts called in the blocks are loaded first,
+ * so only the overlap computation is timed. The earlier computation did not count the last chunk
+ * of a block which ended in a later chunk, so the totals are expected to differ.
+ *
+ * Usage: ChunkOverlapBenchmark [first block] [last block] [iterations]
+ */
+public class ChunkOverlapBenchmark {
+  private static final Logger LOG = getLogger();
+
+  private static class Contract {
+    final Map<Integer, Integer> codeBlocks;
+    final ChunkLayout[] layouts;
+    final List<Map<Integer, Integer>> chunkMaps = new ArrayList<>();
+
+    Contract(Map<Integer, Integer> codeBlocks, ChunkLayout[] layouts) {
+      this.codeBlocks = codeBlocks;
+      this.layouts = layouts;
+      for (ChunkLayout layout : layouts) {
+        this.chunkMaps.add(layout == null ? null : chunkMap(layout));
+      }
+    }
+  }
+
+  public static void main(String[] args) throws Exception {
+    int from = args.length > 0 ? Integer.parseInt(args[0]) : 9013000;
+    int to = args.length > 1 ? Integer.parseInt(args[1]) : 9013099;
+    int iterations = args.length > 2 ? Integer.parseInt(args[2]) : 20;
+
+    CombinedAnalysis.loadContractIds();
+    List<Contract> contracts = new ArrayList<>();
+    long numCodeBlocks = 0;
+    for (int block = from; block <= to; block++) {
+      BlockAnalysis blockAnalysis = CombinedAnalysis.traceBlock(block, new TreeSet<>());
+      for (Map.Entry<Integer, Map<Integer, Integer>> executed : blockAnalysis.getContractCodeExecuted().entrySet()) {
+        contracts.add(new Contract(executed.getValue(), blockAnalysis.chunkLayouts(executed.getKey())));
+        numCodeBlocks += executed.getValue().size();
+      }
+    }
+    BlockAnalysis.closeStores();
+    LOG.info("Blocks {} to {}: {} contract calls, {} executed code blocks", from, to, contracts.size(), numCodeBlocks);
+
+    long[] treeMapTotals = null;
+    long[] layoutTotals = null;
+    long treeMapNanos = 0;
+    long layoutNanos = 0;
+    for (int i = 0; i < iterations; i++) {
+      long start = System.nanoTime();
+      treeMapTotals = treeMap(contracts);
+      treeMapNanos += System.nanoTime() - start;
+      start = System.nanoTime();
+      layoutTotals = layouts(contracts);
+      layoutNanos += System.nanoTime() - start;
+    }
+
+    String[] schemes = {"JumpDest", "Fixed", "Strict"};
+    for (int s = 0; s < BlockAnalysis.NUM_CHUNK_SCHEMES; s++) {
+      LOG.info("{}: chunk bytes used: TreeMap {}, ChunkLayout {}", schemes[s], treeMapTotals[s], layoutTotals[s]);
+    }
+    LOG.info("TreeMap: {} ms per pass, ChunkLayout: {} ms per pass, {}x faster",
+        String.format("%.2f", treeMapNanos / 1_000_000.0 / iterations),
+        String.format("%.2f", layoutNanos / 1_000_000.0 / iterations),
+        String.format("%.1f", layoutNanos == 0 ? 0.0 : (double) treeMapNanos / layoutNanos));
+  }
+
+  private static long[] layouts(List<Contract> contracts) {
+    long[] totals = new long[BlockAnalysis.NUM_CHUNK_SCHEMES];
+    int[] used = new int[BlockAnalysis.NUM_CHUNK_SCHEMES];
+    int[] starts = new int[1024];
+    int[] ends = new int[1024];
+    for (Contract contract : contracts) {
+      if (contract.codeBlocks.size() > starts.length) {
+        starts = new int[contract.codeBlocks.size()];
+        ends = new int[contract.codeBlocks.size()];
+      }
+      int numRanges = ChunkLayout.mergeBlocks(contract.codeBlocks, starts, ends);
+      ChunkLayout.usedBytes(starts, ends, numRanges, contract.layouts, used, null);
+      for (int s = 0; s < totals.length; s++) {
+        totals[s] += used[s];
+      }
+    }
+    return totals;
+  }
+
+  private static long[] treeMap(List<Contract> contracts) {
+    long[] totals = new long[BlockAnalysis.NUM_CHUNK_SCHEMES];
+    for (Contract contract : contracts) {
+      for (int s = 0; s < totals.length; s++) {
+        Map<Integer, Integer> startOffsetsAndLengths = contract.chunkMaps.get(s);
+        if (startOffsetsAndLengths == null) {
+          continue;
+        }
+        for (Integer startUsed : determineChunksUsed(contract.codeBlocks, startOffsetsAndLengths)) {
+          totals[s] += startOffsetsAndLengths.get(startUsed);
+        }
+      }
+    }
+    return totals;
+  }
+
+  private static Map<Integer, Integer> chunkMap(ChunkLayout layout) {
+    Map<Integer, Integer> map = new TreeMap<>();
+    for (int i = 0; i < layout.getNumChunks(); i++) {
+      map.put(layout.chunkStart(i), layout.chunkEnd(i) - layout.chunkStart(i));
+    }
+    return map;
+  }
+
+  /**
+   * The computation BlockAnalysis used before ChunkLayout.
+   */
+  private static Set<Integer> determineChunksUsed(Map<Integer, Integer> codeBlocks, Map<Integer, Integer> startOffsetsAndLengths) {
+    Set<Integer> chunksUsed = new TreeSet<>();
+    for (Integer start: codeBlocks.keySet()) {
+      int length = codeBlocks.get(start);
+      int lastChunkStart = 0;
+      int chunkStart = 0;
+      Iterator<Integer> chunkStartIter = startOffsetsAndLengths.keySet().iterator();
+
+      while (chunkStartIter.hasNext() && chunkStart < start) {
+        lastChunkStart = chunkStart;
+        chunkStart = chunkStartIter.next();
+      }
+
+      if (!chunkStartIter.hasNext()) {
+        chunksUsed.add(chunkStart);
+      }
+      else {
+        if (chunkStart == start) {
+          chunksUsed.add(chunkStart);
+        }
+        else {
+          chunksUsed.add(lastChunkStart);
+        }
+
+        while (chunkStartIter.hasNext() && chunkStart < start+length) {
+          chunksUsed.add(chunkStart);
+          chunkStart = chunkStartIter.next();
+        }
+      }
+    }
+    return chunksUsed;
+  }
+}
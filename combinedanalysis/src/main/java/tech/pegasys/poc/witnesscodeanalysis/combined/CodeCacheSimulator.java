@@ -0,0 +1,199 @@
+/*
+ * Copyright ConsenSys AG.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+package tech.pegasys.poc.witnesscodeanalysis.combined;
+
+import org.apache.logging.log4j.CloseableThreadContext;
+import org.apache.logging.log4j.Logger;
+import tech.pegasys.poc.witnesscodeanalysis.combined.cache.ArcCodeCache;
+import tech.pegasys.poc.witnesscodeanalysis.combined.cache.CodeCache;
+import tech.pegasys.poc.witnesscodeanalysis.combined.cache.FifoCodeCache;
+import tech.pegasys.poc.witnesscodeanalysis.combined.cache.LastBlocksCodeCache;
+import tech.pegasys.poc.witnesscodeanalysis.combined.cache.LfuCodeCache;
+import tech.pegasys.poc.witnesscodeanalysis.combined.cache.LruCodeCache;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+import static org.apache.logging.log4j.LogManager.getLogger;
+
+/**
+ * Simulates stateless clients which keep code chunks between blocks, to compare the memory
+ * used by a code cache with the witness bandwidth it saves.
+ *
+ * A block range is replayed in order. The chunks used by each block, under each chunking
+ * scheme, are looked up in a set of caches. Chunks which miss are sent in the witness. For the
+ * function id scheme the chunks are the executed code blocks of the leaves used. Proof data is
+ * not included.
+ *
+ * Usage: CodeCacheSimulator [first block] [last block]
+ */
+public class CodeCacheSimulator {
+  private static final Logger LOG = getLogger();
+
+  // Capacities of the LRU, LFU, ARC and FIFO caches.
+  public static long[] CACHE_SIZES = {1024 * 1024, 8 * 1024 * 1024, 64 * 1024 * 1024};
+  // Number of blocks held by the last N blocks caches.
+  public static int[] LAST_BLOCKS = {1, 10, 100};
+  // Stop at the first block which can not be processed, rather than skipping it. A skipped
+  // block changes what the caches hold for the blocks after it.
+  public static boolean ABORT_ON_FAILED_BLOCK = false;
+
+  private static final String[] SCHEMES = {"FunctionId", "JumpDest", "Fixed", "Strict"};
+  private static final int FUNCTIONID = 0;
+  // Offset from the ChunkLayout schemes of BlockAnalysis to the schemes here.
+  private static final int LAYOUT_SCHEMES = 1;
+
+  private static class CacheStats {
+    final CodeCache cache;
+    long accesses;
+    long hits;
+    long bytes;
+    long bytesHit;
+
+    CacheStats(CodeCache cache) {
+      this.cache = cache;
+    }
+
+    void access(long key, int size) {
+      this.accesses++;
+      this.bytes += size;
+      if (this.cache.access(key, size)) {
+        this.hits++;
+        this.bytesHit += size;
+      }
+    }
+  }
+
+  // Caches for each scheme.
+  private final List<List<CacheStats>> caches = new ArrayList<>();
+  private final Set<String> unknownContracts = new TreeSet<>();
+  private int numBlocks;
+  private int numFailedBlocks;
+
+  public CodeCacheSimulator() {
+    for (int s = 0; s < SCHEMES.length; s++) {
+      List<CacheStats> schemeCaches = new ArrayList<>();
+      for (long size : CACHE_SIZES) {
+        schemeCaches.add(new CacheStats(new LruCodeCache(size)));
+        schemeCaches.add(new CacheStats(new LfuCodeCache(size)));
+        schemeCaches.add(new CacheStats(new ArcCodeCache(size)));
+        schemeCaches.add(new CacheStats(new FifoCodeCache(size)));
+      }
+      for (int blocks : LAST_BLOCKS) {
+        schemeCaches.add(new CacheStats(new LastBlocksCodeCache(blocks)));
+      }
+      this.caches.add(schemeCaches);
+    }
+  }
+
+  public void simulate(int from, int to) throws Exception {
+    CombinedAnalysis.loadContractIds();
+    for (int blockNumber = from; blockNumber <= to; blockNumber++) {
+      try (CloseableThreadContext.Instance context =
+               CloseableThreadContext.put(CombinedAnalysis.BLOCK_CONTEXT_KEY, Integer.toString(blockNumber))) {
+        BlockAnalysis blockAnalysis;
+        try {
+          blockAnalysis = CombinedAnalysis.traceBlock(blockNumber, this.unknownContracts);
+        } catch (Exception ex) {
+          LOG.error("Unable to process block {}", blockNumber, ex);
+          this.numFailedBlocks++;
+          if (ABORT_ON_FAILED_BLOCK) {
+            throw new IOException("Unable to process block " + blockNumber, ex);
+          }
+          continue;
+        }
+        replayBlock(blockAnalysis);
+      }
+      this.numBlocks++;
+    }
+    BlockAnalysis.closeStores();
+  }
+
+  private void replayBlock(BlockAnalysis blockAnalysis) throws Exception {
+    Map<Integer, Map<Integer, Integer>> executed = blockAnalysis.getContractCodeExecuted();
+    int maxBlocks = 0;
+    for (Map<Integer, Integer> codeBlocks : executed.values()) {
+      maxBlocks = Math.max(maxBlocks, codeBlocks.size());
+    }
+    int[] starts = new int[maxBlocks];
+    int[] ends = new int[maxBlocks];
+
+    // Contracts in id order, so runs are repeatable.
+    for (Map.Entry<Integer, Map<Integer, Integer>> contract : new TreeMap<>(executed).entrySet()) {
+      int id = contract.getKey();
+      Map<Integer, Integer> codeBlocks = new TreeMap<>(contract.getValue());
+      for (Map.Entry<Integer, Integer> codeBlock : codeBlocks.entrySet()) {
+        access(FUNCTIONID, CodeCache.key(id, codeBlock.getKey()), codeBlock.getValue());
+      }
+
+      int numRanges = ChunkLayout.mergeBlocks(codeBlocks, starts, ends);
+      ChunkLayout[] layouts = blockAnalysis.chunkLayouts(id);
+      ChunkLayout.visitUsedChunks(starts, ends, numRanges, layouts, (l, first, last) -> {
+        for (int chunk = first; chunk <= last; chunk++) {
+          int chunkStart = layouts[l].chunkStart(chunk);
+          access(l + LAYOUT_SCHEMES, CodeCache.key(id, chunkStart), layouts[l].chunkEnd(chunk) - chunkStart);
+        }
+      });
+    }
+
+    for (List<CacheStats> schemeCaches : this.caches) {
+      for (CacheStats stats : schemeCaches) {
+        stats.cache.endBlock();
+      }
+    }
+  }
+
+  private void access(int scheme, long key, int size) {
+    for (CacheStats stats : this.caches.get(scheme)) {
+      stats.access(key, size);
+    }
+  }
+
+  public void showResults() {
+    LOG.info("Replayed {} blocks, skipped {} blocks which could not be processed, {} unknown contracts",
+        this.numBlocks, this.numFailedBlocks, this.unknownContracts.size());
+    for (int s = 0; s < SCHEMES.length; s++) {
+      List<CacheStats> schemeCaches = this.caches.get(s);
+      long noCacheBytes = schemeCaches.isEmpty() ? 0 : schemeCaches.get(0).bytes;
+      LOG.info(" {}: witness code without a cache: {} bytes, {} bytes per block",
+          SCHEMES[s], noCacheBytes, this.numBlocks == 0 ? 0 : noCacheBytes / this.numBlocks);
+      for (CacheStats stats : schemeCaches) {
+        long memory = stats.cache instanceof LastBlocksCodeCache
+            ? ((LastBlocksCodeCache) stats.cache).getMaxBytesHeld()
+            : stats.cache.getBytesHeld();
+        LOG.info("  {}: chunk hit ratio {}%, byte hit ratio {}%, witness code sent {} bytes, cache memory {} bytes",
+            stats.cache.getName(), percent(stats.hits, stats.accesses), percent(stats.bytesHit, stats.bytes),
+            stats.bytes - stats.bytesHit, memory);
+      }
+    }
+  }
+
+  private static String percent(long part, long whole) {
+    return String.format("%.1f", whole == 0 ? 0.0 : 100.0 * part / whole);
+  }
+
+  public static void main(String[] args) throws Exception {
+    int from = args.length > 0 ? Integer.parseInt(args[0]) : 9013000;
+    int to = args.length > 1 ? Integer.parseInt(args[1]) : 9014000;
+    CodeCacheSimulator simulator = new CodeCacheSimulator();
+    simulator.simulate(from, to);
+    simulator.showResults();
+  }
+}
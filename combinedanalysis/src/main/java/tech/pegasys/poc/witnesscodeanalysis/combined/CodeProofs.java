@@ -0,0 +1,253 @@
+/*
+ * Copyright ConsenSys AG.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+package tech.pegasys.poc.witnesscodeanalysis.combined;
+
+import org.apache.logging.log4j.Logger;
+import org.apache.tuweni.bytes.Bytes;
+import tech.pegasys.poc.witnesscodeanalysis.combined.trie.BinaryMerkleTree;
+import tech.pegasys.poc.witnesscodeanalysis.combined.trie.CodeTrie;
+import tech.pegasys.poc.witnesscodeanalysis.combined.trie.HexaryTrie;
+import tech.pegasys.poc.witnesscodeanalysis.common.ChunkData;
+import tech.pegasys.poc.witnesscodeanalysis.functionid.FunctionIdAllResult;
+import tech.pegasys.poc.witnesscodeanalysis.functionid.FunctionIdMerklePatriciaTrieLeafData;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.IntFunction;
+
+import static org.apache.logging.log4j.LogManager.getLogger;
+
+/**
+ * Sizes of the proofs of the code leaves used in a block, for each witness scheme, in a
+ * hexary Patricia trie and in a binary Merkle tree.
+ *
+ * Each contract has a trie of each kind per scheme:
+ * - Function id: keyed by function id, with the encoded leaf data as the value.
+ * - Chunks: keyed by the chunk start offset, or by the chunk index, as four big endian bytes,
+ *   with the chunk as the value, as in ChunkData.constructKeyMap.
+ *
+ * Building a trie hashes all of the contract's leaves, so the tries of recently used contracts
+ * are kept, and blocks which use the same contracts do not rehash them.
+ *
+ * Chunk values need the code. This is taken from the analysis result if it has it, then from
+ * the code source. If neither has it, the chunks are zeros. The proof sizes are then not those
+ * of the real code, as the encoding of trie nodes depends on the values in them.
+ *
+ * Can be used by several threads at once.
+ */
+public class CodeProofs {
+  private static final Logger LOG = getLogger();
+
+  public static final int DEFAULT_CACHE_CAPACITY = 2000;
+
+  // Indexes into the array of proof sizes.
+  public static final int HEXARY = 0;
+  public static final int BINARY = 1;
+
+  private static final int FUNCTION_ID = BlockAnalysis.FUNCTION_ID;
+  private static final int NUM_SCHEMES = BlockAnalysis.NUM_CHUNK_SCHEMES + 1;
+
+  private static final Comparator<byte[]> KEY_ORDER = CodeProofs::compareKeys;
+
+  private final IntFunction<Bytes> codeSource;
+  // Keyed by contract id and scheme.
+  private final Map<Long, ContractTries> tries;
+
+  private final AtomicLong hits = new AtomicLong();
+  private final AtomicLong builds = new AtomicLong();
+  private final AtomicLong buildsWithoutCode = new AtomicLong();
+
+  /**
+   * @param codeSource Code of a contract by id, or null if there is no code source. The
+   *                   function may return null for contracts it does not have.
+   */
+  public CodeProofs(IntFunction<Bytes> codeSource, int cacheCapacity) {
+    this.codeSource = codeSource;
+    // Least recently used tries are evicted first.
+    this.tries = new LinkedHashMap<Long, ContractTries>(16, 0.75f, true) {
+      @Override
+      protected boolean removeEldestEntry(Map.Entry<Long, ContractTries> eldest) {
+        return size() > cacheCapacity;
+      }
+    };
+  }
+
+  /**
+   * @param result Function id analysis of the contract.
+   * @param functionIds Function ids of the leaves used.
+   * @param proofSizes Set to the proof size for each kind of trie.
+   */
+  public void functionIdProofSizes(FunctionIdAllResult result, Collection<Bytes> functionIds, int[] proofSizes) {
+    ContractTries contractTries = get(result.getId(), FUNCTION_ID);
+    if (contractTries == null) {
+      contractTries = put(result.getId(), FUNCTION_ID, buildFunctionIdTries(result));
+    }
+    int[] leaves = new int[functionIds.size()];
+    int count = 0;
+    for (Bytes functionId : functionIds) {
+      int leaf = Arrays.binarySearch(contractTries.keys, functionId.toArrayUnsafe(), KEY_ORDER);
+      if (leaf >= 0) {
+        leaves[count++] = leaf;
+      }
+    }
+    Arrays.sort(leaves, 0, count);
+    proofSizes[HEXARY] = contractTries.hexary.multiproofSize(leaves, count);
+    proofSizes[BINARY] = contractTries.binary.multiproofSize(leaves, count);
+  }
+
+  /**
+   * @param scheme The chunking scheme, one of the BlockAnalysis chunk schemes.
+   * @param chunkData Analysis result for the contract under the scheme.
+   * @param layout Layout of the chunks.
+   * @param chunks Indexes of the chunks used, in chunks[0..count), sorted and distinct.
+   * @param proofSizes Set to the proof size for each kind of trie.
+   */
+  public void chunkProofSizes(int scheme, ChunkData chunkData, ChunkLayout layout, int[] chunks, int count,
+                              int[] proofSizes) {
+    ContractTries contractTries = get(chunkData.getId(), scheme);
+    if (contractTries == null) {
+      contractTries = put(chunkData.getId(), scheme, buildChunkTries(chunkData, layout));
+    }
+    proofSizes[HEXARY] = contractTries.hexary.multiproofSize(chunks, count);
+    proofSizes[BINARY] = contractTries.binary.multiproofSize(chunks, count);
+  }
+
+  public void showSummary() {
+    long lookups = this.hits.get() + this.builds.get();
+    LOG.info("   Code tries: {} of {} lookups used a cached trie ({}%), {} built, {} without the code",
+        this.hits.get(), lookups, String.format("%.1f", lookups == 0 ? 0.0 : 100.0 * this.hits.get() / lookups),
+        this.builds.get(), this.buildsWithoutCode.get());
+  }
+
+  private ContractTries get(int id, int scheme) {
+    ContractTries contractTries;
+    synchronized (this.tries) {
+      contractTries = this.tries.get(cacheKey(id, scheme));
+    }
+    if (contractTries != null) {
+      this.hits.incrementAndGet();
+    }
+    return contractTries;
+  }
+
+  /**
+   * The tries are built outside the lock, so two threads may build the same tries. Either
+   * copy may be kept, as they are the same.
+   */
+  private ContractTries put(int id, int scheme, ContractTries contractTries) {
+    this.builds.incrementAndGet();
+    synchronized (this.tries) {
+      this.tries.put(cacheKey(id, scheme), contractTries);
+    }
+    return contractTries;
+  }
+
+  private static long cacheKey(int id, int scheme) {
+    return (long) id * NUM_SCHEMES + scheme;
+  }
+
+  private ContractTries buildFunctionIdTries(FunctionIdAllResult result) {
+    List<FunctionIdMerklePatriciaTrieLeafData> leaves = new ArrayList<>(result.getLeaves());
+    leaves.sort((a, b) -> compareKeys(a.getFunctionId().toArrayUnsafe(), b.getFunctionId().toArrayUnsafe()));
+    List<byte[]> keys = new ArrayList<>(leaves.size());
+    List<byte[]> values = new ArrayList<>(leaves.size());
+    for (FunctionIdMerklePatriciaTrieLeafData leaf : leaves) {
+      byte[] key = leaf.getFunctionId().toArrayUnsafe();
+      // Keep the first leaf for a function id, as FunctionIdAllResult.getLeaf does.
+      if (!keys.isEmpty() && compareKeys(keys.get(keys.size() - 1), key) == 0) {
+        continue;
+      }
+      keys.add(key);
+      values.add(leaf.getEncodedLeaf());
+    }
+    return new ContractTries(keys.toArray(new byte[0][]), values.toArray(new byte[0][]));
+  }
+
+  private ContractTries buildChunkTries(ChunkData chunkData, ChunkLayout layout) {
+    byte[] code = code(chunkData);
+    ArrayList<Integer> startAddresses = chunkData.getChunkStartAddresses();
+    boolean startsAsKeys = chunkData.isStartAddressesAsKeys();
+    int numChunks = layout.getNumChunks();
+    byte[][] keys = new byte[numChunks][];
+    byte[][] values = new byte[numChunks][];
+    for (int i = 0; i < numChunks; i++) {
+      int start = layout.chunkStart(i);
+      int length = layout.chunkEnd(i) - start;
+      keys[i] = intKey(startsAsKeys ? start : i);
+      if (startsAsKeys) {
+        values[i] = new byte[length];
+        System.arraycopy(code, start, values[i], 0, length);
+      }
+      else {
+        // The first byte is the offset of the first instruction in the chunk.
+        values[i] = new byte[length + 1];
+        values[i][0] = i < startAddresses.size() ? startAddresses.get(i).byteValue() : 0;
+        System.arraycopy(code, start, values[i], 1, length);
+      }
+    }
+    return new ContractTries(keys, values);
+  }
+
+  private byte[] code(ChunkData chunkData) {
+    int codeLength = chunkData.getCodeLength();
+    byte[] code = chunkData.getCode();
+    if (code != null && code.length == codeLength) {
+      return code;
+    }
+    Bytes storedCode = this.codeSource == null ? null : this.codeSource.apply(chunkData.getId());
+    if (storedCode != null && storedCode.size() == codeLength) {
+      return storedCode.toArrayUnsafe();
+    }
+    this.buildsWithoutCode.incrementAndGet();
+    return new byte[codeLength];
+  }
+
+  private static byte[] intKey(int value) {
+    return new byte[]{(byte) (value >>> 24), (byte) (value >>> 16), (byte) (value >>> 8), (byte) value};
+  }
+
+  /**
+   * Unsigned byte order, with a key before any longer key it is a prefix of.
+   */
+  private static int compareKeys(byte[] a, byte[] b) {
+    int length = Math.min(a.length, b.length);
+    for (int i = 0; i < length; i++) {
+      int result = Integer.compare(a[i] & 0xff, b[i] & 0xff);
+      if (result != 0) {
+        return result;
+      }
+    }
+    return Integer.compare(a.length, b.length);
+  }
+
+  private static final class ContractTries {
+    // Keys in leaf order, used to find the leaves to prove.
+    final byte[][] keys;
+    final CodeTrie hexary;
+    final CodeTrie binary;
+
+    ContractTries(byte[][] keys, byte[][] values) {
+      this.keys = keys;
+      this.hexary = new HexaryTrie(keys, values);
+      this.binary = new BinaryMerkleTree(keys, values);
+    }
+  }
+}
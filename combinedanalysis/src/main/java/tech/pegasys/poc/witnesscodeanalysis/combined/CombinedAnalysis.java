@@ -1,8 +1,11 @@
 package tech.pegasys.poc.witnesscodeanalysis.combined;
 
+import org.apache.logging.log4j.CloseableThreadContext;
 import org.apache.logging.log4j.Logger;
 import org.apache.tuweni.bytes.Bytes;
 import tech.pegasys.poc.witnesscodeanalysis.DeployDataSetReader;
+import tech.pegasys.poc.witnesscodeanalysis.common.OrderedResultQueue;
+import tech.pegasys.poc.witnesscodeanalysis.store.ContractStore;
 import tech.pegasys.poc.witnesscodeanalysis.trace.dataset8m.TraceBlockData;
 import tech.pegasys.poc.witnesscodeanalysis.trace.dataset8m.TraceDataSetReader;
 import tech.pegasys.poc.witnesscodeanalysis.trace.dataset8m.TraceTransactionCall;
@@ -10,17 +13,45 @@ import tech.pegasys.poc.witnesscodeanalysis.trace.dataset8m.TraceTransactionData
 import tech.pegasys.poc.witnesscodeanalysis.trace.dataset8m.TraceTransactionInfo;
 
 import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.file.Paths;
+import java.util.Collections;
 import java.util.Map;
 import java.util.Set;
 import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import static org.apache.logging.log4j.LogManager.getLogger;
 
 public class CombinedAnalysis {
   private static final Logger LOG = getLogger();
   private static Map<String, Integer> contractsAddresToId;
+  // Used in place of contractsAddresToId if the contract data has been converted to a store.
+  private static ContractStore contractStore;
 
-  private Set<String> unknownContracts = new TreeSet<>();
+  // Number of threads analysing blocks. Blocks are processed one after another on the calling
+  // thread if this is one.
+  public static int NUM_WORKER_THREADS = Runtime.getRuntime().availableProcessors();
+  // Maximum number of block results waiting for an earlier block before they can be written.
+  public static int QUEUE_CAPACITY = 1000;
+  // Stop the run at the first block which can not be processed, rather than skipping it.
+  public static boolean ABORT_ON_FAILED_BLOCK = false;
+
+  // Key of the block number in the log4j thread context. Log messages about a block are
+  // prefixed with its number, so those of blocks analysed at the same time can be told apart.
+  static final String BLOCK_CONTEXT_KEY = "block";
+
+  // Marks a block which could not be processed. The cause is in failures.
+  private static final WitnessResult FAILED = new WitnessResult(-1);
+
+  // Added to by the worker threads.
+  private Set<String> unknownContracts = Collections.synchronizedSet(new TreeSet<>());
+  private Map<Integer, Throwable> failures = new ConcurrentHashMap<>();
+  // Blocks which could not be processed, and so have no result. Only used by the calling thread.
+  private int numFailedBlocks = 0;
 
   private WitnessResultWriter writer;
 
@@ -30,9 +61,7 @@ public class CombinedAnalysis {
   }
 
   public void go() throws IOException {
-    LOG.info("Loading contract to id mappings");
-    contractsAddresToId = DeployDataSetReader.getContractsToId();
-    LOG.info("Loaded {} contract to id mappings", contractsAddresToId.size());
+    loadContractIds();
 
 // processBlocks(8200000, 8203459);
     processBlocks(9013000, 9422000);
@@ -41,11 +70,20 @@ public class CombinedAnalysis {
     for (String unkownContract: this.unknownContracts) {
       LOG.info(" {}", unkownContract);
     }
+    LOG.info("Blocks which could not be processed: {}", this.numFailedBlocks);
 
     this.writer.close();
+    BlockAnalysis.closeStores();
+    if (contractStore != null) {
+      contractStore.close();
+    }
   }
 
   public void processBlocks(int from, int to) throws IOException {
+    if (NUM_WORKER_THREADS > 1) {
+      processBlocksParallel(from, to);
+      return;
+    }
     for (int i = from; i <= to; i++) {
       processBlock(i);
     }
@@ -53,68 +91,200 @@ public class CombinedAnalysis {
 
 
   public void processBlock(int blockNumber) throws IOException {
-    LOG.info("Processing block number: {}", blockNumber);
-    BlockAnalysis blockAnalysis = new BlockAnalysis();
-
+    WitnessResult result;
     try {
-      TraceDataSetReader dataSet = new TraceDataSetReader(blockNumber);
-      // There is exactly one block per data set.
-      TraceBlockData blockData = dataSet.next();
-
-
-      TraceTransactionData[] transactionsData = blockData.getBlock();
-      LOG.info(" Block contains: {} transactions", transactionsData.length);
-
-      //    int zz = 0;
-      for (TraceTransactionData transactionData : transactionsData) {
-        LOG.trace(" Processing transaction");
-        TraceTransactionInfo[] infos = transactionData.getTrace();
-        LOG.trace("  Transaction contains: {} calls", infos.length);
-
-        //      boolean stop = false;
-        for (TraceTransactionInfo info : infos) {
-          TraceTransactionCall call = info.getAction();
-          String toAddress = call.getTo();
-          Bytes functionSelector = call.getFunctionSelector();
-
-          Integer id = contractsAddresToId.get(toAddress);
-          if (id == null) {
-            if (functionSelector.isEmpty()) {
-              LOG.trace("   Value Transfer transaction");
-            } else {
-              LOG.error("   Unknown contract {}. Function call: {}", toAddress, functionSelector);
-              this.unknownContracts.add(toAddress);
+      result = analyseBlock(blockNumber);
+    } catch (Throwable th) {
+      LOG.error("Unable to process block {}", blockNumber, th);
+      blockFailed(blockNumber, th);
+      return;
+    }
+    this.writer.writeResult(result);
+    this.writer.flush();
+  }
+
+  public int getNumFailedBlocks() {
+    return numFailedBlocks;
+  }
+
+  /**
+   * Count a block which could not be processed. It is left out of the results, unless
+   * ABORT_ON_FAILED_BLOCK is set, in which case the run stops.
+   */
+  private void blockFailed(int blockNumber, Throwable cause) throws IOException {
+    this.numFailedBlocks++;
+    if (ABORT_ON_FAILED_BLOCK) {
+      this.writer.flush();
+      throw new IOException("Unable to process block " + blockNumber, cause);
+    }
+  }
+
+  /**
+   * Process blocks using a pool of worker threads. Each worker takes the next block number
+   * not yet taken. The results are written by the calling thread in block order, so the
+   * output is the same as when the blocks are processed one after another. Blocks which can
+   * not be processed are skipped, see blockFailed.
+   */
+  public void processBlocksParallel(int from, int to) throws IOException {
+    LOG.info("Processing blocks {} to {} using {} worker threads", from, to, NUM_WORKER_THREADS);
+    AtomicInteger nextBlock = new AtomicInteger(from);
+    OrderedResultQueue<WitnessResult> results = new OrderedResultQueue<>(QUEUE_CAPACITY);
+    ExecutorService workers = Executors.newFixedThreadPool(NUM_WORKER_THREADS);
+    for (int i = 0; i < NUM_WORKER_THREADS; i++) {
+      workers.execute(() -> {
+        try {
+          int blockNumber;
+          while ((blockNumber = nextBlock.getAndIncrement()) <= to) {
+            WitnessResult result;
+            try {
+              result = analyseBlock(blockNumber);
+            } catch (Throwable th) {
+              // A result must always be passed on, otherwise the writer would wait for it forever.
+              LOG.error("Unable to process block {}", blockNumber, th);
+              this.failures.put(blockNumber, th);
+              result = FAILED;
             }
-          } else {
-            LOG.info("   Call to contract({}): {}, function {}", id, toAddress, functionSelector);
-            blockAnalysis.processTransactionCall(id, functionSelector);
-            //            // TODO
-            //            zz++;
-            //            if (zz > 1) {
-            //              stop = true;
-            //              break;
-            //            }
+            results.put(blockNumber - from, result);
           }
+        } catch (InterruptedException ex) {
+          Thread.currentThread().interrupt();
+        }
+      });
+    }
+
+    try {
+      for (int blockNumber = from; blockNumber <= to; blockNumber++) {
+        WitnessResult result = results.take();
+        if (result == FAILED) {
+          // The failure was logged in full by the worker.
+          blockFailed(blockNumber, this.failures.remove(blockNumber));
+          continue;
+        }
+        this.writer.writeResult(result);
+        // Flushing each result would make the writer the bottleneck.
+        if ((blockNumber - from) % 100 == 99) {
+          this.writer.flush();
         }
-        //      if (stop)
-        //      {
-        //        break;
-        //      }
       }
-      dataSet.close();
+      this.writer.flush();
+    } catch (InterruptedException ex) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("Interrupted while processing blocks");
+    } finally {
+      workers.shutdownNow();
+    }
+  }
 
+  /**
+   * Work out the witness sizes for a block. Can be called by several threads at once.
+   */
+  private WitnessResult analyseBlock(int blockNumber) throws IOException {
+    try (CloseableThreadContext.Instance context = CloseableThreadContext.put(BLOCK_CONTEXT_KEY, Integer.toString(blockNumber))) {
+      LOG.info("Processing block number: {}", blockNumber);
+      BlockAnalysis blockAnalysis = traceBlock(blockNumber, this.unknownContracts);
       blockAnalysis.calculateLeafPlusCodeSizes();
       blockAnalysis.showStats();
       WitnessResult result = new WitnessResult(blockNumber);
       blockAnalysis.setResultInformation(result);
-      this.writer.writeResult(result);
-      this.writer.flush();
-    } catch (Exception ex) {
-      LOG.error("  Exception while processing block {}: {}", blockNumber, ex.getMessage());
+      return result;
     }
   }
 
+  /**
+   * Find the contract code executed by the transactions in the block.
+   *
+   * @param unknownContracts Addresses called which are not in the contract data are added.
+   */
+  static BlockAnalysis traceBlock(int blockNumber, Set<String> unknownContracts) throws IOException {
+    BlockAnalysis blockAnalysis = new BlockAnalysis();
+    TraceDataSetReader dataSet = new TraceDataSetReader(blockNumber);
+    // There is exactly one block per data set.
+    TraceBlockData blockData = dataSet.next();
+
+
+    TraceTransactionData[] transactionsData = blockData.getBlock();
+    LOG.info(" Block contains: {} transactions", transactionsData.length);
+
+    //    int zz = 0;
+    for (TraceTransactionData transactionData : transactionsData) {
+      LOG.trace(" Processing transaction");
+      TraceTransactionInfo[] infos = transactionData.getTrace();
+      LOG.trace("  Transaction contains: {} calls", infos.length);
+      blockAnalysis.startTransaction();
+
+      //      boolean stop = false;
+      for (TraceTransactionInfo info : infos) {
+        TraceTransactionCall call = info.getAction();
+        String toAddress = call.getTo();
+        Bytes functionSelector = call.getFunctionSelector();
+
+        Integer id = lookupId(toAddress);
+        if (id == null) {
+          if (functionSelector.isEmpty()) {
+            LOG.trace("   Value Transfer transaction");
+          } else {
+            LOG.error("   Unknown contract {}. Function call: {}", toAddress, functionSelector);
+            unknownContracts.add(toAddress);
+          }
+        } else {
+          LOG.info("   Call to contract({}): {}, function {}", id, toAddress, functionSelector);
+          blockAnalysis.processTransactionCall(id, functionSelector);
+          //            // TODO
+          //            zz++;
+          //            if (zz > 1) {
+          //              stop = true;
+          //              break;
+          //            }
+        }
+      }
+      blockAnalysis.endTransaction();
+      //      if (stop)
+      //      {
+      //        break;
+      //      }
+    }
+    dataSet.close();
+    return blockAnalysis;
+  }
+
+  static void loadContractIds() throws IOException {
+    if (ContractStore.exists(Paths.get(ContractStore.DEFAULT_DIR))) {
+      contractStore = new ContractStore();
+      LOG.info("Using contract store with {} contract to id mappings", contractStore.getNumAddresses());
+    }
+    else {
+      LOG.info("Loading contract to id mappings");
+      contractsAddresToId = DeployDataSetReader.getContractsToId();
+      LOG.info("Loaded {} contract to id mappings", contractsAddresToId.size());
+      if (BlockAnalysis.PROOF_SIZES) {
+        LOG.warn("Not calculating proof sizes, as there is no contract store to read the code from");
+        BlockAnalysis.PROOF_SIZES = false;
+      }
+    }
+  }
+
+  /**
+   * @return The code of the contract, or null if there is no contract store to read it from.
+   */
+  static Bytes getCode(int id) {
+    return contractStore == null ? null : contractStore.getCode(id);
+  }
+
+  private static Integer lookupId(String address) {
+    if (contractStore != null) {
+      int id = address == null ? -1 : contractStore.findId(address);
+      return id == -1 ? null : id;
+    }
+    return contractsAddresToId.get(address);
+  }
+
+  /**
+   * Usage: CombinedAnalysis [number of worker threads]
+   */
   public static void main(String[] args) throws Exception {
+    if (args.length > 0) {
+      NUM_WORKER_THREADS = Integer.parseInt(args[0]);
+    }
     (new CombinedAnalysis()).go();
   }
 
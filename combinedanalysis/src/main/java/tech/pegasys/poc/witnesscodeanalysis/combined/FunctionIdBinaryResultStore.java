@@ -0,0 +1,50 @@
+/*
+ * Copyright ConsenSys AG.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+package tech.pegasys.poc.witnesscodeanalysis.combined;
+
+import org.apache.logging.log4j.Logger;
+import tech.pegasys.poc.witnesscodeanalysis.functionid.FunctionIdAllResult;
+import tech.pegasys.poc.witnesscodeanalysis.functionid.FunctionIdBinaryReader;
+
+import java.io.IOException;
+
+import static org.apache.logging.log4j.LogManager.getLogger;
+
+/**
+ * Function id results read from a file in FunctionIdBinaryFormat, using the file's index.
+ */
+public class FunctionIdBinaryResultStore extends ResultStore<FunctionIdAllResult> {
+  private static final Logger LOG = getLogger();
+
+  private final FunctionIdBinaryReader reader;
+
+  public FunctionIdBinaryResultStore(String fileIn) throws IOException {
+    super(fileIn, DEFAULT_MEMORY_CAPACITY);
+    this.reader = new FunctionIdBinaryReader(fileIn);
+    if (!this.reader.hasIndex()) {
+      LOG.warn("{} has no index, as it was not completed. The file will be read to index it.", fileIn);
+    }
+  }
+
+  @Override
+  protected FunctionIdAllResult load(int id) throws IOException {
+    return this.reader.get(id);
+  }
+
+  @Override
+  public void close() throws IOException {
+    this.reader.close();
+  }
+}
@@ -0,0 +1,274 @@
+/*
+ * Copyright ConsenSys AG.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+package tech.pegasys.poc.witnesscodeanalysis.combined;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import org.apache.logging.log4j.Logger;
+import tech.pegasys.poc.witnesscodeanalysis.store.MappedSegments;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.function.Function;
+import java.util.function.ToIntFunction;
+
+import static org.apache.logging.log4j.LogManager.getLogger;
+
+/**
+ * Results read from an analysis output file with one JSON result per line, such as
+ * analysis_jumpdest.json.
+ *
+ * The file is memory mapped, and a line is only decoded when the contract's result is asked
+ * for. The offset and length of each line are held in an index file, named after the results
+ * file with .idx added, which is also memory mapped. The index is built by reading the
+ * results file once, and rebuilt whenever the results file changes. Its format is:
+ *   header: int magic, int version, long size of the results file, long modified time of the
+ *           results file, int number of entries, int padding
+ *   entries, in contract id order: int id, int length of the line, long offset of the line
+ */
+public class JsonResultStore<T> extends ResultStore<T> {
+  private static final Logger LOG = getLogger();
+
+  public static final String INDEX_EXTENSION = ".idx";
+
+  private static final int MAGIC = 0x43575249; // "CWRI"
+  private static final int VERSION = 1;
+  private static final int HEADER_SIZE = 32;
+  private static final int ENTRY_SIZE = 16;
+  // A multiple of the entry size, so entries never straddle a segment.
+  private static final long SEGMENT_SIZE = 1L << 30;
+
+  // Lines start with this when they were written by Gson, and the class has an id field first.
+  private static final byte[] ID_PREFIX = "{\"id\":".getBytes(StandardCharsets.US_ASCII);
+
+  private final Class<T> resultType;
+  private final Function<T, T> convert;
+  private final Gson gson;
+  private final MappedSegments results;
+  private final MappedSegments index;
+  private final int numEntries;
+
+  public JsonResultStore(String fileIn, Class<T> resultType, ToIntFunction<T> idOf) throws IOException {
+    this(fileIn, resultType, idOf, Function.identity(), DEFAULT_MEMORY_CAPACITY);
+  }
+
+  /**
+   * @param idOf Gets the contract id from a result. Only used when building the index, for
+   *             lines which do not start with the id.
+   * @param convert Applied to each result after it is decoded, before it is kept in memory.
+   */
+  public JsonResultStore(String fileIn, Class<T> resultType, ToIntFunction<T> idOf, Function<T, T> convert,
+                         int memoryCapacity) throws IOException {
+    super(fileIn, memoryCapacity);
+    if (fileIn.endsWith(".gz")) {
+      throw new IOException("Compressed results can not be memory mapped, uncompress " + fileIn);
+    }
+    this.resultType = resultType;
+    this.convert = convert;
+    this.gson = new GsonBuilder().setLenient().create();
+    Path resultsFile = Paths.get(fileIn);
+    Path indexFile = Paths.get(fileIn + INDEX_EXTENSION);
+    this.results = new MappedSegments(resultsFile, SEGMENT_SIZE);
+
+    MappedSegments index = openIndex(resultsFile, indexFile);
+    if (index == null) {
+      LOG.info("Indexing {}", fileIn);
+      buildIndex(resultsFile, indexFile, idOf);
+      index = openIndex(resultsFile, indexFile);
+      if (index == null) {
+        throw new IOException("Unable to index " + fileIn);
+      }
+    }
+    this.index = index;
+    this.numEntries = index.getInt(24);
+    LOG.info("{}: {} results", fileIn, this.numEntries);
+  }
+
+  @Override
+  protected T load(int id) throws IOException {
+    long entry = findEntry(id);
+    if (entry < 0) {
+      return null;
+    }
+    int length = this.index.getInt(entry + 4);
+    long offset = this.index.getLong(entry + 8);
+    String line = new String(this.results.get(offset, length), StandardCharsets.UTF_8);
+    return this.convert.apply(this.gson.fromJson(line, this.resultType));
+  }
+
+  @Override
+  public void close() throws IOException {
+    this.results.close();
+    this.index.close();
+  }
+
+  /**
+   * @return The offset of the entry for the contract in the index, or -1.
+   */
+  private long findEntry(int id) {
+    int first = 0;
+    int last = this.numEntries - 1;
+    while (first <= last) {
+      int mid = (first + last) >>> 1;
+      long entry = HEADER_SIZE + (long) mid * ENTRY_SIZE;
+      int entryId = this.index.getInt(entry);
+      if (entryId == id) {
+        return entry;
+      }
+      if (entryId < id) {
+        first = mid + 1;
+      }
+      else {
+        last = mid - 1;
+      }
+    }
+    return -1;
+  }
+
+  /**
+   * @return The index, or null if there is no index or it is out of date.
+   */
+  private static MappedSegments openIndex(Path resultsFile, Path indexFile) throws IOException {
+    if (!Files.exists(indexFile)) {
+      return null;
+    }
+    MappedSegments index = new MappedSegments(indexFile, SEGMENT_SIZE);
+    if (index.size() >= HEADER_SIZE && index.getInt(0) == MAGIC && index.getInt(4) == VERSION
+        && index.getLong(8) == Files.size(resultsFile)
+        && index.getLong(16) == Files.getLastModifiedTime(resultsFile).toMillis()
+        && index.size() == HEADER_SIZE + (long) index.getInt(24) * ENTRY_SIZE) {
+      return index;
+    }
+    index.close();
+    return null;
+  }
+
+  private void buildIndex(Path resultsFile, Path indexFile, ToIntFunction<T> idOf) throws IOException {
+    int[] ids = new int[1024];
+    int[] lengths = new int[1024];
+    long[] offsets = new long[1024];
+    int count = 0;
+    boolean sorted = true;
+
+    byte[] prefix = new byte[32];
+    try (InputStream in = new BufferedInputStream(Files.newInputStream(resultsFile), 1024 * 1024)) {
+      long offset = 0;
+      long lineStart = 0;
+      int prefixLength = 0;
+      int b;
+      while (true) {
+        b = in.read();
+        if (b == '\n' || b == -1) {
+          int length = (int) (offset - lineStart);
+          if (length > 0) {
+            if (count == ids.length) {
+              ids = Arrays.copyOf(ids, count * 2);
+              lengths = Arrays.copyOf(lengths, count * 2);
+              offsets = Arrays.copyOf(offsets, count * 2);
+            }
+            int id = parseId(prefix, prefixLength);
+            if (id < 0) {
+              String line = new String(this.results.get(lineStart, length), StandardCharsets.UTF_8);
+              id = idOf.applyAsInt(this.gson.fromJson(line, this.resultType));
+            }
+            sorted = sorted && (count == 0 || ids[count - 1] < id);
+            ids[count] = id;
+            lengths[count] = length;
+            offsets[count] = lineStart;
+            count++;
+          }
+          if (b == -1) {
+            break;
+          }
+          offset++;
+          lineStart = offset;
+          prefixLength = 0;
+        }
+        else {
+          if (prefixLength < prefix.length) {
+            prefix[prefixLength++] = (byte) b;
+          }
+          offset++;
+        }
+      }
+    }
+
+    int[] order = null;
+    if (!sorted) {
+      // Ids are not negative, so sorting id then line number gives the id order.
+      long[] keys = new long[count];
+      for (int i = 0; i < count; i++) {
+        keys[i] = ((long) ids[i] << 32) | i;
+      }
+      Arrays.sort(keys);
+      order = new int[count];
+      for (int i = 0; i < count; i++) {
+        order[i] = (int) keys[i];
+      }
+    }
+
+    Path tmpFile = Paths.get(indexFile + ".tmp");
+    try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmpFile), 1024 * 1024))) {
+      out.writeInt(MAGIC);
+      out.writeInt(VERSION);
+      out.writeLong(Files.size(resultsFile));
+      out.writeLong(Files.getLastModifiedTime(resultsFile).toMillis());
+      out.writeInt(count);
+      out.writeInt(0);
+      for (int i = 0; i < count; i++) {
+        int from = order == null ? i : order[i];
+        out.writeInt(ids[from]);
+        out.writeInt(lengths[from]);
+        out.writeLong(offsets[from]);
+      }
+    }
+    Files.move(tmpFile, indexFile, StandardCopyOption.REPLACE_EXISTING);
+  }
+
+  /**
+   * @return The id at the start of the line, or -1 if the line does not start with the id.
+   */
+  private static int parseId(byte[] prefix, int prefixLength) {
+    if (prefixLength < ID_PREFIX.length) {
+      return -1;
+    }
+    for (int i = 0; i < ID_PREFIX.length; i++) {
+      if (prefix[i] != ID_PREFIX[i]) {
+        return -1;
+      }
+    }
+    long id = 0;
+    int i = ID_PREFIX.length;
+    for (; i < prefixLength && prefix[i] >= '0' && prefix[i] <= '9'; i++) {
+      id = id * 10 + (prefix[i] - '0');
+      if (id > Integer.MAX_VALUE) {
+        return -1;
+      }
+    }
+    if (i == ID_PREFIX.length || i == prefixLength || (prefix[i] != ',' && prefix[i] != '}')) {
+      return -1;
+    }
+    return (int) id;
+  }
+}
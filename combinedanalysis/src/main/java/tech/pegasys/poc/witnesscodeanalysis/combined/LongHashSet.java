@@ -0,0 +1,120 @@
+/*
+ * Copyright ConsenSys AG.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+package tech.pegasys.poc.witnesscodeanalysis.combined;
+
+import java.util.Arrays;
+
+/**
+ * Set of longs, held in an open addressing hash table of primitives rather than as boxed Longs.
+ */
+public class LongHashSet {
+  private static final long EMPTY = 0;
+
+  private long[] slots;
+  // Zero marks an empty slot, so is held separately.
+  private boolean containsZero;
+  private int size;
+
+  public LongHashSet() {
+    this(16);
+  }
+
+  public LongHashSet(int expectedSize) {
+    int capacity = 16;
+    while (capacity < expectedSize * 2) {
+      capacity <<= 1;
+    }
+    this.slots = new long[capacity];
+  }
+
+  /**
+   * @return True if the value was not already in the set.
+   */
+  public boolean add(long value) {
+    if (value == EMPTY) {
+      if (this.containsZero) {
+        return false;
+      }
+      this.containsZero = true;
+      this.size++;
+      return true;
+    }
+    int mask = this.slots.length - 1;
+    int slot = hash(value) & mask;
+    while (this.slots[slot] != EMPTY) {
+      if (this.slots[slot] == value) {
+        return false;
+      }
+      slot = (slot + 1) & mask;
+    }
+    this.slots[slot] = value;
+    this.size++;
+    // Keep the table at most half full, so probe sequences stay short.
+    if (this.size * 2 > this.slots.length) {
+      grow();
+    }
+    return true;
+  }
+
+  public boolean contains(long value) {
+    if (value == EMPTY) {
+      return this.containsZero;
+    }
+    int mask = this.slots.length - 1;
+    int slot = hash(value) & mask;
+    while (this.slots[slot] != EMPTY) {
+      if (this.slots[slot] == value) {
+        return true;
+      }
+      slot = (slot + 1) & mask;
+    }
+    return false;
+  }
+
+  public int size() {
+    return size;
+  }
+
+  public void clear() {
+    Arrays.fill(this.slots, EMPTY);
+    this.containsZero = false;
+    this.size = 0;
+  }
+
+  private void grow() {
+    long[] old = this.slots;
+    this.slots = new long[old.length * 2];
+    int mask = this.slots.length - 1;
+    for (long value : old) {
+      if (value != EMPTY) {
+        int slot = hash(value) & mask;
+        while (this.slots[slot] != EMPTY) {
+          slot = (slot + 1) & mask;
+        }
+        this.slots[slot] = value;
+      }
+    }
+  }
+
+  private static int hash(long value) {
+    // Finaliser of MurmurHash3, so that keys differing only in their high bits spread out.
+    value ^= value >>> 33;
+    value *= 0xff51afd7ed558ccdL;
+    value ^= value >>> 33;
+    value *= 0xc4ceb9fe1a85ec53L;
+    value ^= value >>> 33;
+    return (int) value;
+  }
+}
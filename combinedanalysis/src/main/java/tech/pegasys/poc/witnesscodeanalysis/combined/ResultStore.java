@@ -0,0 +1,95 @@
+/*
+ * Copyright ConsenSys AG.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+package tech.pegasys.poc.witnesscodeanalysis.combined;
+
+import org.apache.logging.log4j.Logger;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.apache.logging.log4j.LogManager.getLogger;
+
+/**
+ * Per contract analysis results, read from a results file when they are first asked for,
+ * rather than loading the whole file. The most recently used results are kept decoded in
+ * memory.
+ *
+ * The store can be used by several threads at once.
+ *
+ * @param <T> Type of the results.
+ */
+public abstract class ResultStore<T> implements Closeable {
+  private static final Logger LOG = getLogger();
+
+  public static final int DEFAULT_MEMORY_CAPACITY = 10000;
+
+  private final String name;
+  private final Map<Integer, T> memory;
+
+  private final AtomicLong memoryHits = new AtomicLong();
+  private final AtomicLong loads = new AtomicLong();
+  private final AtomicLong notFound = new AtomicLong();
+
+  protected ResultStore(String name, int memoryCapacity) {
+    this.name = name;
+    // Least recently used results are evicted first.
+    this.memory = new LinkedHashMap<Integer, T>(16, 0.75f, true) {
+      @Override
+      protected boolean removeEldestEntry(Map.Entry<Integer, T> eldest) {
+        return size() > memoryCapacity;
+      }
+    };
+  }
+
+  /**
+   * @return The result for the contract, or null if the file has no result for it.
+   */
+  public T get(int id) throws IOException {
+    T result;
+    synchronized (this.memory) {
+      result = this.memory.get(id);
+    }
+    if (result != null) {
+      this.memoryHits.incrementAndGet();
+      return result;
+    }
+    result = load(id);
+    if (result == null) {
+      this.notFound.incrementAndGet();
+      return null;
+    }
+    this.loads.incrementAndGet();
+    synchronized (this.memory) {
+      this.memory.put(id, result);
+    }
+    return result;
+  }
+
+  /**
+   * Read and decode the result for the contract from the file. May be called by several
+   * threads at once.
+   *
+   * @return The result, or null if there is none.
+   */
+  protected abstract T load(int id) throws IOException;
+
+  public void showSummary() {
+    LOG.info("  {}: {} results decoded, {} from memory, {} not found",
+        this.name, this.loads.get(), this.memoryHits.get(), this.notFound.get());
+  }
+}
@@ -0,0 +1,139 @@
+/*
+ * Copyright ConsenSys AG.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+package tech.pegasys.poc.witnesscodeanalysis.combined;
+
+import org.apache.tuweni.bytes.Bytes;
+import tech.pegasys.poc.witnesscodeanalysis.BasicBlockWithCode;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Adds up the size of the function id witness for a block. Each distinct (contract, leaf) pair
+ * is counted once, however many times the leaf is used, and each byte of code is counted once,
+ * however many of the leaves include it.
+ *
+ * Optionally, the amount each transaction adds to the witness, given the transactions before it
+ * in the block, is recorded.
+ *
+ * Memory is proportional to the contracts and leaves used in the block.
+ */
+public class WitnessAccumulator {
+  private final LongHashSet leaves = new LongHashSet();
+  // Bytes of code used, for each contract.
+  private final Map<Integer, BitSet> code = new HashMap<>();
+  private int leafBytes;
+  private int codeBytes;
+  private int numLeafUses;
+
+  private final boolean trackTransactions;
+  private int[] transactionSizes = new int[16];
+  private int numTransactions;
+  private int sizeAtStartOfTransaction;
+
+  public WitnessAccumulator(boolean trackTransactions) {
+    this.trackTransactions = trackTransactions;
+  }
+
+  /**
+   * Add a leaf used by a call to a contract.
+   *
+   * @return The number of bytes the leaf adds to the witness, which is zero if the leaf and all
+   *   of its code are already in it.
+   */
+  public int addLeaf(int contractId, Bytes functionId, BasicBlockWithCode[] codeBlocks) {
+    this.numLeafUses++;
+    int added = 0;
+    if (this.leaves.add(leafKey(contractId, functionId))) {
+      // Number of blocks, then start and length of each block.
+      added += codeBlocks.length * 4 + 4;
+      this.leafBytes += codeBlocks.length * 4 + 4;
+    }
+    BitSet contractCode = this.code.computeIfAbsent(contractId, k -> new BitSet());
+    for (BasicBlockWithCode codeBlock : codeBlocks) {
+      int start = codeBlock.getStart();
+      int end = start + codeBlock.getLength();
+      int newBytes = codeBlock.getLength() - contractCode.get(start, end).cardinality();
+      if (newBytes > 0) {
+        contractCode.set(start, end);
+        added += newBytes;
+        this.codeBytes += newBytes;
+      }
+    }
+    return added;
+  }
+
+  public void startTransaction() {
+    this.sizeAtStartOfTransaction = getWitnessSize();
+  }
+
+  public void endTransaction() {
+    if (!this.trackTransactions) {
+      return;
+    }
+    if (this.numTransactions == this.transactionSizes.length) {
+      this.transactionSizes = Arrays.copyOf(this.transactionSizes, this.numTransactions * 2);
+    }
+    this.transactionSizes[this.numTransactions++] = getWitnessSize() - this.sizeAtStartOfTransaction;
+  }
+
+  /**
+   * @return Leaf data plus code, without the proof.
+   */
+  public int getWitnessSize() {
+    return this.leafBytes + this.codeBytes;
+  }
+
+  public int getLeafBytes() {
+    return leafBytes;
+  }
+
+  public int getCodeBytes() {
+    return codeBytes;
+  }
+
+  public int getNumDistinctLeaves() {
+    return this.leaves.size();
+  }
+
+  public int getNumLeafUses() {
+    return numLeafUses;
+  }
+
+  /**
+   * @return The amount each transaction added to the witness, in block order, or null if
+   *   transactions are not being tracked.
+   */
+  public int[] getTransactionSizes() {
+    return this.trackTransactions ? Arrays.copyOf(this.transactionSizes, this.numTransactions) : null;
+  }
+
+  /**
+   * Function ids are four byte selectors, or the five byte ids CodeVisitor uses for the fallback
+   * function and all code leaves, which start with 0x01. Contract ids are not negative, so all
+   * of these fit in a long.
+   */
+  static long leafKey(int contractId, Bytes functionId) {
+    int size = functionId.size();
+    long selector = 0;
+    for (int i = Math.max(0, size - 4); i < size; i++) {
+      selector = (selector << 8) | (functionId.get(i) & 0xff);
+    }
+    long extended = size > 4 ? 1L << 32 : 0;
+    return ((long) contractId << 33) | extended | selector;
+  }
+}
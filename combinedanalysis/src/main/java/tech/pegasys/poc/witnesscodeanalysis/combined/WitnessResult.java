@@ -6,6 +6,21 @@ public class WitnessResult {
   public int jumpDestWitnessSize = 0;
   public int fixedWitnessSize = 0;
   public int strictWitnessSize = 0;
+  public int functionIdDistinctLeaves = 0;
+  // What each transaction added to the function id witness, if BlockAnalysis.TRANSACTION_SIZES
+  // is set. Null otherwise, so it is not written.
+  public int[] transactionFunctionIdWitnessSizes;
+  // Size of the proofs of the leaves in the witness sizes above, in a hexary Patricia trie and
+  // in a binary Merkle tree, if BlockAnalysis.PROOF_SIZES is set. Null otherwise, so they are
+  // not written.
+  public Integer functionIdHexaryProofSize;
+  public Integer jumpDestHexaryProofSize;
+  public Integer fixedHexaryProofSize;
+  public Integer strictHexaryProofSize;
+  public Integer functionIdBinaryProofSize;
+  public Integer jumpDestBinaryProofSize;
+  public Integer fixedBinaryProofSize;
+  public Integer strictBinaryProofSize;
 
   public WitnessResult(int blockNumber) {
     this.blockNumber = blockNumber;
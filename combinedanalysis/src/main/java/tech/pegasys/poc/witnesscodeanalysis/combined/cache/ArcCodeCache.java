@@ -0,0 +1,144 @@
+/*
+ * Copyright ConsenSys AG.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+package tech.pegasys.poc.witnesscodeanalysis.combined.cache;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Adaptive Replacement Cache, holding up to a number of bytes of chunks.
+ *
+ * Chunks used once recently are in t1, and chunks used more than once are in t2. The keys of
+ * chunks recently evicted from each are remembered in the ghost lists b1 and b2. A use of a
+ * chunk in b1 means t1 should have been larger, and a use of a chunk in b2 means t2 should have
+ * been larger, so the target size of t1, p, is adjusted. As chunks vary in size, the lists and
+ * p are measured in bytes rather than entries.
+ */
+public class ArcCodeCache implements CodeCache {
+  private final long capacity;
+  // Chunk sizes, least recently used first.
+  private final LinkedHashMap<Long, Integer> t1 = new LinkedHashMap<>();
+  private final LinkedHashMap<Long, Integer> t2 = new LinkedHashMap<>();
+  private final LinkedHashMap<Long, Integer> b1 = new LinkedHashMap<>();
+  private final LinkedHashMap<Long, Integer> b2 = new LinkedHashMap<>();
+  private long t1Bytes;
+  private long t2Bytes;
+  private long b1Bytes;
+  private long b2Bytes;
+  // Target size of t1.
+  private long p;
+
+  public ArcCodeCache(long capacity) {
+    this.capacity = capacity;
+  }
+
+  @Override
+  public String getName() {
+    return "ARC " + CodeCache.formatBytes(this.capacity);
+  }
+
+  @Override
+  public boolean access(long key, int size) {
+    Integer held = this.t1.remove(key);
+    if (held != null) {
+      this.t1Bytes -= held;
+      this.t2.put(key, held);
+      this.t2Bytes += held;
+      return true;
+    }
+    held = this.t2.remove(key);
+    if (held != null) {
+      // Move to the most recently used end.
+      this.t2.put(key, held);
+      return true;
+    }
+    if (size > this.capacity) {
+      return false;
+    }
+
+    Integer ghost = this.b1.remove(key);
+    if (ghost != null) {
+      this.b1Bytes -= ghost;
+      long delta = this.b1Bytes >= this.b2Bytes || this.b1Bytes == 0 ? size : size * this.b2Bytes / this.b1Bytes;
+      this.p = Math.min(this.capacity, this.p + delta);
+      replace(size, false);
+      this.t2.put(key, size);
+      this.t2Bytes += size;
+      return false;
+    }
+    ghost = this.b2.remove(key);
+    if (ghost != null) {
+      this.b2Bytes -= ghost;
+      long delta = this.b2Bytes >= this.b1Bytes || this.b2Bytes == 0 ? size : size * this.b1Bytes / this.b2Bytes;
+      this.p = Math.max(0, this.p - delta);
+      replace(size, true);
+      this.t2.put(key, size);
+      this.t2Bytes += size;
+      return false;
+    }
+
+    // Not seen recently. Keep t1 and b1 within the capacity, and all four lists within twice it.
+    while (this.t1Bytes + this.b1Bytes + size > this.capacity && this.b1Bytes > 0) {
+      this.b1Bytes -= removeEldest(this.b1);
+    }
+    while (this.t1Bytes + this.b1Bytes + size > this.capacity) {
+      this.t1Bytes -= removeEldest(this.t1);
+    }
+    while (this.t1Bytes + this.t2Bytes + this.b1Bytes + this.b2Bytes + size > 2 * this.capacity && this.b2Bytes > 0) {
+      this.b2Bytes -= removeEldest(this.b2);
+    }
+    replace(size, false);
+    this.t1.put(key, size);
+    this.t1Bytes += size;
+    return false;
+  }
+
+  @Override
+  public long getBytesHeld() {
+    return this.t1Bytes + this.t2Bytes;
+  }
+
+  /**
+   * Evict chunks from t1 or t2, to their ghost lists, until there is room for size bytes.
+   */
+  private void replace(int size, boolean inB2) {
+    while (this.t1Bytes + this.t2Bytes + size > this.capacity) {
+      if (this.t1Bytes > 0 && (this.t1Bytes > this.p || (inB2 && this.t1Bytes == this.p) || this.t2Bytes == 0)) {
+        Map.Entry<Long, Integer> eldest = pollEldest(this.t1);
+        this.t1Bytes -= eldest.getValue();
+        this.b1.put(eldest.getKey(), eldest.getValue());
+        this.b1Bytes += eldest.getValue();
+      }
+      else {
+        Map.Entry<Long, Integer> eldest = pollEldest(this.t2);
+        this.t2Bytes -= eldest.getValue();
+        this.b2.put(eldest.getKey(), eldest.getValue());
+        this.b2Bytes += eldest.getValue();
+      }
+    }
+  }
+
+  private static int removeEldest(LinkedHashMap<Long, Integer> list) {
+    return pollEldest(list).getValue();
+  }
+
+  private static Map.Entry<Long, Integer> pollEldest(LinkedHashMap<Long, Integer> list) {
+    Iterator<Map.Entry<Long, Integer>> eldest = list.entrySet().iterator();
+    Map.Entry<Long, Integer> entry = eldest.next();
+    eldest.remove();
+    return entry;
+  }
+}
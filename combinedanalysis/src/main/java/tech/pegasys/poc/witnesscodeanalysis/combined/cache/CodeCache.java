@@ -0,0 +1,58 @@
+/*
+ * Copyright ConsenSys AG.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+package tech.pegasys.poc.witnesscodeanalysis.combined.cache;
+
+/**
+ * Code chunks held by a stateless client between blocks. Chunks which are in the cache do not
+ * need to be sent in the witness.
+ *
+ * Chunks are identified by a key, which is unique for the contract and chunk start offset, and
+ * have a size in bytes.
+ */
+public interface CodeCache {
+  String getName();
+
+  /**
+   * Use a chunk. Afterwards, the chunk is in the cache, unless it is larger than the cache.
+   *
+   * @return True if the chunk was in the cache.
+   */
+  boolean access(long key, int size);
+
+  /**
+   * Called after all of the chunks used by a block have been accessed.
+   */
+  default void endBlock() {
+  }
+
+  /**
+   * @return The size of the chunks in the cache.
+   */
+  long getBytesHeld();
+
+  static long key(int contractId, int chunkStart) {
+    return ((long) contractId << 32) | (chunkStart & 0xffffffffL);
+  }
+
+  /**
+   * @return The size in bytes, KB or MB, for cache names.
+   */
+  static String formatBytes(long bytes) {
+    if (bytes >= 1024 * 1024 && bytes % (1024 * 1024) == 0) {
+      return bytes / (1024 * 1024) + "MB";
+    }
+    return bytes >= 1024 && bytes % 1024 == 0 ? bytes / 1024 + "KB" : bytes + "B";
+  }
+}
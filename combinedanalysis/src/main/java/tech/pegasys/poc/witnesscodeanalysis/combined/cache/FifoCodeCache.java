@@ -0,0 +1,63 @@
+/*
+ * Copyright ConsenSys AG.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+package tech.pegasys.poc.witnesscodeanalysis.combined.cache;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Holds up to a number of bytes of chunks. The chunks which were added first are evicted
+ * first, however recently they were used. This is the simplest cache a client could keep
+ * within a fixed byte budget.
+ */
+public class FifoCodeCache implements CodeCache {
+  private final long capacity;
+  // Chunk sizes, in the order they were added.
+  private final LinkedHashMap<Long, Integer> chunks = new LinkedHashMap<>();
+  private long bytesHeld;
+
+  public FifoCodeCache(long capacity) {
+    this.capacity = capacity;
+  }
+
+  @Override
+  public String getName() {
+    return "FIFO " + CodeCache.formatBytes(this.capacity);
+  }
+
+  @Override
+  public boolean access(long key, int size) {
+    if (this.chunks.containsKey(key)) {
+      return true;
+    }
+    if (size > this.capacity) {
+      return false;
+    }
+    Iterator<Map.Entry<Long, Integer>> oldest = this.chunks.entrySet().iterator();
+    while (this.bytesHeld + size > this.capacity) {
+      this.bytesHeld -= oldest.next().getValue();
+      oldest.remove();
+    }
+    this.chunks.put(key, size);
+    this.bytesHeld += size;
+    return false;
+  }
+
+  @Override
+  public long getBytesHeld() {
+    return bytesHeld;
+  }
+}
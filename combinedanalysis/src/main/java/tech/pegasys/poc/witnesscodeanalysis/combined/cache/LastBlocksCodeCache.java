@@ -0,0 +1,100 @@
+/*
+ * Copyright ConsenSys AG.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+package tech.pegasys.poc.witnesscodeanalysis.combined.cache;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Holds every chunk used in the last number of blocks, however many bytes that is.
+ */
+public class LastBlocksCodeCache implements CodeCache {
+  private static class Entry {
+    final int size;
+    int lastUsedBlock;
+
+    Entry(int size) {
+      this.size = size;
+    }
+  }
+
+  private final int numBlocks;
+  private final Map<Long, Entry> chunks = new HashMap<>();
+  // Keys of the chunks used in each block still held, oldest block first.
+  private final ArrayDeque<List<Long>> blocks = new ArrayDeque<>();
+  private List<Long> currentBlockKeys = new ArrayList<>();
+  private int currentBlock;
+  private long bytesHeld;
+  private long maxBytesHeld;
+
+  public LastBlocksCodeCache(int numBlocks) {
+    this.numBlocks = numBlocks;
+  }
+
+  @Override
+  public String getName() {
+    return "Last " + this.numBlocks + " blocks";
+  }
+
+  @Override
+  public boolean access(long key, int size) {
+    Entry entry = this.chunks.get(key);
+    boolean hit = entry != null;
+    if (entry == null) {
+      entry = new Entry(size);
+      this.chunks.put(key, entry);
+      this.bytesHeld += size;
+    }
+    if (!hit || entry.lastUsedBlock != this.currentBlock) {
+      entry.lastUsedBlock = this.currentBlock;
+      this.currentBlockKeys.add(key);
+    }
+    return hit;
+  }
+
+  @Override
+  public void endBlock() {
+    this.maxBytesHeld = Math.max(this.maxBytesHeld, this.bytesHeld);
+    this.blocks.addLast(this.currentBlockKeys);
+    this.currentBlockKeys = new ArrayList<>();
+    this.currentBlock++;
+    if (this.blocks.size() > this.numBlocks) {
+      int expiredBlock = this.currentBlock - this.numBlocks - 1;
+      for (long key : this.blocks.removeFirst()) {
+        Entry entry = this.chunks.get(key);
+        // Chunks used again in a later block are still held.
+        if (entry != null && entry.lastUsedBlock == expiredBlock) {
+          this.chunks.remove(key);
+          this.bytesHeld -= entry.size;
+        }
+      }
+    }
+  }
+
+  @Override
+  public long getBytesHeld() {
+    return bytesHeld;
+  }
+
+  /**
+   * @return The most bytes held at the end of any block, the memory the cache would need.
+   */
+  public long getMaxBytesHeld() {
+    return maxBytesHeld;
+  }
+}
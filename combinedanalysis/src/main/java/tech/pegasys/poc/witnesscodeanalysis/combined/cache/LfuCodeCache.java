@@ -0,0 +1,97 @@
+/*
+ * Copyright ConsenSys AG.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+package tech.pegasys.poc.witnesscodeanalysis.combined.cache;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeSet;
+
+/**
+ * Holds up to a number of bytes of chunks. The least frequently used chunks are evicted first,
+ * and of those the least recently used. The use count of a chunk is forgotten when it is
+ * evicted.
+ */
+public class LfuCodeCache implements CodeCache {
+  private static class Entry implements Comparable<Entry> {
+    final long key;
+    final int size;
+    long uses;
+    long lastUsed;
+
+    Entry(long key, int size) {
+      this.key = key;
+      this.size = size;
+    }
+
+    @Override
+    public int compareTo(Entry other) {
+      int result = Long.compare(this.uses, other.uses);
+      if (result == 0) {
+        result = Long.compare(this.lastUsed, other.lastUsed);
+      }
+      return result;
+    }
+  }
+
+  private final long capacity;
+  private final Map<Long, Entry> chunks = new HashMap<>();
+  // Ordered by eviction priority.
+  private final TreeSet<Entry> evictionOrder = new TreeSet<>();
+  private long bytesHeld;
+  private long accesses;
+
+  public LfuCodeCache(long capacity) {
+    this.capacity = capacity;
+  }
+
+  @Override
+  public String getName() {
+    return "LFU " + CodeCache.formatBytes(this.capacity);
+  }
+
+  @Override
+  public boolean access(long key, int size) {
+    // Unique for each access, so entries never compare as equal.
+    this.accesses++;
+    Entry entry = this.chunks.get(key);
+    if (entry != null) {
+      this.evictionOrder.remove(entry);
+      entry.uses++;
+      entry.lastUsed = this.accesses;
+      this.evictionOrder.add(entry);
+      return true;
+    }
+    if (size > this.capacity) {
+      return false;
+    }
+    while (this.bytesHeld + size > this.capacity) {
+      Entry evicted = this.evictionOrder.pollFirst();
+      this.chunks.remove(evicted.key);
+      this.bytesHeld -= evicted.size;
+    }
+    entry = new Entry(key, size);
+    entry.uses = 1;
+    entry.lastUsed = this.accesses;
+    this.chunks.put(key, entry);
+    this.evictionOrder.add(entry);
+    this.bytesHeld += size;
+    return false;
+  }
+
+  @Override
+  public long getBytesHeld() {
+    return bytesHeld;
+  }
+}
@@ -0,0 +1,61 @@
+/*
+ * Copyright ConsenSys AG.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+package tech.pegasys.poc.witnesscodeanalysis.combined.cache;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Holds up to a number of bytes of chunks. The least recently used chunks are evicted first.
+ */
+public class LruCodeCache implements CodeCache {
+  private final long capacity;
+  // Chunk sizes, least recently used first.
+  private final LinkedHashMap<Long, Integer> chunks = new LinkedHashMap<>(16, 0.75f, true);
+  private long bytesHeld;
+
+  public LruCodeCache(long capacity) {
+    this.capacity = capacity;
+  }
+
+  @Override
+  public String getName() {
+    return "LRU " + CodeCache.formatBytes(this.capacity);
+  }
+
+  @Override
+  public boolean access(long key, int size) {
+    if (this.chunks.get(key) != null) {
+      return true;
+    }
+    if (size > this.capacity) {
+      return false;
+    }
+    Iterator<Map.Entry<Long, Integer>> eldest = this.chunks.entrySet().iterator();
+    while (this.bytesHeld + size > this.capacity) {
+      this.bytesHeld -= eldest.next().getValue();
+      eldest.remove();
+    }
+    this.chunks.put(key, size);
+    this.bytesHeld += size;
+    return false;
+  }
+
+  @Override
+  public long getBytesHeld() {
+    return bytesHeld;
+  }
+}
@@ -0,0 +1,114 @@
+/*
+ * Copyright ConsenSys AG.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+package tech.pegasys.poc.witnesscodeanalysis.combined.trie;
+
+import java.util.Arrays;
+
+/**
+ * A binary Merkle tree over leaves in key order. Each leaf hash is the hash of its key and
+ * value, and each interior node is the hash of its two children. The number of leaves is
+ * rounded up to a power of two with empty subtrees, whose hash is all zeros, so that they do
+ * not need to be hashed or proved.
+ *
+ * Every level of hashes is kept, so that proofs can be produced without rehashing the tree.
+ */
+public class BinaryMerkleTree implements CodeTrie {
+  private static final int HASH_SIZE = Keccak256.HASH_SIZE;
+  private static final byte[] EMPTY_HASH = new byte[HASH_SIZE];
+
+  // levels[0] are the leaf hashes, and the last level is the root.
+  private final byte[][][] levels;
+  private final int numLeaves;
+
+  /**
+   * @param keys Keys in ascending unsigned byte order, without duplicates.
+   * @param values Value of each key.
+   */
+  public BinaryMerkleTree(byte[][] keys, byte[][] values) {
+    this.numLeaves = keys.length;
+    int depth = 0;
+    while ((1 << depth) < keys.length) {
+      depth++;
+    }
+    this.levels = new byte[depth + 1][][];
+    byte[][] level = new byte[Math.max(1, keys.length)][];
+    level[0] = EMPTY_HASH;
+    for (int i = 0; i < keys.length; i++) {
+      byte[] leaf = Arrays.copyOf(keys[i], keys[i].length + values[i].length);
+      System.arraycopy(values[i], 0, leaf, keys[i].length, values[i].length);
+      level[i] = Keccak256.hash(leaf);
+    }
+    this.levels[0] = level;
+    byte[] pair = new byte[2 * HASH_SIZE];
+    for (int l = 1; l <= depth; l++) {
+      byte[][] below = level;
+      level = new byte[(below.length + 1) / 2][];
+      for (int i = 0; i < level.length; i++) {
+        byte[] left = below[2 * i];
+        byte[] right = 2 * i + 1 < below.length ? below[2 * i + 1] : EMPTY_HASH;
+        if (left == EMPTY_HASH && right == EMPTY_HASH) {
+          level[i] = EMPTY_HASH;
+        }
+        else {
+          System.arraycopy(left, 0, pair, 0, HASH_SIZE);
+          System.arraycopy(right, 0, pair, HASH_SIZE, HASH_SIZE);
+          level[i] = Keccak256.hash(pair);
+        }
+      }
+      this.levels[l] = level;
+    }
+  }
+
+  @Override
+  public byte[] getRootHash() {
+    return this.levels[this.levels.length - 1][0];
+  }
+
+  @Override
+  public int getNumLeaves() {
+    return numLeaves;
+  }
+
+  /**
+   * The proof is the hashes of the siblings of the nodes on the paths to the leaves, where the
+   * sibling is not itself on a path. Empty subtrees are known from the number of leaves, so
+   * are not included.
+   */
+  @Override
+  public int multiproofSize(int[] leaves, int count) {
+    if (count == 0) {
+      return 0;
+    }
+    int[] nodes = Arrays.copyOf(leaves, count);
+    int numNodes = count;
+    int size = 0;
+    for (int l = 0; l < this.levels.length - 1; l++) {
+      int numParents = 0;
+      for (int i = 0; i < numNodes; i++) {
+        int node = nodes[i];
+        int sibling = node ^ 1;
+        if (i + 1 < numNodes && nodes[i + 1] == sibling) {
+          i++;
+        }
+        else if (sibling < this.levels[l].length && this.levels[l][sibling] != EMPTY_HASH) {
+          size += HASH_SIZE;
+        }
+        nodes[numParents++] = node >>> 1;
+      }
+      numNodes = numParents;
+    }
+    return size;
+  }
+}
@@ -0,0 +1,35 @@
+/*
+ * Copyright ConsenSys AG.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+package tech.pegasys.poc.witnesscodeanalysis.combined.trie;
+
+/**
+ * A trie over the leaves of a contract's code, under one witness scheme. The leaves are
+ * numbered in key order.
+ */
+public interface CodeTrie {
+  byte[] getRootHash();
+
+  int getNumLeaves();
+
+  /**
+   * Determine the size of a proof of several leaves against the root hash. The leaves
+   * themselves, which are part of the witness anyway, are not included, nor are hashes which
+   * can be computed from other parts of the proof.
+   *
+   * @param leaves Indexes of the leaves to prove, in leaves[0..count), sorted and distinct.
+   * @return Size of the proof in bytes, or zero if count is zero.
+   */
+  int multiproofSize(int[] leaves, int count);
+}
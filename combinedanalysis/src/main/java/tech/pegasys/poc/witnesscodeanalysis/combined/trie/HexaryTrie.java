@@ -0,0 +1,242 @@
+/*
+ * Copyright ConsenSys AG.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+package tech.pegasys.poc.witnesscodeanalysis.combined.trie;
+
+/**
+ * A hexary Merkle Patricia trie, encoded as in the Ethereum state trie, built from all of its
+ * keys at once.
+ *
+ * Keys are used as they are, rather than hashed, so that the leaves of neighbouring chunks
+ * share paths. Keys may be of different lengths. A key which is a prefix of other keys has its
+ * value held in a branch node.
+ *
+ * The nodes keep their hashes, so that proofs can be produced without rehashing the trie. Only
+ * the size and hash of each node is kept, not its encoding.
+ */
+public class HexaryTrie implements CodeTrie {
+  private static final int HASH_SIZE = Keccak256.HASH_SIZE;
+  private static final int RADIX = 16;
+
+  private final Node root;
+  private final byte[] rootHash;
+  private final int numLeaves;
+
+  // Only used while building.
+  private byte[][] paths;
+  private byte[][] values;
+
+  /**
+   * @param keys Keys in ascending unsigned byte order, without duplicates.
+   * @param values Value of each key.
+   */
+  public HexaryTrie(byte[][] keys, byte[][] values) {
+    this.numLeaves = keys.length;
+    if (keys.length == 0) {
+      this.root = null;
+      this.rootHash = Keccak256.hash(Rlp.EMPTY_STRING);
+      return;
+    }
+    this.paths = new byte[keys.length][];
+    for (int i = 0; i < keys.length; i++) {
+      this.paths[i] = nibbles(keys[i]);
+    }
+    this.values = values;
+    byte[][] rootEncoding = new byte[1][];
+    this.root = build(0, keys.length, 0, rootEncoding);
+    // The root is always referred to by its hash, however small it is.
+    this.rootHash = this.root.hashed() ? this.root.reference : Keccak256.hash(rootEncoding[0]);
+    this.paths = null;
+    this.values = null;
+  }
+
+  @Override
+  public byte[] getRootHash() {
+    return rootHash;
+  }
+
+  @Override
+  public int getNumLeaves() {
+    return numLeaves;
+  }
+
+  /**
+   * Each branch and extension node on the paths to the leaves is in the proof, apart from nodes
+   * small enough to be held in their parent. The hash of a child which is itself in the proof,
+   * or is one of the leaves, is left out of its parent.
+   */
+  @Override
+  public int multiproofSize(int[] leaves, int count) {
+    if (count == 0 || this.root == null) {
+      return 0;
+    }
+    return proofSize(this.root, leaves, 0, count, true);
+  }
+
+  /**
+   * @param from First of the leaves under the node.
+   * @param to End of the leaves under the node, exclusive.
+   */
+  private int proofSize(Node node, int[] leaves, int from, int to, boolean isRoot) {
+    if (node.children == null) {
+      return 0;
+    }
+    int size = isRoot || node.hashed() ? node.encodedLength : 0;
+    for (Node child : node.children) {
+      if (child == null || from == to) {
+        continue;
+      }
+      // Skip a leaf whose value is held in this branch.
+      while (from < to && leaves[from] < child.start) {
+        from++;
+      }
+      int end = from;
+      while (end < to && leaves[end] < child.end) {
+        end++;
+      }
+      if (end > from) {
+        if (child.hashed()) {
+          size -= HASH_SIZE;
+        }
+        size += proofSize(child, leaves, from, end, false);
+      }
+      from = end;
+    }
+    return size;
+  }
+
+  /**
+   * Build the node for the keys start to end, below the first depth nibbles, which they share.
+   *
+   * @param encoding Set to the encoding of the node.
+   */
+  private Node build(int start, int end, int depth, byte[][] encoding) {
+    byte[] path = this.paths[start];
+    if (end - start == 1) {
+      Node leaf = new Node(start, end, null);
+      return leaf.encode(Rlp.encodeList(new byte[][]{
+          Rlp.encodeBytes(hexPrefix(path, depth, path.length, true)),
+          Rlp.encodeBytes(this.values[start])}), encoding);
+    }
+
+    byte[] last = this.paths[end - 1];
+    int common = depth;
+    while (common < path.length && common < last.length && path[common] == last[common]) {
+      common++;
+    }
+    if (common > depth) {
+      Node extension = new Node(start, end, new Node[1]);
+      extension.children[0] = build(start, end, common, encoding);
+      return extension.encode(Rlp.encodeList(new byte[][]{
+          Rlp.encodeBytes(hexPrefix(path, depth, common, false)),
+          extension.children[0].referenceEncoding(encoding[0])}), encoding);
+    }
+
+    Node branch = new Node(start, end, new Node[RADIX]);
+    byte[][] items = new byte[RADIX + 1][];
+    int next = start;
+    items[RADIX] = Rlp.EMPTY_STRING;
+    if (path.length == depth) {
+      // The shortest key ends here, and is first in key order.
+      items[RADIX] = Rlp.encodeBytes(this.values[start]);
+      next++;
+    }
+    for (int nibble = 0; nibble < RADIX; nibble++) {
+      int childEnd = next;
+      while (childEnd < end && this.paths[childEnd][depth] == nibble) {
+        childEnd++;
+      }
+      if (childEnd > next) {
+        branch.children[nibble] = build(next, childEnd, depth + 1, encoding);
+        items[nibble] = branch.children[nibble].referenceEncoding(encoding[0]);
+      }
+      else {
+        items[nibble] = Rlp.EMPTY_STRING;
+      }
+      next = childEnd;
+    }
+    return branch.encode(Rlp.encodeList(items), encoding);
+  }
+
+  private static byte[] nibbles(byte[] key) {
+    byte[] result = new byte[key.length * 2];
+    for (int i = 0; i < key.length; i++) {
+      result[2 * i] = (byte) ((key[i] >>> 4) & 0x0f);
+      result[2 * i + 1] = (byte) (key[i] & 0x0f);
+    }
+    return result;
+  }
+
+  /**
+   * Compact encoding of the nibbles path[from..to), with a flag for leaves and for an odd
+   * number of nibbles.
+   */
+  private static byte[] hexPrefix(byte[] path, int from, int to, boolean leaf) {
+    int length = to - from;
+    boolean odd = (length & 1) != 0;
+    byte[] result = new byte[length / 2 + 1];
+    int flags = (leaf ? 2 : 0) + (odd ? 1 : 0);
+    int i = from;
+    if (odd) {
+      result[0] = (byte) ((flags << 4) | path[i++]);
+    }
+    else {
+      result[0] = (byte) (flags << 4);
+    }
+    for (int j = 1; j < result.length; j++, i += 2) {
+      result[j] = (byte) ((path[i] << 4) | path[i + 1]);
+    }
+    return result;
+  }
+
+  private static final class Node {
+    // The leaves under the node, from start to end, exclusive.
+    final int start;
+    final int end;
+    // Null for leaves. Branches have one entry per nibble, with null for no child.
+    final Node[] children;
+    int encodedLength;
+    // The hash of the node, if it is referred to by hash.
+    byte[] reference;
+
+    Node(int start, int end, Node[] children) {
+      this.start = start;
+      this.end = end;
+      this.children = children;
+    }
+
+    /**
+     * Nodes whose encoding is shorter than a hash are held in their parent.
+     */
+    boolean hashed() {
+      return this.encodedLength >= HASH_SIZE;
+    }
+
+    Node encode(byte[] nodeEncoding, byte[][] encoding) {
+      this.encodedLength = nodeEncoding.length;
+      if (hashed()) {
+        this.reference = Keccak256.hash(nodeEncoding);
+      }
+      encoding[0] = nodeEncoding;
+      return this;
+    }
+
+    /**
+     * @return How the parent refers to the node.
+     */
+    byte[] referenceEncoding(byte[] nodeEncoding) {
+      return hashed() ? Rlp.encodeBytes(this.reference) : nodeEncoding;
+    }
+  }
+}
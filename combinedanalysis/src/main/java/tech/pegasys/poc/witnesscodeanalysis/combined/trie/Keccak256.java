@@ -0,0 +1,106 @@
+/*
+ * Copyright ConsenSys AG.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+package tech.pegasys.poc.witnesscodeanalysis.combined.trie;
+
+/**
+ * Keccak-256, as used by Ethereum. This is the original Keccak padding, not SHA3-256.
+ */
+public class Keccak256 {
+  public static final int HASH_SIZE = 32;
+
+  // Bytes absorbed per permutation: 1600 bits less twice the 256 bit output.
+  private static final int RATE = 136;
+  private static final int ROUNDS = 24;
+
+  private static final long[] ROUND_CONSTANTS = {
+      0x0000000000000001L, 0x0000000000008082L, 0x800000000000808aL, 0x8000000080008000L,
+      0x000000000000808bL, 0x0000000080000001L, 0x8000000080008081L, 0x8000000000008009L,
+      0x000000000000008aL, 0x0000000000000088L, 0x0000000080008009L, 0x000000008000000aL,
+      0x000000008000808bL, 0x800000000000008bL, 0x8000000000008089L, 0x8000000000008003L,
+      0x8000000000008002L, 0x8000000000000080L, 0x000000000000800aL, 0x800000008000000aL,
+      0x8000000080008081L, 0x8000000000008080L, 0x0000000080000001L, 0x8000000080008008L};
+
+  // Rotation of each lane, indexed by x + 5y.
+  private static final int[] ROTATIONS = {
+      0, 1, 62, 28, 27,
+      36, 44, 6, 55, 20,
+      3, 10, 43, 25, 39,
+      41, 45, 15, 21, 8,
+      18, 2, 61, 56, 14};
+
+  public static byte[] hash(byte[] data) {
+    return hash(data, 0, data.length);
+  }
+
+  public static byte[] hash(byte[] data, int offset, int length) {
+    long[] state = new long[25];
+    int end = offset + length;
+    while (end - offset >= RATE) {
+      absorb(state, data, offset, RATE);
+      permute(state);
+      offset += RATE;
+    }
+    byte[] last = new byte[RATE];
+    int remaining = end - offset;
+    System.arraycopy(data, offset, last, 0, remaining);
+    last[remaining] ^= 0x01;
+    last[RATE - 1] ^= (byte) 0x80;
+    absorb(state, last, 0, RATE);
+    permute(state);
+
+    byte[] result = new byte[HASH_SIZE];
+    for (int i = 0; i < HASH_SIZE; i++) {
+      result[i] = (byte) (state[i >>> 3] >>> (8 * (i & 7)));
+    }
+    return result;
+  }
+
+  private static void absorb(long[] state, byte[] data, int offset, int length) {
+    for (int i = 0; i < length; i++) {
+      state[i >>> 3] ^= (data[offset + i] & 0xffL) << (8 * (i & 7));
+    }
+  }
+
+  private static void permute(long[] a) {
+    long[] c = new long[5];
+    long[] b = new long[25];
+    for (int round = 0; round < ROUNDS; round++) {
+      // Theta
+      for (int x = 0; x < 5; x++) {
+        c[x] = a[x] ^ a[x + 5] ^ a[x + 10] ^ a[x + 15] ^ a[x + 20];
+      }
+      for (int x = 0; x < 5; x++) {
+        long d = c[(x + 4) % 5] ^ Long.rotateLeft(c[(x + 1) % 5], 1);
+        for (int y = 0; y < 25; y += 5) {
+          a[x + y] ^= d;
+        }
+      }
+      // Rho and pi
+      for (int x = 0; x < 5; x++) {
+        for (int y = 0; y < 5; y++) {
+          b[y + 5 * ((2 * x + 3 * y) % 5)] = Long.rotateLeft(a[x + 5 * y], ROTATIONS[x + 5 * y]);
+        }
+      }
+      // Chi
+      for (int y = 0; y < 25; y += 5) {
+        for (int x = 0; x < 5; x++) {
+          a[x + y] = b[x + y] ^ (~b[(x + 1) % 5 + y] & b[(x + 2) % 5 + y]);
+        }
+      }
+      // Iota
+      a[0] ^= ROUND_CONSTANTS[round];
+    }
+  }
+}
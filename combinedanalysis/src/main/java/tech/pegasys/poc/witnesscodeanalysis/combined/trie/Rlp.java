@@ -0,0 +1,69 @@
+/*
+ * Copyright ConsenSys AG.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+package tech.pegasys.poc.witnesscodeanalysis.combined.trie;
+
+import java.util.Arrays;
+
+/**
+ * The parts of RLP encoding needed to encode trie nodes.
+ */
+class Rlp {
+  static final byte[] EMPTY_STRING = {(byte) 0x80};
+
+  static byte[] encodeBytes(byte[] value) {
+    if (value.length == 1 && (value[0] & 0xff) < 0x80) {
+      return value;
+    }
+    byte[] header = header(0x80, value.length);
+    byte[] result = Arrays.copyOf(header, header.length + value.length);
+    System.arraycopy(value, 0, result, header.length, value.length);
+    return result;
+  }
+
+  /**
+   * @param items Items which are already RLP encoded.
+   */
+  static byte[] encodeList(byte[][] items) {
+    int payloadLength = 0;
+    for (byte[] item : items) {
+      payloadLength += item.length;
+    }
+    byte[] header = header(0xc0, payloadLength);
+    byte[] result = new byte[header.length + payloadLength];
+    System.arraycopy(header, 0, result, 0, header.length);
+    int offset = header.length;
+    for (byte[] item : items) {
+      System.arraycopy(item, 0, result, offset, item.length);
+      offset += item.length;
+    }
+    return result;
+  }
+
+  /**
+   * @param offset 0x80 for a string, 0xc0 for a list.
+   */
+  private static byte[] header(int offset, int length) {
+    if (length <= 55) {
+      return new byte[]{(byte) (offset + length)};
+    }
+    int lengthOfLength = 4 - Integer.numberOfLeadingZeros(length) / 8;
+    byte[] header = new byte[1 + lengthOfLength];
+    header[0] = (byte) (offset + 55 + lengthOfLength);
+    for (int i = 0; i < lengthOfLength; i++) {
+      header[lengthOfLength - i] = (byte) (length >>> (8 * i));
+    }
+    return header;
+  }
+}
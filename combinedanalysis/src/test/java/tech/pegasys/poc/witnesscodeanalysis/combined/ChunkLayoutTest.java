@@ -0,0 +1,237 @@
+/*
+ * Copyright ConsenSys AG.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+package tech.pegasys.poc.witnesscodeanalysis.combined;
+
+import org.apache.tuweni.bytes.Bytes;
+import org.junit.Test;
+import tech.pegasys.poc.witnesscodeanalysis.common.ChunkData;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Compares ChunkLayout with the TreeMap iteration which BlockAnalysis used before, and with
+ * marking the executed code byte by byte.
+ */
+public class ChunkLayoutTest {
+  private static final int NUM_CONTRACTS = 2000;
+
+  private static ChunkData chunkData(int[] starts, int codeLength) {
+    ArrayList<Integer> chunkStarts = new ArrayList<>();
+    for (int start : starts) {
+      chunkStarts.add(start);
+    }
+    return new ChunkData(0, chunkStarts, Bytes.wrap(new byte[codeLength]), true, 0);
+  }
+
+  private static ChunkData randomChunkData(Random random) {
+    int numChunks = 2 + random.nextInt(20);
+    int[] starts = new int[numChunks];
+    for (int i = 1; i < numChunks; i++) {
+      starts[i] = starts[i - 1] + 1 + random.nextInt(40);
+    }
+    return chunkData(starts, starts[numChunks - 1] + 1 + random.nextInt(40));
+  }
+
+  /**
+   * @param limit Blocks end at or before this offset.
+   */
+  private static Map<Integer, Integer> randomBlocks(Random random, int limit) {
+    Map<Integer, Integer> blocks = new TreeMap<>();
+    int numBlocks = 1 + random.nextInt(6);
+    for (int i = 0; i < numBlocks; i++) {
+      int start = random.nextInt(limit);
+      blocks.put(start, Math.min(random.nextInt(50), limit - start));
+    }
+    return blocks;
+  }
+
+  /**
+   * @return Used bytes and used chunks from ChunkLayout.
+   */
+  private static int[] layoutUsed(Map<Integer, Integer> codeBlocks, ChunkData chunkData) {
+    int[] starts = new int[codeBlocks.size()];
+    int[] ends = new int[codeBlocks.size()];
+    int numRanges = ChunkLayout.mergeBlocks(codeBlocks, starts, ends);
+    int[] usedBytes = new int[1];
+    int[] usedChunks = new int[1];
+    ChunkLayout.usedBytes(starts, ends, numRanges, new ChunkLayout[]{ChunkLayout.of(chunkData)}, usedBytes, usedChunks);
+    return new int[]{usedBytes[0], usedChunks[0]};
+  }
+
+  /**
+   * @return Used bytes and used chunks, as BlockAnalysis computed them before ChunkLayout.
+   */
+  private static int[] treeMapUsed(Map<Integer, Integer> codeBlocks, ChunkData chunkData) {
+    Map<Integer, Integer> startOffsetsAndLengths = chunkData.getChunks();
+    Set<Integer> chunksUsed = determineChunksUsed(codeBlocks, startOffsetsAndLengths);
+    int usedBytes = 0;
+    for (Integer startUsed : chunksUsed) {
+      usedBytes += startOffsetsAndLengths.get(startUsed);
+    }
+    return new int[]{usedBytes, chunksUsed.size()};
+  }
+
+  /**
+   * @return Used bytes and used chunks, marking each executed byte. An empty block needs the
+   *   chunk it starts in.
+   */
+  private static int[] byteByByteUsed(Map<Integer, Integer> codeBlocks, ChunkData chunkData) {
+    boolean[] executed = new boolean[chunkData.getCodeLength()];
+    for (Map.Entry<Integer, Integer> block : codeBlocks.entrySet()) {
+      for (int i = 0; i < Math.max(1, block.getValue()); i++) {
+        executed[block.getKey() + i] = true;
+      }
+    }
+    int usedBytes = 0;
+    int usedChunks = 0;
+    for (Map.Entry<Integer, Integer> chunk : chunkData.getChunks().entrySet()) {
+      boolean used = false;
+      for (int i = chunk.getKey(); i < chunk.getKey() + chunk.getValue(); i++) {
+        used |= executed[i];
+      }
+      if (used) {
+        usedBytes += chunk.getValue();
+        usedChunks++;
+      }
+    }
+    return new int[]{usedBytes, usedChunks};
+  }
+
+  // Copied from BlockAnalysis before ChunkLayout replaced it.
+  private static Set<Integer> determineChunksUsed(Map<Integer, Integer> codeBlocks, Map<Integer, Integer> startOffsetsAndLengths) {
+    Set<Integer> chunksUsed = new TreeSet<>();
+    for (Integer start: codeBlocks.keySet()) {
+      int length = codeBlocks.get(start);
+      // Determine the chunks needed for this code block.
+      int lastChunkStart = 0;
+      int chunkStart = 0;
+      Iterator<Integer> chunkStartIter = startOffsetsAndLengths.keySet().iterator();
+
+      // Iterate to the start of the chunk.
+      while (chunkStartIter.hasNext() && chunkStart < start) {
+        lastChunkStart = chunkStart;
+        chunkStart = chunkStartIter.next();
+      }
+
+      // If the function id chunk is after the start of the last chunk
+      if (!chunkStartIter.hasNext()) {
+        chunksUsed.add(chunkStart);
+      }
+      else {
+        if (chunkStart == start) {
+          chunksUsed.add(chunkStart);
+        }
+        else {
+          // Chunk start must be greater than
+          chunksUsed.add(lastChunkStart);
+        }
+
+        // Add all the chunks that are within the function id chunk
+        while (chunkStartIter.hasNext() && chunkStart < start+length) {
+          chunksUsed.add(chunkStart);
+          chunkStart = chunkStartIter.next();
+        }
+      }
+    }
+
+    return chunksUsed;
+  }
+
+  private static int penultimateStart(ChunkData chunkData) {
+    ArrayList<Integer> starts = chunkData.getChunkStartAddresses();
+    return starts.get(starts.size() - 2);
+  }
+
+  /**
+   * The old iteration is only right for blocks which end before the last chunk, see
+   * oldIterationMissedChunksNearTheEnd, so the blocks are limited to those.
+   */
+  @Test
+  public void matchesOldIteration() {
+    Random random = new Random(21);
+    int compared = 0;
+    while (compared < NUM_CONTRACTS) {
+      ChunkData chunkData = randomChunkData(random);
+      int limit = penultimateStart(chunkData);
+      if (limit == 0) {
+        continue;
+      }
+      Map<Integer, Integer> blocks = randomBlocks(random, limit);
+      int[] expected = treeMapUsed(blocks, chunkData);
+      int[] actual = layoutUsed(blocks, chunkData);
+      assertEquals("used bytes for " + blocks + " in " + chunkData.getChunks(), expected[0], actual[0]);
+      assertEquals("used chunks for " + blocks + " in " + chunkData.getChunks(), expected[1], actual[1]);
+      compared++;
+    }
+  }
+
+  @Test
+  public void matchesOldIterationForFixedSizeChunks() {
+    Random random = new Random(32);
+    for (int i = 0; i < NUM_CONTRACTS; i++) {
+      int chunkSize = 1 + random.nextInt(64);
+      int codeLength = 2 * chunkSize + 1 + random.nextInt(1000);
+      ChunkLayout fixed = ChunkLayout.fixedSize(codeLength, chunkSize);
+      int[] starts = new int[fixed.getNumChunks()];
+      for (int c = 0; c < starts.length; c++) {
+        starts[c] = fixed.chunkStart(c);
+      }
+      ChunkData chunkData = chunkData(starts, codeLength);
+      Map<Integer, Integer> blocks = randomBlocks(random, penultimateStart(chunkData));
+      assertEquals(treeMapUsed(blocks, chunkData)[0], layoutUsed(blocks, chunkData)[0]);
+      assertEquals(treeMapUsed(blocks, chunkData)[1], layoutUsed(blocks, chunkData)[1]);
+    }
+  }
+
+  @Test
+  public void matchesByteByByteAnywhereInTheCode() {
+    Random random = new Random(43);
+    for (int i = 0; i < NUM_CONTRACTS; i++) {
+      ChunkData chunkData = randomChunkData(random);
+      Map<Integer, Integer> blocks = randomBlocks(random, chunkData.getCodeLength());
+      int[] expected = byteByByteUsed(blocks, chunkData);
+      int[] actual = layoutUsed(blocks, chunkData);
+      assertEquals("used bytes for " + blocks + " in " + chunkData.getChunks(), expected[0], actual[0]);
+      assertEquals("used chunks for " + blocks + " in " + chunkData.getChunks(), expected[1], actual[1]);
+    }
+  }
+
+  @Test
+  public void oldIterationMissedChunksNearTheEnd() {
+    ChunkData chunkData = chunkData(new int[]{0, 32, 64}, 96);
+
+    // Ends inside the last chunk: the old iteration ran out of chunks before adding it.
+    Map<Integer, Integer> blocks = new TreeMap<>();
+    blocks.put(10, 60);
+    assertEquals(64, treeMapUsed(blocks, chunkData)[0]);
+    assertEquals(96, layoutUsed(blocks, chunkData)[0]);
+    assertEquals(3, layoutUsed(blocks, chunkData)[1]);
+
+    // Starts inside the second last chunk: the old iteration only added the last chunk.
+    blocks = new TreeMap<>();
+    blocks.put(40, 30);
+    assertEquals(32, treeMapUsed(blocks, chunkData)[0]);
+    assertEquals(64, layoutUsed(blocks, chunkData)[0]);
+    assertEquals(2, layoutUsed(blocks, chunkData)[1]);
+  }
+}
@@ -0,0 +1,57 @@
+/*
+ * Copyright ConsenSys AG.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+package tech.pegasys.poc.witnesscodeanalysis.combined.cache;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static tech.pegasys.poc.witnesscodeanalysis.combined.cache.CodeCacheTrace.CHUNK_SIZE;
+import static tech.pegasys.poc.witnesscodeanalysis.combined.cache.CodeCacheTrace.assertHits;
+
+public class ArcCodeCacheTest {
+
+  @Test
+  public void chunkUsedTwiceMovesToT2() {
+    // Room for three chunks. A is used twice, so it stays while the chunks used once are replaced.
+    ArcCodeCache cache = new ArcCodeCache(3 * CHUNK_SIZE);
+    assertHits(cache, "ABCADEBACFA", "...h...h..h");
+    assertEquals(3 * CHUNK_SIZE, cache.getBytesHeld());
+  }
+
+  @Test
+  public void ghostHitsAdaptTheTarget() {
+    ArcCodeCache cache = new ArcCodeCache(3 * CHUNK_SIZE);
+    // B is evicted by D, to b1. Using B again is a miss, but moves B to t2 and grows t1's target,
+    // as does C after it. A is then evicted from t2 to b2, and using it again shrinks the target,
+    // so D is evicted from t1 instead of a chunk from t2.
+    assertHits(cache, "ABCADBCAB", "...h....h");
+    // D, in b1, grows the target again but t1 is empty, so C is evicted from t2. C, in b2, then
+    // evicts A.
+    assertHits(cache, "DCBA", "..h.");
+    assertEquals(3 * CHUNK_SIZE, cache.getBytesHeld());
+  }
+
+  @Test
+  public void scanDoesNotEvictFrequentlyUsedChunks() {
+    ArcCodeCache cache = new ArcCodeCache(3 * CHUNK_SIZE);
+    assertHits(cache, "AABB", ".h.h");
+    // Chunks used once only replace each other in t1.
+    assertHits(cache, "CDEFGHIJKL", "..........");
+    assertHits(cache, "AB", "hh");
+
+    LruCodeCache lru = new LruCodeCache(3 * CHUNK_SIZE);
+    assertHits(lru, "AABBCDEFGHIJKLAB", ".h.h............");
+  }
+}
@@ -0,0 +1,43 @@
+/*
+ * Copyright ConsenSys AG.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+package tech.pegasys.poc.witnesscodeanalysis.combined.cache;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Replays a trace of chunk accesses written as letters, one chunk per letter, with '|' marking
+ * the end of a block.
+ */
+class CodeCacheTrace {
+  static final int CHUNK_SIZE = 10;
+
+  /**
+   * @param expected The result of each access in the trace: 'h' for a hit, '.' for a miss, and
+   *   '|' where the trace has one.
+   */
+  static void assertHits(CodeCache cache, String trace, String expected) {
+    StringBuilder hits = new StringBuilder();
+    for (char chunk : trace.toCharArray()) {
+      if (chunk == '|') {
+        cache.endBlock();
+        hits.append('|');
+      }
+      else {
+        hits.append(cache.access(CodeCache.key(chunk, 0), CHUNK_SIZE) ? 'h' : '.');
+      }
+    }
+    assertEquals(cache.getName() + " on " + trace, expected, hits.toString());
+  }
+}
@@ -0,0 +1,51 @@
+/*
+ * Copyright ConsenSys AG.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+package tech.pegasys.poc.witnesscodeanalysis.combined.cache;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static tech.pegasys.poc.witnesscodeanalysis.combined.cache.CodeCacheTrace.CHUNK_SIZE;
+import static tech.pegasys.poc.witnesscodeanalysis.combined.cache.CodeCacheTrace.assertHits;
+
+public class LastBlocksCodeCacheTest {
+
+  @Test
+  public void holdsChunksOfTheLastBlocks() {
+    LastBlocksCodeCache cache = new LastBlocksCodeCache(2);
+    // A is last used two blocks before the fourth block, so has gone. B and C were used in the
+    // block before, and D twice in the same block.
+    assertHits(cache, "AB|BC|DD|ACB|", "..|h.|.h|.hh|");
+    assertEquals(4 * CHUNK_SIZE, cache.getBytesHeld());
+    assertEquals(4 * CHUNK_SIZE, cache.getMaxBytesHeld());
+  }
+
+  @Test
+  public void chunkUsedAgainIsKeptLonger() {
+    LastBlocksCodeCache cache = new LastBlocksCodeCache(1);
+    assertHits(cache, "AB|A|A|B|", "..|h|h|.|");
+    assertEquals(CHUNK_SIZE, cache.getBytesHeld());
+    assertEquals(2 * CHUNK_SIZE, cache.getMaxBytesHeld());
+  }
+
+  @Test
+  public void maxBytesHeldIsTheLargestAtTheEndOfABlock() {
+    LastBlocksCodeCache cache = new LastBlocksCodeCache(1);
+    assertHits(cache, "ABC|D|E|", "...|.|.|");
+    // Only E is held now, but A, B and C were still held at the end of the block using D.
+    assertEquals(CHUNK_SIZE, cache.getBytesHeld());
+    assertEquals(4 * CHUNK_SIZE, cache.getMaxBytesHeld());
+  }
+}
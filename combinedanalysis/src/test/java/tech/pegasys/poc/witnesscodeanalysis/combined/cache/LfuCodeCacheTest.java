@@ -0,0 +1,56 @@
+/*
+ * Copyright ConsenSys AG.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+package tech.pegasys.poc.witnesscodeanalysis.combined.cache;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static tech.pegasys.poc.witnesscodeanalysis.combined.cache.CodeCacheTrace.CHUNK_SIZE;
+import static tech.pegasys.poc.witnesscodeanalysis.combined.cache.CodeCacheTrace.assertHits;
+
+public class LfuCodeCacheTest {
+
+  @Test
+  public void leastFrequentlyUsedIsEvicted() {
+    // Room for three chunks. A and B are used most, so D, C and E take turns in the third place.
+    LfuCodeCache cache = new LfuCodeCache(3 * CHUNK_SIZE);
+    assertHits(cache, "ABCAABDCAEB", "...hhh..h.h");
+    assertEquals(3 * CHUNK_SIZE, cache.getBytesHeld());
+  }
+
+  @Test
+  public void leastRecentlyUsedIsEvictedOnEqualUses() {
+    LfuCodeCache cache = new LfuCodeCache(2 * CHUNK_SIZE);
+    // C evicts A, A evicts B, B evicts C: each time the oldest of the two.
+    assertHits(cache, "ABCABCA", ".......");
+  }
+
+  @Test
+  public void useCountIsForgottenOnEviction() {
+    LfuCodeCache cache = new LfuCodeCache(2 * CHUNK_SIZE);
+    // A is used three times, but once evicted starts again from one use and is evicted first.
+    assertHits(cache, "AAABBBCCCAD", ".hh.hh.hh..");
+  }
+
+  @Test
+  public void chunkLargerThanTheCacheIsNotHeld() {
+    LfuCodeCache cache = new LfuCodeCache(2 * CHUNK_SIZE);
+    assertHits(cache, "AB", "..");
+    assertFalse(cache.access(CodeCache.key('X', 0), 3 * CHUNK_SIZE));
+    assertFalse(cache.access(CodeCache.key('X', 0), 3 * CHUNK_SIZE));
+    assertHits(cache, "AB", "hh");
+  }
+}
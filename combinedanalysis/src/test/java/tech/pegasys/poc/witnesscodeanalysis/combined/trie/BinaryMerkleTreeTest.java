@@ -0,0 +1,102 @@
+/*
+ * Copyright ConsenSys AG.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+package tech.pegasys.poc.witnesscodeanalysis.combined.trie;
+
+import org.apache.tuweni.bytes.Bytes;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Root hashes were computed with an independent implementation of the tree and of Keccak-256.
+ */
+public class BinaryMerkleTreeTest {
+  private static final int HASH_SIZE = 32;
+
+  // Keys are two byte offsets, 0, 32, 64 and so on, and value i is i + 1 bytes of i.
+  private static BinaryMerkleTree tree(int numLeaves) {
+    byte[][] keys = new byte[numLeaves][];
+    byte[][] values = new byte[numLeaves][];
+    for (int i = 0; i < numLeaves; i++) {
+      keys[i] = new byte[]{(byte) ((32 * i) >>> 8), (byte) (32 * i)};
+      values[i] = new byte[i + 1];
+      for (int j = 0; j <= i; j++) {
+        values[i][j] = (byte) i;
+      }
+    }
+    return new BinaryMerkleTree(keys, values);
+  }
+
+  private static String root(int numLeaves) {
+    BinaryMerkleTree tree = tree(numLeaves);
+    assertEquals(numLeaves, tree.getNumLeaves());
+    return Bytes.wrap(tree.getRootHash()).toHexString();
+  }
+
+  @Test
+  public void emptyTreeRootIsZero() {
+    assertEquals(Bytes.wrap(new byte[HASH_SIZE]).toHexString(), root(0));
+  }
+
+  @Test
+  public void singleLeafRootIsTheLeafHash() {
+    assertEquals("0x99ff0d9125e1fc9531a11262e15aeb2c60509a078c4cc4c64cefdfb06ff68647", root(1));
+    assertEquals(Bytes.wrap(Keccak256.hash(new byte[]{0, 0, 0})).toHexString(), root(1));
+  }
+
+  @Test
+  public void rootHashes() {
+    assertEquals("0x91d35d761b69ca2fda3e2c0837ec7cd9147854e2107bd57443d9a0a620cf3636", root(2));
+    assertEquals("0x3fe2b5f2a1f301819b842d9ef88a851bf1b089d1874a2eab45be1f30e7119fce", root(3));
+    assertEquals("0x70ad9cca605d45cb837e6a11e6f5b40430193660000d3ffc23430dad7f54e2f5", root(5));
+  }
+
+  @Test
+  public void multiproofOfEveryLeafIsEmpty() {
+    assertEquals(0, tree(4).multiproofSize(new int[]{0, 1, 2, 3}, 4));
+    assertEquals(0, tree(5).multiproofSize(new int[]{0, 1, 2, 3, 4}, 5));
+    assertEquals(0, tree(1).multiproofSize(new int[]{0}, 1));
+    assertEquals(0, tree(4).multiproofSize(new int[]{0}, 0));
+  }
+
+  @Test
+  public void multiproofOfOneLeafIsItsSiblingPath() {
+    BinaryMerkleTree tree = tree(4);
+    for (int leaf = 0; leaf < 4; leaf++) {
+      assertEquals(2 * HASH_SIZE, tree.multiproofSize(new int[]{leaf}, 1));
+    }
+    assertEquals(3 * HASH_SIZE, tree(8).multiproofSize(new int[]{5}, 1));
+  }
+
+  @Test
+  public void multiproofLeavesOutSiblingsOnOtherPaths() {
+    BinaryMerkleTree tree = tree(4);
+    // Leaves 0 and 1 are siblings, so only the hash of their parent's sibling is needed.
+    assertEquals(HASH_SIZE, tree.multiproofSize(new int[]{0, 1}, 2));
+    // The leaves' siblings 1 and 2 are needed, but their parents are siblings.
+    assertEquals(2 * HASH_SIZE, tree.multiproofSize(new int[]{0, 3}, 2));
+  }
+
+  @Test
+  public void multiproofLeavesOutEmptySubtrees() {
+    // Five leaves are padded to eight. Leaf 4 has no sibling, nor does its parent, so only the
+    // root of leaves 0 to 3 is needed.
+    BinaryMerkleTree tree = tree(5);
+    assertEquals(HASH_SIZE, tree.multiproofSize(new int[]{4}, 1));
+    // Leaf 0 needs leaf 1, the parent of leaves 2 and 3, and the parent of leaf 4.
+    assertEquals(3 * HASH_SIZE, tree.multiproofSize(new int[]{0}, 1));
+    assertEquals(2 * HASH_SIZE, tree.multiproofSize(new int[]{0, 4}, 2));
+  }
+}
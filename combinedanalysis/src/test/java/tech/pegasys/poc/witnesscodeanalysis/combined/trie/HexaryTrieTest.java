@@ -0,0 +1,107 @@
+/*
+ * Copyright ConsenSys AG.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+package tech.pegasys.poc.witnesscodeanalysis.combined.trie;
+
+import org.apache.tuweni.bytes.Bytes;
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Root hashes from the Ethereum trie tests. Their keys are not hashed, as in HexaryTrie.
+ */
+public class HexaryTrieTest {
+
+  @Test
+  public void emptyTrie() {
+    assertRoot("0x56e81f171bcc55a6ff8345e692c0f86e5b48e01b996cadc001622fb5e363b421");
+  }
+
+  @Test
+  public void singleLeafHeldByItsHash() {
+    StringBuilder value = new StringBuilder();
+    for (int i = 0; i < 50; i++) {
+      value.append('a');
+    }
+    assertRoot("0xd23786fb4a010da3ce639d66d5e904a11dbc02746d1ce25029e53290cabf28ab",
+        "A", value.toString());
+  }
+
+  @Test
+  public void branchWithValue() {
+    assertRoot("0x8aad789dff2f538bca5d8ea56e8abe10f4c7ba3a5dea95fea4cd6e7c3a1168d3",
+        "doe", "reindeer",
+        "dog", "puppy",
+        "dogglesworth", "cat");
+  }
+
+  @Test
+  public void keysWhichArePrefixesOfOtherKeys() {
+    assertRoot("0x5991bb8c6514148a29db676a14ac506cd2cd5775ace63c30a4fe457715e9ac84",
+        "do", "verb",
+        "dog", "puppy",
+        "doge", "coin",
+        "horse", "stallion");
+  }
+
+  /**
+   * Two leaves of 43 bytes, held by hash in a branch of 83 bytes: the hashes of sixteen
+   * children and the value, of which fourteen and the value are empty.
+   */
+  @Test
+  public void multiproofLeavesOutHashesOfProvedLeaves() {
+    byte[] value = new byte[40];
+    HexaryTrie trie = new HexaryTrie(new byte[][]{{0x00}, {0x10}}, new byte[][]{value, value});
+    assertEquals(0, trie.multiproofSize(new int[]{0}, 0));
+    // The branch, without the hash of the leaf, which can be computed from the leaf.
+    assertEquals(83 - 32, trie.multiproofSize(new int[]{1}, 1));
+    assertEquals(83 - 2 * 32, trie.multiproofSize(new int[]{0, 1}, 2));
+  }
+
+  /**
+   * Small leaves are held in their branch, and the branch in the extension above it, so the
+   * proof of either leaf is the root node of 26 bytes.
+   */
+  @Test
+  public void multiproofIncludesNodesHeldInTheirParent() {
+    HexaryTrie trie = new HexaryTrie(new byte[][]{{0x12, 0x34}, {0x12, 0x35}}, new byte[][]{{1}, {2}});
+    assertEquals(26, trie.multiproofSize(new int[]{0}, 1));
+    assertEquals(26, trie.multiproofSize(new int[]{1}, 1));
+    assertEquals(26, trie.multiproofSize(new int[]{0, 1}, 2));
+  }
+
+  @Test
+  public void multiproofOfEmptyTrie() {
+    assertEquals(0, new HexaryTrie(new byte[0][], new byte[0][]).multiproofSize(new int[0], 0));
+  }
+
+  /**
+   * @param keysAndValues Each key followed by its value, with the keys in ascending order.
+   */
+  private static void assertRoot(String expectedRoot, String... keysAndValues) {
+    int numLeaves = keysAndValues.length / 2;
+    byte[][] keys = new byte[numLeaves][];
+    byte[][] values = new byte[numLeaves][];
+    for (int i = 0; i < numLeaves; i++) {
+      keys[i] = keysAndValues[2 * i].getBytes(StandardCharsets.US_ASCII);
+      values[i] = keysAndValues[2 * i + 1].getBytes(StandardCharsets.US_ASCII);
+    }
+    HexaryTrie trie = new HexaryTrie(keys, values);
+    assertEquals(numLeaves, trie.getNumLeaves());
+    assertEquals(expectedRoot, Bytes.wrap(trie.getRootHash()).toHexString());
+  }
+}
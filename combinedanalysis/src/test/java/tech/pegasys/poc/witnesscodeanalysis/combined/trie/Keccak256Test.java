@@ -0,0 +1,76 @@
+/*
+ * Copyright ConsenSys AG.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+package tech.pegasys.poc.witnesscodeanalysis.combined.trie;
+
+import org.apache.tuweni.bytes.Bytes;
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.Assert.assertEquals;
+
+public class Keccak256Test {
+
+  @Test
+  public void emptyInput() {
+    assertEquals("0xc5d2460186f7233c927e7db2dcc703c0e500b653ca82273b7bfad8045d85a470",
+        Bytes.wrap(Keccak256.hash(new byte[0])).toHexString());
+  }
+
+  @Test
+  public void shortInput() {
+    assertEquals("0x4e03657aea45a94fc7d47ba826c8d667c0d1e6e33a64a036ec44f58fa12d6c45",
+        Bytes.wrap(Keccak256.hash("abc".getBytes(StandardCharsets.US_ASCII))).toHexString());
+  }
+
+  // Answers for the inputs below were computed with an independent Keccak-256, checked against
+  // the SHA3-256 of the same permutation.
+
+  @Test
+  public void inputOneByteShorterThanTheRate() {
+    assertEquals("0xcbdfd9dee5faad3818d6b06f95a219fd290b0e1706f6a82e5a595b9ce9faca62", hashOfCounting(135));
+  }
+
+  @Test
+  public void inputOfExactlyTheRate() {
+    assertEquals("0x7ce759f1ab7f9ce437719970c26b0a66ff11fe3e38e17df89cf5d29c7d7f807e", hashOfCounting(136));
+  }
+
+  @Test
+  public void inputLongerThanTheRate() {
+    assertEquals("0xbfb0aa97863e797943cf7c33bb7e880bb4543f3d2703c0923c6901c2af57b890", hashOfCounting(200));
+  }
+
+  @Test
+  public void inputPartOfAnArray() {
+    byte[] padded = new byte[310];
+    for (int i = 0; i < 300; i++) {
+      padded[5 + i] = (byte) i;
+    }
+    assertEquals("0xa679e749a6af300c36e7ff2255d220864eab27b382f9cfdc5aa4d13563ba36ff",
+        Bytes.wrap(Keccak256.hash(padded, 5, 300)).toHexString());
+  }
+
+  /**
+   * @return The hash of the bytes 0, 1, 2 and so on, wrapping at 256.
+   */
+  private static String hashOfCounting(int length) {
+    byte[] data = new byte[length];
+    for (int i = 0; i < length; i++) {
+      data[i] = (byte) i;
+    }
+    return Bytes.wrap(Keccak256.hash(data)).toHexString();
+  }
+}
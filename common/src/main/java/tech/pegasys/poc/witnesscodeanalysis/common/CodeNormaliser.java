@@ -0,0 +1,113 @@
+/*
+ * Copyright ConsenSys AG.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+package tech.pegasys.poc.witnesscodeanalysis.common;
+
+import org.apache.tuweni.bytes.Bytes;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * Canonicalises code so that contracts which only differ in their Solidity metadata (aux data)
+ * or in the values of immutables map to the same code.
+ *
+ * The canonical code has the same length as the code, so offsets in the code, and hence the
+ * offsets in analysis results, are the same for all code in an equivalence class:
+ * - Bytes in the aux data are set to STOP, except those which decode as a JUMPDEST, which are
+ *   kept. The aux data is not executed, but the jump destinations found by a linear sweep are
+ *   the same as for the original code.
+ * - The values of PUSH32 instructions before the aux data are set to all ones if the value is
+ *   not an offset into the code. Immutables are PUSH32 instructions whose values are filled in
+ *   by the constructor. Values which could be jump destinations or code copy offsets are kept,
+ *   as the analysis depends on them.
+ *
+ * This is an approximation. A PUSH32 value which is not itself an offset may still be used to
+ * compute one, for example as a mask or an operand of arithmetic, in which case contracts with
+ * the same canonical code can have different analysis results. Only share results between
+ * contracts with the same canonical code where such differences are acceptable.
+ */
+public class CodeNormaliser {
+  private static final int STOP = 0x00;
+  private static final int JUMPDEST = 0x5b;
+  private static final int PUSH1 = 0x60;
+  private static final int PUSH32 = 0x7f;
+  private static final int PUSH32_SIZE = 32;
+
+  /**
+   * @return The canonical form of the code.
+   */
+  public static Bytes normalise(Bytes code) {
+    byte[] result = code.toArray();
+    int len = result.length;
+    int startOfAuxData = findStartOfAuxData(code);
+
+    int pc = 0;
+    while (pc < len) {
+      int opcode = result[pc] & 0xff;
+      int immediateSize = (opcode >= PUSH1 && opcode <= PUSH32) ? opcode - PUSH1 + 1 : 0;
+      if (pc >= startOfAuxData) {
+        result[pc] = (byte) (opcode == JUMPDEST ? JUMPDEST : STOP);
+        for (int i = pc + 1; i <= pc + immediateSize && i < len; i++) {
+          result[i] = STOP;
+        }
+      }
+      else if (opcode == PUSH32 && pc + PUSH32_SIZE < startOfAuxData && !couldBeOffset(result, pc + 1, len)) {
+        for (int i = pc + 1; i <= pc + PUSH32_SIZE; i++) {
+          result[i] = (byte) 0xff;
+        }
+      }
+      pc += 1 + immediateSize;
+    }
+    return Bytes.wrap(result);
+  }
+
+  /**
+   * @return SHA-256 hash of the canonical form of the code.
+   */
+  public static Bytes normalisedHash(Bytes code) {
+    try {
+      MessageDigest digest = MessageDigest.getInstance("SHA-256");
+      return Bytes.wrap(digest.digest(normalise(code).toArrayUnsafe()));
+    } catch (NoSuchAlgorithmException ex) {
+      throw new Error(ex);
+    }
+  }
+
+  private static int findStartOfAuxData(Bytes code) {
+    try {
+      AuxData auxData = new AuxData(code);
+      return auxData.hasAuxData() ? auxData.getStartOfAuxData() : code.size();
+    } catch (Throwable th) {
+      // AuxData throws errors for metadata it does not understand. Treat it as code.
+      return code.size();
+    }
+  }
+
+  /**
+   * @return true if the 32 byte big endian value at offset is less than the code length.
+   */
+  private static boolean couldBeOffset(byte[] code, int offset, int codeLength) {
+    for (int i = offset; i < offset + PUSH32_SIZE - 4; i++) {
+      if (code[i] != 0) {
+        return false;
+      }
+    }
+    long value = 0;
+    for (int i = offset + PUSH32_SIZE - 4; i < offset + PUSH32_SIZE; i++) {
+      value = (value << 8) | (code[i] & 0xff);
+    }
+    return value < codeLength;
+  }
+}
@@ -0,0 +1,467 @@
+/*
+ * Copyright ConsenSys AG.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+package tech.pegasys.poc.witnesscodeanalysis.common;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.EnumSet;
+import java.util.Set;
+
+/**
+ * Streaming reader for the contract data file: a sequence of JSON objects, one per contract.
+ *
+ * The scanner works directly on the bytes of the file. Fields which have not been selected are
+ * skipped without being decoded, and the hex code is decoded straight into the record's code
+ * buffer, so no String copy of the code is made. The same record is returned by each call to
+ * next().
+ */
+public class ContractDataScanner implements ContractRecordSource {
+  private static final int BUFFER_SIZE = 256 * 1024;
+
+  private static final byte[] HEX_VALUES = new byte[256];
+  static {
+    Arrays.fill(HEX_VALUES, (byte) -1);
+    for (int i = 0; i < 10; i++) {
+      HEX_VALUES['0' + i] = (byte) i;
+    }
+    for (int i = 0; i < 6; i++) {
+      HEX_VALUES['a' + i] = (byte) (10 + i);
+      HEX_VALUES['A' + i] = (byte) (10 + i);
+    }
+  }
+
+  private static final byte[] KEY_CODE = ascii("code");
+  private static final byte[] KEY_CODE_HASH = ascii("code_hash");
+  private static final byte[] KEY_CONTRACT_ADDRESS = ascii("contract_address");
+  private static final byte[] KEY_DEPLOYED_AT_BLOCK = ascii("deployed_at_block");
+  private static final byte[] KEY_RECENT_ACCESSED_AT_BLOCK = ascii("recent_accessed_at_block");
+
+  private final InputStream in;
+  private final boolean readCode;
+  private final boolean readCodeHash;
+  private final boolean readContractAddress;
+  private final boolean readDeployedAtBlock;
+  private final boolean readRecentAccessedAtBlock;
+
+  private final byte[] buf = new byte[BUFFER_SIZE];
+  private int pos;
+  private int limit;
+  private long bytesConsumed;
+
+  private byte[] key = new byte[64];
+  private int keyLength;
+  private int hexLength;
+  private byte[] text = new byte[64];
+
+  private final ContractRecord record = new ContractRecord();
+  private int nextId;
+
+  public ContractDataScanner(String fileIn, Set<ContractRecord.Field> fields) throws IOException {
+    this(new FileInputStream(fileIn), fields);
+  }
+
+  public ContractDataScanner(InputStream in, Set<ContractRecord.Field> fields) {
+    this.in = in;
+    this.readCode = fields.contains(ContractRecord.Field.CODE);
+    this.readCodeHash = fields.contains(ContractRecord.Field.CODE_HASH);
+    this.readContractAddress = fields.contains(ContractRecord.Field.CONTRACT_ADDRESS);
+    this.readDeployedAtBlock = fields.contains(ContractRecord.Field.DEPLOYED_AT_BLOCK);
+    this.readRecentAccessedAtBlock = fields.contains(ContractRecord.Field.RECENT_ACCESSED_AT_BLOCK);
+  }
+
+  public static Set<ContractRecord.Field> allFields() {
+    return EnumSet.allOf(ContractRecord.Field.class);
+  }
+
+  @Override
+  public ContractRecord next() throws IOException {
+    int ch = skipWhitespace();
+    if (ch == -1) {
+      return null;
+    }
+    expect(ch, '{');
+    this.record.clear(this.nextId++);
+
+    ch = skipWhitespace();
+    if (ch == '}') {
+      return this.record;
+    }
+    while (true) {
+      expect(ch, '"');
+      readKey();
+      expect(skipWhitespace(), ':');
+
+      if (this.readCode && keyIs(KEY_CODE)) {
+        this.record.code = readHex(this.record.code);
+        this.record.codeLength = this.hexLength;
+      }
+      else if (this.readCodeHash && keyIs(KEY_CODE_HASH)) {
+        this.record.codeHash = readHex(this.record.codeHash);
+        this.record.hasCodeHash = this.hexLength == this.record.codeHash.length;
+      }
+      else if (this.readContractAddress && keyIs(KEY_CONTRACT_ADDRESS)) {
+        this.record.contractAddresses = readStringArray();
+      }
+      else if (this.readDeployedAtBlock && keyIs(KEY_DEPLOYED_AT_BLOCK)) {
+        this.record.deployedAtBlock = readIntArray();
+      }
+      else if (this.readRecentAccessedAtBlock && keyIs(KEY_RECENT_ACCESSED_AT_BLOCK)) {
+        this.record.recentAccessedAtBlock = readIntArray();
+      }
+      else {
+        skipValue();
+      }
+
+      ch = skipWhitespace();
+      if (ch == '}') {
+        return this.record;
+      }
+      expect(ch, ',');
+      ch = skipWhitespace();
+    }
+  }
+
+  /**
+   * @return The number of bytes of the file which have been parsed.
+   */
+  public long getBytesConsumed() {
+    return this.bytesConsumed + this.pos;
+  }
+
+  @Override
+  public void close() throws IOException {
+    this.in.close();
+  }
+
+  private int read() throws IOException {
+    if (this.pos == this.limit && !fill()) {
+      return -1;
+    }
+    return this.buf[this.pos++] & 0xff;
+  }
+
+  private int peek() throws IOException {
+    if (this.pos == this.limit && !fill()) {
+      return -1;
+    }
+    return this.buf[this.pos] & 0xff;
+  }
+
+  private boolean fill() throws IOException {
+    this.bytesConsumed += this.limit;
+    this.pos = 0;
+    this.limit = 0;
+    int n;
+    while ((n = this.in.read(this.buf, 0, this.buf.length)) == 0) {
+      // Keep trying until data or the end of the stream.
+    }
+    if (n < 0) {
+      return false;
+    }
+    this.limit = n;
+    return true;
+  }
+
+  private int skipWhitespace() throws IOException {
+    int ch;
+    do {
+      ch = read();
+    } while (ch == ' ' || ch == '\n' || ch == '\r' || ch == '\t');
+    return ch;
+  }
+
+  private void expect(int ch, char expected) throws IOException {
+    if (ch != expected) {
+      throw new IOException("Expected '" + expected + "' but found "
+          + (ch == -1 ? "end of data" : "'" + (char) ch + "'") + " at offset " + (getBytesConsumed() - 1));
+    }
+  }
+
+  private void readKey() throws IOException {
+    this.keyLength = 0;
+    int ch;
+    while ((ch = read()) != '"') {
+      if (ch == -1) {
+        expect(ch, '"');
+      }
+      if (ch == '\\') {
+        ch = read();
+      }
+      if (this.keyLength == this.key.length) {
+        this.key = Arrays.copyOf(this.key, this.key.length * 2);
+      }
+      this.key[this.keyLength++] = (byte) ch;
+    }
+  }
+
+  private boolean keyIs(byte[] expected) {
+    if (this.keyLength != expected.length) {
+      return false;
+    }
+    for (int i = 0; i < expected.length; i++) {
+      if (this.key[i] != expected[i]) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Decode a hex string value, with or without a 0x prefix, into dest. A null value decodes to
+   * no bytes.
+   *
+   * @return dest, or a larger array if dest was too small. The number of bytes decoded is in hexLength.
+   */
+  private byte[] readHex(byte[] dest) throws IOException {
+    this.hexLength = 0;
+    int ch = skipWhitespace();
+    if (ch == 'n') {
+      skipLiteral();
+      return dest;
+    }
+    expect(ch, '"');
+    int length = 0;
+    int start = read();
+    if (start == '0' && (peek() == 'x' || peek() == 'X')) {
+      this.pos++;
+    }
+    else if (start == '"') {
+      return dest;
+    }
+    else {
+      // No prefix: the character read is the high nibble of the first byte.
+      int hi = start == -1 ? -1 : HEX_VALUES[start];
+      int second = read();
+      int lo = second == -1 ? -1 : HEX_VALUES[second];
+      if ((hi | lo) < 0) {
+        throw new IOException("Invalid hex string at offset " + (getBytesConsumed() - 2));
+      }
+      dest[length++] = (byte) ((hi << 4) | lo);
+    }
+
+    while (true) {
+      // Decode directly from the buffer while both nibbles of a byte are available.
+      int end = this.limit - 1;
+      byte[] b = this.buf;
+      int p = this.pos;
+      while (p < end) {
+        int hi = HEX_VALUES[b[p] & 0xff];
+        int lo = HEX_VALUES[b[p + 1] & 0xff];
+        if ((hi | lo) < 0) {
+          break;
+        }
+        if (length == dest.length) {
+          dest = Arrays.copyOf(dest, dest.length * 2);
+        }
+        dest[length++] = (byte) ((hi << 4) | lo);
+        p += 2;
+      }
+      this.pos = p;
+
+      // Slow path: the end of the string, a pair split across buffers, or bad data.
+      int first = read();
+      if (first == '"') {
+        break;
+      }
+      int second = read();
+      int hi = first == -1 ? -1 : HEX_VALUES[first];
+      int lo = second == -1 ? -1 : HEX_VALUES[second];
+      if ((hi | lo) < 0) {
+        throw new IOException("Invalid hex string at offset " + (getBytesConsumed() - 2));
+      }
+      if (length == dest.length) {
+        dest = Arrays.copyOf(dest, dest.length * 2);
+      }
+      dest[length++] = (byte) ((hi << 4) | lo);
+    }
+    this.hexLength = length;
+    return dest;
+  }
+
+  private String[] readStringArray() throws IOException {
+    int ch = skipWhitespace();
+    if (ch == 'n') {
+      skipLiteral();
+      return null;
+    }
+    expect(ch, '[');
+    String[] values = new String[1];
+    int count = 0;
+    ch = skipWhitespace();
+    while (ch != ']') {
+      expect(ch, '"');
+      if (count == values.length) {
+        values = Arrays.copyOf(values, count * 2);
+      }
+      values[count++] = readString();
+      ch = skipWhitespace();
+      if (ch == ',') {
+        ch = skipWhitespace();
+      }
+    }
+    return count == values.length ? values : Arrays.copyOf(values, count);
+  }
+
+  /**
+   * Read a string value, after the opening quote. Only the escapes which can appear in
+   * addresses and similar ASCII values are decoded.
+   */
+  private String readString() throws IOException {
+    int length = 0;
+    int ch;
+    while ((ch = read()) != '"') {
+      if (ch == -1) {
+        expect(ch, '"');
+      }
+      if (ch == '\\') {
+        ch = read();
+      }
+      if (length == this.text.length) {
+        this.text = Arrays.copyOf(this.text, length * 2);
+      }
+      this.text[length++] = (byte) ch;
+    }
+    return new String(this.text, 0, length, StandardCharsets.US_ASCII);
+  }
+
+  private int[] readIntArray() throws IOException {
+    int ch = skipWhitespace();
+    if (ch == 'n') {
+      skipLiteral();
+      return null;
+    }
+    expect(ch, '[');
+    int[] values = new int[4];
+    int count = 0;
+    ch = skipWhitespace();
+    while (ch != ']') {
+      boolean negative = ch == '-';
+      if (negative) {
+        ch = read();
+      }
+      long value = 0;
+      if (ch == 'n') {
+        // null entry.
+        skipLiteral();
+        ch = skipWhitespace();
+      }
+      else {
+        while (ch >= '0' && ch <= '9') {
+          value = value * 10 + (ch - '0');
+          ch = read();
+        }
+        if (ch == '.' || ch == 'e' || ch == 'E') {
+          // Not expected for block numbers. Drop the fraction.
+          while (ch != ',' && ch != ']' && ch != -1) {
+            ch = read();
+          }
+        }
+        if (ch == ' ' || ch == '\n' || ch == '\r' || ch == '\t') {
+          ch = skipWhitespace();
+        }
+      }
+      if (count == values.length) {
+        values = Arrays.copyOf(values, count * 2);
+      }
+      values[count++] = (int) (negative ? -value : value);
+      if (ch == ',') {
+        ch = skipWhitespace();
+      }
+      else if (ch != ']') {
+        expect(ch, ']');
+      }
+    }
+    return Arrays.copyOf(values, count);
+  }
+
+  /**
+   * Skip the rest of a literal such as null, true or false, after its first character.
+   */
+  private void skipLiteral() throws IOException {
+    int ch;
+    while ((ch = peek()) >= 'a' && ch <= 'z') {
+      this.pos++;
+    }
+  }
+
+  /**
+   * Skip a value of any type, including nested objects and arrays.
+   */
+  private void skipValue() throws IOException {
+    int depth = 0;
+    int ch = skipWhitespace();
+    while (true) {
+      switch (ch) {
+        case -1:
+          throw new IOException("Unexpected end of data in value");
+        case '"':
+          skipString();
+          break;
+        case '{':
+        case '[':
+          depth++;
+          break;
+        case '}':
+        case ']':
+          depth--;
+          break;
+        default:
+          if (depth == 0) {
+            // A number or literal: stop before the delimiter that ends it.
+            int next;
+            while ((next = peek()) != ',' && next != '}' && next != ']' && next != -1
+                && next != ' ' && next != '\n' && next != '\r' && next != '\t') {
+              this.pos++;
+            }
+          }
+          break;
+      }
+      if (depth == 0) {
+        return;
+      }
+      ch = read();
+    }
+  }
+
+  private void skipString() throws IOException {
+    while (true) {
+      // Scan the buffer for the closing quote without a method call per byte.
+      byte[] b = this.buf;
+      int p = this.pos;
+      int end = this.limit;
+      while (p < end && b[p] != '"' && b[p] != '\\') {
+        p++;
+      }
+      this.pos = p;
+      int ch = read();
+      if (ch == '"') {
+        return;
+      }
+      if (ch == '\\') {
+        read();
+      }
+      else if (ch == -1) {
+        throw new IOException("Unexpected end of data in string");
+      }
+    }
+  }
+
+  private static byte[] ascii(String s) {
+    return s.getBytes(StandardCharsets.US_ASCII);
+  }
+}
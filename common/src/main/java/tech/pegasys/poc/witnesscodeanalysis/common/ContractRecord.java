@@ -0,0 +1,167 @@
+/*
+ * Copyright ConsenSys AG.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+package tech.pegasys.poc.witnesscodeanalysis.common;
+
+import org.apache.logging.log4j.Logger;
+import org.apache.tuweni.bytes.Bytes;
+
+import java.util.Arrays;
+
+import static org.apache.logging.log4j.LogManager.getLogger;
+
+/**
+ * A contract read from the contract data file, with the code already decoded to bytes.
+ *
+ * Records returned by a ContractRecordSource are reused: the code buffer is only valid until
+ * the next record is read. Use copy() to keep a record for longer, for instance to hand it to
+ * another thread.
+ */
+public class ContractRecord {
+  private static final Logger LOG = getLogger();
+
+  /** Fields of the contract data file which can be read. Other fields are always skipped. */
+  public enum Field {
+    CODE,
+    CODE_HASH,
+    CONTRACT_ADDRESS,
+    DEPLOYED_AT_BLOCK,
+    RECENT_ACCESSED_AT_BLOCK
+  }
+
+  private static final int INITIAL_CODE_CAPACITY = 32 * 1024;
+  private static final int CODE_HASH_LENGTH = 32;
+
+  int id;
+  byte[] code;
+  int codeLength;
+  byte[] codeHash;
+  boolean hasCodeHash;
+  String[] contractAddresses;
+  int[] deployedAtBlock;
+  int[] recentAccessedAtBlock;
+
+  public ContractRecord() {
+    this.code = new byte[INITIAL_CODE_CAPACITY];
+    this.codeHash = new byte[CODE_HASH_LENGTH];
+  }
+
+  /**
+   * Create a record from values which have already been decoded, for instance from a contract store.
+   *
+   * @param codeHash The code hash, or null if not known.
+   */
+  public ContractRecord(int id, byte[] code, byte[] codeHash, String[] contractAddresses, int[] deployedAtBlock,
+                        int[] recentAccessedAtBlock) {
+    this.id = id;
+    this.code = code;
+    this.codeLength = code.length;
+    this.hasCodeHash = codeHash != null;
+    this.codeHash = codeHash != null ? codeHash : new byte[CODE_HASH_LENGTH];
+    this.contractAddresses = contractAddresses;
+    this.deployedAtBlock = deployedAtBlock;
+    this.recentAccessedAtBlock = recentAccessedAtBlock;
+  }
+
+  private ContractRecord(ContractRecord other) {
+    this.id = other.id;
+    this.code = Arrays.copyOf(other.code, other.codeLength);
+    this.codeLength = other.codeLength;
+    this.codeHash = other.codeHash.clone();
+    this.hasCodeHash = other.hasCodeHash;
+    this.contractAddresses = other.contractAddresses;
+    this.deployedAtBlock = other.deployedAtBlock;
+    this.recentAccessedAtBlock = other.recentAccessedAtBlock;
+  }
+
+  /**
+   * @return A record which does not share the code buffer with this one.
+   */
+  public ContractRecord copy() {
+    return new ContractRecord(this);
+  }
+
+  void clear(int id) {
+    this.id = id;
+    this.codeLength = 0;
+    this.hasCodeHash = false;
+    this.contractAddresses = null;
+    this.deployedAtBlock = null;
+    this.recentAccessedAtBlock = null;
+  }
+
+  /**
+   * @return The contract id: the number of the contract's line in the contract data file, starting at zero.
+   */
+  public int getId() {
+    return id;
+  }
+
+  /**
+   * @return The code. The bytes are a view of the record's buffer, not a copy.
+   */
+  public Bytes getCode() {
+    return Bytes.wrap(this.code, 0, this.codeLength);
+  }
+
+  public int getCodeLength() {
+    return codeLength;
+  }
+
+  /**
+   * @return The code hash, or null if it was not read.
+   */
+  public Bytes getCodeHash() {
+    return this.hasCodeHash ? Bytes.wrap(this.codeHash) : null;
+  }
+
+  public String[] getContractAddresses() {
+    return contractAddresses;
+  }
+
+  public int[] getDeployedAtBlock() {
+    return deployedAtBlock;
+  }
+
+  public int[] getRecentAccessedAtBlock() {
+    return recentAccessedAtBlock;
+  }
+
+  public void showInfo(int contractNumber) {
+    if (!LOG.isInfoEnabled() || this.contractAddresses == null || this.contractAddresses.length == 0) {
+      return;
+    }
+    int numDeployments = this.contractAddresses.length;
+
+    // Print out information about the contract to get a feel for how important the results are.
+    LOG.info("Processing contract {} deployed at address: {} and {} other times", contractNumber, this.contractAddresses[0], numDeployments - 1);
+    if (LOG.isTraceEnabled()) {
+      LOG.trace(" Code Size: {}", this.codeLength);
+      if (this.deployedAtBlock != null) {
+        int firstDeployment = Integer.MAX_VALUE;
+        for (int deployment : this.deployedAtBlock) {
+          firstDeployment = Math.min(firstDeployment, deployment);
+        }
+        LOG.trace(" First Deployed at block: {}", firstDeployment);
+      }
+      if (this.recentAccessedAtBlock != null) {
+        int lastTransaction = 0;
+        for (int transaction : this.recentAccessedAtBlock) {
+          lastTransaction = Math.max(lastTransaction, transaction);
+        }
+        LOG.trace(" Last transaction for all deployments: {}", lastTransaction);
+      }
+    }
+  }
+}
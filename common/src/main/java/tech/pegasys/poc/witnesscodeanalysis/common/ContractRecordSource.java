@@ -0,0 +1,38 @@
+/*
+ * Copyright ConsenSys AG.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+package tech.pegasys.poc.witnesscodeanalysis.common;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+/**
+ * A sequence of contracts, read one at a time.
+ */
+public interface ContractRecordSource extends Closeable {
+
+  /**
+   * Read the next contract. The record returned may be reused by the following call.
+   *
+   * @return The next contract, or null at the end of the data.
+   */
+  ContractRecord next() throws IOException;
+
+  /**
+   * @return True if the record returned by next may be reused, so must be copied to be kept.
+   */
+  default boolean reusesRecords() {
+    return true;
+  }
+}
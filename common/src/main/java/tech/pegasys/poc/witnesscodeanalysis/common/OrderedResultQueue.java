@@ -0,0 +1,57 @@
+/*
+ * Copyright ConsenSys AG.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+package tech.pegasys.poc.witnesscodeanalysis.common;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Queue which allows results to be added in any order by worker threads, and
+ * taken in sequence number order by a single writer thread.
+ *
+ * Sequence numbers must start at zero and have no gaps. At most capacity results
+ * can be held waiting for an earlier result: workers putting results further ahead
+ * than that block until the writer catches up.
+ */
+public class OrderedResultQueue<T> {
+  private final Map<Long, T> pending = new HashMap<>();
+  private final int capacity;
+  private long next = 0;
+
+  public OrderedResultQueue(int capacity) {
+    if (capacity < 1) {
+      throw new IllegalArgumentException("Capacity must be at least one: " + capacity);
+    }
+    this.capacity = capacity;
+  }
+
+  public synchronized void put(long sequenceNumber, T result) throws InterruptedException {
+    while (sequenceNumber >= this.next + this.capacity) {
+      wait();
+    }
+    this.pending.put(sequenceNumber, result);
+    notifyAll();
+  }
+
+  public synchronized T take() throws InterruptedException {
+    while (!this.pending.containsKey(this.next)) {
+      wait();
+    }
+    T result = this.pending.remove(this.next);
+    this.next++;
+    notifyAll();
+    return result;
+  }
+}
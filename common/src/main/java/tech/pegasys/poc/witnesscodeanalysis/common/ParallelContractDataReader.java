@@ -0,0 +1,246 @@
+/*
+ * Copyright ConsenSys AG.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+package tech.pegasys.poc.witnesscodeanalysis.common;
+
+import org.apache.logging.log4j.Logger;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+
+import static org.apache.logging.log4j.LogManager.getLogger;
+
+/**
+ * Reads the contract data file using several threads.
+ *
+ * The file is memory mapped and split into newline aligned byte ranges. Each thread parses
+ * every numThreads'th range with its own ContractDataScanner. The records are returned in
+ * file order, so each contract gets the same id, its line number, as when the file is read
+ * sequentially. This keeps ids in step with DeploymentAddress and the block analysis.
+ *
+ * A range is only parsed once the caller is within a few ranges of it, which bounds the
+ * number of parsed records waiting to be returned.
+ */
+public class ParallelContractDataReader implements ContractRecordSource {
+  private static final Logger LOG = getLogger();
+
+  public static final int DEFAULT_RANGE_SIZE = 4 * 1024 * 1024;
+  // Ranges are mapped in one piece, so must be smaller than the maximum size of a mapped buffer.
+  private static final int MAX_RANGE_SIZE = 1024 * 1024 * 1024;
+  // How many ranges each thread may parse ahead of the range being returned.
+  private static final int RANGES_AHEAD_PER_THREAD = 2;
+  private static final ContractRecord END_OF_RANGE = new ContractRecord();
+
+  private final FileChannel channel;
+  private final Set<ContractRecord.Field> fields;
+  private final List<Range> ranges;
+  private final ExecutorService parsers;
+  private final int maxRangesAhead;
+
+  // Guarded by this.ranges. Parser threads wait on it until their next range may be parsed.
+  private int currentRange = 0;
+  private int nextId = 0;
+  private volatile Throwable parseFailure;
+
+  public ParallelContractDataReader(String fileIn, Set<ContractRecord.Field> fields, int numThreads) throws IOException {
+    this(fileIn, fields, numThreads, DEFAULT_RANGE_SIZE);
+  }
+
+  public ParallelContractDataReader(String fileIn, Set<ContractRecord.Field> fields, int numThreads, int rangeSize) throws IOException {
+    if (numThreads < 1) {
+      throw new IllegalArgumentException("Number of threads must be at least one: " + numThreads);
+    }
+    if (rangeSize < 1 || rangeSize > MAX_RANGE_SIZE) {
+      throw new IllegalArgumentException("Range size out of range: " + rangeSize);
+    }
+    this.channel = FileChannel.open(Paths.get(fileIn), StandardOpenOption.READ);
+    this.fields = fields;
+    this.ranges = splitIntoRanges(rangeSize);
+    this.maxRangesAhead = numThreads * RANGES_AHEAD_PER_THREAD;
+    LOG.info("Reading {} using {} threads, {} ranges", fileIn, numThreads, this.ranges.size());
+
+    this.parsers = Executors.newFixedThreadPool(numThreads, runnable -> {
+      Thread thread = new Thread(runnable, "contract-parser");
+      thread.setDaemon(true);
+      return thread;
+    });
+    for (int i = 0; i < numThreads; i++) {
+      final int first = i;
+      this.parsers.execute(() -> parseRanges(first, numThreads));
+    }
+  }
+
+  @Override
+  public ContractRecord next() throws IOException {
+    try {
+      int rangeIndex = getCurrentRange();
+      while (rangeIndex < this.ranges.size()) {
+        ContractRecord record = this.ranges.get(rangeIndex).records.take();
+        if (record != END_OF_RANGE) {
+          record.id = this.nextId++;
+          return record;
+        }
+        if (this.parseFailure != null) {
+          throw new IOException("Failure parsing contract data", this.parseFailure);
+        }
+        synchronized (this.ranges) {
+          rangeIndex = ++this.currentRange;
+          this.ranges.notifyAll();
+        }
+      }
+      return null;
+    } catch (InterruptedException ex) {
+      Thread.currentThread().interrupt();
+      throw new IOException("Interrupted while reading contract data", ex);
+    }
+  }
+
+  /**
+   * Records are not reused: each one is parsed into its own record on a parser thread.
+   */
+  @Override
+  public boolean reusesRecords() {
+    return false;
+  }
+
+  @Override
+  public void close() throws IOException {
+    this.parsers.shutdownNow();
+    this.channel.close();
+  }
+
+  private int getCurrentRange() {
+    synchronized (this.ranges) {
+      return this.currentRange;
+    }
+  }
+
+  private List<Range> splitIntoRanges(int rangeSize) throws IOException {
+    long fileSize = this.channel.size();
+    List<Range> result = new ArrayList<>();
+    long start = 0;
+    while (start < fileSize) {
+      long end = Math.min(start + rangeSize, fileSize);
+      if (end < fileSize) {
+        end = endOfLine(end, fileSize);
+      }
+      result.add(new Range(start, end));
+      start = end;
+    }
+    return result;
+  }
+
+  /**
+   * @return The offset after the first newline at or after offset, or the file size.
+   */
+  private long endOfLine(long offset, long fileSize) throws IOException {
+    ByteBuffer buf = ByteBuffer.allocate(64 * 1024);
+    long pos = offset;
+    while (pos < fileSize) {
+      buf.clear();
+      int n = this.channel.read(buf, pos);
+      if (n <= 0) {
+        break;
+      }
+      for (int i = 0; i < n; i++) {
+        if (buf.get(i) == '\n') {
+          return pos + i + 1;
+        }
+      }
+      pos += n;
+    }
+    return fileSize;
+  }
+
+  private void parseRanges(int first, int step) {
+    try {
+      for (int i = first; i < this.ranges.size(); i += step) {
+        synchronized (this.ranges) {
+          while (i >= this.currentRange + this.maxRangesAhead) {
+            this.ranges.wait();
+          }
+        }
+        Range range = this.ranges.get(i);
+        try {
+          if (this.parseFailure == null) {
+            parseRange(range);
+          }
+        } catch (InterruptedException ex) {
+          throw ex;
+        } catch (Throwable th) {
+          this.parseFailure = th;
+        }
+        // The reader waits for the end of each range, so it must be added even on failure.
+        range.records.put(END_OF_RANGE);
+      }
+    } catch (InterruptedException ex) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  private void parseRange(Range range) throws IOException, InterruptedException {
+    MappedByteBuffer mapped = this.channel.map(FileChannel.MapMode.READ_ONLY, range.start, range.end - range.start);
+    ContractDataScanner scanner = new ContractDataScanner(new ByteBufferInputStream(mapped), this.fields);
+    ContractRecord record;
+    while ((record = scanner.next()) != null) {
+      range.records.put(record.copy());
+    }
+  }
+
+  private static class Range {
+    final long start;
+    final long end;
+    final BlockingQueue<ContractRecord> records = new LinkedBlockingQueue<>();
+
+    Range(long start, long end) {
+      this.start = start;
+      this.end = end;
+    }
+  }
+
+  private static class ByteBufferInputStream extends InputStream {
+    private final ByteBuffer buf;
+
+    ByteBufferInputStream(ByteBuffer buf) {
+      this.buf = buf;
+    }
+
+    @Override
+    public int read() {
+      return this.buf.hasRemaining() ? this.buf.get() & 0xff : -1;
+    }
+
+    @Override
+    public int read(byte[] dest, int offset, int length) {
+      if (!this.buf.hasRemaining()) {
+        return -1;
+      }
+      int n = Math.min(length, this.buf.remaining());
+      this.buf.get(dest, offset, n);
+      return n;
+    }
+  }
+}
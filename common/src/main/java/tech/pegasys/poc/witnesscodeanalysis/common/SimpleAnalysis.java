@@ -16,11 +16,10 @@ package tech.pegasys.poc.witnesscodeanalysis.common;
 
 import org.apache.logging.log4j.Logger;
 import org.apache.tuweni.bytes.Bytes;
-import tech.pegasys.poc.witnesscodeanalysis.vm.MainnetEvmRegistries;
+import tech.pegasys.poc.witnesscodeanalysis.vm.InstructionIndex;
 import tech.pegasys.poc.witnesscodeanalysis.vm.Operation;
 import tech.pegasys.poc.witnesscodeanalysis.vm.operations.CallDataLoadOperation;
 import tech.pegasys.poc.witnesscodeanalysis.vm.operations.InvalidOperation;
-import tech.pegasys.poc.witnesscodeanalysis.vm.operations.JumpDestOperation;
 import tech.pegasys.poc.witnesscodeanalysis.vm.operations.JumpOperation;
 import tech.pegasys.poc.witnesscodeanalysis.vm.operations.PushOperation;
 import tech.pegasys.poc.witnesscodeanalysis.vm.operations.ReturnOperation;
@@ -41,6 +40,7 @@ public class SimpleAnalysis {
 
 
   private Bytes code;
+  private InstructionIndex instructions;
   private boolean isProbablySolidity;
   private boolean isNewSolidity;
   private int endOfFunctionIdBlock = -1;
@@ -49,7 +49,16 @@ public class SimpleAnalysis {
   private Set<Integer> jumpDests;
 
   public SimpleAnalysis(Bytes code) {
-    this.code = code;
+    this(InstructionIndex.decode(code));
+  }
+
+  /**
+   * Analyse code which has already been decoded. The index is kept, so that later
+   * analysis stages can use it rather than decoding the code again.
+   */
+  public SimpleAnalysis(InstructionIndex instructions) {
+    this.code = instructions.getCode();
+    this.instructions = instructions;
     //LOG.trace(" Contract bytecode: {}", this.code);
     checkIfSolidity();
 
@@ -69,7 +78,7 @@ public class SimpleAnalysis {
     // Go until the call data is loaded.
     boolean done = false;
     while (!done) {
-      Operation curOp = MainnetEvmRegistries.REGISTRY.get(code.get(pc), 0);
+      Operation curOp = this.instructions.getOperationAt(pc);
       if (curOp == null) {
         // Not a valid byte code value / operation.
         // Don't try to process any further.
@@ -87,7 +96,7 @@ public class SimpleAnalysis {
     // The next section contains the function ids. Keep going until the revert is encountered
     done = false;
     while (!done) {
-      Operation curOp = MainnetEvmRegistries.REGISTRY.get(code.get(pc), 0);
+      Operation curOp = this.instructions.getOperationAt(pc);
       if (curOp == null) {
         // Not a valid byte code value / operation.
         // Don't try to process any further.
@@ -133,6 +142,10 @@ public class SimpleAnalysis {
     return jumpDests;
   }
 
+  public InstructionIndex getInstructions() {
+    return instructions;
+  }
+
   private void checkIfSolidity() {
     int len = this.code.size();
     if (len < START_LEN) {
@@ -165,7 +178,7 @@ public class SimpleAnalysis {
     // Go until the call data is loaded.
     boolean done = false;
     while (!done) {
-      Operation curOp = MainnetEvmRegistries.REGISTRY.get(code.get(pc), 0);
+      Operation curOp = this.instructions.getOperationAt(pc);
       if (curOp == null) {
         // Unknown opcode.
         return;
@@ -183,7 +196,7 @@ public class SimpleAnalysis {
     // The next section contains the function ids. Keep going until the revert is encountered
     done = false;
     while (!done) {
-      Operation curOp = MainnetEvmRegistries.REGISTRY.get(code.get(pc), 0);
+      Operation curOp = this.instructions.getOperationAt(pc);
       if (curOp == null) {
         // Unknown opcode.
         return;
@@ -206,7 +219,7 @@ public class SimpleAnalysis {
     done = false;
     boolean nextCouldBeEnd = false;
     while (!done) {
-      Operation curOp = MainnetEvmRegistries.REGISTRY.get(code.get(pc), 0);
+      Operation curOp = this.instructions.getOperationAt(pc);
       if (curOp == null) {
         // Unknown opcode.
         return;
@@ -242,19 +255,22 @@ public class SimpleAnalysis {
   }
 
   private void findJumpDests() {
-    int pc = 0;
     this.jumpDests = new HashSet<>();
 
-    while (pc < this.endOfCode) {
-      Operation curOp = MainnetEvmRegistries.REGISTRY.get(code.get(pc), 0);
+    int numInstructions = this.instructions.getNumInstructions();
+    for (int i = 0; i < numInstructions; i++) {
+      int pc = this.instructions.getPc(i);
+      if (pc >= this.endOfCode) {
+        break;
+      }
+      Operation curOp = this.instructions.getOperation(i);
       if (curOp == null) {
         // Unknown opcode.
         break;
       }
-      if (curOp.getOpcode() == JumpDestOperation.OPCODE) {
+      if (this.instructions.isJumpDest(pc)) {
         this.jumpDests.add(pc);
       }
-      pc = pc + curOp.getOpSize();
     }
   }
 }
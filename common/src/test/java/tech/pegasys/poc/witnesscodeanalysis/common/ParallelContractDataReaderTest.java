@@ -0,0 +1,83 @@
+/*
+ * Copyright ConsenSys AG.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+package tech.pegasys.poc.witnesscodeanalysis.common;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.EnumSet;
+import java.util.Set;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class ParallelContractDataReaderTest {
+  private static final int NUM_CONTRACTS = 200;
+
+  private static final Set<ContractRecord.Field> FIELDS =
+      EnumSet.of(ContractRecord.Field.CODE, ContractRecord.Field.DEPLOYED_AT_BLOCK);
+
+  // Each line records its own line number as the deployment block. The code length varies so
+  // that range boundaries fall at different places within the lines.
+  private static File writeContracts() throws IOException {
+    File file = File.createTempFile("contracts", ".json");
+    file.deleteOnExit();
+    try (OutputStream out = new FileOutputStream(file)) {
+      for (int line = 0; line < NUM_CONTRACTS; line++) {
+        StringBuilder code = new StringBuilder("0x");
+        for (int i = 0; i < (line * 7) % 23 + 1; i++) {
+          code.append(String.format("%02x", (line + i) & 0xff));
+        }
+        String json = "{\"code\":\"" + code + "\",\"deployed_at_block\":[" + line + "]}\n";
+        out.write(json.getBytes(StandardCharsets.US_ASCII));
+      }
+    }
+    return file;
+  }
+
+  private static void checkIdsAreLineNumbers(String file, int numThreads, int rangeSize) throws IOException {
+    try (ParallelContractDataReader reader = new ParallelContractDataReader(file, FIELDS, numThreads, rangeSize);
+         ContractDataScanner scanner = new ContractDataScanner(file, FIELDS)) {
+      for (int line = 0; line < NUM_CONTRACTS; line++) {
+        ContractRecord record = reader.next();
+        ContractRecord expected = scanner.next();
+        assertEquals("rangeSize " + rangeSize, line, record.getId());
+        assertArrayEquals(new int[] {line}, record.getDeployedAtBlock());
+        assertEquals(expected.getId(), record.getId());
+        assertEquals(expected.getCode(), record.getCode());
+      }
+      assertNull(reader.next());
+    }
+  }
+
+  @Test
+  public void idsMatchLineNumbersAcrossRangeBoundaries() throws IOException {
+    String file = writeContracts().getPath();
+    // Ranges smaller than a line, a few lines per range, and the whole file in one range.
+    for (int rangeSize : new int[] {1, 17, 100, 251, 1 << 20}) {
+      checkIdsAreLineNumbers(file, 3, rangeSize);
+    }
+  }
+
+  @Test
+  public void idsMatchLineNumbersWithOneThread() throws IOException {
+    checkIdsAreLineNumbers(writeContracts().getPath(), 1, 64);
+  }
+}
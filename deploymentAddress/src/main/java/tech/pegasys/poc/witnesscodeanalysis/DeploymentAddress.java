@@ -4,13 +4,15 @@ import com.google.gson.Gson;
 import com.google.gson.GsonBuilder;
 import org.apache.logging.log4j.Logger;
 import org.apache.tuweni.bytes.Bytes;
-import tech.pegasys.poc.witnesscodeanalysis.common.ContractData;
+import tech.pegasys.poc.witnesscodeanalysis.common.ContractDataScanner;
+import tech.pegasys.poc.witnesscodeanalysis.common.ContractRecord;
 
 import java.io.FileWriter;
 import java.io.IOException;
 import java.io.PrintWriter;
 import java.io.StringWriter;
 import java.io.Writer;
+import java.util.EnumSet;
 
 import static org.apache.logging.log4j.LogManager.getLogger;
 
@@ -19,7 +21,7 @@ public class DeploymentAddress {
 
   public static final String FILE_NAME =  "analysis_deployaddress.json";
 
-  private MainNetContractDataSet dataSet;
+  private ContractDataScanner dataSet;
 
   Writer writer;
   Gson gson;
@@ -27,7 +29,9 @@ public class DeploymentAddress {
 
 
   public DeploymentAddress() throws IOException {
-    this.dataSet = new MainNetContractDataSet();
+    // Only the addresses are needed: the code is skipped without being decoded.
+    this.dataSet = new ContractDataScanner(MainNetContractDataSet.DEFAULT_FILE_IN,
+        EnumSet.of(ContractRecord.Field.CONTRACT_ADDRESS));
 
     this.writer = new FileWriter(FILE_NAME);
 
@@ -38,7 +42,7 @@ public class DeploymentAddress {
 
   public void analyseAll() throws Exception {
     int count = 0;
-    ContractData contractData;
+    ContractRecord contractData;
     while ((contractData = this.dataSet.next()) != null) {
       contractData.showInfo(count);
       process(count, contractData);
@@ -48,8 +52,8 @@ public class DeploymentAddress {
     LOG.info("Number of deployed contracts: {}", this.numDeployedContracts);
   }
 
-  public void process(int id, ContractData contractData) throws IOException {
-    String[] addresses = contractData.getContract_address();
+  public void process(int id, ContractRecord contractData) throws IOException {
+    String[] addresses = contractData.getContractAddresses();
     for (String address: addresses) {
       DeployAddressAndId data = new DeployAddressAndId(id, address);
       gson.toJson(data, this.writer);
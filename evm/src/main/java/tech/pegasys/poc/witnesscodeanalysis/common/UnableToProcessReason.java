@@ -6,6 +6,7 @@ public enum UnableToProcessReason {
   DYNAMIC_JUMP,
   END_OF_FUNCTION_ID_BLOCK_NOT_FOUND,
   CODE_PATHS_NOT_VALID,
+  EXPLORATION_LIMIT_EXCEEDED,
   UNKNOWN_REASON1,
   UNKNOWN_REASON2,
   SUCCESS
@@ -0,0 +1,83 @@
+/*
+ * Copyright ConsenSys AG.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+package tech.pegasys.poc.witnesscodeanalysis.vm;
+
+import tech.pegasys.poc.witnesscodeanalysis.BasicBlockWithCode;
+import tech.pegasys.poc.witnesscodeanalysis.common.UnableToProcessException;
+import tech.pegasys.poc.witnesscodeanalysis.common.UnableToProcessReason;
+import tech.pegasys.poc.witnesscodeanalysis.vm.operations.CodeCopyOperation;
+
+/**
+ * State belonging to the analysis of one contract. The context is passed to operations
+ * via the MessageFrame, and is shared by all frames cloned from the same initial frame.
+ *
+ * Each analysis uses its own context, so that several contracts can be analysed at the
+ * same time.
+ */
+public class AnalysisContext {
+  private UnableToProcessReason reason;
+  private String message;
+
+  private CodeCopyOperation.BasicBlockConsumer codeCopyConsumer;
+
+  private ExecutionTracer executionTracer;
+
+  /**
+   * Record why the contract can not be processed, and abandon the analysis.
+   *
+   * @throws UnableToProcessException always.
+   */
+  public void unableToProcess(UnableToProcessReason reason) {
+    unableToProcess(reason, "");
+  }
+
+  public void unableToProcess(UnableToProcessReason reason, String message) {
+    this.reason = reason;
+    this.message = message;
+    throw new UnableToProcessException(reason, message);
+  }
+
+  public UnableToProcessReason getReason() {
+    return reason;
+  }
+
+  public String getMessage() {
+    return message;
+  }
+
+  /**
+   * Set where blocks of code copied by CODECOPY operations are sent. Null to ignore them.
+   */
+  public void setCodeCopyConsumer(CodeCopyOperation.BasicBlockConsumer codeCopyConsumer) {
+    this.codeCopyConsumer = codeCopyConsumer;
+  }
+
+  public void codeCopied(BasicBlockWithCode block) {
+    if (this.codeCopyConsumer != null) {
+      this.codeCopyConsumer.addNewBlock(block);
+    }
+  }
+
+  /**
+   * Set the tracer that is told about each step of the interpreter. Null, the default, to not trace.
+   */
+  public void setExecutionTracer(ExecutionTracer executionTracer) {
+    this.executionTracer = executionTracer;
+  }
+
+  public ExecutionTracer getExecutionTracer() {
+    return executionTracer;
+  }
+}
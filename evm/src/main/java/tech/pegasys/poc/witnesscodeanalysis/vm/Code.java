@@ -17,23 +17,22 @@ package tech.pegasys.poc.witnesscodeanalysis.vm;
 import tech.pegasys.poc.witnesscodeanalysis.vm.operations.BeginSubOperation;
 import tech.pegasys.poc.witnesscodeanalysis.vm.operations.JumpDestOperation;
 
-import java.util.BitSet;
-
 import com.google.common.base.MoreObjects;
 import org.apache.tuweni.bytes.Bytes;
 import org.apache.tuweni.units.bigints.UInt256;
 
-/** Represents EVM code associated with an account. */
-public class Code implements Cloneable {
+/**
+ * Represents EVM code associated with an account.
+ *
+ * Code is immutable, so it is shared by all of the message frames cloned from the same frame.
+ */
+public class Code {
 
   /** The bytes representing the code. */
-  private Bytes bytes;
-
-  /** Used to cache valid jump destinations. */
-  private BitSet validJumpDestinations;
+  private final Bytes bytes;
 
-  /** Used to cache valid jump sub destinations. */
-  private BitSet validJumpSubDestinations;
+  /** The decoded instructions of the code. */
+  private final InstructionIndex instructions;
 
   /**
    * Public constructor.
@@ -41,7 +40,18 @@ public class Code implements Cloneable {
    * @param bytes The byte representation of the code.
    */
   public Code(final Bytes bytes) {
+    this(bytes, InstructionIndex.decode(bytes));
+  }
+
+  /**
+   * Constructor for code which has already been decoded.
+   *
+   * @param bytes The byte representation of the code.
+   * @param instructions The instructions decoded from bytes.
+   */
+  public Code(final Bytes bytes, final InstructionIndex instructions) {
     this.bytes = bytes;
+    this.instructions = instructions;
   }
 
   public Code() {
@@ -78,21 +88,12 @@ public class Code implements Cloneable {
     return bytes;
   }
 
-  @Override
-  public String toString() {
-    return MoreObjects.toStringHelper(this).add("bytes", bytes).toString();
+  public InstructionIndex getInstructions() {
+    return instructions;
   }
 
   @Override
-  protected Object clone() throws CloneNotSupportedException {
-    Code cloneObj = (Code) super.clone();
-    cloneObj.bytes = this.bytes.copy();
-    if (this.validJumpDestinations != null) {
-      cloneObj.validJumpDestinations = (BitSet) this.validJumpDestinations.clone();
-    }
-    if (this.validJumpSubDestinations != null) {
-      cloneObj.validJumpSubDestinations = (BitSet) this.validJumpSubDestinations.clone();
-    }
-    return cloneObj;
+  public String toString() {
+    return MoreObjects.toStringHelper(this).add("bytes", bytes).toString();
   }
 }
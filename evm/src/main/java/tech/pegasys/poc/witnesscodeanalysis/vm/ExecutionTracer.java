@@ -0,0 +1,53 @@
+/*
+ * Copyright ConsenSys AG.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+package tech.pegasys.poc.witnesscodeanalysis.vm;
+
+/**
+ * Receives the steps taken by the code visitor as it interprets code.
+ *
+ * Tracing is switched on by setting a tracer in the AnalysisContext. When no tracer is set
+ * the interpreter only tests a local variable per operation, and builds no trace data.
+ *
+ * A tracer is only called by the thread analysing a contract. Contracts analysed on different
+ * threads at the same time need different tracers.
+ */
+public interface ExecutionTracer {
+
+  /**
+   * The analysis of a contract is starting. The steps which follow, up to the next call, belong
+   * to the contract.
+   */
+  void startContract(int contractId);
+
+  /**
+   * A path starts executing the code segment at startingPc.
+   */
+  void enterSegment(int startingPc, int callingSegmentPc);
+
+  /**
+   * A path was not explored, as the code segment had already been visited with the same stack.
+   */
+  void skipSegment(int startingPc);
+
+  /**
+   * An operation has been executed.
+   *
+   * @param frame Frame after the operation executed.
+   * @param pc PC of the operation.
+   * @param opcode Opcode of the operation.
+   * @param jumpDest Value returned by executing the operation: the jump destination for jumps.
+   */
+  void operation(MessageFrame frame, int pc, int opcode, int jumpDest);
+}
@@ -0,0 +1,158 @@
+/*
+ * Copyright ConsenSys AG.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+package tech.pegasys.poc.witnesscodeanalysis.vm;
+
+import org.apache.tuweni.bytes.Bytes;
+import tech.pegasys.poc.witnesscodeanalysis.vm.operations.JumpDestOperation;
+
+import java.util.Arrays;
+import java.util.BitSet;
+
+/**
+ * The instructions of a contract, decoded once in a single pass over the code.
+ *
+ * The index is held as parallel arrays indexed by instruction number: the pc of each
+ * instruction, its opcode and the offset of its immediate data. A second array maps
+ * each pc back to the instruction starting there, and a bitmap records the JUMPDESTs.
+ *
+ * Bytes which are not a defined opcode are decoded as one byte instructions, so that
+ * decoding carries on past data embedded in the code. Such instructions have no
+ * operation.
+ *
+ * An index is immutable once decoded, and so can be shared by every analysis stage
+ * and thread looking at the same code.
+ */
+public class InstructionIndex {
+  public static final int NO_IMMEDIATE = -1;
+  public static final int NOT_AN_INSTRUCTION = -1;
+
+  private static final Operation[] OPERATIONS = new Operation[256];
+  static {
+    for (int opcode = 0; opcode < OPERATIONS.length; opcode++) {
+      OPERATIONS[opcode] = MainnetEvmRegistries.REGISTRY.get(opcode, 0);
+    }
+  }
+
+  private final Bytes code;
+  private final int numInstructions;
+  private final int[] pcs;
+  private final int[] opcodes;
+  private final int[] immediateOffsets;
+  private final int[] instructionAtPc;
+  private final BitSet jumpDests;
+
+  private InstructionIndex(Bytes code, int numInstructions, int[] pcs, int[] opcodes, int[] immediateOffsets,
+                           int[] instructionAtPc, BitSet jumpDests) {
+    this.code = code;
+    this.numInstructions = numInstructions;
+    this.pcs = pcs;
+    this.opcodes = opcodes;
+    this.immediateOffsets = immediateOffsets;
+    this.instructionAtPc = instructionAtPc;
+    this.jumpDests = jumpDests;
+  }
+
+  public static InstructionIndex decode(Bytes code) {
+    int size = code.size();
+    int[] pcs = new int[size];
+    int[] opcodes = new int[size];
+    int[] immediateOffsets = new int[size];
+    int[] instructionAtPc = new int[size];
+    Arrays.fill(instructionAtPc, NOT_AN_INSTRUCTION);
+    BitSet jumpDests = new BitSet(size);
+
+    int numInstructions = 0;
+    int pc = 0;
+    while (pc < size) {
+      int opcode = code.get(pc) & 0xff;
+      Operation operation = OPERATIONS[opcode];
+      int opSize = operation == null ? 1 : operation.getOpSize();
+
+      pcs[numInstructions] = pc;
+      opcodes[numInstructions] = opcode;
+      immediateOffsets[numInstructions] = opSize > 1 ? pc + 1 : NO_IMMEDIATE;
+      instructionAtPc[pc] = numInstructions;
+      if (opcode == JumpDestOperation.OPCODE) {
+        jumpDests.set(pc);
+      }
+      numInstructions++;
+      pc += opSize;
+    }
+
+    // Most code is dominated by PUSH instructions, so shrink the per instruction arrays.
+    return new InstructionIndex(code, numInstructions,
+        Arrays.copyOf(pcs, numInstructions),
+        Arrays.copyOf(opcodes, numInstructions),
+        Arrays.copyOf(immediateOffsets, numInstructions),
+        instructionAtPc, jumpDests);
+  }
+
+  public Bytes getCode() {
+    return code;
+  }
+
+  public int getNumInstructions() {
+    return numInstructions;
+  }
+
+  public int getPc(int instruction) {
+    return pcs[instruction];
+  }
+
+  public int getOpcode(int instruction) {
+    return opcodes[instruction];
+  }
+
+  /**
+   * @return The operation for the instruction, or null if the opcode is not defined.
+   */
+  public Operation getOperation(int instruction) {
+    return OPERATIONS[opcodes[instruction]];
+  }
+
+  /**
+   * @return Offset in the code of the data following a PUSH, or NO_IMMEDIATE.
+   */
+  public int getImmediateOffset(int instruction) {
+    return immediateOffsets[instruction];
+  }
+
+  /**
+   * @return The instruction starting at pc, or NOT_AN_INSTRUCTION if pc is within the data of a PUSH.
+   */
+  public int indexOf(int pc) {
+    return instructionAtPc[pc];
+  }
+
+  public boolean isJumpDest(int pc) {
+    return jumpDests.get(pc);
+  }
+
+  /**
+   * Return the operation for the byte at pc, in the same way as looking the byte up
+   * in the registry. The pc need not be the start of an instruction: code paths can
+   * jump into the data of a PUSH.
+   *
+   * @return The operation, or null if the byte is not a defined opcode.
+   * @throws IndexOutOfBoundsException if pc is outside of the code.
+   */
+  public Operation getOperationAt(int pc) {
+    int instruction = instructionAtPc[pc];
+    if (instruction != NOT_AN_INSTRUCTION) {
+      return OPERATIONS[opcodes[instruction]];
+    }
+    return OPERATIONS[code.get(pc) & 0xff];
+  }
+}
@@ -16,7 +16,6 @@ package tech.pegasys.poc.witnesscodeanalysis.vm;
 
 import tech.pegasys.poc.witnesscodeanalysis.vm.operations.ReturnStack;
 
-import java.util.ArrayDeque;
 import java.util.Deque;
 
 import org.apache.tuweni.bytes.Bytes32;
@@ -169,9 +168,9 @@ public class MessageFrame implements Cloneable {
   private final boolean isStatic;
 
   // Execution Environment fields.
-  private Code code;
+  private final Code code;
   private final int depth;
-  private Deque<MessageFrame> messageFrameStack;
+  private final Deque<MessageFrame> messageFrameStack;
 
   // as defined on https://eips.ethereum.org/EIPS/eip-2315
   private ReturnStack returnStack;
@@ -179,6 +178,9 @@ public class MessageFrame implements Cloneable {
 
   private Operation currentOperation;
 
+  // Shared by this frame and all frames cloned from it.
+  private final AnalysisContext analysisContext;
+
   public static Builder builder() {
     return new Builder();
   }
@@ -189,16 +191,18 @@ public class MessageFrame implements Cloneable {
       final Code code,
       final int depth,
       final boolean isStatic,
-      final int maxStackSize) {
+      final int maxStackSize,
+      final AnalysisContext analysisContext) {
     this.messageFrameStack = messageFrameStack;
     this.returnStack = returnStack;
     this.maxStackSize = maxStackSize;
     this.pc = 0;
-    this.stack = new PreAllocatedOperandStack(maxStackSize);
+    this.stack = new PrimitiveOperandStack(maxStackSize);
     this.code = code;
     this.depth = depth;
     this.state = State.NOT_STARTED;
     this.isStatic = isStatic;
+    this.analysisContext = analysisContext;
   }
 
 
@@ -242,7 +246,16 @@ public class MessageFrame implements Cloneable {
   }
 
   public OperandStack getCopyOfStack() {
-    return (OperandStack) ((PreAllocatedOperandStack) this.stack).clone();
+    return this.stack.copy();
+  }
+
+  /**
+   * Returns the operand stack, so that operations can read and write operands in place.
+   *
+   * @return the operand stack
+   */
+  public OperandStack getStack() {
+    return this.stack;
   }
 
   /**
@@ -394,6 +407,15 @@ public class MessageFrame implements Cloneable {
     return currentOperation;
   }
 
+  /**
+   * Returns the context of the analysis this frame is part of.
+   *
+   * @return the analysis context
+   */
+  public AnalysisContext getAnalysisContext() {
+    return analysisContext;
+  }
+
   public int getMaxStackSize() {
     return maxStackSize;
   }
@@ -404,15 +426,19 @@ public class MessageFrame implements Cloneable {
   }
 
 
+  /**
+   * Creates a frame to follow another path through the code from the current state.
+   *
+   * <p>The code, the message frame stack, the current operation and the analysis context are
+   * immutable or shared, and so are not copied. The operand stack and return stack are copied,
+   * and the operand stack copy shares storage with this frame's stack until either is changed.
+   */
   public Object clone() {
     MessageFrame cloneObj = null;
     try {
       cloneObj = (MessageFrame) super.clone();
-      cloneObj.stack = (PreAllocatedOperandStack) ((PreAllocatedOperandStack) stack).clone();
-      cloneObj.code = (Code) code.clone();
-      cloneObj.messageFrameStack = ((ArrayDeque<MessageFrame>)this.messageFrameStack).clone();
-      cloneObj.returnStack = (ReturnStack) this.returnStack.clone();
-      cloneObj.currentOperation = (Operation) ((AbstractOperation) currentOperation).clone();
+      cloneObj.stack = stack.copy();
+      cloneObj.returnStack = this.returnStack.copy();
     } catch (CloneNotSupportedException e) {
       e.printStackTrace();
       throw new Error("Unexpectedly clone not supported");
@@ -428,6 +454,7 @@ public class MessageFrame implements Cloneable {
     private int maxStackSize = DEFAULT_MAX_STACK_SIZE;
     private boolean isStatic = false;
     private ReturnStack returnStack = new ReturnStack(MessageFrame.DEFAULT_MAX_RETURN_STACK_SIZE);
+    private AnalysisContext analysisContext = null;
 
     public Builder returnStack(final ReturnStack returnStack) {
       this.returnStack = returnStack;
@@ -459,6 +486,11 @@ public class MessageFrame implements Cloneable {
       return this;
     }
 
+    public Builder analysisContext(final AnalysisContext analysisContext) {
+      this.analysisContext = analysisContext;
+      return this;
+    }
+
     public MessageFrame build() {
       return new MessageFrame(
           messageFrameStack,
@@ -466,7 +498,8 @@ public class MessageFrame implements Cloneable {
           code,
           depth,
           isStatic,
-          maxStackSize);
+          maxStackSize,
+          analysisContext == null ? new AnalysisContext() : analysisContext);
     }
   }
 }
@@ -23,6 +23,12 @@ import org.apache.tuweni.bytes.Bytes32;
  *
  * <p>The operand stack is responsible for storing the current operands that the EVM can execute. It
  * is assumed to have a fixed size.
+ *
+ * <p>Each operand is either a constant 256 bit value, or a dynamic value: a value that can not be
+ * known by analysing the code, tagged with the opcode that created it. Operations should use the
+ * primitive methods (getLimb, pushWord, pushDynamic, and so on), which read and write operands in
+ * place. The Bytes32 methods create objects, and are intended for logging and debugging. Using them,
+ * a dynamic value is represented as DYNAMIC_MARKER plus the opcode.
  */
 public interface OperandStack {
 
@@ -91,4 +97,99 @@ public interface OperandStack {
    * @return the current number of operands in the stack
    */
   int size();
+
+  /**
+   * Returns whether the operand at the offset from the top of the stack is a dynamic value.
+   *
+   * @param offset the position relative to the top of the stack
+   * @return true if the value can not be determined statically
+   */
+  boolean isDynamic(int offset);
+
+  /**
+   * Returns the opcode of the operation that created a dynamic value.
+   *
+   * @param offset the position relative to the top of the stack
+   * @return the opcode, or -1 if the operand is a constant
+   */
+  int getDynamicOpcode(int offset);
+
+  /**
+   * Returns 64 bits of a constant operand.
+   *
+   * @param offset the position relative to the top of the stack
+   * @param limb 0 for the least significant 64 bits, through to 3 for the most significant 64 bits
+   * @return the bits of the operand, or 0 for a dynamic operand
+   */
+  long getLimb(int offset, int limb);
+
+  /**
+   * Returns the least significant 32 bits of an operand. For a dynamic operand,
+   * this is DYNAMIC_MARKER plus the opcode that created the value.
+   *
+   * @param offset the position relative to the top of the stack
+   * @return the value as an int
+   */
+  int getInt(int offset);
+
+  /**
+   * Pushes a constant operand onto the stack.
+   *
+   * @param limb3 most significant 64 bits
+   * @param limb2 next most significant 64 bits
+   * @param limb1 next least significant 64 bits
+   * @param limb0 least significant 64 bits
+   * @throws IllegalStateException when the stack is at capacity
+   */
+  void pushWord(long limb3, long limb2, long limb1, long limb0);
+
+  /**
+   * Pushes a dynamic operand onto the stack.
+   *
+   * @param opcode the opcode of the operation creating the value
+   * @throws IllegalStateException when the stack is at capacity
+   */
+  void pushDynamic(int opcode);
+
+  /**
+   * Sets the operand at the offset from the top of the stack to a constant.
+   */
+  void setWord(int offset, long limb3, long limb2, long limb1, long limb0);
+
+  /**
+   * Sets the operand at the offset from the top of the stack to a dynamic value.
+   */
+  void setDynamic(int offset, int opcode);
+
+  /**
+   * Pushes a copy of the operand at index - 1 from the top of the stack.
+   *
+   * @param index 1 for DUP1, through to 16 for DUP16
+   */
+  void dup(int index);
+
+  /**
+   * Swaps the operand at the top of the stack with the operand index items below it.
+   *
+   * @param index 1 for SWAP1, through to 16 for SWAP16
+   */
+  void swap(int index);
+
+  /**
+   * Returns a 64 bit hash of all of the operands in the stack. Stacks holding the same operands
+   * have the same fingerprint. Implementations maintain the hash as the stack changes, so this
+   * takes constant time.
+   *
+   * @return the fingerprint
+   */
+  long fingerprint();
+
+  /**
+   * Returns an independent copy of this stack. Changes to the copy do not affect this stack, and
+   * the other way around. Implementations may share storage between the copies, so copying need not
+   * cost time proportional to the size of the stack.
+   *
+   * @return the copy
+   */
+  OperandStack copy();
 }
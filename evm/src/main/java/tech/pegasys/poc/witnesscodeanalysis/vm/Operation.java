@@ -14,16 +14,16 @@
  */
 package tech.pegasys.poc.witnesscodeanalysis.vm;
 
-import org.apache.tuweni.units.bigints.UInt256;
-
 public interface Operation {
 
   /**
-   * Executes the logic behind this operation.
+   * Executes the logic behind this operation, reading and writing the operand stack in place.
    *
    * @param frame The frame for execution of this operation.
+   * @return The jump destination for JUMP and JUMPI, and zero for other operations. A dynamic
+   *   jump destination is returned as DYNAMIC_MARKER plus the opcode that created it.
    */
-  UInt256 execute(MessageFrame frame);
+  int execute(MessageFrame frame);
 
   int getOpcode();
 
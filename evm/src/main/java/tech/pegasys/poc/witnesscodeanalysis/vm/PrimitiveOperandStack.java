@@ -0,0 +1,402 @@
+/*
+ * Copyright ConsenSys AG.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+package tech.pegasys.poc.witnesscodeanalysis.vm;
+
+import java.util.Arrays;
+
+import org.apache.tuweni.bytes.Bytes32;
+import org.apache.tuweni.units.bigints.UInt256;
+
+import static tech.pegasys.poc.witnesscodeanalysis.vm.AbstractOperation.DYNAMIC_MARKER;
+import static tech.pegasys.poc.witnesscodeanalysis.vm.AbstractOperation.DYNAMIC_MARKER_MASK;
+
+/**
+ * An {@link OperandStack} implementation which holds operands in primitive arrays.
+ *
+ * <p>Each operand uses four longs, least significant limb first, plus an int holding the opcode
+ * that created the value if the value is dynamic. Pushing, popping and the arithmetic done by
+ * operations do not create any objects.
+ *
+ * <p>Operands are stored in segments of SEGMENT_SIZE slots. Copying a stack only copies the table
+ * of segments: the segments themselves are shared by the stack and the copy until one of them
+ * writes to a segment, at which point that stack takes its own copy of the segment. As operations
+ * mostly work near the top of the stack, forking a stack at a branch costs time proportional to
+ * the number of segments in use plus the slots that are then changed, rather than to the maximum
+ * stack size.
+ *
+ * <p>Each slot also holds a hash of the operands from the bottom of the stack up to and including
+ * the slot. The hash of the top slot is the fingerprint of the whole stack. Pushing an operand
+ * hashes just that operand, popping needs no hashing, and changing an operand below the top
+ * rehashes the slots above it, which for SWAP16 is at most sixteen.
+ */
+public class PrimitiveOperandStack implements OperandStack {
+  private static final int LIMBS = 4;
+  private static final int NOT_DYNAMIC = -1;
+
+  private static final int SEGMENT_SHIFT = 4;
+  private static final int SEGMENT_SIZE = 1 << SEGMENT_SHIFT;
+  private static final int SEGMENT_MASK = SEGMENT_SIZE - 1;
+  private static final int INITIAL_SEGMENTS = 2;
+
+  private static final long EMPTY_FINGERPRINT = 0x6A09E667F3BCC908L;
+
+  private static final Bytes32[] DYNAMIC_VALUES = new Bytes32[256];
+  static {
+    for (int i = 0; i < DYNAMIC_VALUES.length; i++) {
+      DYNAMIC_VALUES[i] = UInt256.valueOf(DYNAMIC_MARKER + i).toBytes();
+    }
+  }
+
+  // Indexed by segment. A null entry is a segment which has not been allocated yet.
+  private long[][] limbs;
+  private int[][] dynamicOpcodes;
+  private long[][] hashes;
+  // True if the segment is only referenced by this stack, and hence can be written to.
+  private boolean[] owned;
+
+  private final int maxSize;
+
+  private int top;
+
+  public PrimitiveOperandStack(final int maxSize) {
+    if (maxSize < 0) {
+      throw new IllegalArgumentException(
+          String.format("max size (%d) must be non-negative", maxSize));
+    }
+    this.maxSize = maxSize;
+    this.limbs = new long[INITIAL_SEGMENTS][];
+    this.dynamicOpcodes = new int[INITIAL_SEGMENTS][];
+    this.hashes = new long[INITIAL_SEGMENTS][];
+    this.owned = new boolean[INITIAL_SEGMENTS];
+    this.top = -1;
+  }
+
+  private PrimitiveOperandStack(final PrimitiveOperandStack other) {
+    this.maxSize = other.maxSize;
+    this.top = other.top;
+    int numSegments = Math.max(INITIAL_SEGMENTS, (other.size() + SEGMENT_MASK) >>> SEGMENT_SHIFT);
+    this.limbs = Arrays.copyOf(other.limbs, numSegments);
+    this.dynamicOpcodes = Arrays.copyOf(other.dynamicOpcodes, numSegments);
+    this.hashes = Arrays.copyOf(other.hashes, numSegments);
+    // Neither stack can write to the shared segments any more.
+    this.owned = new boolean[numSegments];
+    Arrays.fill(other.owned, false);
+  }
+
+  @Override
+  public boolean isDynamic(final int offset) {
+    return dynamicOpcode(index(offset)) != NOT_DYNAMIC;
+  }
+
+  @Override
+  public int getDynamicOpcode(final int offset) {
+    return dynamicOpcode(index(offset));
+  }
+
+  @Override
+  public long getLimb(final int offset, final int limb) {
+    return limb(index(offset), limb);
+  }
+
+  @Override
+  public int getInt(final int offset) {
+    final int index = index(offset);
+    final int dynamicOpcode = dynamicOpcode(index);
+    if (dynamicOpcode != NOT_DYNAMIC) {
+      return DYNAMIC_MARKER + dynamicOpcode;
+    }
+    return (int) limb(index, 0);
+  }
+
+  @Override
+  public void pushWord(final long limb3, final long limb2, final long limb1, final long limb0) {
+    final int index = nextIndex();
+    writeWord(index, limb3, limb2, limb1, limb0);
+    this.top = index;
+    rehash(index);
+  }
+
+  @Override
+  public void pushDynamic(final int opcode) {
+    final int index = nextIndex();
+    writeDynamic(index, opcode);
+    this.top = index;
+    rehash(index);
+  }
+
+  @Override
+  public void setWord(final int offset, final long limb3, final long limb2, final long limb1, final long limb0) {
+    final int index = index(offset);
+    makeWritable(index >>> SEGMENT_SHIFT);
+    writeWord(index, limb3, limb2, limb1, limb0);
+    rehash(index);
+  }
+
+  @Override
+  public void setDynamic(final int offset, final int opcode) {
+    final int index = index(offset);
+    makeWritable(index >>> SEGMENT_SHIFT);
+    writeDynamic(index, opcode);
+    rehash(index);
+  }
+
+  @Override
+  public void dup(final int index) {
+    final int from = index(index - 1);
+    final int to = nextIndex();
+    System.arraycopy(this.limbs[from >>> SEGMENT_SHIFT], (from & SEGMENT_MASK) * LIMBS,
+        this.limbs[to >>> SEGMENT_SHIFT], (to & SEGMENT_MASK) * LIMBS, LIMBS);
+    this.dynamicOpcodes[to >>> SEGMENT_SHIFT][to & SEGMENT_MASK] = dynamicOpcode(from);
+    this.top = to;
+    rehash(to);
+  }
+
+  @Override
+  public void swap(final int index) {
+    final int a = index(0);
+    final int b = index(index);
+    makeWritable(a >>> SEGMENT_SHIFT);
+    makeWritable(b >>> SEGMENT_SHIFT);
+    final long[] limbsA = this.limbs[a >>> SEGMENT_SHIFT];
+    final long[] limbsB = this.limbs[b >>> SEGMENT_SHIFT];
+    final int baseA = (a & SEGMENT_MASK) * LIMBS;
+    final int baseB = (b & SEGMENT_MASK) * LIMBS;
+    for (int i = 0; i < LIMBS; i++) {
+      final long tmp = limbsA[baseA + i];
+      limbsA[baseA + i] = limbsB[baseB + i];
+      limbsB[baseB + i] = tmp;
+    }
+    final int[] opcodesA = this.dynamicOpcodes[a >>> SEGMENT_SHIFT];
+    final int[] opcodesB = this.dynamicOpcodes[b >>> SEGMENT_SHIFT];
+    final int tmp = opcodesA[a & SEGMENT_MASK];
+    opcodesA[a & SEGMENT_MASK] = opcodesB[b & SEGMENT_MASK];
+    opcodesB[b & SEGMENT_MASK] = tmp;
+    rehash(b);
+  }
+
+  @Override
+  public void bulkPop(final int items) {
+    if (items < 0) {
+      throw new IllegalArgumentException(
+          String.format("requested number of items to bulk pop (%d) is negative", items));
+    }
+    if (items > size()) {
+      throw new IllegalStateException(
+          String.format("requested to bulk pop %d items off a stack of size %d", items, size()));
+    }
+    this.top -= items;
+  }
+
+  @Override
+  public Bytes32 get(final int offset) {
+    final int index = index(offset);
+    final int dynamicOpcode = dynamicOpcode(index);
+    if (dynamicOpcode != NOT_DYNAMIC) {
+      return DYNAMIC_VALUES[dynamicOpcode];
+    }
+    final byte[] bytes = new byte[32];
+    for (int limb = 0; limb < LIMBS; limb++) {
+      long value = limb(index, limb);
+      for (int i = 0; i < 8; i++) {
+        bytes[31 - limb * 8 - i] = (byte) value;
+        value >>>= 8;
+      }
+    }
+    return Bytes32.wrap(bytes);
+  }
+
+  @Override
+  public Bytes32 pop() {
+    if (top < 0) {
+      throw new IllegalStateException("operand stack underflow");
+    }
+    final Bytes32 removed = get(0);
+    this.top--;
+    return removed;
+  }
+
+  @Override
+  public void push(final Bytes32 operand) {
+    final long limb3 = operand.getLong(0);
+    final long limb2 = operand.getLong(8);
+    final long limb1 = operand.getLong(16);
+    final long limb0 = operand.getLong(24);
+    // Values pushed using the marker encoding are dynamic.
+    if (limb3 == 0 && limb2 == 0 && limb1 == 0 && (limb0 >>> 32) == 0
+        && ((int) limb0 & DYNAMIC_MARKER_MASK) == DYNAMIC_MARKER) {
+      pushDynamic((int) limb0 & 0xff);
+    }
+    else {
+      pushWord(limb3, limb2, limb1, limb0);
+    }
+  }
+
+  @Override
+  public void set(final int offset, final Bytes32 operand) {
+    setWord(offset, operand.getLong(0), operand.getLong(8), operand.getLong(16), operand.getLong(24));
+  }
+
+  @Override
+  public int size() {
+    return top + 1;
+  }
+
+  @Override
+  public long fingerprint() {
+    if (top < 0) {
+      return EMPTY_FINGERPRINT;
+    }
+    return this.hashes[top >>> SEGMENT_SHIFT][top & SEGMENT_MASK];
+  }
+
+  @Override
+  public OperandStack copy() {
+    return new PrimitiveOperandStack(this);
+  }
+
+  private int index(final int offset) {
+    if (offset < 0 || offset >= size()) {
+      throw new IndexOutOfBoundsException();
+    }
+    return top - offset;
+  }
+
+  private long limb(final int index, final int limb) {
+    return this.limbs[index >>> SEGMENT_SHIFT][(index & SEGMENT_MASK) * LIMBS + limb];
+  }
+
+  private int dynamicOpcode(final int index) {
+    return this.dynamicOpcodes[index >>> SEGMENT_SHIFT][index & SEGMENT_MASK];
+  }
+
+  /**
+   * Returns the index of the slot above the top of the stack, having made sure that the slot's
+   * segment exists and can be written to.
+   */
+  private int nextIndex() {
+    final int nextTop = top + 1;
+    if (nextTop == maxSize) {
+      throw new IllegalStateException("operand stack overflow");
+    }
+    final int segment = nextTop >>> SEGMENT_SHIFT;
+    if (segment == this.limbs.length) {
+      final int numSegments = this.limbs.length * 2;
+      this.limbs = Arrays.copyOf(this.limbs, numSegments);
+      this.dynamicOpcodes = Arrays.copyOf(this.dynamicOpcodes, numSegments);
+      this.hashes = Arrays.copyOf(this.hashes, numSegments);
+      this.owned = Arrays.copyOf(this.owned, numSegments);
+    }
+    if (this.limbs[segment] == null) {
+      this.limbs[segment] = new long[SEGMENT_SIZE * LIMBS];
+      this.dynamicOpcodes[segment] = new int[SEGMENT_SIZE];
+      this.hashes[segment] = new long[SEGMENT_SIZE];
+      this.owned[segment] = true;
+    }
+    else {
+      makeWritable(segment);
+    }
+    return nextTop;
+  }
+
+  private void makeWritable(final int segment) {
+    if (!this.owned[segment]) {
+      this.limbs[segment] = this.limbs[segment].clone();
+      this.dynamicOpcodes[segment] = this.dynamicOpcodes[segment].clone();
+      this.hashes[segment] = this.hashes[segment].clone();
+      this.owned[segment] = true;
+    }
+  }
+
+  private void writeWord(final int index, final long limb3, final long limb2, final long limb1, final long limb0) {
+    final long[] segmentLimbs = this.limbs[index >>> SEGMENT_SHIFT];
+    final int base = (index & SEGMENT_MASK) * LIMBS;
+    segmentLimbs[base] = limb0;
+    segmentLimbs[base + 1] = limb1;
+    segmentLimbs[base + 2] = limb2;
+    segmentLimbs[base + 3] = limb3;
+    this.dynamicOpcodes[index >>> SEGMENT_SHIFT][index & SEGMENT_MASK] = NOT_DYNAMIC;
+  }
+
+  private void writeDynamic(final int index, final int opcode) {
+    writeWord(index, 0, 0, 0, 0);
+    this.dynamicOpcodes[index >>> SEGMENT_SHIFT][index & SEGMENT_MASK] = opcode;
+  }
+
+  /**
+   * Recompute the hashes of the slots from index to the top of the stack, after the operand at
+   * index has changed.
+   */
+  private void rehash(final int index) {
+    long hash = index == 0 ? EMPTY_FINGERPRINT : this.hashes[(index - 1) >>> SEGMENT_SHIFT][(index - 1) & SEGMENT_MASK];
+    for (int i = index; i <= top; i++) {
+      final int segment = i >>> SEGMENT_SHIFT;
+      makeWritable(segment);
+      hash = mix(hash, dynamicOpcode(i));
+      for (int limb = 0; limb < LIMBS; limb++) {
+        hash = mix(hash, limb(i, limb));
+      }
+      this.hashes[segment][i & SEGMENT_MASK] = hash;
+    }
+  }
+
+  private static long mix(final long hash, final long value) {
+    final long h = (hash ^ value) * 0x9E3779B97F4A7C15L;
+    return h ^ (h >>> 29);
+  }
+
+  @Override
+  public String toString() {
+    final StringBuilder builder = new StringBuilder();
+    for (int i = 0; i < size(); ++i) {
+      builder.append(String.format("\n0x%04X ", i)).append(get(i));
+    }
+    return builder.toString();
+  }
+
+  @Override
+  public int hashCode() {
+    int result = size();
+    for (int i = 0; i < size(); i++) {
+      result = 31 * result + dynamicOpcode(i);
+      for (int limb = 0; limb < LIMBS; limb++) {
+        result = 31 * result + Long.hashCode(limb(i, limb));
+      }
+    }
+    return result;
+  }
+
+  @Override
+  public boolean equals(final Object other) {
+    if (!(other instanceof PrimitiveOperandStack)) {
+      return false;
+    }
+
+    final PrimitiveOperandStack that = (PrimitiveOperandStack) other;
+    if (this.size() != that.size()) {
+      return false;
+    }
+    for (int i = 0; i < size(); i++) {
+      if (this.dynamicOpcode(i) != that.dynamicOpcode(i)) {
+        return false;
+      }
+      for (int limb = 0; limb < LIMBS; limb++) {
+        if (this.limb(i, limb) != that.limb(i, limb)) {
+          return false;
+        }
+      }
+    }
+    return true;
+  }
+}
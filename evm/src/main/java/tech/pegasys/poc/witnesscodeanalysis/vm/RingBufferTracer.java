@@ -0,0 +1,207 @@
+/*
+ * Copyright ConsenSys AG.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+package tech.pegasys.poc.witnesscodeanalysis.vm;
+
+import tech.pegasys.poc.witnesscodeanalysis.vm.operations.JumpOperation;
+import tech.pegasys.poc.witnesscodeanalysis.vm.operations.JumpiOperation;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+import static tech.pegasys.poc.witnesscodeanalysis.vm.AbstractOperation.DYNAMIC_MARKER;
+import static tech.pegasys.poc.witnesscodeanalysis.vm.AbstractOperation.DYNAMIC_MARKER_MASK;
+
+/**
+ * Tracer which keeps the most recent trace records in a fixed size ring buffer. Nothing is
+ * formatted while tracing: each record is two longs, which can be written to a file and
+ * decoded offline.
+ *
+ * Record layout:
+ *   word 0: kind (8 bits), opcode (8 bits), stack size (16 bits), pc or contract id (32 bits)
+ *   word 1: jump destination or calling segment pc (32 bits), value at the top of the stack (32 bits)
+ *
+ * A contract record starts the records of each contract. The tracer is not thread safe: each
+ * thread analysing contracts needs its own tracer, so that the records following a contract
+ * record are all from that contract. The buffer should only be written out once tracing has
+ * finished.
+ */
+public class RingBufferTracer implements ExecutionTracer {
+  public static final int MAGIC = 0x43575452; // "CWTR"
+  public static final int VERSION = 2;
+
+  public static final int KIND_SEGMENT = 1;
+  public static final int KIND_SKIP = 2;
+  public static final int KIND_OPERATION = 3;
+  public static final int KIND_CONTRACT = 4;
+
+  private final long[] records;
+  private final int mask;
+  private long numRecords = 0;
+
+  /**
+   * @param capacity Number of records to keep. Rounded up to a power of two.
+   */
+  public RingBufferTracer(int capacity) {
+    if (capacity < 1 || capacity > (1 << 28)) {
+      throw new IllegalArgumentException("Capacity out of range: " + capacity);
+    }
+    int size = Integer.highestOneBit(capacity);
+    if (size < capacity) {
+      size <<= 1;
+    }
+    this.records = new long[size * 2];
+    this.mask = size - 1;
+  }
+
+  @Override
+  public void startContract(int contractId) {
+    add(word0(KIND_CONTRACT, 0, 0, contractId), 0);
+  }
+
+  @Override
+  public void enterSegment(int startingPc, int callingSegmentPc) {
+    add(word0(KIND_SEGMENT, 0, 0, startingPc), word1(callingSegmentPc, 0));
+  }
+
+  @Override
+  public void skipSegment(int startingPc) {
+    add(word0(KIND_SKIP, 0, 0, startingPc), 0);
+  }
+
+  @Override
+  public void operation(MessageFrame frame, int pc, int opcode, int jumpDest) {
+    OperandStack stack = frame.getStack();
+    int stackSize = stack.size();
+    int top = stackSize == 0 ? 0 : stack.getInt(0);
+    add(word0(KIND_OPERATION, opcode, stackSize, pc), word1(jumpDest, top));
+  }
+
+  public int getCapacity() {
+    return this.mask + 1;
+  }
+
+  /**
+   * @return The number of records added, including those which have been overwritten.
+   */
+  public long getNumRecords() {
+    return this.numRecords;
+  }
+
+  public void clear() {
+    this.numRecords = 0;
+  }
+
+  /**
+   * Write the records held in the buffer, oldest first.
+   */
+  public void writeTo(DataOutputStream out) throws IOException {
+    long total = this.numRecords;
+    int held = (int) Math.min(total, getCapacity());
+    out.writeInt(MAGIC);
+    out.writeInt(VERSION);
+    out.writeLong(total);
+    out.writeInt(held);
+    for (long i = total - held; i < total; i++) {
+      int slot = (int) (i & this.mask) * 2;
+      out.writeLong(this.records[slot]);
+      out.writeLong(this.records[slot + 1]);
+    }
+    out.flush();
+  }
+
+  /**
+   * Read records written by writeTo, passing each one to the visitor.
+   *
+   * @return The number of records added to the buffer, including those not written.
+   */
+  public static long readFrom(DataInputStream in, RecordVisitor visitor) throws IOException {
+    if (in.readInt() != MAGIC) {
+      throw new IOException("Not an execution trace");
+    }
+    int version = in.readInt();
+    if (version != VERSION) {
+      throw new IOException("Unsupported execution trace version: " + version);
+    }
+    long total = in.readLong();
+    int held = in.readInt();
+    for (long i = total - held; i < total; i++) {
+      visitor.record(i, in.readLong(), in.readLong());
+    }
+    return total;
+  }
+
+  /**
+   * Describe a record in a form similar to the code visitor's trace logging.
+   */
+  public static String describe(long word0, long word1) {
+    int pc = (int) word0;
+    int aux = (int) (word1 >>> 32);
+    switch (kind(word0)) {
+      case KIND_SEGMENT:
+        return "Segment: 0x" + Integer.toHexString(pc) + ", from: 0x" + Integer.toHexString(aux);
+      case KIND_CONTRACT:
+        return "Contract: " + pc;
+      case KIND_SKIP:
+        return "Skip: 0x" + Integer.toHexString(pc) + " visited before with same stack";
+      case KIND_OPERATION:
+        int opcode = (int) (word0 >>> 48) & 0xff;
+        Operation op = MainnetEvmRegistries.REGISTRY.get(opcode, 0);
+        StringBuilder buf = new StringBuilder();
+        buf.append("PC: 0x").append(Integer.toHexString(pc));
+        buf.append(", Operation ").append(op == null ? Integer.toHexString(opcode) : op.getName());
+        buf.append(", Stack size: ").append((int) (word0 >>> 32) & 0xffff);
+        int top = (int) word1;
+        if ((top & DYNAMIC_MARKER_MASK) == DYNAMIC_MARKER) {
+          Operation cause = MainnetEvmRegistries.REGISTRY.get(top & 0xff, 0);
+          buf.append(", Top: dynamic from ").append(cause == null ? Integer.toHexString(top & 0xff) : cause.getName());
+        }
+        else {
+          buf.append(", Top: 0x").append(Integer.toHexString(top));
+        }
+        if (opcode == JumpOperation.OPCODE || opcode == JumpiOperation.OPCODE) {
+          buf.append(", Jump Destination: 0x").append(Integer.toHexString(aux));
+        }
+        return buf.toString();
+      default:
+        return "Unknown record kind: " + kind(word0);
+    }
+  }
+
+  public static int kind(long word0) {
+    return (int) (word0 >>> 56);
+  }
+
+  private void add(long word0, long word1) {
+    int slot = (int) (this.numRecords++ & this.mask) * 2;
+    this.records[slot] = word0;
+    this.records[slot + 1] = word1;
+  }
+
+  private static long word0(int kind, int opcode, int stackSize, int pc) {
+    return ((long) kind << 56)
+        | ((long) (opcode & 0xff) << 48)
+        | ((long) (Math.min(stackSize, 0xffff)) << 32)
+        | (pc & 0xffffffffL);
+  }
+
+  private static long word1(int aux, int top) {
+    return ((long) aux << 32) | (top & 0xffffffffL);
+  }
+
+  public interface RecordVisitor {
+    void record(long sequenceNumber, long word0, long word1) throws IOException;
+  }
+}
@@ -17,24 +17,18 @@ package tech.pegasys.poc.witnesscodeanalysis.vm.operations;
 import tech.pegasys.poc.witnesscodeanalysis.vm.AbstractOperation;
 import tech.pegasys.poc.witnesscodeanalysis.vm.MessageFrame;
 
-import org.apache.tuweni.bytes.Bytes32;
-import org.apache.tuweni.units.bigints.UInt256;
-
 public class AddModOperation extends AbstractOperation {
   public static int OPCODE = 0x08;
-  public static Bytes32 MARKER_AND_OPCODE = UInt256.valueOf(DYNAMIC_MARKER + OPCODE).toBytes();
 
   public AddModOperation() {
     super(OPCODE, "ADDMOD", 3, 1, 1);
   }
 
   @Override
-  public UInt256 execute(final MessageFrame frame) {
-    frame.popStackItem();
-    frame.popStackItem();
-    frame.popStackItem();
-    frame.pushStackItem(MARKER_AND_OPCODE);
+  public int execute(final MessageFrame frame) {
+    frame.popStackItems(3);
+    frame.getStack().pushDynamic(OPCODE);
 
-    return UInt256.ZERO;
+    return 0;
   }
 }
@@ -14,41 +14,55 @@
  */
 package tech.pegasys.poc.witnesscodeanalysis.vm.operations;
 
-import org.apache.tuweni.bytes.Bytes32;
 import tech.pegasys.poc.witnesscodeanalysis.vm.AbstractOperation;
 import tech.pegasys.poc.witnesscodeanalysis.vm.MessageFrame;
-
-import org.apache.tuweni.units.bigints.UInt256;
+import tech.pegasys.poc.witnesscodeanalysis.vm.OperandStack;
 
 public class AddOperation extends AbstractOperation {
   public static int OPCODE = 0x01;
-  public static Bytes32 MARKER_AND_OPCODE = UInt256.valueOf(DYNAMIC_MARKER + OPCODE).toBytes();
 
   public AddOperation() {
     super(OPCODE, "ADD", 2, 1, 1);
   }
 
   @Override
-  public UInt256 execute(final MessageFrame frame) {
-    final UInt256 value0 = UInt256.fromBytes(frame.popStackItem());
-    final UInt256 value1 = UInt256.fromBytes(frame.popStackItem());
+  public int execute(final MessageFrame frame) {
+    final OperandStack stack = frame.getStack();
 
     // If either of the inputs are dynamic then the output is dynamic.
-    boolean isConstantInput = true;
-    if (value0.fitsLong() && ((value0.toLong() & DYNAMIC_MARKER_MASK) == DYNAMIC_MARKER)) {
-      isConstantInput = false;
-    }
-    if (value1.fitsLong() && ((value1.toLong() & DYNAMIC_MARKER_MASK) == DYNAMIC_MARKER)) {
-      isConstantInput = false;
-    }
-    if (isConstantInput) {
-      final UInt256 result = value0.add(value1);
-      frame.pushStackItem(result.toBytes());
-    }
-    else {
-      frame.pushStackItem(MARKER_AND_OPCODE);
+    if (stack.isDynamic(0) || stack.isDynamic(1)) {
+      stack.bulkPop(2);
+      stack.pushDynamic(OPCODE);
+      return 0;
     }
 
-    return UInt256.ZERO;
+    // Add the least significant limbs first, carrying in to the next limb.
+    final long a0 = stack.getLimb(0, 0);
+    final long r0 = a0 + stack.getLimb(1, 0);
+    long carry = carryOut(a0, r0, 0);
+    final long a1 = stack.getLimb(0, 1);
+    final long r1 = a1 + stack.getLimb(1, 1) + carry;
+    carry = carryOut(a1, r1, carry);
+    final long a2 = stack.getLimb(0, 2);
+    final long r2 = a2 + stack.getLimb(1, 2) + carry;
+    carry = carryOut(a2, r2, carry);
+    final long r3 = stack.getLimb(0, 3) + stack.getLimb(1, 3) + carry;
+
+    stack.bulkPop(1);
+    stack.setWord(0, r3, r2, r1, r0);
+    return 0;
+  }
+
+  /**
+   * Determine whether a + b + carryIn overflowed.
+   *
+   * @param a One of the values added.
+   * @param sum The result of a + b + carryIn.
+   * @param carryIn 0 or 1.
+   * @return 1 if there was an overflow, 0 otherwise.
+   */
+  private static long carryOut(final long a, final long sum, final long carryIn) {
+    final int comparison = Long.compareUnsigned(sum, a);
+    return (comparison < 0 || (carryIn != 0 && comparison == 0)) ? 1 : 0;
   }
 }
@@ -14,8 +14,6 @@
  */
 package tech.pegasys.poc.witnesscodeanalysis.vm.operations;
 
-import org.apache.tuweni.bytes.Bytes32;
-import org.apache.tuweni.units.bigints.UInt256;
 import tech.pegasys.poc.witnesscodeanalysis.vm.Address;
 import tech.pegasys.poc.witnesscodeanalysis.vm.AbstractOperation;
 import tech.pegasys.poc.witnesscodeanalysis.vm.MessageFrame;
@@ -23,15 +21,14 @@ import tech.pegasys.poc.witnesscodeanalysis.vm.Words;
 
 public class AddressOperation extends AbstractOperation {
   public static int OPCODE = 0x30;
-  public static Bytes32 MARKER_AND_OPCODE = UInt256.valueOf(DYNAMIC_MARKER + OPCODE).toBytes();
 
   public AddressOperation() {
     super(0x30, "ADDRESS", 0, 1, 1);
   }
 
   @Override
-  public UInt256 execute(final MessageFrame frame) {
-    frame.pushStackItem(MARKER_AND_OPCODE);
-    return UInt256.ZERO;
+  public int execute(final MessageFrame frame) {
+    frame.getStack().pushDynamic(OPCODE);
+    return 0;
   }
 }
@@ -14,42 +14,35 @@
  */
 package tech.pegasys.poc.witnesscodeanalysis.vm.operations;
 
-import org.apache.tuweni.bytes.Bytes32;
 import tech.pegasys.poc.witnesscodeanalysis.vm.AbstractOperation;
 import tech.pegasys.poc.witnesscodeanalysis.vm.MessageFrame;
-
-import org.apache.tuweni.units.bigints.UInt256;
+import tech.pegasys.poc.witnesscodeanalysis.vm.OperandStack;
 
 public class AndOperation extends AbstractOperation {
   public static int OPCODE = 0x16;
-  public static Bytes32 MARKER_AND_OPCODE = UInt256.valueOf(DYNAMIC_MARKER + OPCODE).toBytes();
 
   public AndOperation() {
     super(OPCODE, "AND", 2, 1, 1);
   }
 
   @Override
-  public UInt256 execute(final MessageFrame frame) {
-    final UInt256 value0 = UInt256.fromBytes(frame.popStackItem());
-    final UInt256 value1 = UInt256.fromBytes(frame.popStackItem());
+  public int execute(final MessageFrame frame) {
+    final OperandStack stack = frame.getStack();
 
     // If either of the inputs are dynamic then the output is dynamic.
-    boolean isConstantInput = true;
-    if (value0.fitsLong() && ((value0.toLong() & DYNAMIC_MARKER_MASK) == DYNAMIC_MARKER)) {
-      isConstantInput = false;
-    }
-    if (value1.fitsLong() && ((value1.toLong() & DYNAMIC_MARKER_MASK) == DYNAMIC_MARKER)) {
-      isConstantInput = false;
-    }
-    if (isConstantInput) {
-      final UInt256 result = value0.and(value1);
-      frame.pushStackItem(result.toBytes());
-    }
-    else {
-      frame.pushStackItem(MARKER_AND_OPCODE);
+    if (stack.isDynamic(0) || stack.isDynamic(1)) {
+      stack.bulkPop(2);
+      stack.pushDynamic(OPCODE);
+      return 0;
     }
 
+    final long r3 = stack.getLimb(0, 3) & stack.getLimb(1, 3);
+    final long r2 = stack.getLimb(0, 2) & stack.getLimb(1, 2);
+    final long r1 = stack.getLimb(0, 1) & stack.getLimb(1, 1);
+    final long r0 = stack.getLimb(0, 0) & stack.getLimb(1, 0);
 
-    return UInt256.ZERO;
+    stack.bulkPop(1);
+    stack.setWord(0, r3, r2, r1, r0);
+    return 0;
   }
 }
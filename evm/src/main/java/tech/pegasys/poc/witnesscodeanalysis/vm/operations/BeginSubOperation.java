@@ -14,7 +14,6 @@
  */
 package tech.pegasys.poc.witnesscodeanalysis.vm.operations;
 
-import org.apache.tuweni.units.bigints.UInt256;
 import tech.pegasys.poc.witnesscodeanalysis.vm.AbstractOperation;
 import tech.pegasys.poc.witnesscodeanalysis.vm.MessageFrame;
 
@@ -26,7 +25,7 @@ public class BeginSubOperation extends AbstractOperation {
   }
 
   @Override
-  public UInt256 execute(final MessageFrame frame) {
-    return UInt256.ZERO;
+  public int execute(final MessageFrame frame) {
+    return 0;
   }
 }
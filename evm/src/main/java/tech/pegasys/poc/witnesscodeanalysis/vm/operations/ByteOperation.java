@@ -14,16 +14,13 @@
  */
 package tech.pegasys.poc.witnesscodeanalysis.vm.operations;
 
-import org.apache.tuweni.bytes.Bytes32;
 import tech.pegasys.poc.witnesscodeanalysis.vm.AbstractOperation;
 import tech.pegasys.poc.witnesscodeanalysis.vm.MessageFrame;
 
 import org.apache.tuweni.bytes.MutableBytes32;
-import org.apache.tuweni.units.bigints.UInt256;
 
 public class ByteOperation extends AbstractOperation {
   public static int OPCODE = 0x1A;
-  public static Bytes32 MARKER_AND_OPCODE = UInt256.valueOf(DYNAMIC_MARKER + OPCODE).toBytes();
 
 
   public ByteOperation() {
@@ -31,11 +28,10 @@ public class ByteOperation extends AbstractOperation {
   }
 
   @Override
-  public UInt256 execute(final MessageFrame frame) {
-    frame.popStackItem();
-    frame.popStackItem();
-    frame.pushStackItem(MARKER_AND_OPCODE);
+  public int execute(final MessageFrame frame) {
+    frame.popStackItems(2);
+    frame.getStack().pushDynamic(OPCODE);
 
-    return UInt256.ZERO;
+    return 0;
   }
 }
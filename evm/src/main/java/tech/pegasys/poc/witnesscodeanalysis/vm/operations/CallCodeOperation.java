@@ -14,15 +14,11 @@
  */
 package tech.pegasys.poc.witnesscodeanalysis.vm.operations;
 
-import org.apache.tuweni.bytes.Bytes32;
 import tech.pegasys.poc.witnesscodeanalysis.vm.AbstractOperation;
 import tech.pegasys.poc.witnesscodeanalysis.vm.MessageFrame;
 
-import org.apache.tuweni.units.bigints.UInt256;
-
 public class CallCodeOperation extends AbstractOperation {
   public static int OPCODE = 0xF2;
-  public static Bytes32 MARKER_AND_OPCODE = UInt256.valueOf(DYNAMIC_MARKER + OPCODE).toBytes();
 
 
 
@@ -30,9 +26,9 @@ public class CallCodeOperation extends AbstractOperation {
     super(OPCODE, "CALLCODE", 7, 1, 1);
   }
 
-  public UInt256 execute(final MessageFrame frame) {
+  public int execute(final MessageFrame frame) {
     frame.popStackItems(getStackItemsConsumed());
-    frame.pushStackItem(MARKER_AND_OPCODE);
-    return UInt256.ZERO;
+    frame.getStack().pushDynamic(OPCODE);
+    return 0;
   }
 }
@@ -14,12 +14,10 @@
  */
 package tech.pegasys.poc.witnesscodeanalysis.vm.operations;
 
-import org.apache.tuweni.bytes.Bytes32;
 import tech.pegasys.poc.witnesscodeanalysis.vm.AbstractOperation;
 import tech.pegasys.poc.witnesscodeanalysis.vm.MessageFrame;
 
 import org.apache.tuweni.bytes.Bytes;
-import org.apache.tuweni.units.bigints.UInt256;
 
 public class CallDataCopyOperation extends AbstractOperation {
   public static int OPCODE = 0x37;
@@ -29,10 +27,8 @@ public class CallDataCopyOperation extends AbstractOperation {
   }
 
   @Override
-  public UInt256 execute(final MessageFrame frame) {
-    frame.popStackItem();
-    frame.popStackItem();
-    frame.popStackItem();
-    return UInt256.ZERO;
+  public int execute(final MessageFrame frame) {
+    frame.popStackItems(3);
+    return 0;
   }
 }
@@ -18,22 +18,19 @@ import tech.pegasys.poc.witnesscodeanalysis.vm.AbstractOperation;
 import tech.pegasys.poc.witnesscodeanalysis.vm.MessageFrame;
 
 import org.apache.tuweni.bytes.Bytes;
-import org.apache.tuweni.bytes.Bytes32;
 import org.apache.tuweni.bytes.MutableBytes32;
-import org.apache.tuweni.units.bigints.UInt256;
 
 public class CallDataLoadOperation extends AbstractOperation {
   public static int OPCODE = 0x35;
-  public static Bytes32 MARKER_AND_OPCODE = UInt256.valueOf(DYNAMIC_MARKER + OPCODE).toBytes();
 
   public CallDataLoadOperation() {
     super(OPCODE, "CALLDATALOAD", 1, 1, 1);
   }
 
   @Override
-  public UInt256 execute(final MessageFrame frame) {
-    frame.popStackItem();
-    frame.pushStackItem(MARKER_AND_OPCODE);
-    return UInt256.ZERO;
+  public int execute(final MessageFrame frame) {
+    frame.popStackItems(1);
+    frame.getStack().pushDynamic(OPCODE);
+    return 0;
   }
 }
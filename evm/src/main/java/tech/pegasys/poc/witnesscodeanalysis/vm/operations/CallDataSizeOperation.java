@@ -14,24 +14,21 @@
  */
 package tech.pegasys.poc.witnesscodeanalysis.vm.operations;
 
-import org.apache.tuweni.bytes.Bytes32;
 import tech.pegasys.poc.witnesscodeanalysis.vm.AbstractOperation;
 import tech.pegasys.poc.witnesscodeanalysis.vm.MessageFrame;
 
 import org.apache.tuweni.bytes.Bytes;
-import org.apache.tuweni.units.bigints.UInt256;
 
 public class CallDataSizeOperation extends AbstractOperation {
   public static int OPCODE = 0x36;
-  public static Bytes32 MARKER_AND_OPCODE = UInt256.valueOf(DYNAMIC_MARKER + OPCODE).toBytes();
 
   public CallDataSizeOperation() {
     super(OPCODE, "CALLDATASIZE", 0, 1, 1);
   }
 
   @Override
-  public UInt256 execute(final MessageFrame frame) {
-    frame.pushStackItem(MARKER_AND_OPCODE);
-    return UInt256.ZERO;
+  public int execute(final MessageFrame frame) {
+    frame.getStack().pushDynamic(OPCODE);
+    return 0;
   }
 }
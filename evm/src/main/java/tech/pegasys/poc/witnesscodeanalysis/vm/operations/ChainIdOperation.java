@@ -15,7 +15,6 @@
 package tech.pegasys.poc.witnesscodeanalysis.vm.operations;
 
 
-import org.apache.tuweni.units.bigints.UInt256;
 import tech.pegasys.poc.witnesscodeanalysis.vm.AbstractOperation;
 
 import tech.pegasys.poc.witnesscodeanalysis.vm.MessageFrame;
@@ -24,7 +23,6 @@ import org.apache.tuweni.bytes.Bytes32;
 
 public class ChainIdOperation extends AbstractOperation {
   public static int OPCODE = 0x46;
-  public static Bytes32 MARKER_AND_OPCODE = UInt256.valueOf(DYNAMIC_MARKER + OPCODE).toBytes();
 
   private final Bytes32 chainId;
 
@@ -34,8 +32,8 @@ public class ChainIdOperation extends AbstractOperation {
   }
 
   @Override
-  public UInt256 execute(final MessageFrame frame) {
-    frame.pushStackItem(MARKER_AND_OPCODE);
-    return UInt256.ZERO;
+  public int execute(final MessageFrame frame) {
+    frame.getStack().pushDynamic(OPCODE);
+    return 0;
   }
 }
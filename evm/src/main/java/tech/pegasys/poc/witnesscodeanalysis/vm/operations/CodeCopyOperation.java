@@ -17,16 +17,12 @@ package tech.pegasys.poc.witnesscodeanalysis.vm.operations;
 
 import org.apache.logging.log4j.Logger;
 import org.apache.tuweni.bytes.Bytes;
-import org.apache.tuweni.bytes.Bytes32;
 import tech.pegasys.poc.witnesscodeanalysis.BasicBlockWithCode;
-import tech.pegasys.poc.witnesscodeanalysis.common.UnableToProcess;
 import tech.pegasys.poc.witnesscodeanalysis.common.UnableToProcessReason;
 import tech.pegasys.poc.witnesscodeanalysis.vm.AbstractOperation;
 import tech.pegasys.poc.witnesscodeanalysis.vm.Code;
-
 import tech.pegasys.poc.witnesscodeanalysis.vm.MessageFrame;
-
-import org.apache.tuweni.units.bigints.UInt256;
+import tech.pegasys.poc.witnesscodeanalysis.vm.OperandStack;
 
 import java.util.ArrayList;
 
@@ -37,58 +33,38 @@ public class CodeCopyOperation extends AbstractOperation {
 
   public static int OPCODE = 0x39;
 
-  private static BasicBlockConsumer consumer = null;
-
   public CodeCopyOperation() {
     super(OPCODE, "CODECOPY", 3, 0, 1);
   }
 
   @Override
-  public UInt256 execute(final MessageFrame frame) {
+  public int execute(final MessageFrame frame) {
     final Code code = frame.getCode();
 
-    final UInt256 memOffset = UInt256.fromBytes(frame.popStackItem());
-    final UInt256 sourceOffset = UInt256.fromBytes(frame.popStackItem());
-    final UInt256 numBytes = UInt256.fromBytes(frame.popStackItem());
-
-    int start = sourceOffset.intValue();
-    int len = numBytes.intValue();
-
+    final OperandStack stack = frame.getStack();
+    int start = stack.getInt(1);
+    int len = stack.getInt(2);
 
     // If either of the inputs are dynamic then the output is dynamic.
-    boolean isConstantInput = true;
-    if ((start & DYNAMIC_MARKER_MASK) == DYNAMIC_MARKER) {
-      isConstantInput = false;
-    }
-    if ((len & DYNAMIC_MARKER_MASK) == DYNAMIC_MARKER) {
-      isConstantInput = false;
-    }
+    boolean isConstantInput = !stack.isDynamic(1) && !stack.isDynamic(2);
+    stack.bulkPop(3);
+
     if (isConstantInput) {
       Bytes codeFragment = code.getBytes().slice(start, len);
       BasicBlockWithCode block = new BasicBlockWithCode(start, len, codeFragment);
 
-      if (consumer != null) {
-        consumer.addNewBlock(block);
-      }
+      frame.getAnalysisContext().codeCopied(block);
     }
     else {
       String message = "Start: 0x" + Integer.toHexString(start) + " Length: 0x" + Integer.toHexString(len);
-      UnableToProcess.getInstance().unableToProcess(UnableToProcessReason.CODECOPY_WITH_DYNAMIC_PARAMETERS, message);
+      frame.getAnalysisContext().unableToProcess(UnableToProcessReason.CODECOPY_WITH_DYNAMIC_PARAMETERS, message);
     }
 
-    return UInt256.ZERO;
+    return 0;
   }
 
   public interface BasicBlockConsumer {
     void addNewBlock(BasicBlockWithCode block);
   }
 
-  public static void setConsumer(BasicBlockConsumer consumerImpl) {
-    consumer = consumerImpl;
-  }
-
-  public static void removeConsumer() {
-    consumer = null;
-  }
-
 }
@@ -15,7 +15,6 @@
 package tech.pegasys.poc.witnesscodeanalysis.vm.operations;
 
 
-import org.apache.tuweni.units.bigints.UInt256;
 import tech.pegasys.poc.witnesscodeanalysis.vm.AbstractOperation;
 
 import tech.pegasys.poc.witnesscodeanalysis.vm.MessageFrame;
@@ -30,9 +29,9 @@ public class DupOperation extends AbstractOperation {
   }
 
   @Override
-  public UInt256 execute(final MessageFrame frame) {
-    frame.pushStackItem(frame.getStackItem(index - 1));
-    return UInt256.ZERO;
+  public int execute(final MessageFrame frame) {
+    frame.getStack().dup(index);
+    return 0;
   }
 
   public static boolean isADupOpCode(int opCode) {
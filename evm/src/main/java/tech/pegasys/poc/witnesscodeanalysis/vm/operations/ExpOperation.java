@@ -15,28 +15,24 @@
 package tech.pegasys.poc.witnesscodeanalysis.vm.operations;
 
 
-import org.apache.tuweni.bytes.Bytes32;
 import tech.pegasys.poc.witnesscodeanalysis.vm.AbstractOperation;
 
 import tech.pegasys.poc.witnesscodeanalysis.vm.MessageFrame;
 
-import org.apache.tuweni.units.bigints.UInt256;
 
 public class ExpOperation extends AbstractOperation {
   public static int OPCODE = 0x0A;
-  public static Bytes32 MARKER_AND_OPCODE = UInt256.valueOf(DYNAMIC_MARKER + OPCODE).toBytes();
 
   public ExpOperation() {
     super(OPCODE, "EXP", 2, 1, 1);
   }
 
   @Override
-  public UInt256 execute(final MessageFrame frame) {
-    frame.popStackItem();
-    frame.popStackItem();
+  public int execute(final MessageFrame frame) {
+    frame.popStackItems(2);
 
-    frame.pushStackItem(MARKER_AND_OPCODE);
+    frame.getStack().pushDynamic(OPCODE);
 
-    return UInt256.ZERO;
+    return 0;
   }
 }
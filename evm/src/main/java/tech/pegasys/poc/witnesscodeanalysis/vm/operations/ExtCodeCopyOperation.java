@@ -15,7 +15,6 @@
 package tech.pegasys.poc.witnesscodeanalysis.vm.operations;
 
 import org.apache.logging.log4j.Logger;
-import org.apache.tuweni.bytes.Bytes32;
 import tech.pegasys.poc.witnesscodeanalysis.vm.Address;
 
 import tech.pegasys.poc.witnesscodeanalysis.vm.AbstractOperation;
@@ -24,7 +23,6 @@ import tech.pegasys.poc.witnesscodeanalysis.vm.MessageFrame;
 import tech.pegasys.poc.witnesscodeanalysis.vm.Words;
 
 import org.apache.tuweni.bytes.Bytes;
-import org.apache.tuweni.units.bigints.UInt256;
 
 import static org.apache.logging.log4j.LogManager.getLogger;
 
@@ -38,13 +36,10 @@ public class ExtCodeCopyOperation extends AbstractOperation {
   }
 
   @Override
-  public UInt256 execute(final MessageFrame frame) {
+  public int execute(final MessageFrame frame) {
     LOG.info("**** EXTCODECOPY operation used");
-    frame.popStackItem();
-    frame.popStackItem();
-    frame.popStackItem();
-    frame.popStackItem();
+    frame.popStackItems(4);
 
-    return UInt256.ZERO;
+    return 0;
   }
 }
@@ -14,7 +14,6 @@
  */
 package tech.pegasys.poc.witnesscodeanalysis.vm.operations;
 
-import org.apache.tuweni.units.bigints.UInt256;
 import tech.pegasys.poc.witnesscodeanalysis.vm.Address;
 
 import tech.pegasys.poc.witnesscodeanalysis.vm.AbstractOperation;
@@ -22,21 +21,18 @@ import tech.pegasys.poc.witnesscodeanalysis.vm.AbstractOperation;
 import tech.pegasys.poc.witnesscodeanalysis.vm.MessageFrame;
 import tech.pegasys.poc.witnesscodeanalysis.vm.Words;
 
-import org.apache.tuweni.bytes.Bytes32;
-
 public class ExtCodeHashOperation extends AbstractOperation {
   public static int OPCODE = 0x3F;
-  public static Bytes32 MARKER_AND_OPCODE = UInt256.valueOf(DYNAMIC_MARKER + OPCODE).toBytes();
 
   public ExtCodeHashOperation() {
     super(OPCODE, "EXTCODEHASH", 1, 1, 1);
   }
 
   @Override
-  public UInt256 execute(final MessageFrame frame) {
-    frame.popStackItem();
-    frame.pushStackItem(MARKER_AND_OPCODE);
+  public int execute(final MessageFrame frame) {
+    frame.popStackItems(1);
+    frame.getStack().pushDynamic(OPCODE);
 
-    return UInt256.ZERO;
+    return 0;
   }
 }
@@ -16,8 +16,7 @@ package tech.pegasys.poc.witnesscodeanalysis.vm.operations;
 
 import tech.pegasys.poc.witnesscodeanalysis.vm.AbstractOperation;
 import tech.pegasys.poc.witnesscodeanalysis.vm.MessageFrame;
-
-import org.apache.tuweni.units.bigints.UInt256;
+import tech.pegasys.poc.witnesscodeanalysis.vm.OperandStack;
 
 public class JumpOperation extends AbstractOperation {
   public static final int OPCODE = 0x56;
@@ -27,7 +26,10 @@ public class JumpOperation extends AbstractOperation {
   }
 
   @Override
-  public UInt256 execute(final MessageFrame frame) {
-    return UInt256.fromBytes(frame.popStackItem());
+  public int execute(final MessageFrame frame) {
+    final OperandStack stack = frame.getStack();
+    final int jumpDestination = stack.getInt(0);
+    stack.bulkPop(1);
+    return jumpDestination;
   }
 }
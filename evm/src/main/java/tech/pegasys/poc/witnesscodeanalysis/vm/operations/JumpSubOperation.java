@@ -28,7 +28,7 @@ public class JumpSubOperation extends AbstractOperation {
   }
 
   @Override
-  public UInt256 execute(final MessageFrame frame) {
+  public int execute(final MessageFrame frame) {
     throw new Error("Not yet implemented correctly JUMPSUB");
 
 //    this.jumpDest = UInt256.fromBytes(frame.popStackItem());
@@ -18,8 +18,7 @@ package tech.pegasys.poc.witnesscodeanalysis.vm.operations;
 import tech.pegasys.poc.witnesscodeanalysis.vm.AbstractOperation;
 
 import tech.pegasys.poc.witnesscodeanalysis.vm.MessageFrame;
-
-import org.apache.tuweni.units.bigints.UInt256;
+import tech.pegasys.poc.witnesscodeanalysis.vm.OperandStack;
 
 public class JumpiOperation extends AbstractOperation {
   public static final int OPCODE = 0x57;
@@ -29,9 +28,10 @@ public class JumpiOperation extends AbstractOperation {
   }
 
   @Override
-  public UInt256 execute(final MessageFrame frame) {
-    UInt256 jumpDestination = UInt256.fromBytes(frame.popStackItem());
-    frame.popStackItem();
+  public int execute(final MessageFrame frame) {
+    final OperandStack stack = frame.getStack();
+    final int jumpDestination = stack.getInt(0);
+    stack.bulkPop(2);
     return jumpDestination;
   }
 }
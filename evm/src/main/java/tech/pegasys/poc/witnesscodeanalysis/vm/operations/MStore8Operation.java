@@ -19,8 +19,6 @@ import tech.pegasys.poc.witnesscodeanalysis.vm.AbstractOperation;
 
 import tech.pegasys.poc.witnesscodeanalysis.vm.MessageFrame;
 
-import org.apache.tuweni.bytes.Bytes32;
-import org.apache.tuweni.units.bigints.UInt256;
 
 public class MStore8Operation extends AbstractOperation {
   public static final int OPCODE = 0x53;
@@ -31,9 +29,8 @@ public class MStore8Operation extends AbstractOperation {
 
 
   @Override
-  public UInt256 execute(final MessageFrame frame) {
-    frame.popStackItem();
-    frame.popStackItem();
-    return UInt256.ZERO;
+  public int execute(final MessageFrame frame) {
+    frame.popStackItems(2);
+    return 0;
   }
 }
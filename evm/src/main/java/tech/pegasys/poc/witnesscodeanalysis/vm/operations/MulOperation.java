@@ -14,43 +14,89 @@
  */
 package tech.pegasys.poc.witnesscodeanalysis.vm.operations;
 
-
-import org.apache.tuweni.bytes.Bytes32;
 import tech.pegasys.poc.witnesscodeanalysis.vm.AbstractOperation;
-
 import tech.pegasys.poc.witnesscodeanalysis.vm.MessageFrame;
-
-import org.apache.tuweni.units.bigints.UInt256;
+import tech.pegasys.poc.witnesscodeanalysis.vm.OperandStack;
 
 public class MulOperation extends AbstractOperation {
   public static final int OPCODE = 0x02;
-  public static Bytes32 MARKER_AND_OPCODE = UInt256.valueOf(DYNAMIC_MARKER + OPCODE).toBytes();
 
   public MulOperation() {
     super(OPCODE, "MUL", 2, 1, 1);
   }
 
   @Override
-  public UInt256 execute(final MessageFrame frame) {
-    final UInt256 value0 = UInt256.fromBytes(frame.popStackItem());
-    final UInt256 value1 = UInt256.fromBytes(frame.popStackItem());
+  public int execute(final MessageFrame frame) {
+    final OperandStack stack = frame.getStack();
 
     // If either of the inputs are dynamic then the output is dynamic.
-    boolean isConstantInput = true;
-    if (value0.fitsLong() && ((value0.toLong() & DYNAMIC_MARKER_MASK) == DYNAMIC_MARKER)) {
-      isConstantInput = false;
-    }
-    if (value1.fitsLong() && ((value1.toLong() & DYNAMIC_MARKER_MASK) == DYNAMIC_MARKER)) {
-      isConstantInput = false;
-    }
-    if (isConstantInput) {
-      final UInt256 result = value0.multiply(value1);
-      frame.pushStackItem(result.toBytes());
+    if (stack.isDynamic(0) || stack.isDynamic(1)) {
+      stack.bulkPop(2);
+      stack.pushDynamic(OPCODE);
+      return 0;
     }
-    else {
-      frame.pushStackItem(MARKER_AND_OPCODE);
+
+    // Multiply column by column, keeping the lower 256 bits of the result. For each result
+    // limb k, the 128 bit products of limbs i and j, where i + j == k, are summed in to a
+    // three limb accumulator (acc2, acc1, acc0).
+    long r0 = 0;
+    long r1 = 0;
+    long r2 = 0;
+    long r3 = 0;
+    long acc0 = 0;
+    long acc1 = 0;
+    long acc2 = 0;
+    for (int k = 0; k < 4; k++) {
+      for (int i = 0; i <= k; i++) {
+        final long x = stack.getLimb(0, i);
+        final long y = stack.getLimb(1, k - i);
+        final long low = x * y;
+        // The high half of a 64 bit by 64 bit product is at most 2^64 - 2, so adding one can not overflow.
+        long high = unsignedMultiplyHigh(x, y);
+        acc0 += low;
+        if (Long.compareUnsigned(acc0, low) < 0) {
+          high++;
+        }
+        acc1 += high;
+        if (Long.compareUnsigned(acc1, high) < 0) {
+          acc2++;
+        }
+      }
+      switch (k) {
+        case 0:
+          r0 = acc0;
+          break;
+        case 1:
+          r1 = acc0;
+          break;
+        case 2:
+          r2 = acc0;
+          break;
+        default:
+          r3 = acc0;
+          break;
+      }
+      acc0 = acc1;
+      acc1 = acc2;
+      acc2 = 0;
     }
 
-    return UInt256.ZERO;
+    stack.bulkPop(1);
+    stack.setWord(0, r3, r2, r1, r0);
+    return 0;
+  }
+
+  /**
+   * Returns the most significant 64 bits of the unsigned 128 bit product of x and y.
+   */
+  static long unsignedMultiplyHigh(final long x, final long y) {
+    final long x0 = x & 0xFFFFFFFFL;
+    final long x1 = x >>> 32;
+    final long y0 = y & 0xFFFFFFFFL;
+    final long y1 = y >>> 32;
+
+    final long t = x1 * y0 + ((x0 * y0) >>> 32);
+    final long w1 = x0 * y1 + (t & 0xFFFFFFFFL);
+    return x1 * y1 + (t >>> 32) + (w1 >>> 32);
   }
 }
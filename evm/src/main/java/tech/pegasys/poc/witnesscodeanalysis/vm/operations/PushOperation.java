@@ -14,16 +14,11 @@
  */
 package tech.pegasys.poc.witnesscodeanalysis.vm.operations;
 
-import static java.lang.Math.min;
-
-
-import org.apache.tuweni.units.bigints.UInt256;
 import tech.pegasys.poc.witnesscodeanalysis.vm.AbstractOperation;
 
 import tech.pegasys.poc.witnesscodeanalysis.vm.MessageFrame;
 
 import org.apache.tuweni.bytes.Bytes;
-import org.apache.tuweni.bytes.MutableBytes32;
 
 public class PushOperation extends AbstractOperation {
   public static final int PUSH1_OPCODE = 0x60;
@@ -39,14 +34,25 @@ public class PushOperation extends AbstractOperation {
   }
 
   @Override
-  public UInt256 execute(final MessageFrame frame) {
+  public int execute(final MessageFrame frame) {
     final int pc = frame.getPC();
     final Bytes code = frame.getCode().getBytes();
 
-    final int copyLength = min(length, code.size() - pc - 1);
-    final MutableBytes32 bytes = MutableBytes32.create();
-    code.slice(pc + 1, copyLength).copyTo(bytes, bytes.size() - length);
-    frame.pushStackItem(bytes);
-    return UInt256.ZERO;
+    // Shift the immediate bytes in to the 256 bit value one byte at a time. Bytes past
+    // the end of the code are treated as zero.
+    long limb3 = 0;
+    long limb2 = 0;
+    long limb1 = 0;
+    long limb0 = 0;
+    final int codeSize = code.size();
+    for (int i = pc + 1; i <= pc + length; i++) {
+      final long value = i < codeSize ? code.get(i) & 0xff : 0;
+      limb3 = (limb3 << 8) | (limb2 >>> 56);
+      limb2 = (limb2 << 8) | (limb1 >>> 56);
+      limb1 = (limb1 << 8) | (limb0 >>> 56);
+      limb0 = (limb0 << 8) | value;
+    }
+    frame.getStack().pushWord(limb3, limb2, limb1, limb0);
+    return 0;
   }
 }
@@ -15,12 +15,10 @@
 package tech.pegasys.poc.witnesscodeanalysis.vm.operations;
 
 
-import org.apache.tuweni.bytes.Bytes32;
 import tech.pegasys.poc.witnesscodeanalysis.vm.AbstractOperation;
 
 import tech.pegasys.poc.witnesscodeanalysis.vm.MessageFrame;
 
-import org.apache.tuweni.units.bigints.UInt256;
 
 public class ReturnOperation extends AbstractOperation {
   public static final int OPCODE = 0xF3;
@@ -30,10 +28,9 @@ public class ReturnOperation extends AbstractOperation {
   }
 
   @Override
-  public UInt256 execute(final MessageFrame frame) {
-    frame.popStackItem();
-    frame.popStackItem();
+  public int execute(final MessageFrame frame) {
+    frame.popStackItems(2);
     frame.setState(MessageFrame.State.CODE_SUCCESS);
-    return UInt256.ZERO;
+    return 0;
   }
 }
@@ -27,10 +27,23 @@ public class ReturnStack extends ArrayDeque<Integer> {
   private final int capacity;
 
   public ReturnStack(final int numElements) {
-    super(numElements);
+    // The return stack is rarely used, so start small rather than allocating for the maximum size.
+    super();
     this.capacity = numElements;
   }
 
+  /**
+   * Returns a copy of this return stack. The cost is proportional to the number of items on the
+   * stack rather than its capacity.
+   *
+   * @return the copy
+   */
+  public ReturnStack copy() {
+    ReturnStack copy = new ReturnStack(this.capacity);
+    copy.addAll(this);
+    return copy;
+  }
+
   public boolean isFull() {
     return this.size() >= capacity;
   }
@@ -15,7 +15,6 @@
 package tech.pegasys.poc.witnesscodeanalysis.vm.operations;
 
 
-import org.apache.tuweni.units.bigints.UInt256;
 import tech.pegasys.poc.witnesscodeanalysis.vm.AbstractOperation;
 
 import tech.pegasys.poc.witnesscodeanalysis.vm.MessageFrame;
@@ -28,9 +27,9 @@ public class ReturnSubOperation extends AbstractOperation {
   }
 
   @Override
-  public UInt256 execute(final MessageFrame frame) {
+  public int execute(final MessageFrame frame) {
     throw new Error("TODO Not handled yet: RETURN SUB");
     //frame.setPC(frame.popReturnStackItem());
-    //return UInt256.ZERO;
+    //return 0;
   }
 }
@@ -20,7 +20,6 @@ import tech.pegasys.poc.witnesscodeanalysis.vm.AbstractOperation;
 import tech.pegasys.poc.witnesscodeanalysis.vm.MessageFrame;
 
 import org.apache.tuweni.bytes.Bytes;
-import org.apache.tuweni.units.bigints.UInt256;
 
 public class RevertOperation extends AbstractOperation {
   public static final int OPCODE = 0xFD;
@@ -30,10 +29,9 @@ public class RevertOperation extends AbstractOperation {
   }
 
   @Override
-  public UInt256 execute(final MessageFrame frame) {
-    frame.popStackItem();
-    frame.popStackItem();
+  public int execute(final MessageFrame frame) {
+    frame.popStackItems(2);
     frame.setState(MessageFrame.State.REVERT);
-    return UInt256.ZERO;
+    return 0;
   }
 }
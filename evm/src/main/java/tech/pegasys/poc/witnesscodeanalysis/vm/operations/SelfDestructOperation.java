@@ -15,7 +15,6 @@
 package tech.pegasys.poc.witnesscodeanalysis.vm.operations;
 
 
-import org.apache.tuweni.units.bigints.UInt256;
 import tech.pegasys.poc.witnesscodeanalysis.vm.AbstractOperation;
 
 import tech.pegasys.poc.witnesscodeanalysis.vm.MessageFrame;
@@ -29,11 +28,11 @@ public class SelfDestructOperation extends AbstractOperation {
 
 
   @Override
-  public UInt256 execute(final MessageFrame frame) {
-    frame.popStackItem();
+  public int execute(final MessageFrame frame) {
+    frame.popStackItems(1);
     frame.setState(MessageFrame.State.CODE_SUCCESS);
 
-    return UInt256.ZERO;
+    return 0;
   }
 
 }
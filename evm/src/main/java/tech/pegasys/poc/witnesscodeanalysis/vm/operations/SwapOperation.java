@@ -14,12 +14,9 @@
  */
 package tech.pegasys.poc.witnesscodeanalysis.vm.operations;
 
-import org.apache.tuweni.units.bigints.UInt256;
 import tech.pegasys.poc.witnesscodeanalysis.vm.AbstractOperation;
 import tech.pegasys.poc.witnesscodeanalysis.vm.MessageFrame;
 
-import org.apache.tuweni.bytes.Bytes32;
-
 public class SwapOperation extends AbstractOperation {
 
   private final int index;
@@ -30,12 +27,10 @@ public class SwapOperation extends AbstractOperation {
   }
 
   @Override
-  public UInt256 execute(final MessageFrame frame) {
-    final Bytes32 tmp = frame.getStackItem(0);
-    frame.setStackItem(0, frame.getStackItem(index));
-    frame.setStackItem(index, tmp);
+  public int execute(final MessageFrame frame) {
+    frame.getStack().swap(index);
 
-    return UInt256.ZERO;
+    return 0;
 
   }
 }
@@ -0,0 +1,102 @@
+/*
+ * Copyright ConsenSys AG.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+package tech.pegasys.poc.witnesscodeanalysis.vm;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class PrimitiveOperandStackTest {
+  private static final int NUM_ITEMS = 40;
+
+  @Test
+  public void sameOperandsHaveTheSameFingerprint() {
+    PrimitiveOperandStack stack = stackOf(NUM_ITEMS);
+    // Push and pop more than a segment of slots, then put the same operands back.
+    for (int i = 0; i < 20; i++) {
+      stack.pushWord(i, i, i, i);
+    }
+    stack.bulkPop(20);
+    stack.pop();
+    stack.pushWord(0, 0, 0, NUM_ITEMS - 1);
+
+    assertEquals(stackOf(NUM_ITEMS).fingerprint(), stack.fingerprint());
+    assertEquals(new PrimitiveOperandStack(1024).fingerprint(), stackOf(0).fingerprint());
+  }
+
+  @Test
+  public void operandsBelowTheTopSeventeenChangeTheFingerprint() {
+    PrimitiveOperandStack stack = stackOf(NUM_ITEMS);
+    PrimitiveOperandStack other = stackOf(NUM_ITEMS);
+    other.setWord(NUM_ITEMS - 1, 0, 0, 0, 1000);
+
+    assertTrue(stack.fingerprint() != other.fingerprint());
+    other.setWord(NUM_ITEMS - 1, 0, 0, 0, 0);
+    assertEquals(stack.fingerprint(), other.fingerprint());
+  }
+
+  @Test
+  public void dynamicOperandsChangeTheFingerprint() {
+    PrimitiveOperandStack stack = stackOf(NUM_ITEMS);
+    PrimitiveOperandStack other = stackOf(NUM_ITEMS);
+    other.setDynamic(NUM_ITEMS - 1, 0x35);
+
+    assertTrue(stack.fingerprint() != other.fingerprint());
+  }
+
+  @Test
+  public void swapAndDupKeepTheFingerprintUpToDate() {
+    PrimitiveOperandStack stack = stackOf(NUM_ITEMS);
+    stack.swap(16);
+    stack.dup(16);
+
+    // The same operands pushed in order.
+    PrimitiveOperandStack expected = new PrimitiveOperandStack(1024);
+    for (int i = 0; i < NUM_ITEMS; i++) {
+      int value = i == NUM_ITEMS - 1 ? NUM_ITEMS - 17 : i == NUM_ITEMS - 17 ? NUM_ITEMS - 1 : i;
+      expected.pushWord(0, 0, 0, value);
+    }
+    expected.pushWord(0, 0, 0, NUM_ITEMS - 16);
+
+    assertEquals(expected, stack);
+    assertEquals(expected.fingerprint(), stack.fingerprint());
+  }
+
+  @Test
+  public void copiesHaveTheirOwnFingerprint() {
+    PrimitiveOperandStack stack = stackOf(NUM_ITEMS);
+    long fingerprint = stack.fingerprint();
+    OperandStack copy = stack.copy();
+    assertEquals(fingerprint, copy.fingerprint());
+
+    copy.swap(16);
+    copy.setWord(1, 1, 2, 3, 4);
+    assertEquals(fingerprint, stack.fingerprint());
+    assertTrue(fingerprint != copy.fingerprint());
+
+    copy.setWord(1, 0, 0, 0, NUM_ITEMS - 2);
+    copy.swap(16);
+    assertEquals(fingerprint, copy.fingerprint());
+  }
+
+  private static PrimitiveOperandStack stackOf(int numItems) {
+    PrimitiveOperandStack stack = new PrimitiveOperandStack(1024);
+    for (int i = 0; i < numItems; i++) {
+      stack.pushWord(0, 0, 0, i);
+    }
+    return stack;
+  }
+}
@@ -0,0 +1,70 @@
+/*
+ * Copyright ConsenSys AG.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+package tech.pegasys.poc.witnesscodeanalysis.vm;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+public class RingBufferTracerTest {
+
+  @Test
+  public void recordsFollowTheirContract() throws IOException {
+    RingBufferTracer tracer = new RingBufferTracer(16);
+    tracer.startContract(7);
+    tracer.enterSegment(0x10, 0);
+    tracer.skipSegment(0x20);
+    tracer.startContract(8);
+    tracer.enterSegment(0x30, 0x10);
+
+    assertEquals(Arrays.asList(
+        "0: Contract: 7",
+        "1: Segment: 0x10, from: 0x0",
+        "2: Skip: 0x20 visited before with same stack",
+        "3: Contract: 8",
+        "4: Segment: 0x30, from: 0x10"), readBack(tracer));
+  }
+
+  @Test
+  public void onlyTheMostRecentRecordsAreKept() throws IOException {
+    RingBufferTracer tracer = new RingBufferTracer(4);
+    for (int contractId = 0; contractId < 10; contractId++) {
+      tracer.startContract(contractId);
+    }
+
+    assertEquals(10, tracer.getNumRecords());
+    assertEquals(Arrays.asList("6: Contract: 6", "7: Contract: 7", "8: Contract: 8", "9: Contract: 9"),
+        readBack(tracer));
+  }
+
+  private static List<String> readBack(RingBufferTracer tracer) throws IOException {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    tracer.writeTo(new DataOutputStream(bytes));
+    List<String> records = new ArrayList<>();
+    long total = RingBufferTracer.readFrom(new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())),
+        (sequenceNumber, word0, word1) -> records.add(sequenceNumber + ": " + RingBufferTracer.describe(word0, word1)));
+    assertEquals(tracer.getNumRecords(), total);
+    return records;
+  }
+}
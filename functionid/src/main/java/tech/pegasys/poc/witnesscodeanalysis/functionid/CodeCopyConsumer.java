@@ -13,21 +13,10 @@ import static org.apache.logging.log4j.LogManager.getLogger;
 class CodeCopyConsumer implements CodeCopyOperation.BasicBlockConsumer {
   private static final Logger LOG = getLogger();
 
-  private static CodeCopyConsumer instance = new CodeCopyConsumer();
-
   private Map<Integer, BasicBlockWithCode> blocks;
 
 
-  public static CodeCopyConsumer getInstance() {
-    return instance;
-  }
-
-  private CodeCopyConsumer() {
-    this.blocks = new TreeMap();
-  }
-
-
-  public void reset() {
+  CodeCopyConsumer() {
     this.blocks = new TreeMap();
   }
 
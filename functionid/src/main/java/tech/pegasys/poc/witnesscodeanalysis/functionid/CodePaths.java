@@ -20,8 +20,9 @@ import tech.pegasys.poc.witnesscodeanalysis.BasicBlockWithCode;
 import tech.pegasys.poc.witnesscodeanalysis.common.PcUtils;
 import tech.pegasys.poc.witnesscodeanalysis.common.UnableToProcessException;
 import tech.pegasys.poc.witnesscodeanalysis.common.UnableToProcessReason;
+import tech.pegasys.poc.witnesscodeanalysis.vm.AnalysisContext;
 import tech.pegasys.poc.witnesscodeanalysis.vm.Code;
-import tech.pegasys.poc.witnesscodeanalysis.vm.MainnetEvmRegistries;
+import tech.pegasys.poc.witnesscodeanalysis.vm.InstructionIndex;
 import tech.pegasys.poc.witnesscodeanalysis.vm.MessageFrame;
 import tech.pegasys.poc.witnesscodeanalysis.vm.Operation;
 import tech.pegasys.poc.witnesscodeanalysis.vm.operations.JumpDestOperation;
@@ -63,10 +64,27 @@ public class CodePaths {
 
   Set<Integer> jumpDests;
 
-  public CodePaths(Bytes code, Set<Integer> jumpDests) {
-    this.code = code;
-    this.codeSize = code.size();
+  AnalysisContext context;
+
+  // Stack states are shared by all of the visitors, as function code segments are shared with
+  // the function block code segments.
+  private final StackStateTable stackStates = new StackStateTable();
+
+  // Code is immutable, so one instance, with its decoded instructions, is used for all frames.
+  private final InstructionIndex instructions;
+  private final Code frameCode;
+
+  public CodePaths(Bytes code, Set<Integer> jumpDests, AnalysisContext context) {
+    this(InstructionIndex.decode(code), jumpDests, context);
+  }
+
+  public CodePaths(InstructionIndex instructions, Set<Integer> jumpDests, AnalysisContext context) {
+    this.code = instructions.getCode();
+    this.codeSize = this.code.size();
+    this.instructions = instructions;
+    this.frameCode = new Code(this.code, instructions);
     this.jumpDests = jumpDests;
+    this.context = context;
   }
 
   /**
@@ -86,15 +104,16 @@ public class CodePaths {
         MessageFrame.builder()
             .messageFrameStack(messageFrameStack)
             .returnStack(returnStack)
-            .code(new Code(this.code))
+            .code(this.frameCode)
             .depth(0)
             .maxStackSize(maxStackSize)
+            .analysisContext(this.context)
             .build();
 
     messageFrameStack.addFirst(frame);
     frame.setState(MessageFrame.State.CODE_EXECUTING);
 
-    CodeVisitor visitor = new CodeVisitor(this.code, this.functionBlockCodeSegments, this.foundFunctions, endOfFunctionIdBlock, this.jumpDests);
+    CodeVisitor visitor = new CodeVisitor(this.code, this.functionBlockCodeSegments, this.foundFunctions, endOfFunctionIdBlock, this.jumpDests, this.stackStates);
     visitor.visit(frame, 0);
 
     if (!this.foundFunctions.containsKey(CodeVisitor.FALLBACK_FUNCTION_FUNCTIONID)) {
@@ -103,54 +122,84 @@ public class CodePaths {
   }
 
 
+  /**
+   * Find the code segments reachable by each function.
+   *
+   * Each function is explored on its own, with its own code segments, as if it were the only
+   * function. A control flow graph of the code explored is shared by the functions, so that code
+   * shared by functions, such as internal functions and modifiers, is usually only interpreted
+   * once. The functions are explored one after the other, as each one builds on the graph left by
+   * the ones before it. Contracts, rather than functions, are analysed in parallel.
+   */
   public void findCodeSegmentsForFunctions() {
     LOG.trace("Find Code Paths functions");
+    ControlFlowGraph graph = new ControlFlowGraph();
+    this.context.setCodeCopyConsumer(graph);
     for (Bytes functionId: this.foundFunctions.keySet()) {
-      LOG.trace("Find Code Paths for functionid: {}", functionId);
-      CodeCopyConsumer.getInstance().reset();
+      FunctionCodePaths functionCodePaths = findFunctionCodePaths(functionId, graph);
+      this.allCodePaths.put(functionId, functionCodePaths.codeSegments);
+      this.allCodePathsAssociatedData.put(functionId, functionCodePaths.codeCopyBlocks);
+    }
+    this.context.setCodeCopyConsumer(null);
+    LOG.trace("Control flow graph has {} nodes", graph.getNumNodes());
+  }
 
-      int functionStartOp = this.foundFunctions.get(functionId);
+  private FunctionCodePaths findFunctionCodePaths(Bytes functionId, ControlFlowGraph graph) {
+    LOG.trace("Find Code Paths for functionid: {}", functionId);
+    CodeCopyConsumer codeCopyConsumer = new CodeCopyConsumer();
+    graph.startFunction(codeCopyConsumer);
 
-      Map<Integer, CodeSegment> functionCodeSegments = new TreeMap<>();
+    int functionStartOp = this.foundFunctions.get(functionId);
 
-      CodeSegment functionCallFromSegment = this.functionBlockCodeSegments.get(functionStartOp);
-      functionCodeSegments.put(functionStartOp, functionCallFromSegment);
+    Map<Integer, CodeSegment> functionCodeSegments = new TreeMap<>();
 
-      CodeSegment currentSegment = functionCallFromSegment;
+    CodeSegment functionCallFromSegment = this.functionBlockCodeSegments.get(functionStartOp);
+    functionCodeSegments.put(functionStartOp, functionCallFromSegment);
 
-      // Go from the segment where the jumpi that goes to the function body towards the start of the code, PC=0.
-      boolean foundStart = false;
-      do {
-        if (currentSegment.start == 0) {
-          foundStart = true;
-        }
-        else {
-          currentSegment = this.functionBlockCodeSegments.get(currentSegment.previousSegments.iterator().next());
-          functionCodeSegments.put(currentSegment.start, currentSegment);
-        }
-      } while (!foundStart);
-
-      // Find all code segments that are reachable by the function.
-      final Deque<MessageFrame> messageFrameStack = new ArrayDeque<>();
-      final ReturnStack returnStack = new ReturnStack(MessageFrame.DEFAULT_MAX_RETURN_STACK_SIZE);
-      int maxStackSize = 1024;
-      final MessageFrame frame =
-          MessageFrame.builder()
-              .messageFrameStack(messageFrameStack)
-              .returnStack(returnStack)
-              .code(new Code(this.code))
-              .depth(0)
-              .maxStackSize(maxStackSize)
-              .build();
-      frame.setPC(functionCallFromSegment.nextSegmentJumps.iterator().next());
-      messageFrameStack.addFirst(frame);
-      frame.setState(MessageFrame.State.CODE_EXECUTING);
-
-      CodeVisitor visitor = new CodeVisitor(this.code, functionCodeSegments, this.jumpDests);
-      visitor.visit(frame, 0);
-
-      this.allCodePaths.put(functionId, functionCodeSegments);
-      this.allCodePathsAssociatedData.put(functionId, CodeCopyConsumer.getInstance().getBlocks());
+    CodeSegment currentSegment = functionCallFromSegment;
+
+    // Go from the segment where the jumpi that goes to the function body towards the start of the code, PC=0.
+    boolean foundStart = false;
+    do {
+      if (currentSegment.start == 0) {
+        foundStart = true;
+      }
+      else {
+        currentSegment = this.functionBlockCodeSegments.get(currentSegment.previousSegments.iterator().next());
+        functionCodeSegments.put(currentSegment.start, currentSegment);
+      }
+    } while (!foundStart);
+
+    // Find all code segments that are reachable by the function.
+    final Deque<MessageFrame> messageFrameStack = new ArrayDeque<>();
+    final ReturnStack returnStack = new ReturnStack(MessageFrame.DEFAULT_MAX_RETURN_STACK_SIZE);
+    int maxStackSize = 1024;
+    final MessageFrame frame =
+        MessageFrame.builder()
+            .messageFrameStack(messageFrameStack)
+            .returnStack(returnStack)
+            .code(this.frameCode)
+            .depth(0)
+            .maxStackSize(maxStackSize)
+            .analysisContext(this.context)
+            .build();
+    frame.setPC(functionCallFromSegment.nextSegmentJumps.iterator().next());
+    messageFrameStack.addFirst(frame);
+    frame.setState(MessageFrame.State.CODE_EXECUTING);
+
+    CodeVisitor visitor = new CodeVisitor(this.code, functionCodeSegments, graph, this.jumpDests, this.stackStates);
+    visitor.visit(frame, 0);
+
+    return new FunctionCodePaths(functionCodeSegments, codeCopyConsumer.getBlocks());
+  }
+
+  private static class FunctionCodePaths {
+    final Map<Integer, CodeSegment> codeSegments;
+    final Map<Integer, BasicBlockWithCode> codeCopyBlocks;
+
+    FunctionCodePaths(Map<Integer, CodeSegment> codeSegments, Map<Integer, BasicBlockWithCode> codeCopyBlocks) {
+      this.codeSegments = codeSegments;
+      this.codeCopyBlocks = codeCopyBlocks;
     }
   }
 
@@ -281,70 +330,74 @@ public class CodePaths {
 
   public void combineCodeSegments(int maxNumBytesBetweenCodeSegments) {
     for (Bytes functionId: this.allCodePaths.keySet()) {
-//      LOG.info("Combining Code Segments for function: {}", functionId);
+      this.allCombinedCodeBlocks.put(functionId, combineCodeSegments(functionId, maxNumBytesBetweenCodeSegments));
+    }
+  }
 
-      Map<Integer, CodeSegment> allCodeSegments = this.allCodePaths.get(functionId);
-      Map<Integer, Integer> combinedCodeSegments = new TreeMap<>();
+  private Map<Integer, Integer> combineCodeSegments(Bytes functionId, int maxNumBytesBetweenCodeSegments) {
+//    LOG.info("Combining Code Segments for function: {}", functionId);
 
-      // Combine code segments
-      // Use an ordered set.
-      TreeSet<Integer> pathSet = new TreeSet<>(allCodeSegments.keySet());
-      Iterator<Integer> iter = pathSet.iterator();
+    Map<Integer, CodeSegment> allCodeSegments = this.allCodePaths.get(functionId);
+    Map<Integer, Integer> combinedCodeSegments = new TreeMap<>();
 
-      int next = iter.next();
-      if (next != 0) {
-        throw new RuntimeException("Code didn't start at zero!");
+    // Combine code segments
+    // Use an ordered set.
+    TreeSet<Integer> pathSet = new TreeSet<>(allCodeSegments.keySet());
+    Iterator<Integer> iter = pathSet.iterator();
+
+    int next = iter.next();
+    if (next != 0) {
+      throw new RuntimeException("Code didn't start at zero!");
+    }
+    int len = allCodeSegments.get(next).length;
+    int startOfs = next;
+
+    next = iter.next();
+    do {
+      if (next - maxNumBytesBetweenCodeSegments <= startOfs + len) {
+        // Combine segments
+        len = next - startOfs + allCodeSegments.get(next).length;
+      } else {
+        combinedCodeSegments.put(startOfs, len);
+        startOfs = next;
+        len = allCodeSegments.get(next).length;
       }
-      int len = allCodeSegments.get(next).length;
-      int startOfs = next;
-
-      next = iter.next();
-      do {
-        if (next - maxNumBytesBetweenCodeSegments <= startOfs + len) {
-          // Combine segments
-          len = next - startOfs + allCodeSegments.get(next).length;
-        } else {
-          combinedCodeSegments.put(startOfs, len);
+      next = iter.hasNext() ? iter.next() : CodeSegment.INVALID;
+    } while (next != CodeSegment.INVALID);
+    // Don't forget to do the final segment!
+    combinedCodeSegments.put(startOfs, len);
+
+    // Combine in data blocks
+    Map<Integer, BasicBlockWithCode> blocks = this.allCodePathsAssociatedData.get(functionId);
+    if (blocks.size() != 0) {
+      pathSet = new TreeSet<>(blocks.keySet());
+      iter = pathSet.iterator();
+      startOfs = CodeSegment.INVALID;
+      len = 0;
+      while (iter.hasNext()) {
+        next = iter.next();
+        int length = blocks.get(next).getLength();
+        if (startOfs == CodeSegment.INVALID) {
           startOfs = next;
-          len = allCodeSegments.get(next).length;
+          len = length;
         }
-        next = iter.hasNext() ? iter.next() : CodeSegment.INVALID;
-      } while (next != CodeSegment.INVALID);
-      // Don't forget to do the final segment!
-      combinedCodeSegments.put(startOfs, len);
-
-      // Combine in data blocks
-      Map<Integer, BasicBlockWithCode> blocks = this.allCodePathsAssociatedData.get(functionId);
-      if (blocks.size() != 0) {
-        pathSet = new TreeSet<>(blocks.keySet());
-        iter = pathSet.iterator();
-        startOfs = CodeSegment.INVALID;
-        len = 0;
-        while (iter.hasNext()) {
-          next = iter.next();
-          int length = blocks.get(next).getLength();
-          if (startOfs == CodeSegment.INVALID) {
+        else {
+          if (next - maxNumBytesBetweenCodeSegments <= startOfs + len) {
+            // Combine segments
+            len = next - startOfs + length;
+          } else {
+            combinedCodeSegments.put(startOfs, len);
             startOfs = next;
             len = length;
           }
-          else {
-            if (next - maxNumBytesBetweenCodeSegments <= startOfs + len) {
-              // Combine segments
-              len = next - startOfs + length;
-            } else {
-              combinedCodeSegments.put(startOfs, len);
-              startOfs = next;
-              len = length;
-            }
-          }
         }
       }
+    }
 
-      this.allCombinedCodeBlocks.put(functionId, combinedCodeSegments);
+    LOG.trace("Combined CodeSegments: Function: {}, Prior to Combination: {}, Combined: {}",
+      functionId, allCodeSegments.size(), combinedCodeSegments.size());
 
-      LOG.trace("Combined CodeSegments: Function: {}, Prior to Combination: {}, Combined: {}",
-        functionId, allCodeSegments.size(), combinedCodeSegments.size());
-    }
+    return combinedCodeSegments;
   }
 
 //  public void estimateWitnessSize() {
@@ -373,19 +426,17 @@ public class CodePaths {
   }
 
   private String getOpCodeString(int offset) {
-    byte opCodeValue = this.code.get(offset);
-    Operation opCode = MainnetEvmRegistries.REGISTRY.get(opCodeValue, 0);
+    Operation opCode = this.instructions.getOperationAt(offset);
     if (opCode != null) {
       return opCode.getName();
     }
     else {
-      return Integer.toHexString(opCodeValue);
+      return Integer.toHexString(this.code.get(offset));
     }
   }
 
   private int getOpCodeLength(int offset) {
-    byte opCodeValue = this.code.get(offset);
-    Operation opCode = MainnetEvmRegistries.REGISTRY.get(opCodeValue, 0);
+    Operation opCode = this.instructions.getOperationAt(offset);
     if (opCode != null) {
       return opCode.getOpSize();
     }
@@ -397,4 +448,8 @@ public class CodePaths {
   public Map<Bytes, Map<Integer, Integer>> getAllCombinedCodeBlocks() {
     return allCombinedCodeBlocks;
   }
+
+  public Map<Bytes, Map<Integer, CodeSegment>> getAllCodePaths() {
+    return allCodePaths;
+  }
 }
@@ -17,12 +17,11 @@ package tech.pegasys.poc.witnesscodeanalysis.functionid;
 import org.apache.logging.log4j.Logger;
 import tech.pegasys.poc.witnesscodeanalysis.common.PcUtils;
 import tech.pegasys.poc.witnesscodeanalysis.vm.MainnetEvmRegistries;
-import tech.pegasys.poc.witnesscodeanalysis.vm.OperandStack;
 import tech.pegasys.poc.witnesscodeanalysis.vm.OperationRegistry;
 
 import java.math.BigInteger;
-import java.util.ArrayList;
 import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.Set;
 
 import static org.apache.logging.log4j.LogManager.getLogger;
@@ -36,21 +35,37 @@ public class CodeSegment {
   public int length = INVALID;
   public boolean endsProgram = false;
   public boolean happyPathEnding = false;
-  public ArrayList<Integer> previousSegments = new ArrayList<>();
-  public ArrayList<OperandStack> previousSegmentStacks = new ArrayList<>();
+  // In the order they were found, so the first is the segment the code was first reached from.
+  public Set<Integer> previousSegments = new LinkedHashSet<>();
+  // The distinct stack states the segment has been entered with. States are interned, so
+  // this does not grow with the number of times the segment is entered with the same state.
+  public Set<StackState> entryStates = new HashSet<>();
   public int nextSegmentNoJump = INVALID;
   public Set<Integer> nextSegmentJumps = new HashSet<>();
   private int lastOpCode = INVALID;
 
-  public CodeSegment(int start, int callingSegmentPc, OperandStack callingSegmentStack) {
+  public CodeSegment(int start, int callingSegmentPc, StackState entryState) {
     this.start = start;
     this.previousSegments.add(callingSegmentPc);
-    this.previousSegmentStacks.add(callingSegmentStack);
+    this.entryStates.add(entryState);
   }
 
-  public void addNewPrevious(int callingSegmentPc, OperandStack callingSegmentStack) {
+  /**
+   * Create a segment with the same code as another segment, but with no jumps, previous
+   * segments or entry states other than those given.
+   */
+  CodeSegment(CodeSegment segment, int callingSegmentPc, StackState entryState) {
+    this(segment.start, callingSegmentPc, entryState);
+    this.length = segment.length;
+    this.endsProgram = segment.endsProgram;
+    this.happyPathEnding = segment.happyPathEnding;
+    this.nextSegmentNoJump = segment.nextSegmentNoJump;
+    this.lastOpCode = segment.lastOpCode;
+  }
+
+  public void addNewPrevious(int callingSegmentPc, StackState entryState) {
     this.previousSegments.add(callingSegmentPc);
-    this.previousSegmentStacks.add(callingSegmentStack);
+    this.entryStates.add(entryState);
 
 //    if (this.previousSegments.size() > 50) {
 //      LOG.info("{} previous segments for PC {}", this.previousSegments.size(), PcUtils.pcStr(start));
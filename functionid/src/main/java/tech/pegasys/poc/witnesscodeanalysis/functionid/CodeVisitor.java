@@ -17,11 +17,10 @@ package tech.pegasys.poc.witnesscodeanalysis.functionid;
 import org.apache.logging.log4j.Logger;
 import org.apache.tuweni.bytes.Bytes;
 import tech.pegasys.poc.witnesscodeanalysis.common.PcUtils;
-import tech.pegasys.poc.witnesscodeanalysis.common.UnableToProcess;
 import tech.pegasys.poc.witnesscodeanalysis.common.UnableToProcessReason;
+import tech.pegasys.poc.witnesscodeanalysis.vm.ExecutionTracer;
 import tech.pegasys.poc.witnesscodeanalysis.vm.MainnetEvmRegistries;
 import tech.pegasys.poc.witnesscodeanalysis.vm.MessageFrame;
-import tech.pegasys.poc.witnesscodeanalysis.vm.OperandStack;
 import tech.pegasys.poc.witnesscodeanalysis.vm.Operation;
 import tech.pegasys.poc.witnesscodeanalysis.vm.operations.CallDataSizeOperation;
 import tech.pegasys.poc.witnesscodeanalysis.vm.operations.DupOperation;
@@ -53,7 +52,8 @@ import static tech.pegasys.poc.witnesscodeanalysis.vm.AbstractOperation.DYNAMIC_
  * Code Visitor can be used in two modes:
  * - Find Functions Mode: find the functions that exist in the code, the code segments they are in, and all
  *  code segments from teh start of code to the functions.
- * - Reachable code mode: find all code that is reachable from a function entry point.
+ * - Reachable code mode: find all code that is reachable from a function entry point, optionally
+ *  sharing the code explored with other functions through a control flow graph.
  */
 public class CodeVisitor {
   private static final Logger LOG = getLogger();
@@ -61,20 +61,34 @@ public class CodeVisitor {
   public static final Bytes ALL_CODE_FUNCTIONID = Bytes.wrap(new byte[]{0x01, 0x00, 0x00, 0x00, 0x00});
   public static final Bytes FALLBACK_FUNCTION_FUNCTIONID = Bytes.wrap(new byte[]{0x01, 0x00, 0x00, 0x00, 0x01});
 
+  public static final ExplorationOrder DEFAULT_EXPLORATION_ORDER = ExplorationOrder.DEPTH_FIRST;
+  // Each pending path holds a message frame. Contracts needing more than this are abandoned.
+  public static final int DEFAULT_MAX_PENDING_PATHS = 100000;
+  public static final int DEFAULT_MAX_ENTRY_STATES_PER_SEGMENT = 8;
+
   private Bytes code;
   public Map<Integer, CodeSegment> codeSegments;
   private Map<Bytes, Integer> foundFunctions;
   private int pcEndOfFunctionBlock;
   private boolean findFunctionsMode;
   private Set<Integer> jumpDests;
+  private ExplorationOrder explorationOrder = DEFAULT_EXPLORATION_ORDER;
+  private int maxPendingPaths = DEFAULT_MAX_PENDING_PATHS;
+  private int maxEntryStatesPerSegment = DEFAULT_MAX_ENTRY_STATES_PER_SEGMENT;
+  private final StackStateTable stackStates;
+  // Control flow graph to record the exploration in, or null.
+  private ControlFlowGraph graph;
+  // Checked once, so that trace arguments are not formatted for every operation when trace logging is off.
+  private final boolean logTrace = LOG.isTraceEnabled();
 
 
   /**
    * Constructor used for finding the list of functions that exist in the code, the code segments they are in, and all
    * code segments from the start of code to the functions.
    */
-  public CodeVisitor(Bytes code, Map<Integer, CodeSegment> codeSegments, Map<Bytes, Integer> foundFunctions, int pcEndOfFunctionBlock, Set<Integer> jumpDests) {
+  public CodeVisitor(Bytes code, Map<Integer, CodeSegment> codeSegments, Map<Bytes, Integer> foundFunctions, int pcEndOfFunctionBlock, Set<Integer> jumpDests, StackStateTable stackStates) {
     this.code = code;
+    this.stackStates = stackStates;
     this.codeSegments = codeSegments;
     this.foundFunctions = foundFunctions;
     this.pcEndOfFunctionBlock = pcEndOfFunctionBlock;
@@ -85,78 +99,185 @@ public class CodeVisitor {
   /**
    * Constructor to use for reachable code mode.
    */
-  public CodeVisitor(Bytes code, Map<Integer, CodeSegment> codeSegments, Set<Integer> jumpDests) {
+  public CodeVisitor(Bytes code, Map<Integer, CodeSegment> codeSegments, Set<Integer> jumpDests, StackStateTable stackStates) {
     this.code = code;
+    this.stackStates = stackStates;
     this.codeSegments = codeSegments;
     this.findFunctionsMode = false;
     this.jumpDests = jumpDests;
   }
 
 
+  /**
+   * Constructor for reachable code mode, recording the code explored in a control flow graph
+   * shared with the visitors of the other functions. Code that those visitors have already
+   * explored is replayed from the graph rather than interpreted.
+   */
+  public CodeVisitor(Bytes code, Map<Integer, CodeSegment> codeSegments, ControlFlowGraph graph, Set<Integer> jumpDests, StackStateTable stackStates) {
+    this(code, codeSegments, jumpDests, stackStates);
+    this.graph = graph;
+  }
+
+  public void setExplorationOrder(ExplorationOrder explorationOrder) {
+    this.explorationOrder = explorationOrder;
+  }
+
+  public void setMaxPendingPaths(int maxPendingPaths) {
+    this.maxPendingPaths = maxPendingPaths;
+  }
+
+  public void setMaxEntryStatesPerSegment(int maxEntryStatesPerSegment) {
+    this.maxEntryStatesPerSegment = maxEntryStatesPerSegment;
+  }
+
+  /**
+   * Explore all code reachable from the frame's PC.
+   *
+   * Rather than recursing each time a jump is followed, paths still to be explored are held
+   * in a worklist. Exploration depth is therefore not limited by the size of the Java stack, and
+   * the memory used is bounded by the maximum number of pending paths.
+   *
+   * @param frame Frame to start from.
+   * @param callingSegmentPc Start of the code segment that lead to the frame's PC.
+   */
   public void visit(MessageFrame frame, int callingSegmentPc) {
+    PathWorklist<PathState> worklist = new PathWorklist<>(this.explorationOrder);
+    FunctionFinderState finder = this.findFunctionsMode ? new FunctionFinderState() : null;
+    explore(new PathState(frame, frame.getPC(), callingSegmentPc, finder), worklist);
+
+    PathState state;
+    while ((state = worklist.next()) != null) {
+      if (state.pendingOperation == null && beenHereBeforeWithSameStack(state.startingPc, state.frame)) {
+        // Another path reached this code segment with the same stack after this path was added to the worklist.
+        if (this.logTrace) {
+          LOG.trace("Skipping path as I have been to {} before", PcUtils.pcStr(state.startingPc));
+        }
+        ExecutionTracer tracer = state.frame.getAnalysisContext().getExecutionTracer();
+        if (tracer != null) {
+          tracer.skipSegment(state.startingPc);
+        }
+        continue;
+      }
+      explore(state, worklist);
+    }
+  }
+
+  /**
+   * Follow a path until it ends, or until it reaches a jump that needs to be followed. In the
+   * latter case, the path to the jump destination is added to the worklist, along with this path
+   * so that it can resume from after the jump. For depth first exploration, the jump destination
+   * is explored before this path resumes, giving the same order as a recursive traversal.
+   */
+  private void explore(PathState state, PathWorklist<PathState> worklist) {
+    final MessageFrame frame = state.frame;
+    final ExecutionTracer tracer = frame.getAnalysisContext().getExecutionTracer();
     int pc = frame.getPC();
-    int startingPc = pc;
-    addCodeSegment(startingPc, callingSegmentPc, frame);
+    int startingPc = state.startingPc;
+    int callingSegmentPc = state.callingSegmentPc;
+    Operation pendingOperation = state.pendingOperation;
+    // The function finding patterns are matched along this path only.
+    final FunctionFinderState finder = state.finder;
+    StackState entryState;
+    if (pendingOperation == null) {
+      if (replayFromGraph(startingPc, callingSegmentPc, frame)) {
+        return;
+      }
+      entryState = addCodeSegment(startingPc, callingSegmentPc, frame);
+    }
+    else {
+      entryState = state.entryState;
+      if (this.graph != null) {
+        this.graph.enterSegment(startingPc, entryState, this.codeSegments.get(startingPc));
+      }
+    }
     CodeSegment codeSegment = this.codeSegments.get(startingPc);
     boolean done = false;
 
     while (!done) {
-//      if (isInStack(frame, 0)) {
-//        LOG.info("in stack");
-//      }
-//      else {
-//        LOG.info("not in stack");
-//      }
-
-      final Operation curOp = MainnetEvmRegistries.REGISTRY.get(code.get(pc), 0);
-      int opCode = curOp.getOpcode();
-      frame.setCurrentOperation(curOp);
-      int jumpDest = curOp.execute(frame).intValue();
-
-      if (this.findFunctionsMode) {
-        fallBackFunctionFinder1(frame, startingPc, opCode);
-        fallBackFunctionFinder2(frame, startingPc, opCode);
-        findFunctionStateMachine(frame, startingPc, opCode);
+      final Operation curOp;
+      int jumpDest;
+      if (pendingOperation != null) {
+        // Resuming after the jump destination has been explored.
+        curOp = pendingOperation;
+        jumpDest = state.pendingJumpDest;
+        pendingOperation = null;
       }
-
-      // Process jumps.
-      if (opCode == JumpiOperation.OPCODE || opCode == JumpOperation.OPCODE) {
-        LOG.trace("PC: {}, Operation {}, Jump Destination: {}", PcUtils.pcStr(pc), curOp.getName(), PcUtils.pcStr(jumpDest));
-        dumpStack(frame);
-
-        if (jumpDest == startingPc) {
-          // This is a looping construct, jumping back to the start of the segment
-          LOG.trace("Skipping jump as Jump Dest == Starting PC for {}", PcUtils.pcStr(jumpDest));
-        }
-        else if ((jumpDest & DYNAMIC_MARKER_MASK) == DYNAMIC_MARKER) {
-          int opCodeCausingJumpDest = jumpDest & 0xff;
-          Operation op = MainnetEvmRegistries.REGISTRY.get(opCodeCausingJumpDest, 0);
-          String message = "Jump created by opcode: " + op.getName() + " at PC: " + PcUtils.pcStr(pc);
-          UnableToProcess.getInstance().unableToProcess(UnableToProcessReason.DYNAMIC_JUMP, message);
+      else {
+        curOp = frame.getCode().getInstructions().getOperationAt(pc);
+        frame.setCurrentOperation(curOp);
+        jumpDest = curOp.execute(frame);
+        int opCode = curOp.getOpcode();
+        if (tracer != null) {
+          tracer.operation(frame, pc, opCode, jumpDest);
         }
-        else if (!this.jumpDests.contains(jumpDest)) {
-          String message = "JumpDest: " + PcUtils.pcStr(jumpDest) + " at PC: " + PcUtils.pcStr(pc);
-          UnableToProcess.getInstance().unableToProcess(UnableToProcessReason.INVALID_JUMP_DEST, message);
+
+        if (this.findFunctionsMode) {
+          fallBackFunctionFinder1(finder, frame, startingPc, opCode);
+          fallBackFunctionFinder2(finder, startingPc, opCode);
+          findFunctionStateMachine(finder, frame, startingPc, opCode);
         }
-        else if (this.findFunctionsMode && (jumpDest > this.pcEndOfFunctionBlock)) {
-          LOG.trace("Find Function Mode: Ignoring jump");
+
+        // Process jumps.
+        if (opCode == JumpiOperation.OPCODE || opCode == JumpOperation.OPCODE) {
+          if (this.logTrace) {
+            LOG.trace("PC: {}, Operation {}, Jump Destination: {}", PcUtils.pcStr(pc), curOp.getName(), PcUtils.pcStr(jumpDest));
+            dumpStack(frame);
+          }
+
+          if (this.graph != null && this.jumpDests.contains(jumpDest)) {
+            this.graph.addEdge(jumpDest, this.stackStates.intern(frame.getStack()));
+          }
+
+          if (jumpDest == startingPc) {
+            // This is a looping construct, jumping back to the start of the segment
+            if (this.logTrace) {
+              LOG.trace("Skipping jump as Jump Dest == Starting PC for {}", PcUtils.pcStr(jumpDest));
+            }
+          }
+          else if ((jumpDest & DYNAMIC_MARKER_MASK) == DYNAMIC_MARKER) {
+            int opCodeCausingJumpDest = jumpDest & 0xff;
+            Operation op = MainnetEvmRegistries.REGISTRY.get(opCodeCausingJumpDest, 0);
+            String message = "Jump created by opcode: " + op.getName() + " at PC: " + PcUtils.pcStr(pc);
+            frame.getAnalysisContext().unableToProcess(UnableToProcessReason.DYNAMIC_JUMP, message);
+          }
+          else if (!this.jumpDests.contains(jumpDest)) {
+            String message = "JumpDest: " + PcUtils.pcStr(jumpDest) + " at PC: " + PcUtils.pcStr(pc);
+            frame.getAnalysisContext().unableToProcess(UnableToProcessReason.INVALID_JUMP_DEST, message);
+          }
+          else if (this.findFunctionsMode && (jumpDest > this.pcEndOfFunctionBlock)) {
+            LOG.trace("Find Function Mode: Ignoring jump");
+          }
+          else {
+            if (!beenHereBeforeWithSameStack(jumpDest, frame)) {
+              // Not visited yet.
+              if (worklist.size() + 2 > this.maxPendingPaths) {
+                String message = "More than " + this.maxPendingPaths + " paths pending at PC: " + PcUtils.pcStr(pc);
+                frame.getAnalysisContext().unableToProcess(UnableToProcessReason.EXPLORATION_LIMIT_EXCEEDED, message);
+              }
+              MessageFrame newMessageFrame = (MessageFrame) frame.clone();
+              newMessageFrame.setPC(jumpDest);
+              worklist.add(new PathState(frame, startingPc, callingSegmentPc, entryState, curOp, jumpDest, finder), pc);
+              worklist.add(new PathState(newMessageFrame, jumpDest, startingPc, finder == null ? null : finder.copy()), jumpDest);
+              return;
+            } else {
+              if (this.logTrace) {
+                LOG.trace("Skipping jump as I have been to {} before with the same stack!", PcUtils.pcStr(jumpDest));
+              }
+              if (tracer != null) {
+                tracer.skipSegment(jumpDest);
+              }
+            }
+          }
         }
         else {
-          if (!beenHereBeforeWithSameStack(jumpDest, frame)) {
-            // Not visited yet.
-            MessageFrame newMessageFrame = (MessageFrame) frame.clone();
-            newMessageFrame.setPC(jumpDest);
-            visit(newMessageFrame, startingPc);
-          } else {
-            LOG.trace("Skipping jump as I have been to {} before with the same stack!", PcUtils.pcStr(jumpDest));
+          if (this.logTrace) {
+            LOG.trace("PC: {}, Operation {}", PcUtils.pcStr(pc), curOp.getName());
+            dumpStack(frame);
           }
         }
       }
-      else {
-        LOG.trace("PC: {}, Operation {}", PcUtils.pcStr(pc), curOp.getName());
-        dumpStack(frame);
-      }
 
+      final int opCode = curOp.getOpcode();
       final int opSize = curOp.getOpSize();
       pc += opSize;
       frame.setPC(pc);
@@ -166,13 +287,25 @@ public class CodeVisitor {
         case JumpiOperation.OPCODE:
           // Start a new code segment after each JUMPI operation.
           codeSegment.setValuesJumpi(pc - startingPc, jumpDest, opCode);
+          if (this.graph != null) {
+            this.graph.addJump(jumpDest);
+            this.graph.addEdge(pc, this.stackStates.intern(frame.getStack()));
+          }
           callingSegmentPc = startingPc;
           startingPc = pc;
           if (beenHereBeforeWithSameStack(startingPc, frame)) {
-            LOG.trace("**Falling through to existing segment: {}", startingPc);
+            if (this.logTrace) {
+              LOG.trace("**Falling through to existing segment: {}", PcUtils.pcStr(startingPc));
+            }
+            if (tracer != null) {
+              tracer.skipSegment(startingPc);
+            }
             return;
           }
-          addCodeSegment(startingPc, callingSegmentPc, frame);
+          if (replayFromGraph(startingPc, callingSegmentPc, frame)) {
+            return;
+          }
+          entryState = addCodeSegment(startingPc, callingSegmentPc, frame);
           codeSegment = this.codeSegments.get(startingPc);
           break;
         case JumpDestOperation.OPCODE:
@@ -182,11 +315,22 @@ public class CodeVisitor {
             codeSegment.setValuesJumpDest(pc - startingPc - opSize, opCode);
             callingSegmentPc = startingPc;
             startingPc = pc - opSize;
+            if (this.graph != null) {
+              this.graph.addEdge(startingPc, this.stackStates.intern(frame.getStack()));
+            }
             if (beenHereBeforeWithSameStack(startingPc, frame)) {
-              LOG.trace("**Falling through to existing segment: {}", startingPc);
+              if (this.logTrace) {
+                LOG.trace("**Falling through to existing segment: {}", PcUtils.pcStr(startingPc));
+              }
+              if (tracer != null) {
+                tracer.skipSegment(startingPc);
+              }
               return;
             }
-            addCodeSegment(startingPc, callingSegmentPc, frame);
+            if (replayFromGraph(startingPc, callingSegmentPc, frame)) {
+              return;
+            }
+            entryState = addCodeSegment(startingPc, callingSegmentPc, frame);
             codeSegment = this.codeSegments.get(startingPc);
           }
           break;
@@ -194,6 +338,9 @@ public class CodeVisitor {
         case JumpSubOperation.OPCODE:
           done = true;
           codeSegment.setValuesJump(pc - startingPc, jumpDest, opCode);
+          if (this.graph != null) {
+            this.graph.addJump(jumpDest);
+          }
           break;
         case ReturnSubOperation.OPCODE:
           // TODO need to add in return logic.
@@ -215,10 +362,74 @@ public class CodeVisitor {
     }
   }
 
-  private boolean foundPush4OpCode = false;
-  private boolean foundEqOpCode = false;
-  private boolean foundPushDestAddress = false;
-  private Bytes functionId = null;
+  /**
+   * A path waiting to be explored: either the start of a new code segment, or a path that
+   * is waiting to resume after the jump operation that it stopped at.
+   */
+  private static class PathState {
+    final MessageFrame frame;
+    final int startingPc;
+    final int callingSegmentPc;
+    // State the segment was entered with, if resuming a segment.
+    final StackState entryState;
+    // Jump operation that has been executed but not yet completed, or null for a new segment.
+    final Operation pendingOperation;
+    final int pendingJumpDest;
+    // Progress through the function finding patterns, or null if not finding functions.
+    final FunctionFinderState finder;
+
+    PathState(MessageFrame frame, int startingPc, int callingSegmentPc, FunctionFinderState finder) {
+      this(frame, startingPc, callingSegmentPc, null, null, 0, finder);
+    }
+
+    PathState(MessageFrame frame, int startingPc, int callingSegmentPc, StackState entryState,
+        Operation pendingOperation, int pendingJumpDest, FunctionFinderState finder) {
+      this.frame = frame;
+      this.startingPc = startingPc;
+      this.callingSegmentPc = callingSegmentPc;
+      this.entryState = entryState;
+      this.pendingOperation = pendingOperation;
+      this.pendingJumpDest = pendingJumpDest;
+      this.finder = finder;
+    }
+  }
+
+  /**
+   * How far a path has got through each of the patterns used to find functions. Each path has
+   * its own state, as paths are interleaved by breadth first and lowest PC first exploration.
+   * A path which forks at a jump passes a copy on to the jump destination.
+   */
+  private static final class FunctionFinderState {
+    boolean foundPush4OpCode = false;
+    boolean foundEqOpCode = false;
+    boolean foundPushDestAddress = false;
+    Bytes functionId = null;
+
+    boolean fallBackPushConstant4 = false;
+    boolean fallBackCallDataSizeFound = false;
+    boolean fallBackLtFound = false;
+    boolean fallBackPushDestAddressFound = false;
+
+    boolean fallback2CallDataSizeFound = false;
+    boolean fallback2IsZeroFound = false;
+    boolean fallback2PushFound = false;
+
+    FunctionFinderState copy() {
+      FunctionFinderState copy = new FunctionFinderState();
+      copy.foundPush4OpCode = this.foundPush4OpCode;
+      copy.foundEqOpCode = this.foundEqOpCode;
+      copy.foundPushDestAddress = this.foundPushDestAddress;
+      copy.functionId = this.functionId;
+      copy.fallBackPushConstant4 = this.fallBackPushConstant4;
+      copy.fallBackCallDataSizeFound = this.fallBackCallDataSizeFound;
+      copy.fallBackLtFound = this.fallBackLtFound;
+      copy.fallBackPushDestAddressFound = this.fallBackPushDestAddressFound;
+      copy.fallback2CallDataSizeFound = this.fallback2CallDataSizeFound;
+      copy.fallback2IsZeroFound = this.fallback2IsZeroFound;
+      copy.fallback2PushFound = this.fallback2PushFound;
+      return copy;
+    }
+  }
 
   /**
    * Find function entry points. Look for code matching the pattern shown below:
@@ -227,47 +438,45 @@ public class CodeVisitor {
    * PUSH1 0x41
    * JUMPI
    *
+   * @param finder The path's progress through the pattern.
    * @param frame
    * @param startingPc
    * @param opCode
    */
-  private void findFunctionStateMachine(MessageFrame frame, int startingPc, int opCode) {
-    if (this.foundPushDestAddress) {
-      this.foundPushDestAddress = false;
+  private void findFunctionStateMachine(FunctionFinderState finder, MessageFrame frame, int startingPc, int opCode) {
+    if (finder.foundPushDestAddress) {
+      finder.foundPushDestAddress = false;
       if (opCode == JumpiOperation.OPCODE) {
-        LOG.trace("****Found function {} in code segment {}", this.functionId, startingPc);
-        this.foundFunctions.put(this.functionId, startingPc);
+        LOG.trace("****Found function {} in code segment {}", finder.functionId, startingPc);
+        this.foundFunctions.put(finder.functionId, startingPc);
       }
     }
-    if (this.foundEqOpCode) {
-      this.foundEqOpCode = false;
+    if (finder.foundEqOpCode) {
+      finder.foundEqOpCode = false;
       if (opCode == PushOperation.PUSH1_OPCODE || opCode == PushOperation.PUSH2_OPCODE) {
-        this.foundPushDestAddress = true;
+        finder.foundPushDestAddress = true;
       }
     }
-    if (this.foundPush4OpCode) {
-      this.foundPush4OpCode = false;
+    if (finder.foundPush4OpCode) {
+      finder.foundPush4OpCode = false;
       if (opCode == EqOperation.OPCODE) {
-        this.foundEqOpCode = true;
+        finder.foundEqOpCode = true;
       }
       else if (DupOperation.isADupOpCode(opCode)) {
         // Some times there is a Dup2 between the PUSH4 and the EQ.
         // Stay in the "waiting for EQ opcode state"
-        this.foundPush4OpCode = true;
+        finder.foundPush4OpCode = true;
       }
     }
     if (opCode == PushOperation.PUSH4_OPCODE) {
-      this.functionId = frame.getStackItem(0).slice(28, 4);
-      this.foundPush4OpCode = true;
+      finder.functionId = frame.getStackItem(0).slice(28, 4);
+      finder.foundPush4OpCode = true;
     }
   }
 
 
-  boolean notFoundFallBackFunction = true;
-  boolean fallBackPushConstant4 = false;
-  boolean fallBackCallDataSizeFound = false;
-  boolean fallBackLtFound = false;
-  boolean fallBackPushDestAddressFound = false;
+  // Once a fall back function has been found on any path, no more are looked for.
+  private boolean notFoundFallBackFunction = true;
 
   /**
    * Code to detect:
@@ -279,10 +488,10 @@ public class CodeVisitor {
    *  JUMPI
    *
    */
-  public void fallBackFunctionFinder1(MessageFrame frame, int startingPc, int opCode) {
+  private void fallBackFunctionFinder1(FunctionFinderState finder, MessageFrame frame, int startingPc, int opCode) {
     if (this.notFoundFallBackFunction) {
-      if (this.fallBackPushDestAddressFound) {
-        this.fallBackPushDestAddressFound = false;
+      if (finder.fallBackPushDestAddressFound) {
+        finder.fallBackPushDestAddressFound = false;
         if (opCode == JumpiOperation.OPCODE) {
           LOG.trace("****Found fall back function1 in code segment {}", startingPc);
           this.foundFunctions.put(FALLBACK_FUNCTION_FUNCTIONID, startingPc);
@@ -290,43 +499,37 @@ public class CodeVisitor {
         }
       }
 
-      if (this.fallBackLtFound) {
-        this.fallBackLtFound = false;
+      if (finder.fallBackLtFound) {
+        finder.fallBackLtFound = false;
         if (opCode == PushOperation.PUSH1_OPCODE || opCode == PushOperation.PUSH2_OPCODE || opCode == PushOperation.PUSH3_OPCODE) {
-          this.fallBackPushDestAddressFound = true;
+          finder.fallBackPushDestAddressFound = true;
         }
       }
 
-      if (this.fallBackCallDataSizeFound) {
-        this.fallBackCallDataSizeFound = false;
+      if (finder.fallBackCallDataSizeFound) {
+        finder.fallBackCallDataSizeFound = false;
         if (opCode == LtOperation.OPCODE) {
-          this.fallBackLtFound = true;
+          finder.fallBackLtFound = true;
         }
       }
 
-      if (this.fallBackPushConstant4) {
-        this.fallBackPushConstant4 = false;
+      if (finder.fallBackPushConstant4) {
+        finder.fallBackPushConstant4 = false;
         if (opCode == CallDataSizeOperation.OPCODE) {
-          this.fallBackCallDataSizeFound = true;
+          finder.fallBackCallDataSizeFound = true;
         }
       }
 
       if (opCode ==  PushOperation.PUSH1_OPCODE) {
         // Detect PUSH1 0x04
-        Bytes bytes = frame.getStackItem(0).slice(31, 1);
-        if (bytes.get(0) == 4) {
-          this.fallBackPushConstant4 = true;
+        if ((byte) frame.getStack().getInt(0) == 4) {
+          finder.fallBackPushConstant4 = true;
         }
       }
     }
   }
 
 
-  boolean fallback2CallDataSizeFound = false;
-  boolean fallback2IsZeroFound = false;
-  boolean fallback2PushFound = false;
-
-
   /**
    * Code to detect:
    *
@@ -336,10 +539,10 @@ public class CodeVisitor {
    *  JUMPI
    *
    */
-  public void fallBackFunctionFinder2(MessageFrame frame, int startingPc, int opCode) {
+  private void fallBackFunctionFinder2(FunctionFinderState finder, int startingPc, int opCode) {
     if (this.notFoundFallBackFunction) {
-      if (this.fallback2PushFound) {
-        this.fallback2PushFound = false;
+      if (finder.fallback2PushFound) {
+        finder.fallback2PushFound = false;
         if (opCode == JumpiOperation.OPCODE) {
           LOG.trace("****Found fall back function2 in code segment {}", startingPc);
           this.foundFunctions.put(FALLBACK_FUNCTION_FUNCTIONID, startingPc);
@@ -347,22 +550,22 @@ public class CodeVisitor {
         }
       }
 
-      if (this.fallback2IsZeroFound) {
-        this.fallback2IsZeroFound = false;
+      if (finder.fallback2IsZeroFound) {
+        finder.fallback2IsZeroFound = false;
         if (opCode == PushOperation.PUSH1_OPCODE || opCode == PushOperation.PUSH2_OPCODE || opCode == PushOperation.PUSH3_OPCODE) {
-          this.fallback2PushFound = true;
+          finder.fallback2PushFound = true;
         }
       }
 
-      if (this.fallback2CallDataSizeFound) {
-        this.fallback2CallDataSizeFound = false;
+      if (finder.fallback2CallDataSizeFound) {
+        finder.fallback2CallDataSizeFound = false;
         if (opCode == IsZeroOperation.OPCODE) {
-          this.fallback2IsZeroFound = true;
+          finder.fallback2IsZeroFound = true;
         }
       }
 
       if (opCode ==  CallDataSizeOperation.OPCODE) {
-        this.fallback2CallDataSizeFound = true;
+        finder.fallback2CallDataSizeFound = true;
       }
     }
   }
@@ -370,78 +573,68 @@ public class CodeVisitor {
 
 
 
-  private void addCodeSegment(int startingPc, int callingSegmentPc, MessageFrame frame) {
+  /**
+   * Record that the code segment at startingPc has been entered with the frame's stack.
+   *
+   * @return The state the segment was entered with.
+   */
+  private StackState addCodeSegment(int startingPc, int callingSegmentPc, MessageFrame frame) {
 //    if (beenHereBeforeWithSameStack(startingPc, frame)) {
 //      LOG.error("Been here before with the same stack for start PC {}", startingPc);
 //      return;
 //    }
+    StackState entryState = this.stackStates.intern(frame.getStack());
     CodeSegment codeSegment = this.codeSegments.get(startingPc);
     if (codeSegment != null) {
-      codeSegment.addNewPrevious(callingSegmentPc, frame.getCopyOfStack());
+      codeSegment.addNewPrevious(callingSegmentPc, entryState);
     }
     else {
-      codeSegment = new CodeSegment(startingPc, callingSegmentPc, frame.getCopyOfStack());
+      codeSegment = new CodeSegment(startingPc, callingSegmentPc, entryState);
       this.codeSegments.put(startingPc, codeSegment);
     }
+    if (this.graph != null) {
+      this.graph.enterSegment(startingPc, entryState, codeSegment);
+    }
+    ExecutionTracer tracer = frame.getAnalysisContext().getExecutionTracer();
+    if (tracer != null) {
+      tracer.enterSegment(startingPc, callingSegmentPc);
+    }
+    return entryState;
+  }
+
+  /**
+   * If the code segment at startingPc has already been explored with the frame's stack by the
+   * visitor of another function, add it and the code segments reachable from it from the control
+   * flow graph.
+   *
+   * @return true if the code segments were added, and so the path has ended.
+   */
+  private boolean replayFromGraph(int startingPc, int callingSegmentPc, MessageFrame frame) {
+    if (this.graph == null) {
+      return false;
+    }
+    StackState state = this.stackStates.find(frame.getStack());
+    return state != null
+        && this.graph.replay(startingPc, callingSegmentPc, state, this.codeSegments, this.maxEntryStatesPerSegment);
   }
 
   /**
    * Is the stack the same as another time the code at this startingPc has been called?
    *
+   * Once a code segment has been entered with maxEntryStatesPerSegment different stack states,
+   * it is treated as having been visited with every state. This ensures exploration ends for
+   * loops and recursion that change the stack each time around.
    */
   private boolean beenHereBeforeWithSameStack(int startingPc, MessageFrame frame) {
     CodeSegment existingCodeSegment = this.codeSegments.get(startingPc);
     if (existingCodeSegment == null) {
       return false;
     }
-    return true;
-
-    //TODO there is a bug in the code below!
-
-//    OperandStack stack = frame.getCopyOfStack();
-//
-//    // Try to detect recursive functions and deal with them separately.
-//    final int RECURSIVE_FUNCTION_THRESHOLD = 1;
-//    if (stack.size() > RECURSIVE_FUNCTION_THRESHOLD) {
-//      for (OperandStack existingStack: existingCodeSegment.previousSegmentStacks) {
-//        int stackToCheck = RECURSIVE_FUNCTION_THRESHOLD;
-//        if (existingStack.size() < stackToCheck) {
-//          stackToCheck = existingStack.size();
-//        }
-//
-//        boolean matchingStackFound = true;
-//        for (int i=0; i < stackToCheck; i++) {
-//          if (stack.get(i).compareTo(existingStack.get(i)) != 0) {
-//            matchingStackFound = false;
-//            break;
-//          }
-//        }
-//        if (matchingStackFound) {
-//          return true;
-//        }
-//      }
-//      return false;
-//
-//
-//    }
-
-//    // else non-recursive function
-//    for (OperandStack existingStack: existingCodeSegment.previousSegmentStacks) {
-//      if (stack.size() != existingStack.size()) {
-//        continue;
-//      }
-//      boolean matchingStackFound = true;
-//      for (int i=0; i < stack.size(); i++) {
-//        if (stack.get(i).compareTo(existingStack.get(i)) != 0) {
-//          matchingStackFound = false;
-//          break;
-//        }
-//      }
-//      if (matchingStackFound) {
-//        return true;
-//      }
-//    }
-//    return false;
+    if (existingCodeSegment.entryStates.size() >= this.maxEntryStatesPerSegment) {
+      return true;
+    }
+    StackState state = this.stackStates.find(frame.getStack());
+    return state != null && existingCodeSegment.entryStates.contains(state);
   }
 
   private void dumpStack(MessageFrame frame) {
@@ -0,0 +1,277 @@
+/*
+ * Copyright ConsenSys AG.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+package tech.pegasys.poc.witnesscodeanalysis.functionid;
+
+import tech.pegasys.poc.witnesscodeanalysis.BasicBlockWithCode;
+import tech.pegasys.poc.witnesscodeanalysis.vm.operations.CodeCopyOperation;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Control flow graph of a contract, shared by the per-function code path searches.
+ *
+ * Each node is a code segment entered with a particular stack state. A node records the jump
+ * destinations resolved at the end of the segment, the nodes that can follow it, and the blocks of
+ * code copied by CODECOPY operations in the segment. The graph is built by the visitors as they
+ * interpret each function. When a later function enters a segment with a state that an earlier
+ * function has already fully explored, the visitor replays the explored nodes rather than
+ * interpreting the code again.
+ *
+ * Replaying visits the nodes in the same order as interpreting would, and applies the same
+ * revisit checks against the function's own code segments, so each function's code segments and
+ * entry state budget are the same as if the function had been interpreted on its own. The
+ * execution tracer does not see replayed segments.
+ */
+public class ControlFlowGraph implements CodeCopyOperation.BasicBlockConsumer {
+  private final Map<Integer, Map<StackState, Node>> nodes = new HashMap<>();
+  private int numNodes = 0;
+
+  // Node whose code is being interpreted.
+  private Node current;
+
+  // Consumer of the code copy blocks of the function being explored.
+  private CodeCopyOperation.BasicBlockConsumer codeCopyConsumer;
+
+  // Number of nodes when the closed nodes were last found.
+  private int numNodesWhenClosedFound = 0;
+
+  public int getNumNodes() {
+    return this.numNodes;
+  }
+
+  /**
+   * Called before a function is explored.
+   *
+   * @param codeCopyConsumer Consumer of the function's code copy blocks.
+   */
+  public void startFunction(CodeCopyOperation.BasicBlockConsumer codeCopyConsumer) {
+    this.codeCopyConsumer = codeCopyConsumer;
+    if (this.numNodes != this.numNodesWhenClosedFound) {
+      findClosedNodes();
+      this.numNodesWhenClosedFound = this.numNodes;
+    }
+  }
+
+  /**
+   * Called by the visitor when it starts or resumes interpreting a code segment.
+   *
+   * @param segment The visitor's code segment, used for the length and ending of the code when
+   *                the node is replayed.
+   */
+  void enterSegment(int pc, StackState state, CodeSegment segment) {
+    Map<StackState, Node> nodesAtPc = this.nodes.computeIfAbsent(pc, k -> new LinkedHashMap<>());
+    Node node = nodesAtPc.get(state);
+    if (node == null) {
+      node = new Node(pc, state, segment);
+      nodesAtPc.put(state, node);
+      this.numNodes++;
+    }
+    this.current = node;
+  }
+
+  /**
+   * Called by the visitor when the segment being interpreted can be followed by the segment
+   * starting at pc, entered with state.
+   */
+  void addEdge(int pc, StackState state) {
+    this.current.successors.add(new Edge(pc, state));
+  }
+
+  /**
+   * Called by the visitor when the segment being interpreted ends with a jump to jumpDest.
+   */
+  void addJump(int jumpDest) {
+    this.current.jumpDests.add(jumpDest);
+  }
+
+  @Override
+  public void addNewBlock(BasicBlockWithCode block) {
+    this.current.codeCopies.putIfAbsent(block.getStart(), block);
+    if (this.codeCopyConsumer != null) {
+      this.codeCopyConsumer.addNewBlock(block);
+    }
+  }
+
+  /**
+   * Replay the nodes reachable from the segment at pc entered with state, if they have all been
+   * explored before the current function was started.
+   *
+   * @param pc Start of the code segment being entered.
+   * @param callingPc Start of the code segment that lead to the segment.
+   * @param state Stack state the segment is entered with.
+   * @param functionSegments The function's code segments, which are added to.
+   * @param maxEntryStatesPerSegment The visitor's limit on the states each segment is entered with.
+   * @return true if the nodes were replayed, false if the code needs to be interpreted.
+   */
+  boolean replay(int pc, int callingPc, StackState state, Map<Integer, CodeSegment> functionSegments,
+      int maxEntryStatesPerSegment) {
+    Node entry = getNode(pc, state);
+    if (entry == null || !entry.closed) {
+      return false;
+    }
+
+    // Depth first, in the order the successors were found, as the visitor explores.
+    ArrayDeque<Node> path = new ArrayDeque<>();
+    ArrayDeque<Iterator<Edge>> pathSuccessors = new ArrayDeque<>();
+    addToFunction(entry, callingPc, functionSegments);
+    path.push(entry);
+    pathSuccessors.push(entry.successors.iterator());
+    while (!path.isEmpty()) {
+      Iterator<Edge> successors = pathSuccessors.peek();
+      if (!successors.hasNext()) {
+        path.pop();
+        pathSuccessors.pop();
+        continue;
+      }
+      Node node = path.peek();
+      Edge edge = successors.next();
+      if (edge.pc == node.pc
+          || beenHereBefore(functionSegments, edge.pc, edge.state, maxEntryStatesPerSegment)) {
+        continue;
+      }
+      Node next = getNode(edge.pc, edge.state);
+      addToFunction(next, node.pc, functionSegments);
+      path.push(next);
+      pathSuccessors.push(next.successors.iterator());
+    }
+    return true;
+  }
+
+  private void addToFunction(Node node, int callingPc, Map<Integer, CodeSegment> functionSegments) {
+    CodeSegment segment = functionSegments.get(node.pc);
+    if (segment == null) {
+      segment = new CodeSegment(node.segment, callingPc, node.state);
+      functionSegments.put(node.pc, segment);
+    }
+    else {
+      segment.addNewPrevious(callingPc, node.state);
+    }
+    segment.nextSegmentJumps.addAll(node.jumpDests);
+    if (this.codeCopyConsumer != null) {
+      for (BasicBlockWithCode block: node.codeCopies.values()) {
+        this.codeCopyConsumer.addNewBlock(block);
+      }
+    }
+  }
+
+  /**
+   * The same check as the visitor makes before entering a code segment.
+   */
+  private static boolean beenHereBefore(Map<Integer, CodeSegment> functionSegments, int pc, StackState state,
+      int maxEntryStatesPerSegment) {
+    CodeSegment segment = functionSegments.get(pc);
+    if (segment == null) {
+      return false;
+    }
+    return segment.entryStates.size() >= maxEntryStatesPerSegment || segment.entryStates.contains(state);
+  }
+
+  /**
+   * A node is closed if every node that can follow it, other than itself, is in the graph and is
+   * closed. Anything reached from a closed node can be replayed without needing to interpret code.
+   * Nodes that are not closed have a successor that a visitor did not explore, because the segment
+   * had already been entered with the maximum number of states.
+   */
+  private void findClosedNodes() {
+    Map<Node, List<Node>> predecessors = new HashMap<>();
+    ArrayDeque<Node> toVisit = new ArrayDeque<>();
+    Set<Node> open = new HashSet<>();
+    for (Map<StackState, Node> nodesAtPc: this.nodes.values()) {
+      for (Node node: nodesAtPc.values()) {
+        for (Edge edge: node.successors) {
+          if (edge.pc == node.pc) {
+            continue;
+          }
+          Node next = getNode(edge.pc, edge.state);
+          if (next == null) {
+            if (open.add(node)) {
+              toVisit.add(node);
+            }
+          }
+          else {
+            predecessors.computeIfAbsent(next, k -> new ArrayList<>()).add(node);
+          }
+        }
+      }
+    }
+    while (!toVisit.isEmpty()) {
+      for (Node previous: predecessors.getOrDefault(toVisit.remove(), Collections.emptyList())) {
+        if (open.add(previous)) {
+          toVisit.add(previous);
+        }
+      }
+    }
+    for (Map<StackState, Node> nodesAtPc: this.nodes.values()) {
+      for (Node node: nodesAtPc.values()) {
+        node.closed = !open.contains(node);
+      }
+    }
+  }
+
+  private Node getNode(int pc, StackState state) {
+    Map<StackState, Node> nodesAtPc = this.nodes.get(pc);
+    return nodesAtPc == null ? null : nodesAtPc.get(state);
+  }
+
+  private static class Node {
+    final int pc;
+    final StackState state;
+    final CodeSegment segment;
+    final Set<Edge> successors = new LinkedHashSet<>();
+    final Set<Integer> jumpDests = new LinkedHashSet<>();
+    final Map<Integer, BasicBlockWithCode> codeCopies = new LinkedHashMap<>();
+    boolean closed = false;
+
+    Node(int pc, StackState state, CodeSegment segment) {
+      this.pc = pc;
+      this.state = state;
+      this.segment = segment;
+    }
+  }
+
+  private static class Edge {
+    final int pc;
+    final StackState state;
+
+    Edge(int pc, StackState state) {
+      this.pc = pc;
+      this.state = state;
+    }
+
+    @Override
+    public boolean equals(Object other) {
+      if (!(other instanceof Edge)) {
+        return false;
+      }
+      Edge that = (Edge) other;
+      return this.pc == that.pc && this.state == that.state;
+    }
+
+    @Override
+    public int hashCode() {
+      return 31 * this.pc + this.state.hashCode();
+    }
+  }
+}
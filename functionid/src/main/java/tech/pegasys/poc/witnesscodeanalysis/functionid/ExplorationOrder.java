@@ -0,0 +1,32 @@
+/*
+ * Copyright ConsenSys AG.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+package tech.pegasys.poc.witnesscodeanalysis.functionid;
+
+/**
+ * The order in which CodeVisitor explores the paths it has found but not yet followed.
+ */
+public enum ExplorationOrder {
+  /**
+   * Follow the most recently found path first. This visits code in the same order as the
+   * original recursive implementation, and so produces exactly the same code segments.
+   */
+  DEPTH_FIRST,
+
+  /** Follow the paths in the order they were found. */
+  BREADTH_FIRST,
+
+  /** Follow the path with the lowest PC first. Paths with the same PC are followed in the order found. */
+  LOWEST_PC_FIRST
+}
@@ -17,6 +17,20 @@ public class FunctionIdAllResult {
     this.id = id;
   }
 
+  /**
+   * @return A copy of this result for another contract with the same code. The leaves are
+   *   shared, not copied.
+   */
+  public FunctionIdAllResult copyForContract(int id) {
+    FunctionIdAllResult copy = new FunctionIdAllResult();
+    copy.id = id;
+    copy.result = this.result;
+    copy.isProbablySolidity = this.isProbablySolidity;
+    copy.isNewSolidity = this.isNewSolidity;
+    copy.leaves = this.leaves;
+    return copy;
+  }
+
   public void addLeaf(FunctionIdMerklePatriciaTrieLeafData leaf) {
     this.leaves.add(leaf);
   }
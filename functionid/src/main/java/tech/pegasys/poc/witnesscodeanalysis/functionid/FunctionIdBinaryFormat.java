@@ -0,0 +1,184 @@
+/*
+ * Copyright ConsenSys AG.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+package tech.pegasys.poc.witnesscodeanalysis.functionid;
+
+import tech.pegasys.poc.witnesscodeanalysis.common.UnableToProcessReason;
+
+import java.io.DataInput;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+/**
+ * Binary format for function id analysis results, an alternative to one JSON object per line.
+ *
+ * The file is:
+ *   header:  int magic, int version
+ *   records: int length of the rest of the record, int id, byte result (reason code, see
+ *            reasonCode, or -1), byte flags (1: probably Solidity, 2: new Solidity), int number of
+ *            leaves, then for each leaf: byte function id length, function id, int encoded leaf
+ *            length, encoded leaf
+ *   int -1, marking the end of the records
+ *   index:   for each record: int id, long offset of the record
+ *   trailer: long offset of the index, int number of index entries, int index magic
+ *
+ * The end marker, index and trailer are written when the file is complete. A file which was
+ * not completed, for instance after a crash, can still be read from start to end.
+ *
+ * Version 1 files stored the result as the ordinal of UnableToProcessReason, which changes when
+ * reasons are added, and can not be read.
+ */
+public class FunctionIdBinaryFormat {
+  public static final String EXTENSION = ".bin";
+
+  static final int MAGIC = 0x43574652; // "CWFR"
+  static final int VERSION = 2;
+  static final int HEADER_SIZE = 8;
+  static final int END_OF_RECORDS = -1;
+  static final int INDEX_MAGIC = 0x43574658; // "CWFX"
+  static final int INDEX_ENTRY_SIZE = 12;
+  static final int TRAILER_SIZE = 16;
+
+  private static final int PROBABLY_SOLIDITY = 1;
+  private static final int NEW_SOLIDITY = 2;
+
+  public static void writeHeader(DataOutputStream out) throws IOException {
+    out.writeInt(MAGIC);
+    out.writeInt(VERSION);
+  }
+
+  /**
+   * @return The number of bytes written.
+   */
+  public static int writeRecord(FunctionIdAllResult result, DataOutputStream out) throws IOException {
+    int length = 4 + 1 + 1 + 4;
+    for (FunctionIdMerklePatriciaTrieLeafData leaf : result.getLeaves()) {
+      length += 1 + leaf.getFunctionId().toArrayUnsafe().length + 4 + leaf.getEncodedLeaf().length;
+    }
+    out.writeInt(length);
+    out.writeInt(result.getId());
+    out.writeByte(result.getResult() == null ? -1 : reasonCode(result.getResult()));
+    out.writeByte((result.isProbablySolidity() ? PROBABLY_SOLIDITY : 0) | (result.isNewSolidity() ? NEW_SOLIDITY : 0));
+    out.writeInt(result.getLeaves().size());
+    for (FunctionIdMerklePatriciaTrieLeafData leaf : result.getLeaves()) {
+      byte[] functionId = leaf.getFunctionId().toArrayUnsafe();
+      out.writeByte(functionId.length);
+      out.write(functionId);
+      out.writeInt(leaf.getEncodedLeaf().length);
+      out.write(leaf.getEncodedLeaf());
+    }
+    return 4 + length;
+  }
+
+  /**
+   * Write the end of records marker, the index and the trailer.
+   *
+   * @param indexOffset Offset in the file at which the index will start, after the end marker.
+   */
+  public static void writeIndex(DataOutputStream out, int[] ids, long[] offsets, int count, long indexOffset) throws IOException {
+    out.writeInt(END_OF_RECORDS);
+    for (int i = 0; i < count; i++) {
+      out.writeInt(ids[i]);
+      out.writeLong(offsets[i]);
+    }
+    out.writeLong(indexOffset);
+    out.writeInt(count);
+    out.writeInt(INDEX_MAGIC);
+  }
+
+  static void checkHeader(DataInput in) throws IOException {
+    if (in.readInt() != MAGIC) {
+      throw new IOException("Not a function id results file");
+    }
+    int version = in.readInt();
+    if (version != VERSION) {
+      throw new IOException("Unsupported function id results file version " + version);
+    }
+  }
+
+  /**
+   * Read the rest of a record, after its length.
+   */
+  static FunctionIdAllResult readRecord(DataInput in) throws IOException {
+    FunctionIdAllResult result = new FunctionIdAllResult();
+    result.setContractInfo(in.readInt());
+    int reason = in.readByte();
+    result.setOverallResult(reason < 0 ? null : reasonForCode(reason));
+    int flags = in.readByte();
+    result.setSolidityInfo((flags & PROBABLY_SOLIDITY) != 0, (flags & NEW_SOLIDITY) != 0);
+    int numLeaves = in.readInt();
+    for (int i = 0; i < numLeaves; i++) {
+      byte[] functionId = new byte[in.readUnsignedByte()];
+      in.readFully(functionId);
+      byte[] encodedLeaf = new byte[in.readInt()];
+      in.readFully(encodedLeaf);
+      result.addLeaf(new FunctionIdMerklePatriciaTrieLeafData(functionId, encodedLeaf));
+    }
+    return result;
+  }
+
+  /**
+   * @return The code stored for the reason. Codes must never be changed or reused: a new reason
+   *   gets the next unused code.
+   */
+  static int reasonCode(UnableToProcessReason reason) {
+    switch (reason) {
+      case CODECOPY_WITH_DYNAMIC_PARAMETERS:
+        return 0;
+      case INVALID_JUMP_DEST:
+        return 1;
+      case DYNAMIC_JUMP:
+        return 2;
+      case END_OF_FUNCTION_ID_BLOCK_NOT_FOUND:
+        return 3;
+      case CODE_PATHS_NOT_VALID:
+        return 4;
+      case EXPLORATION_LIMIT_EXCEEDED:
+        return 5;
+      case UNKNOWN_REASON1:
+        return 6;
+      case UNKNOWN_REASON2:
+        return 7;
+      case SUCCESS:
+        return 8;
+      default:
+        throw new IllegalArgumentException("No code for reason " + reason);
+    }
+  }
+
+  static UnableToProcessReason reasonForCode(int code) throws IOException {
+    switch (code) {
+      case 0:
+        return UnableToProcessReason.CODECOPY_WITH_DYNAMIC_PARAMETERS;
+      case 1:
+        return UnableToProcessReason.INVALID_JUMP_DEST;
+      case 2:
+        return UnableToProcessReason.DYNAMIC_JUMP;
+      case 3:
+        return UnableToProcessReason.END_OF_FUNCTION_ID_BLOCK_NOT_FOUND;
+      case 4:
+        return UnableToProcessReason.CODE_PATHS_NOT_VALID;
+      case 5:
+        return UnableToProcessReason.EXPLORATION_LIMIT_EXCEEDED;
+      case 6:
+        return UnableToProcessReason.UNKNOWN_REASON1;
+      case 7:
+        return UnableToProcessReason.UNKNOWN_REASON2;
+      case 8:
+        return UnableToProcessReason.SUCCESS;
+      default:
+        throw new IOException("Unknown result code " + code + " in function id results file");
+    }
+  }
+}
@@ -0,0 +1,242 @@
+/*
+ * Copyright ConsenSys AG.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+package tech.pegasys.poc.witnesscodeanalysis.functionid;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.zip.GZIPInputStream;
+
+import static tech.pegasys.poc.witnesscodeanalysis.functionid.FunctionIdBinaryFormat.END_OF_RECORDS;
+import static tech.pegasys.poc.witnesscodeanalysis.functionid.FunctionIdBinaryFormat.HEADER_SIZE;
+import static tech.pegasys.poc.witnesscodeanalysis.functionid.FunctionIdBinaryFormat.INDEX_ENTRY_SIZE;
+import static tech.pegasys.poc.witnesscodeanalysis.functionid.FunctionIdBinaryFormat.INDEX_MAGIC;
+import static tech.pegasys.poc.witnesscodeanalysis.functionid.FunctionIdBinaryFormat.TRAILER_SIZE;
+
+/**
+ * Reads a file of function id results in FunctionIdBinaryFormat. The results can be read in
+ * order, or the result for a contract id can be read using the file's index. Compressed (.gz)
+ * files can only be read in order.
+ *
+ * Reading in order uses a buffered stream. Reading by contract id reads just the record, at its
+ * offset in the file, so it does not change the position of the next result read in order, and
+ * can be done from several threads at once.
+ */
+public class FunctionIdBinaryReader implements Closeable {
+  private static final int BUFFER_SIZE = 1024 * 1024;
+
+  private final FileChannel channel;
+  private final boolean gzip;
+  private final DataInputStream in;
+  // Offset of the next record, in the uncompressed data.
+  private long position;
+
+  private long indexOffset = -1;
+  private int numIndexEntries;
+  // Index of a file without one, built the first time a result is read by contract id.
+  private int[] memoryIds;
+  private long[] memoryOffsets;
+
+  public FunctionIdBinaryReader(String fileIn) throws IOException {
+    this(Paths.get(fileIn));
+  }
+
+  public FunctionIdBinaryReader(Path fileIn) throws IOException {
+    this.channel = FileChannel.open(fileIn, StandardOpenOption.READ);
+    this.gzip = fileIn.toString().endsWith(".gz");
+    if (!this.gzip) {
+      readTrailer();
+    }
+    InputStream stream = Channels.newInputStream(this.channel);
+    if (this.gzip) {
+      stream = new GZIPInputStream(stream, BUFFER_SIZE);
+    }
+    this.in = new DataInputStream(new BufferedInputStream(stream, BUFFER_SIZE));
+    FunctionIdBinaryFormat.checkHeader(this.in);
+    this.position = HEADER_SIZE;
+  }
+
+  /**
+   * @return The next result, or null at the end of the file.
+   */
+  public FunctionIdAllResult next() throws IOException {
+    int length;
+    try {
+      length = this.in.readInt();
+    } catch (EOFException ex) {
+      return null;
+    }
+    if (length == END_OF_RECORDS) {
+      return null;
+    }
+    FunctionIdAllResult result = FunctionIdBinaryFormat.readRecord(this.in);
+    this.position += 4 + length;
+    return result;
+  }
+
+  /**
+   * @return Offset of the next record, in the uncompressed data.
+   */
+  public long getPosition() {
+    return position;
+  }
+
+  /**
+   * @return True if the file has an index. Files which were not completed do not have an index.
+   */
+  public boolean hasIndex() {
+    return this.indexOffset >= 0;
+  }
+
+  /**
+   * Read the result for a contract. Uses the index if there is one. Otherwise the first call
+   * indexes the records in the file, which means reading the length and contract id of each.
+   *
+   * @return The result, or null if there is no result for the contract.
+   */
+  public FunctionIdAllResult get(int id) throws IOException {
+    if (this.gzip) {
+      throw new IOException("Can not read by contract id from a compressed function id results file");
+    }
+    long offset = hasIndex() ? findInIndex(id) : findInMemoryIndex(id);
+    if (offset < 0) {
+      return null;
+    }
+    int length = readAt(offset, 4).getInt(0);
+    ByteBuffer record = readAt(offset + 4, length);
+    return FunctionIdBinaryFormat.readRecord(new DataInputStream(new ByteArrayInputStream(record.array())));
+  }
+
+  @Override
+  public void close() throws IOException {
+    this.channel.close();
+  }
+
+  private void readTrailer() throws IOException {
+    long size = this.channel.size();
+    if (size < HEADER_SIZE + 4 + TRAILER_SIZE) {
+      return;
+    }
+    ByteBuffer trailer = readAt(size - TRAILER_SIZE, TRAILER_SIZE);
+    long offset = trailer.getLong(0);
+    int count = trailer.getInt(8);
+    if (trailer.getInt(12) == INDEX_MAGIC && offset + (long) count * INDEX_ENTRY_SIZE + TRAILER_SIZE == size) {
+      this.indexOffset = offset;
+      this.numIndexEntries = count;
+    }
+  }
+
+  /**
+   * Results are written in contract id order, so the index is sorted by id.
+   *
+   * @return The offset of the contract's record, or -1.
+   */
+  private long findInIndex(int id) throws IOException {
+    int first = 0;
+    int last = this.numIndexEntries - 1;
+    while (first <= last) {
+      int mid = (first + last) >>> 1;
+      ByteBuffer entry = readAt(this.indexOffset + (long) mid * INDEX_ENTRY_SIZE, INDEX_ENTRY_SIZE);
+      int entryId = entry.getInt(0);
+      if (entryId == id) {
+        return entry.getLong(4);
+      }
+      if (entryId < id) {
+        first = mid + 1;
+      }
+      else {
+        last = mid - 1;
+      }
+    }
+    return -1;
+  }
+
+  /**
+   * @return The offset of the contract's record, or -1.
+   */
+  private long findInMemoryIndex(int id) throws IOException {
+    synchronized (this.channel) {
+      if (this.memoryIds == null) {
+        buildMemoryIndex();
+      }
+    }
+    int i = Arrays.binarySearch(this.memoryIds, id);
+    return i < 0 ? -1 : this.memoryOffsets[i];
+  }
+
+  /**
+   * Index the records of a file which was not completed. A record left incomplete at the end
+   * of the file is ignored.
+   */
+  private void buildMemoryIndex() throws IOException {
+    long size = this.channel.size();
+    int[] ids = new int[1024];
+    long[] offsets = new long[1024];
+    int count = 0;
+    long offset = HEADER_SIZE;
+    while (offset + 8 <= size) {
+      ByteBuffer start = readAt(offset, 8);
+      int length = start.getInt(0);
+      if (length == END_OF_RECORDS || offset + 4 + length > size) {
+        break;
+      }
+      if (count == ids.length) {
+        ids = Arrays.copyOf(ids, count * 2);
+        offsets = Arrays.copyOf(offsets, count * 2);
+      }
+      ids[count] = start.getInt(4);
+      offsets[count] = offset;
+      count++;
+      offset += 4 + length;
+    }
+
+    // Ids are not negative, so sorting id then position gives the id order.
+    long[] keys = new long[count];
+    for (int i = 0; i < count; i++) {
+      keys[i] = ((long) ids[i] << 32) | i;
+    }
+    Arrays.sort(keys);
+    int[] sortedIds = new int[count];
+    long[] sortedOffsets = new long[count];
+    for (int i = 0; i < count; i++) {
+      int from = (int) keys[i];
+      sortedIds[i] = ids[from];
+      sortedOffsets[i] = offsets[from];
+    }
+    this.memoryOffsets = sortedOffsets;
+    this.memoryIds = sortedIds;
+  }
+
+  private ByteBuffer readAt(long offset, int length) throws IOException {
+    ByteBuffer buf = ByteBuffer.allocate(length);
+    while (buf.hasRemaining()) {
+      if (this.channel.read(buf, offset + buf.position()) < 0) {
+        throw new EOFException();
+      }
+    }
+    return buf;
+  }
+}
@@ -19,27 +19,48 @@ import com.google.gson.GsonBuilder;
 
 import java.io.BufferedReader;
 import java.io.IOException;
+import java.io.InputStreamReader;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.zip.GZIPInputStream;
 
+/**
+ * Reads function id results, either written as JSON, one result per line, or in
+ * FunctionIdBinaryFormat. Either can be compressed.
+ */
 public class FunctionIdDataSetReader {
 //  private static final Logger LOG = getLogger();
 
   public static final String DEFAULT_FILE_IN =  "analysis_functionid.json";
+  public static final String DEFAULT_BINARY_FILE_IN =  "analysis_functionid" + FunctionIdBinaryFormat.EXTENSION;
   private BufferedReader reader;
+  private FunctionIdBinaryReader binaryReader;
   private Gson gson;
 
 
+  /**
+   * Read the default JSON file, or the default binary file if there is no JSON file.
+   */
   public FunctionIdDataSetReader() throws IOException {
-    this(DEFAULT_FILE_IN);
+    this(Files.exists(Paths.get(DEFAULT_FILE_IN)) || !Files.exists(Paths.get(DEFAULT_BINARY_FILE_IN))
+        ? DEFAULT_FILE_IN : DEFAULT_BINARY_FILE_IN);
   }
 
   public FunctionIdDataSetReader(String fileIn) throws IOException {
     Path pathToFileIn = Paths.get(fileIn);
-    BufferedReader reader = Files.newBufferedReader(pathToFileIn, StandardCharsets.US_ASCII);
-    this.reader = reader;
+    if (fileIn.endsWith(FunctionIdBinaryFormat.EXTENSION) || fileIn.endsWith(FunctionIdBinaryFormat.EXTENSION + ".gz")) {
+      this.binaryReader = new FunctionIdBinaryReader(pathToFileIn);
+      return;
+    }
+    if (fileIn.endsWith(".gz")) {
+      this.reader = new BufferedReader(new InputStreamReader(
+          new GZIPInputStream(Files.newInputStream(pathToFileIn)), StandardCharsets.US_ASCII));
+    }
+    else {
+      this.reader = Files.newBufferedReader(pathToFileIn, StandardCharsets.US_ASCII);
+    }
 
     //  Parsing the JSON file for contract code
     this.gson = new GsonBuilder().setLenient().create();
@@ -48,6 +69,9 @@ public class FunctionIdDataSetReader {
 
   public FunctionIdAllResult next() {
     try {
+      if (this.binaryReader != null) {
+        return this.binaryReader.next();
+      }
       String line = reader.readLine();
       if (line == null) {
         return null;
@@ -59,6 +83,10 @@ public class FunctionIdDataSetReader {
   }
 
   public void close() throws IOException {
+    if (this.binaryReader != null) {
+      this.binaryReader.close();
+      return;
+    }
     reader.close();
   }
 }
@@ -56,6 +56,14 @@ public class FunctionIdMerklePatriciaTrieLeafData {
     this.encodedLeaf = Arrays.copyOf(buf.array(), buf.position());
   }
 
+  /**
+   * Used when reading leaves from a binary results file.
+   */
+  FunctionIdMerklePatriciaTrieLeafData(byte[] functionId, byte[] encodedLeaf) {
+    this.functionId = functionId;
+    this.encodedLeaf = encodedLeaf;
+  }
+
   public Bytes getFunctionId() {
     return Bytes.wrap(functionId);
   }
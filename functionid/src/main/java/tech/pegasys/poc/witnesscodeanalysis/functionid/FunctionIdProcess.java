@@ -18,7 +18,8 @@ import org.apache.logging.log4j.Logger;
 import org.apache.tuweni.bytes.Bytes;
 import tech.pegasys.poc.witnesscodeanalysis.common.UnableToProcessException;
 import tech.pegasys.poc.witnesscodeanalysis.common.UnableToProcessReason;
-import tech.pegasys.poc.witnesscodeanalysis.vm.operations.CodeCopyOperation;
+import tech.pegasys.poc.witnesscodeanalysis.vm.AnalysisContext;
+import tech.pegasys.poc.witnesscodeanalysis.vm.InstructionIndex;
 
 import java.util.Map;
 import java.util.Set;
@@ -30,25 +31,31 @@ public class FunctionIdProcess {
   private static final Logger LOG = getLogger();
 
   Bytes code;
+  InstructionIndex instructions;
   int endOfFunctionIdBlock;
   int endOfCode;
   Set<Integer> jumpDests;
-
+  AnalysisContext context;
 
 
   CodePaths codePaths;
 
-  public FunctionIdProcess(Bytes code, int endOfFunctionIdBlock, int endOfCode, Set<Integer> jumpDests) {
-    this.code = code;
+  public FunctionIdProcess(Bytes code, int endOfFunctionIdBlock, int endOfCode, Set<Integer> jumpDests, AnalysisContext context) {
+    this(InstructionIndex.decode(code), endOfFunctionIdBlock, endOfCode, jumpDests, context);
+  }
+
+  public FunctionIdProcess(InstructionIndex instructions, int endOfFunctionIdBlock, int endOfCode, Set<Integer> jumpDests, AnalysisContext context) {
+    this.code = instructions.getCode();
+    this.instructions = instructions;
     this.endOfFunctionIdBlock = endOfFunctionIdBlock;
     this.endOfCode = endOfCode;
     this.jumpDests = jumpDests;
-    CodeCopyOperation.setConsumer(CodeCopyConsumer.getInstance());
+    this.context = context;
   }
 
 
   public void executeAnalysis(FunctionIdAllResult result) {
-    this.codePaths = new CodePaths(this.code, this.jumpDests);
+    this.codePaths = new CodePaths(this.instructions, this.jumpDests, this.context);
     codePaths.findFunctionBlockCodePaths(this.endOfFunctionIdBlock);
     codePaths.findCodeSegmentsForFunctions();
 
@@ -60,7 +67,6 @@ public class FunctionIdProcess {
     LOG.trace("Combining Code Segments using bytes between segments: {}", COMBINATION_GAP);
     codePaths.combineCodeSegments(COMBINATION_GAP);
 
-    CodeCopyOperation.removeConsumer();
     createMerklePatriciaTrieLeaves(result);
   }
 
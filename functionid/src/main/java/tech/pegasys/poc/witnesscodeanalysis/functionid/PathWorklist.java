@@ -0,0 +1,88 @@
+/*
+ * Copyright ConsenSys AG.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+package tech.pegasys.poc.witnesscodeanalysis.functionid;
+
+import java.util.ArrayDeque;
+import java.util.Comparator;
+import java.util.PriorityQueue;
+
+/**
+ * Holds the items still to be explored by CodeVisitor, and hands them out in the configured
+ * exploration order.
+ */
+class PathWorklist<T> {
+  private final ExplorationOrder order;
+  private final ArrayDeque<T> deque;
+  private final PriorityQueue<Entry<T>> priorityQueue;
+  private long sequenceNumber = 0;
+
+  PathWorklist(ExplorationOrder order) {
+    this.order = order;
+    if (order == ExplorationOrder.LOWEST_PC_FIRST) {
+      this.deque = null;
+      this.priorityQueue = new PriorityQueue<>(
+          Comparator.<Entry<T>>comparingInt(e -> e.pc).thenComparingLong(e -> e.sequenceNumber));
+    }
+    else {
+      this.deque = new ArrayDeque<>();
+      this.priorityQueue = null;
+    }
+  }
+
+  /**
+   * @param item Item to explore.
+   * @param pc PC the item will start exploring from. Only used for LOWEST_PC_FIRST ordering.
+   */
+  void add(T item, int pc) {
+    switch (this.order) {
+      case DEPTH_FIRST:
+        this.deque.addFirst(item);
+        break;
+      case BREADTH_FIRST:
+        this.deque.addLast(item);
+        break;
+      default:
+        this.priorityQueue.add(new Entry<>(item, pc, this.sequenceNumber++));
+        break;
+    }
+  }
+
+  /**
+   * @return The next item to explore, or null if there are none.
+   */
+  T next() {
+    if (this.deque != null) {
+      return this.deque.pollFirst();
+    }
+    Entry<T> entry = this.priorityQueue.poll();
+    return entry == null ? null : entry.item;
+  }
+
+  int size() {
+    return this.deque != null ? this.deque.size() : this.priorityQueue.size();
+  }
+
+  private static class Entry<T> {
+    final T item;
+    final int pc;
+    final long sequenceNumber;
+
+    Entry(T item, int pc, long sequenceNumber) {
+      this.item = item;
+      this.pc = pc;
+      this.sequenceNumber = sequenceNumber;
+    }
+  }
+}
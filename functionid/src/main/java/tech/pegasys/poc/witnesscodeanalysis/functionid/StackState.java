@@ -0,0 +1,89 @@
+/*
+ * Copyright ConsenSys AG.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+package tech.pegasys.poc.witnesscodeanalysis.functionid;
+
+import tech.pegasys.poc.witnesscodeanalysis.vm.OperandStack;
+
+/**
+ * The abstract state of the operand stack when a code segment is entered: the values of all of
+ * the items on the stack.
+ *
+ * All items are included, as items deeper than DUP16 and SWAP16 can reach, such as the return
+ * addresses of internal functions, become the top of the stack again as functions return. States
+ * are interned by a StackStateTable, so two states are the same if and only if they are the same
+ * object.
+ */
+public final class StackState {
+  private static final int LIMBS = 4;
+
+  private final long fingerprint;
+  private final long[] limbs;
+  private final int[] dynamicOpcodes;
+
+  // Next state in the same StackStateTable bucket.
+  StackState nextInBucket;
+
+  StackState(OperandStack stack, long fingerprint) {
+    int numItems = stack.size();
+    this.fingerprint = fingerprint;
+    this.limbs = new long[numItems * LIMBS];
+    this.dynamicOpcodes = new int[numItems];
+    for (int i = 0; i < numItems; i++) {
+      this.dynamicOpcodes[i] = stack.getDynamicOpcode(i);
+      for (int limb = 0; limb < LIMBS; limb++) {
+        this.limbs[i * LIMBS + limb] = stack.getLimb(i, limb);
+      }
+    }
+  }
+
+  /**
+   * @return true if this state represents the stack.
+   */
+  boolean matches(OperandStack stack) {
+    int numItems = stack.size();
+    if (numItems != this.dynamicOpcodes.length) {
+      return false;
+    }
+    for (int i = 0; i < numItems; i++) {
+      if (this.dynamicOpcodes[i] != stack.getDynamicOpcode(i)) {
+        return false;
+      }
+      for (int limb = 0; limb < LIMBS; limb++) {
+        if (this.limbs[i * LIMBS + limb] != stack.getLimb(i, limb)) {
+          return false;
+        }
+      }
+    }
+    return true;
+  }
+
+  public long getFingerprint() {
+    return this.fingerprint;
+  }
+
+  public int getNumItems() {
+    return this.dynamicOpcodes.length;
+  }
+
+  @Override
+  public int hashCode() {
+    return (int) (this.fingerprint ^ (this.fingerprint >>> 32));
+  }
+
+  @Override
+  public String toString() {
+    return "StackState{items=" + getNumItems() + ", fingerprint=0x" + Long.toHexString(this.fingerprint) + "}";
+  }
+}
@@ -0,0 +1,90 @@
+/*
+ * Copyright ConsenSys AG.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+package tech.pegasys.poc.witnesscodeanalysis.functionid;
+
+import tech.pegasys.poc.witnesscodeanalysis.vm.OperandStack;
+
+/**
+ * Interns StackStates, so that there is a single StackState object for each distinct stack.
+ *
+ * States are found by the stack's fingerprint, which the stack maintains as it changes, and are
+ * compared item by item when fingerprints are equal. Finding the state for a stack does not create
+ * any objects.
+ */
+public class StackStateTable {
+  private static final int INITIAL_CAPACITY = 64;
+
+  private StackState[] buckets = new StackState[INITIAL_CAPACITY];
+  private int size = 0;
+
+  /**
+   * Find the state of a stack.
+   *
+   * @return The state, or null if no stack with the same state has been interned.
+   */
+  public StackState find(OperandStack stack) {
+    return find(stack, stack.fingerprint());
+  }
+
+  /**
+   * Find the state of a stack, creating it if no stack with the same state has been interned.
+   */
+  public StackState intern(OperandStack stack) {
+    long fingerprint = stack.fingerprint();
+    StackState state = find(stack, fingerprint);
+    if (state == null) {
+      if (this.size + 1 > this.buckets.length - (this.buckets.length >>> 2)) {
+        resize();
+      }
+      state = new StackState(stack, fingerprint);
+      int bucket = bucket(fingerprint, this.buckets.length);
+      state.nextInBucket = this.buckets[bucket];
+      this.buckets[bucket] = state;
+      this.size++;
+    }
+    return state;
+  }
+
+  public int size() {
+    return this.size;
+  }
+
+  private StackState find(OperandStack stack, long fingerprint) {
+    for (StackState state = this.buckets[bucket(fingerprint, this.buckets.length)]; state != null; state = state.nextInBucket) {
+      if (state.getFingerprint() == fingerprint && state.matches(stack)) {
+        return state;
+      }
+    }
+    return null;
+  }
+
+  private void resize() {
+    StackState[] newBuckets = new StackState[this.buckets.length * 2];
+    for (StackState state: this.buckets) {
+      while (state != null) {
+        StackState next = state.nextInBucket;
+        int bucket = bucket(state.getFingerprint(), newBuckets.length);
+        state.nextInBucket = newBuckets[bucket];
+        newBuckets[bucket] = state;
+        state = next;
+      }
+    }
+    this.buckets = newBuckets;
+  }
+
+  private static int bucket(long fingerprint, int numBuckets) {
+    return (int) (fingerprint ^ (fingerprint >>> 32)) & (numBuckets - 1);
+  }
+}
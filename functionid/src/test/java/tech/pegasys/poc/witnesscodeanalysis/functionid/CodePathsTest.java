@@ -0,0 +1,189 @@
+/*
+ * Copyright ConsenSys AG.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+package tech.pegasys.poc.witnesscodeanalysis.functionid;
+
+import org.apache.tuweni.bytes.Bytes;
+import org.junit.Test;
+import tech.pegasys.poc.witnesscodeanalysis.vm.AnalysisContext;
+
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+import static org.junit.Assert.assertEquals;
+
+public class CodePathsTest {
+  private static final int NUM_FUNCTIONS = CodeVisitor.DEFAULT_MAX_ENTRY_STATES_PER_SEGMENT + 2;
+
+  private static final int STOP = 0x00;
+  private static final int EQ = 0x14;
+  private static final int SHR = 0x1c;
+  private static final int CALLDATALOAD = 0x35;
+  private static final int POP = 0x50;
+  private static final int JUMP = 0x56;
+  private static final int JUMPI = 0x57;
+  private static final int JUMPDEST = 0x5b;
+  private static final int PUSH1 = 0x60;
+  private static final int PUSH2 = 0x61;
+  private static final int PUSH4 = 0x63;
+  private static final int DUP1 = 0x80;
+  private static final int REVERT = 0xfd;
+
+  /**
+   * Each function calls the helper with a different stack. Each function has its own limit on the
+   * number of stack states a segment is entered with, so every function reaches its own return
+   * from the helper, however many functions call it.
+   */
+  @Test
+  public void helperCalledWithDifferentStacksByMoreFunctionsThanTheEntryStateLimit() {
+    Assembler asm = new Assembler();
+    List<Integer> dispatcherSegments = asm.dispatcher(NUM_FUNCTIONS);
+    for (int i = 0; i < NUM_FUNCTIONS; i++) {
+      asm.label("body" + i).pushLabel("return" + i).op(PUSH1, i).pushLabel("helper").op(JUMP);
+      asm.label("return" + i).op(STOP);
+    }
+    asm.label("helper").op(POP, JUMP);
+
+    Map<Bytes, Map<Integer, CodeSegment>> allCodePaths = findCodePaths(asm);
+
+    assertEquals(NUM_FUNCTIONS, allCodePaths.size());
+    for (int i = 0; i < NUM_FUNCTIONS; i++) {
+      Map<Integer, CodeSegment> segments = allCodePaths.get(functionId(i));
+      Set<Integer> expected = new TreeSet<>(dispatcherSegments.subList(0, i + 1));
+      expected.add(asm.labels.get("body" + i));
+      expected.add(asm.labels.get("helper"));
+      expected.add(asm.labels.get("return" + i));
+      assertEquals("Function " + i, expected, segments.keySet());
+      assertEquals(Collections.singleton(asm.labels.get("body" + i)),
+          segments.get(asm.labels.get("helper")).previousSegments);
+    }
+  }
+
+  /**
+   * Each function calls the helper with the same stack, so the helper is interpreted for the first
+   * function and replayed from the control flow graph for the others.
+   */
+  @Test
+  public void helperCalledWithTheSameStackByEachFunction() {
+    Assembler asm = new Assembler();
+    List<Integer> dispatcherSegments = asm.dispatcher(NUM_FUNCTIONS);
+    for (int i = 0; i < NUM_FUNCTIONS; i++) {
+      asm.label("body" + i).pushLabel("helper").op(JUMP);
+    }
+    asm.label("helper").op(PUSH1, 0, CALLDATALOAD).pushLabel("ok").op(JUMPI);
+    int helperFallThrough = asm.pc();
+    asm.op(PUSH1, 0, DUP1, REVERT);
+    asm.label("ok").op(STOP);
+
+    Map<Bytes, Map<Integer, CodeSegment>> allCodePaths = findCodePaths(asm);
+
+    assertEquals(NUM_FUNCTIONS, allCodePaths.size());
+    for (int i = 0; i < NUM_FUNCTIONS; i++) {
+      Map<Integer, CodeSegment> segments = allCodePaths.get(functionId(i));
+      Set<Integer> expected = new TreeSet<>(dispatcherSegments.subList(0, i + 1));
+      expected.add(asm.labels.get("body" + i));
+      expected.add(asm.labels.get("helper"));
+      expected.add(helperFallThrough);
+      expected.add(asm.labels.get("ok"));
+      assertEquals("Function " + i, expected, segments.keySet());
+
+      CodeSegment helper = segments.get(asm.labels.get("helper"));
+      assertEquals(Collections.singleton(asm.labels.get("body" + i)), helper.previousSegments);
+      assertEquals(Collections.singleton(asm.labels.get("ok")), helper.nextSegmentJumps);
+      assertEquals(helperFallThrough, helper.nextSegmentNoJump);
+      assertEquals(Collections.singleton(asm.labels.get("helper")), segments.get(helperFallThrough).previousSegments);
+      assertEquals(Collections.singleton(asm.labels.get("helper")), segments.get(asm.labels.get("ok")).previousSegments);
+    }
+  }
+
+  private static Map<Bytes, Map<Integer, CodeSegment>> findCodePaths(Assembler asm) {
+    CodePaths codePaths = new CodePaths(asm.build(), asm.jumpDests, new AnalysisContext());
+    codePaths.findFunctionBlockCodePaths(asm.endOfDispatcher);
+    codePaths.findCodeSegmentsForFunctions();
+    return codePaths.getAllCodePaths();
+  }
+
+  private static Bytes functionId(int function) {
+    return Bytes.wrap(new byte[]{0, 0, 0, (byte) (function + 1)});
+  }
+
+  private static class Assembler {
+    private final ByteArrayOutputStream code = new ByteArrayOutputStream();
+    // Offsets of the PUSH2 immediates to set to the offsets of labels.
+    private final Map<Integer, String> fixUps = new HashMap<>();
+    final Map<String, Integer> labels = new HashMap<>();
+    final Set<Integer> jumpDests = new TreeSet<>();
+    int endOfDispatcher;
+
+    int pc() {
+      return this.code.size();
+    }
+
+    Assembler op(int... bytes) {
+      for (int b: bytes) {
+        this.code.write(b);
+      }
+      return this;
+    }
+
+    Assembler label(String name) {
+      this.labels.put(name, pc());
+      this.jumpDests.add(pc());
+      return op(JUMPDEST);
+    }
+
+    Assembler pushLabel(String name) {
+      op(PUSH2);
+      this.fixUps.put(pc(), name);
+      return op(0, 0);
+    }
+
+    /**
+     * Add a function id block which jumps to label "body<n>" for function id n + 1.
+     *
+     * @return The start of the code segment of each function's jump, in function order.
+     */
+    List<Integer> dispatcher(int numFunctions) {
+      List<Integer> segments = new ArrayList<>();
+      segments.add(pc());
+      op(PUSH1, 0, CALLDATALOAD, PUSH1, 0xe0, SHR);
+      for (int i = 0; i < numFunctions; i++) {
+        if (i != 0) {
+          segments.add(pc());
+        }
+        op(DUP1, PUSH4, 0, 0, 0, i + 1, EQ).pushLabel("body" + i).op(JUMPI);
+      }
+      op(PUSH1, 0, DUP1);
+      this.endOfDispatcher = pc();
+      op(REVERT);
+      return segments;
+    }
+
+    Bytes build() {
+      byte[] bytes = this.code.toByteArray();
+      for (Map.Entry<Integer, String> fixUp: this.fixUps.entrySet()) {
+        int offset = this.labels.get(fixUp.getValue());
+        bytes[fixUp.getKey()] = (byte) (offset >> 8);
+        bytes[fixUp.getKey() + 1] = (byte) offset;
+      }
+      return Bytes.wrap(bytes);
+    }
+  }
+}
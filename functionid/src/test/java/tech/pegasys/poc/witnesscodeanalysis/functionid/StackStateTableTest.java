@@ -0,0 +1,70 @@
+/*
+ * Copyright ConsenSys AG.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+package tech.pegasys.poc.witnesscodeanalysis.functionid;
+
+import org.junit.Test;
+import tech.pegasys.poc.witnesscodeanalysis.vm.OperandStack;
+import tech.pegasys.poc.witnesscodeanalysis.vm.PrimitiveOperandStack;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class StackStateTableTest {
+
+  @Test
+  public void stacksWithTheSameOperandsHaveTheSameState() {
+    StackStateTable table = new StackStateTable();
+    StackState state = table.intern(returnAddressBelow(20, 0x1234));
+
+    assertSame(state, table.intern(returnAddressBelow(20, 0x1234)));
+    assertSame(state, table.find(returnAddressBelow(20, 0x1234)));
+    assertEquals(21, state.getNumItems());
+    assertEquals(1, table.size());
+  }
+
+  @Test
+  public void stacksDifferingBelowTheReachOfDupAndSwapHaveDifferentStates() {
+    StackStateTable table = new StackStateTable();
+    StackState state = table.intern(returnAddressBelow(20, 0x1234));
+
+    assertNull(table.find(returnAddressBelow(20, 0x5678)));
+    assertTrue(state != table.intern(returnAddressBelow(20, 0x5678)));
+    assertEquals(2, table.size());
+  }
+
+  @Test
+  public void manyStatesAreKeptApart() {
+    StackStateTable table = new StackStateTable();
+    StackState[] states = new StackState[1000];
+    for (int i = 0; i < states.length; i++) {
+      states[i] = table.intern(returnAddressBelow(20, i));
+    }
+    assertEquals(states.length, table.size());
+    for (int i = 0; i < states.length; i++) {
+      assertSame(states[i], table.find(returnAddressBelow(20, i)));
+    }
+  }
+
+  private static OperandStack returnAddressBelow(int numItems, int returnAddress) {
+    OperandStack stack = new PrimitiveOperandStack(1024);
+    stack.pushWord(0, 0, 0, returnAddress);
+    for (int i = 0; i < numItems; i++) {
+      stack.pushWord(0, 0, 0, i);
+    }
+    return stack;
+  }
+}
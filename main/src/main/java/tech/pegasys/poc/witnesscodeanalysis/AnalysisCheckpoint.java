@@ -0,0 +1,94 @@
+/*
+ * Copyright ConsenSys AG.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+package tech.pegasys.poc.witnesscodeanalysis;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import tech.pegasys.poc.witnesscodeanalysis.processing.ProcessingCheckpoint;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Progress of a run over all of the contracts, so that a run which stops part way through can
+ * be resumed.
+ *
+ * The checkpoint holds the number of contracts whose results have been recorded, and for each
+ * analysis the length of its output file and its counters at that point. It is written to a
+ * temporary file which is then renamed, so a crash while saving leaves the previous checkpoint.
+ */
+public class AnalysisCheckpoint {
+  public static final String DEFAULT_FILE = "analysis_checkpoint.json";
+
+  private int numContracts;
+  private Map<String, ProcessingCheckpoint> analyses = new TreeMap<>();
+
+  public AnalysisCheckpoint(int numContracts) {
+    this.numContracts = numContracts;
+  }
+
+  public static AnalysisCheckpoint load() throws IOException {
+    return load(Paths.get(DEFAULT_FILE));
+  }
+
+  public static AnalysisCheckpoint load(Path file) throws IOException {
+    try (Reader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+      return gson().fromJson(reader, AnalysisCheckpoint.class);
+    }
+  }
+
+  public void save() throws IOException {
+    save(Paths.get(DEFAULT_FILE));
+  }
+
+  public void save(Path file) throws IOException {
+    Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+    try (Writer writer = Files.newBufferedWriter(temp, StandardCharsets.UTF_8)) {
+      gson().toJson(this, writer);
+    }
+    Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+  }
+
+  /**
+   * @return The number of contracts whose results were recorded. This is the id of the next
+   *   contract to analyse.
+   */
+  public int getNumContracts() {
+    return numContracts;
+  }
+
+  /**
+   * @return The state of the analysis, or null if it was not run.
+   */
+  public ProcessingCheckpoint getAnalysis(String analysisName) {
+    return this.analyses.get(analysisName);
+  }
+
+  public void setAnalysis(String analysisName, ProcessingCheckpoint checkpoint) {
+    this.analyses.put(analysisName, checkpoint);
+  }
+
+  private static Gson gson() {
+    return new GsonBuilder().setPrettyPrinting().create();
+  }
+}
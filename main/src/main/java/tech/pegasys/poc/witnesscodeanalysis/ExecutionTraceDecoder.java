@@ -0,0 +1,69 @@
+/*
+ * Copyright ConsenSys AG.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+package tech.pegasys.poc.witnesscodeanalysis;
+
+import org.apache.logging.log4j.Logger;
+import tech.pegasys.poc.witnesscodeanalysis.vm.RingBufferTracer;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedWriter;
+import java.io.DataInputStream;
+import java.io.FileInputStream;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+
+import static org.apache.logging.log4j.LogManager.getLogger;
+
+/**
+ * Decodes an execution trace written by RingBufferTracer as text. The records are written to
+ * the output file if one is given, otherwise they are logged.
+ *
+ * Usage: ExecutionTraceDecoder [trace file] [output file]
+ */
+public class ExecutionTraceDecoder {
+  private static final Logger LOG = getLogger();
+
+  public static void main(String[] args) throws Exception {
+    if (args.length < 1 || args.length > 2) {
+      LOG.error("Usage: ExecutionTraceDecoder [trace file] [output file]");
+      return;
+    }
+    String traceFileIn = args[0];
+    String fileOut = args.length > 1 ? args[1] : null;
+
+    long total;
+    try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(traceFileIn)))) {
+      if (fileOut == null) {
+        total = RingBufferTracer.readFrom(in, (sequenceNumber, word0, word1) ->
+            LOG.info("{}: {}", sequenceNumber, RingBufferTracer.describe(word0, word1)));
+      }
+      else {
+        try (Writer out = new BufferedWriter(new FileWriter(fileOut))) {
+          total = RingBufferTracer.readFrom(in, (sequenceNumber, word0, word1) -> write(out, sequenceNumber, word0, word1));
+        }
+        LOG.info("Decoded trace written to {}", fileOut);
+      }
+    }
+    LOG.info("Records traced: {}", total);
+  }
+
+  private static void write(Writer out, long sequenceNumber, long word0, long word1) throws IOException {
+    out.write(Long.toString(sequenceNumber));
+    out.write(": ");
+    out.write(RingBufferTracer.describe(word0, word1));
+    out.write('\n');
+  }
+}
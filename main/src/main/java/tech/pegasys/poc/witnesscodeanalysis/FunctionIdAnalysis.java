@@ -17,7 +17,6 @@ package tech.pegasys.poc.witnesscodeanalysis;
 import org.apache.logging.log4j.Logger;
 import org.apache.tuweni.bytes.Bytes;
 import tech.pegasys.poc.witnesscodeanalysis.bytecodedump.ByteCodeDump;
-import tech.pegasys.poc.witnesscodeanalysis.common.ContractData;
 import tech.pegasys.poc.witnesscodeanalysis.processing.FunctionIdProcessing;
 import tech.pegasys.poc.witnesscodeanalysis.processing.SimpleProcessing;
 
@@ -49,10 +48,7 @@ public class FunctionIdAnalysis {
 
 
   public void analyse() throws Exception {
-    ContractData contractData = new ContractData();
-    contractData.setCode(this.code.toHexString());
-    contractData.setContract_address(new String[]{"NONE"});
-    process(1, contractData);
+    process(1, new String[]{"NONE"}, this.code);
     closeAll();
   }
 
@@ -65,15 +61,13 @@ public class FunctionIdAnalysis {
   }
 
 
-  public void process(int id, ContractData contractData) {
-    Bytes code = Bytes.fromHexString(contractData.getCode());
-
+  public void process(int id, String[] deployedAddresses, Bytes code) {
     if (SIMPLE) {
-      this.simpleProcessing.process(id, contractData.getContract_address(), code);
+      this.simpleProcessing.process(id, deployedAddresses, code);
     }
 
     if (FUNCTIONID) {
-      this.functionIdProcessing.process(id, contractData.getContract_address(), code);
+      this.functionIdProcessing.process(id, deployedAddresses, code);
     }
   }
 
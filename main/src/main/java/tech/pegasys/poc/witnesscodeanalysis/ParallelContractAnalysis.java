@@ -0,0 +1,213 @@
+/*
+ * Copyright ConsenSys AG.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+package tech.pegasys.poc.witnesscodeanalysis;
+
+import org.apache.logging.log4j.Logger;
+import org.apache.tuweni.bytes.Bytes;
+import tech.pegasys.poc.witnesscodeanalysis.common.ContractRecord;
+import tech.pegasys.poc.witnesscodeanalysis.common.ContractRecordSource;
+import tech.pegasys.poc.witnesscodeanalysis.common.OrderedResultQueue;
+import tech.pegasys.poc.witnesscodeanalysis.functionid.FunctionIdAllResult;
+import tech.pegasys.poc.witnesscodeanalysis.processing.FunctionIdProcessing;
+import tech.pegasys.poc.witnesscodeanalysis.processing.SimpleProcessing;
+
+import java.io.IOException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.apache.logging.log4j.LogManager.getLogger;
+
+/**
+ * Analyses contracts using a pool of worker threads.
+ *
+ * A reader thread reads contracts from the data set and puts them in a bounded queue.
+ * The workers take contracts from the queue and analyse them. The calling thread
+ * records the results in the order the contracts were read, so the output files and
+ * counters are the same as for a single threaded run.
+ */
+public class ParallelContractAnalysis {
+  private static final Logger LOG = getLogger();
+
+  private static final Job END_OF_CONTRACTS = new Job(-1, -1, null);
+
+  private final SimpleProcessing simpleProcessing;
+  private final FunctionIdProcessing functionIdProcessing;
+  private final int numWorkers;
+  private final int queueCapacity;
+
+  private final BlockingQueue<Job> jobs;
+  private final OrderedResultQueue<AnalysedContract> results;
+
+  private volatile Throwable readerFailure;
+
+  private int checkpointInterval;
+  private Checkpointer checkpointer;
+
+  /**
+   * @param simpleProcessing Simple processing to do, or null if it should be skipped.
+   * @param functionIdProcessing Function id processing to do, or null if it should be skipped.
+   * @param numWorkers Number of threads analysing contracts.
+   * @param queueCapacity Maximum number of contracts waiting to be analysed, and the maximum number
+   *                      of results waiting to be written.
+   */
+  public ParallelContractAnalysis(SimpleProcessing simpleProcessing, FunctionIdProcessing functionIdProcessing,
+                                  int numWorkers, int queueCapacity) {
+    this.simpleProcessing = simpleProcessing;
+    this.functionIdProcessing = functionIdProcessing;
+    this.numWorkers = numWorkers;
+    this.queueCapacity = queueCapacity;
+    this.jobs = new ArrayBlockingQueue<>(queueCapacity);
+    this.results = new OrderedResultQueue<>(queueCapacity);
+  }
+
+  /**
+   * Call the checkpointer every interval contracts, once their results have been recorded.
+   */
+  public void setCheckpointer(int interval, Checkpointer checkpointer) {
+    this.checkpointInterval = interval;
+    this.checkpointer = checkpointer;
+  }
+
+  /**
+   * Analyse all of the contracts in a data set.
+   *
+   * @return The number of contracts analysed.
+   */
+  public int analyseAll(ContractRecordSource dataSet) throws Exception {
+    LOG.info("Analysing contracts using {} worker threads, queue capacity {}", this.numWorkers, this.queueCapacity);
+
+    ExecutorService workers = Executors.newFixedThreadPool(this.numWorkers);
+    for (int i = 0; i < this.numWorkers; i++) {
+      workers.execute(this::analyseContracts);
+    }
+    Thread reader = new Thread(() -> readContracts(dataSet), "contract-reader");
+    reader.start();
+
+    int count = 0;
+    try {
+      AnalysedContract analysed;
+      while ((analysed = this.results.take()) != AnalysedContract.END_OF_RESULTS) {
+        if (this.simpleProcessing != null) {
+          this.simpleProcessing.record(analysed.simpleResult);
+        }
+        if (this.functionIdProcessing != null) {
+          this.functionIdProcessing.record(analysed.functionIdResult);
+        }
+        count++;
+        if (count % 1000 == 0) {
+          LOG.info(count);
+        }
+        if (this.checkpointer != null && count % this.checkpointInterval == 0) {
+          this.checkpointer.checkpoint(count);
+        }
+      }
+      reader.join();
+    } finally {
+      workers.shutdownNow();
+      workers.awaitTermination(1, TimeUnit.MINUTES);
+    }
+
+    if (this.readerFailure != null) {
+      throw new Exception("Failure reading contracts", this.readerFailure);
+    }
+    return count;
+  }
+
+  private void readContracts(ContractRecordSource dataSet) {
+    long sequenceNumber = 0;
+    try {
+      try {
+        ContractRecord contractData;
+        while ((contractData = dataSet.next()) != null) {
+          // If the source reuses the record, each job needs its own copy.
+          if (dataSet.reusesRecords()) {
+            contractData = contractData.copy();
+          }
+          this.jobs.put(new Job(sequenceNumber, contractData.getId(), contractData));
+          sequenceNumber++;
+        }
+      } catch (InterruptedException ex) {
+        throw ex;
+      } catch (Throwable th) {
+        this.readerFailure = th;
+      }
+      for (int i = 0; i < this.numWorkers; i++) {
+        this.jobs.put(END_OF_CONTRACTS);
+      }
+      this.results.put(sequenceNumber, AnalysedContract.END_OF_RESULTS);
+    } catch (InterruptedException ex) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  private void analyseContracts() {
+    try {
+      Job job;
+      while ((job = this.jobs.take()) != END_OF_CONTRACTS) {
+        AnalysedContract analysed = new AnalysedContract();
+        try {
+          ContractRecord contractData = job.contractData;
+          contractData.showInfo(job.id);
+          String[] addresses = contractData.getContractAddresses();
+          Bytes code = contractData.getCode();
+
+          if (this.simpleProcessing != null) {
+            analysed.simpleResult = this.simpleProcessing.analyse(job.id, addresses, code);
+          }
+          if (this.functionIdProcessing != null) {
+            analysed.functionIdResult = this.functionIdProcessing.analyse(job.id, addresses, code, contractData.getCodeHash());
+          }
+        } catch (Throwable th) {
+          // A result must always be passed on, otherwise the writer would wait for it forever.
+          LOG.error("Unable to analyse contract {}", job.id, th);
+        }
+        this.results.put(job.sequenceNumber, analysed);
+      }
+    } catch (InterruptedException ex) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  public interface Checkpointer {
+    /**
+     * Called on the thread recording results.
+     *
+     * @param numRecorded Number of contracts whose results have been recorded so far.
+     */
+    void checkpoint(int numRecorded) throws IOException;
+  }
+
+  private static class Job {
+    final long sequenceNumber;
+    final int id;
+    final ContractRecord contractData;
+
+    Job(long sequenceNumber, int id, ContractRecord contractData) {
+      this.sequenceNumber = sequenceNumber;
+      this.id = id;
+      this.contractData = contractData;
+    }
+  }
+
+  private static class AnalysedContract {
+    static final AnalysedContract END_OF_RESULTS = new AnalysedContract();
+
+    SimpleProcessing.Result simpleResult;
+    FunctionIdAllResult functionIdResult;
+  }
+}
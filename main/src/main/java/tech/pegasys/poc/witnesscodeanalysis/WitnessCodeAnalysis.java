@@ -17,11 +17,24 @@ package tech.pegasys.poc.witnesscodeanalysis;
 import org.apache.logging.log4j.Logger;
 import org.apache.tuweni.bytes.Bytes;
 import tech.pegasys.poc.witnesscodeanalysis.bytecodedump.ByteCodeDump;
-import tech.pegasys.poc.witnesscodeanalysis.common.ContractData;
+import tech.pegasys.poc.witnesscodeanalysis.common.ContractDataScanner;
+import tech.pegasys.poc.witnesscodeanalysis.common.ContractRecord;
+import tech.pegasys.poc.witnesscodeanalysis.common.ContractRecordSource;
+import tech.pegasys.poc.witnesscodeanalysis.common.ParallelContractDataReader;
+import tech.pegasys.poc.witnesscodeanalysis.functionid.FunctionIdAllResult;
+import tech.pegasys.poc.witnesscodeanalysis.functionid.FunctionIdMerklePatriciaTrieLeafData;
+import tech.pegasys.poc.witnesscodeanalysis.processing.AnalysisCache;
 import tech.pegasys.poc.witnesscodeanalysis.processing.FunctionIdProcessing;
 import tech.pegasys.poc.witnesscodeanalysis.processing.SimpleProcessing;
+import tech.pegasys.poc.witnesscodeanalysis.store.BlockIndex;
+import tech.pegasys.poc.witnesscodeanalysis.store.ContractStore;
 
 import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.EnumSet;
+import java.util.Set;
 
 import static org.apache.logging.log4j.LogManager.getLogger;
 
@@ -30,21 +43,66 @@ public class WitnessCodeAnalysis {
 
   public static boolean SIMPLE = true;
   public static boolean FUNCTIONID = true;
-
-  private final MainNetContractDataSet dataSet;
+  // Only analyse each distinct code once for the function id analysis, using analysis_cache_functionid.bin.
+  // Not used by analyseOne, so a single contract is always analysed afresh.
+  public static boolean DEDUP = false;
+  // Share cached results between contracts which only differ in their metadata or immutables.
+  // This is an approximation, see CodeNormaliser.
+  public static boolean NORMALISE = false;
+
+  // Used by analyseAllParallel.
+  public static int NUM_WORKER_THREADS = Runtime.getRuntime().availableProcessors();
+  public static int QUEUE_CAPACITY = 1000;
+  // Threads parsing the contract data file for analyseAllParallel.
+  public static int NUM_READER_THREADS = Math.max(1, Runtime.getRuntime().availableProcessors() / 4);
+
+  // Number of contracts between checkpoints in analyseAll and analyseAllParallel.
+  public static int CHECKPOINT_INTERVAL = 10000;
+
+  // Fields of the contract data file used by the analysis. The rest are skipped when reading.
+  public static final Set<ContractRecord.Field> FIELDS = EnumSet.of(ContractRecord.Field.CODE,
+      ContractRecord.Field.CODE_HASH, ContractRecord.Field.CONTRACT_ADDRESS, ContractRecord.Field.DEPLOYED_AT_BLOCK,
+      ContractRecord.Field.RECENT_ACCESSED_AT_BLOCK);
+
+  private ContractRecordSource dataSet;
   private final SimpleProcessing simpleProcessing;
   private final FunctionIdProcessing functionIdProcessing;
+  private final AnalysisCheckpoint resumeFrom;
 
 
   public WitnessCodeAnalysis() throws IOException {
-    this.dataSet = new MainNetContractDataSet();
-    this.simpleProcessing = new SimpleProcessing(true);
-    this.functionIdProcessing = new FunctionIdProcessing(true);
+    this(null);
+  }
+
+  /**
+   * @param resumeFrom Checkpoint of an earlier run of analyseAll or analyseAllParallel to carry
+   *                   on from, or null to start from the first contract.
+   */
+  public WitnessCodeAnalysis(AnalysisCheckpoint resumeFrom) throws IOException {
+    this.resumeFrom = resumeFrom;
+    this.dataSet = new ContractDataScanner(MainNetContractDataSet.DEFAULT_FILE_IN, FIELDS);
+    this.simpleProcessing = new SimpleProcessing(true,
+        resumeFrom == null ? null : resumeFrom.getAnalysis(SimpleProcessing.DEFAULT_NAME));
+    this.functionIdProcessing = new FunctionIdProcessing(true,
+        resumeFrom == null ? null : resumeFrom.getAnalysis(FunctionIdProcessing.DEFAULT_NAME));
+  }
+
+  /**
+   * Share the function id results of byte identical contracts, if DEDUP is set.
+   */
+  private void useCache() throws IOException {
+    if (DEDUP) {
+      // Leaves which include code fragments depend on every byte of the code.
+      boolean normalise = NORMALISE && !FunctionIdMerklePatriciaTrieLeafData.INCLUDECODE;
+      this.functionIdProcessing.setCache(new AnalysisCache<>(FunctionIdProcessing.DEFAULT_NAME,
+          FunctionIdProcessing.cacheConfiguration(), normalise, FunctionIdAllResult.class));
+    }
   }
 
   public void analyseAll() throws Exception {
-    int count = 0;
-    ContractData contractData;
+    useCache();
+    int count = skipToCheckpoint();
+    ContractRecord contractData;
     while ((contractData = this.dataSet.next()) != null) {
       contractData.showInfo(count);
       process(count, contractData);
@@ -53,13 +111,66 @@ public class WitnessCodeAnalysis {
       if (count % 1000 == 0) {
         LOG.info(count);
       }
+      if (count % CHECKPOINT_INTERVAL == 0) {
+        checkpoint(count);
+      }
     }
+    checkpoint(count);
     closeAll();
   }
 
+  public void analyseAllParallel() throws Exception {
+    useCache();
+    ParallelContractAnalysis parallel = new ParallelContractAnalysis(
+        SIMPLE ? this.simpleProcessing : null,
+        FUNCTIONID ? this.functionIdProcessing : null,
+        NUM_WORKER_THREADS, QUEUE_CAPACITY);
+    // Reading the file on one thread limits the rate the workers can be given contracts.
+    this.dataSet.close();
+    this.dataSet = new ParallelContractDataReader(MainNetContractDataSet.DEFAULT_FILE_IN, FIELDS, NUM_READER_THREADS);
+    int skipped = skipToCheckpoint();
+    parallel.setCheckpointer(CHECKPOINT_INTERVAL, numRecorded -> checkpoint(skipped + numRecorded));
+    int count = parallel.analyseAll(this.dataSet);
+    checkpoint(skipped + count);
+    closeAll();
+  }
+
+  /**
+   * Skip the contracts whose results were recorded before the checkpoint being resumed from.
+   *
+   * @return The number of contracts skipped.
+   */
+  private int skipToCheckpoint() throws IOException {
+    if (this.resumeFrom == null) {
+      return 0;
+    }
+    int count = 0;
+    while (count < this.resumeFrom.getNumContracts() && this.dataSet.next() != null) {
+      count++;
+    }
+    LOG.info("Resuming after {} contracts", count);
+    return count;
+  }
+
+  /**
+   * Record that the results of the first numContracts contracts have been written.
+   */
+  private void checkpoint(int numContracts) throws IOException {
+    AnalysisCheckpoint checkpoint = new AnalysisCheckpoint(numContracts);
+    if (SIMPLE) {
+      checkpoint.setAnalysis(this.simpleProcessing.getAnalysisName(), this.simpleProcessing.checkpoint());
+    }
+    if (FUNCTIONID) {
+      checkpoint.setAnalysis(this.functionIdProcessing.getAnalysisName(), this.functionIdProcessing.checkpoint());
+    }
+    checkpoint.save();
+    LOG.info("Checkpoint after {} contracts", numContracts);
+  }
+
   public void analyseUpTo(int limit) throws Exception {
+    useCache();
     int count = 0;
-    ContractData contractData;
+    ContractRecord contractData;
     while ((contractData = this.dataSet.next()) != null) {
       contractData.showInfo(count);
       process(count, contractData);
@@ -72,27 +183,53 @@ public class WitnessCodeAnalysis {
   }
 
   public void analyseOne(int theOne) throws Exception {
-    int count = 0;
-    ContractData contractData;
-    while ((contractData = this.dataSet.next()) != null) {
-      if (count == theOne) {
-        contractData.showInfo(count);
-        process(count, contractData);
-        break;
-      }
-      count++;
+    ContractRecord contractData = findOne(theOne);
+    if (contractData != null) {
+      contractData.showInfo(theOne);
+      process(theOne, contractData);
     }
     closeAll();
   }
 
   public void analyseDeployedBlockNumbers(int start, int end) throws Exception {
+    analyseBlockNumbers(start, end, true);
+  }
+
+  public void analyseRecentAccessedBlockNumbers(int start, int end) throws Exception {
+    analyseBlockNumbers(start, end, false);
+  }
+
+  /**
+   * Analyse the contracts deployed, or recently accessed, at any block from start to end. If the
+   * contract data file has been converted to a contract store then only the matching contracts
+   * are read, using the store's block index, and they are analysed in parallel. Otherwise the
+   * whole file is scanned.
+   */
+  private void analyseBlockNumbers(int start, int end, boolean deployed) throws Exception {
+    useCache();
+    Path storeDir = Paths.get(ContractStore.DEFAULT_DIR);
+    if (ContractStore.exists(storeDir) && BlockIndex.exists(storeDir)) {
+      try (ContractStore store = new ContractStore(storeDir);
+           BlockIndex index = deployed ? BlockIndex.deployedAtBlock(storeDir) : BlockIndex.recentAccessedAtBlock(storeDir)) {
+        int[] ids = index.findIds(start, end);
+        LOG.info("{} contracts for blocks {} to {}", ids.length, start, end);
+        ParallelContractAnalysis parallel = new ParallelContractAnalysis(
+            SIMPLE ? this.simpleProcessing : null,
+            FUNCTIONID ? this.functionIdProcessing : null,
+            NUM_WORKER_THREADS, QUEUE_CAPACITY);
+        parallel.analyseAll(store.select(ids));
+      }
+      closeAll();
+      return;
+    }
+
     int count = 0;
-    ContractData contractData;
+    ContractRecord contractData;
     while ((contractData = this.dataSet.next()) != null) {
       boolean analyse = false;
-      int[] deployedBlockNumbers = contractData.getDeployed_at_block();
-      for (int deployedBlockNumber: deployedBlockNumbers) {
-        if (deployedBlockNumber >= start && deployedBlockNumber <= end) {
+      int[] blockNumbers = deployed ? contractData.getDeployedAtBlock() : contractData.getRecentAccessedAtBlock();
+      for (int blockNumber: blockNumbers == null ? new int[0] : blockNumbers) {
+        if (blockNumber >= start && blockNumber <= end) {
           analyse = true;
           break;
         }
@@ -109,36 +246,58 @@ public class WitnessCodeAnalysis {
 
 
   public void dumpOne(int theOne) throws Exception {
+    ContractRecord contractData = findOne(theOne);
+    if (contractData != null) {
+      contractData.showInfo(theOne);
+      ByteCodeDump dump = new ByteCodeDump(contractData.getCode().copy());
+      try {
+        dump.showBasicInfo();
+      } catch (Throwable ex) {
+        System.out.println(ex);
+      }
+      dump.dumpContract();
+    }
+    closeAll();
+  }
+
+  /**
+   * Fetch one contract. If the contract data file has been converted to a contract store then
+   * the contract is read directly from the store, otherwise the file is scanned up to it.
+   *
+   * @return The contract, or null if there is no contract with the id.
+   */
+  private ContractRecord findOne(int theOne) throws IOException {
+    if (ContractStore.exists(Paths.get(ContractStore.DEFAULT_DIR))) {
+      try (ContractStore store = new ContractStore()) {
+        if (theOne >= store.getNumContracts()) {
+          return null;
+        }
+        return store.get(theOne);
+      }
+    }
     int count = 0;
-    ContractData contractData;
+    ContractRecord contractData;
     while ((contractData = this.dataSet.next()) != null) {
       if (count == theOne) {
-        contractData.showInfo(count);
-        Bytes code = Bytes.fromHexString(contractData.getCode());
-        ByteCodeDump dump = new ByteCodeDump(code);
-        try {
-          dump.showBasicInfo();
-        } catch (Throwable ex) {
-          System.out.println(ex);
-        }
-        dump.dumpContract();
-        break;
+        return contractData;
       }
       count++;
     }
-    closeAll();
+    return null;
   }
 
 
-  public void process(int id, ContractData contractData) {
-    Bytes code = Bytes.fromHexString(contractData.getCode());
+  public void process(int id, ContractRecord contractData) {
+    // The code is a view of the record's buffer. This is safe as each result is recorded
+    // before the next contract is read.
+    Bytes code = contractData.getCode();
 
     if (SIMPLE) {
-      this.simpleProcessing.process(id, contractData.getContract_address(), code);
+      this.simpleProcessing.process(id, contractData.getContractAddresses(), code);
     }
 
     if (FUNCTIONID) {
-      this.functionIdProcessing.process(id, contractData.getContract_address(), code);
+      this.functionIdProcessing.process(id, contractData.getContractAddresses(), code, contractData.getCodeHash());
     }
   }
 
@@ -165,6 +324,19 @@ public class WitnessCodeAnalysis {
 
 
   public static void main(String[] args) throws Exception {
+    if (Arrays.asList(args).contains("--trace")) {
+      // Keep a trace of the function id analysis for each thread, written to FunctionIdProcessing.TRACE_FILE_NAME
+      // and, for further threads, files named like it.
+      FunctionIdProcessing.TRACE_CAPACITY = FunctionIdProcessing.DEFAULT_TRACE_CAPACITY;
+    }
+    if (Arrays.asList(args).contains("--resume")) {
+      // Carry on with an analyseAll or analyseAllParallel run which stopped part way through.
+      WitnessCodeAnalysis witnessCodeAnalysis = new WitnessCodeAnalysis(AnalysisCheckpoint.load());
+      witnessCodeAnalysis.analyseAllParallel();
+      witnessCodeAnalysis.showSummary();
+      return;
+    }
+
     WitnessCodeAnalysis witnessCodeAnalysis = new WitnessCodeAnalysis();
 
     // NOTE: Can only choose one of these.
@@ -175,6 +347,7 @@ public class WitnessCodeAnalysis {
 //    witnessCodeAnalysis.analyseDeployedBlockNumbers(9999990, 10000000);
 
 //    witnessCodeAnalysis.analyseAll();
+//    witnessCodeAnalysis.analyseAllParallel();
 
     witnessCodeAnalysis.showSummary();
   }
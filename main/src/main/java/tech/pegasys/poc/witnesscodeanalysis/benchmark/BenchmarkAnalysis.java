@@ -0,0 +1,62 @@
+/*
+ * Copyright ConsenSys AG.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+package tech.pegasys.poc.witnesscodeanalysis.benchmark;
+
+import org.apache.logging.log4j.Logger;
+import org.apache.tuweni.bytes.Bytes;
+import tech.pegasys.poc.witnesscodeanalysis.common.SimpleAnalysis;
+import tech.pegasys.poc.witnesscodeanalysis.common.UnableToProcessException;
+import tech.pegasys.poc.witnesscodeanalysis.functionid.FunctionIdAllResult;
+import tech.pegasys.poc.witnesscodeanalysis.functionid.FunctionIdProcess;
+import tech.pegasys.poc.witnesscodeanalysis.vm.AnalysisContext;
+import tech.pegasys.poc.witnesscodeanalysis.vm.ExecutionTracer;
+
+import static org.apache.logging.log4j.LogManager.getLogger;
+
+/**
+ * The function id analysis of one contract, as run by the benchmarks.
+ */
+class BenchmarkAnalysis {
+  private static final Logger LOG = getLogger();
+
+  /**
+   * @param tracer Tracer to use, or null for no tracing.
+   * @return True if the contract was analysed.
+   */
+  static boolean analyseFunctionIds(int id, Bytes code, ExecutionTracer tracer) {
+    AnalysisContext context = new AnalysisContext();
+    if (tracer != null) {
+      tracer.startContract(id);
+    }
+    context.setExecutionTracer(tracer);
+    FunctionIdAllResult result = new FunctionIdAllResult();
+    result.setContractInfo(id);
+    try {
+      SimpleAnalysis simple = new SimpleAnalysis(code);
+      if (simple.getEndOfFunctionIdBlock() == -1) {
+        return false;
+      }
+      FunctionIdProcess fidAnalysis = new FunctionIdProcess(simple.getInstructions(), simple.getEndOfFunctionIdBlock(),
+          simple.getEndOfCode(), simple.getJumpDests(), context);
+      fidAnalysis.executeAnalysis(result);
+      return true;
+    } catch (UnableToProcessException ex) {
+      return false;
+    } catch (Throwable th) {
+      LOG.error("Contract {} failed", id, th);
+      return false;
+    }
+  }
+}
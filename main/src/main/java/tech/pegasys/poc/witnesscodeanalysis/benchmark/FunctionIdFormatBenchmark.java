@@ -0,0 +1,125 @@
+/*
+ * Copyright ConsenSys AG.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+package tech.pegasys.poc.witnesscodeanalysis.benchmark;
+
+import org.apache.logging.log4j.Logger;
+import tech.pegasys.poc.witnesscodeanalysis.functionid.FunctionIdAllResult;
+import tech.pegasys.poc.witnesscodeanalysis.functionid.FunctionIdBinaryFormat;
+import tech.pegasys.poc.witnesscodeanalysis.functionid.FunctionIdBinaryReader;
+import tech.pegasys.poc.witnesscodeanalysis.functionid.FunctionIdDataSetReader;
+import tech.pegasys.poc.witnesscodeanalysis.processing.AsyncResultWriter;
+import tech.pegasys.poc.witnesscodeanalysis.processing.FunctionIdBinarySerialiser;
+
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.apache.logging.log4j.LogManager.getLogger;
+
+/**
+ * Compares the JSON and binary formats of the function id results: the size of the files, the
+ * time to read all of the results, and the time to find the results for one contract.
+ *
+ * The JSON results file is converted to the binary format first. Run it twice to see the
+ * figures with the files in the page cache.
+ *
+ * Usage: FunctionIdFormatBenchmark [function id results JSON file] [number of lookups]
+ */
+public class FunctionIdFormatBenchmark {
+  private static final Logger LOG = getLogger();
+
+  private static final String BINARY_BASE_FILE_NAME = "analysis_functionid_benchmark";
+
+  public static void main(String[] args) throws Exception {
+    String jsonFile = args.length > 0 ? args[0] : FunctionIdDataSetReader.DEFAULT_FILE_IN;
+    int numLookups = args.length > 1 ? Integer.parseInt(args[1]) : 10000;
+    String binaryFile = BINARY_BASE_FILE_NAME + FunctionIdBinaryFormat.EXTENSION;
+
+    long start = System.nanoTime();
+    int[] ids = convert(jsonFile);
+    LOG.info("Converted {} results to {} in {} s", ids.length, binaryFile, seconds(System.nanoTime() - start));
+
+    long jsonSize = Files.size(Paths.get(jsonFile));
+    long binarySize = Files.size(Paths.get(binaryFile));
+    LOG.info("JSON: {} MB, binary: {} MB, {}% of the JSON size", jsonSize / (1024 * 1024), binarySize / (1024 * 1024),
+        String.format("%.1f", jsonSize == 0 ? 0.0 : 100.0 * binarySize / jsonSize));
+
+    load("JSON", jsonFile);
+    load("Binary", binaryFile);
+    lookup(binaryFile, ids, numLookups);
+  }
+
+  /**
+   * @return The contract ids of the results.
+   */
+  private static int[] convert(String jsonFile) throws Exception {
+    int[] ids = new int[1024];
+    int count = 0;
+    FunctionIdDataSetReader reader = new FunctionIdDataSetReader(jsonFile);
+    try (AsyncResultWriter<FunctionIdAllResult> writer = new AsyncResultWriter<>(BINARY_BASE_FILE_NAME,
+        FunctionIdBinaryFormat.EXTENSION, false, 0, new FunctionIdBinarySerialiser(), null)) {
+      FunctionIdAllResult result;
+      while ((result = reader.next()) != null) {
+        writer.write(result);
+        if (count == ids.length) {
+          ids = Arrays.copyOf(ids, count * 2);
+        }
+        ids[count++] = result.getId();
+      }
+    }
+    reader.close();
+    return Arrays.copyOf(ids, count);
+  }
+
+  private static void load(String name, String fileIn) throws Exception {
+    long start = System.nanoTime();
+    FunctionIdDataSetReader reader = new FunctionIdDataSetReader(fileIn);
+    int numResults = 0;
+    long numLeaves = 0;
+    FunctionIdAllResult result;
+    while ((result = reader.next()) != null) {
+      numLeaves += result.getLeaves().size();
+      numResults++;
+    }
+    reader.close();
+    LOG.info("{}: read {} results with {} leaves in {} s", name, numResults, numLeaves,
+        seconds(System.nanoTime() - start));
+  }
+
+  private static void lookup(String binaryFile, int[] ids, int numLookups) throws Exception {
+    if (ids.length == 0) {
+      return;
+    }
+    Random random = new Random(1);
+    long start = System.nanoTime();
+    try (FunctionIdBinaryReader reader = new FunctionIdBinaryReader(binaryFile)) {
+      for (int i = 0; i < numLookups; i++) {
+        int id = ids[random.nextInt(ids.length)];
+        FunctionIdAllResult result = reader.get(id);
+        if (result == null || result.getId() != id) {
+          throw new Error("Result for contract " + id + " not found");
+        }
+      }
+    }
+    long nanos = System.nanoTime() - start;
+    LOG.info("Binary: {} random lookups by contract id in {} s, {} us per lookup", numLookups, seconds(nanos),
+        String.format("%.1f", nanos / 1000.0 / numLookups));
+  }
+
+  private static String seconds(long nanos) {
+    return String.format("%.2f", nanos / 1_000_000_000.0);
+  }
+}
@@ -0,0 +1,101 @@
+/*
+ * Copyright ConsenSys AG.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+package tech.pegasys.poc.witnesscodeanalysis.benchmark;
+
+import org.apache.logging.log4j.Logger;
+import org.apache.tuweni.bytes.Bytes;
+import tech.pegasys.poc.witnesscodeanalysis.MainNetContractDataSet;
+import tech.pegasys.poc.witnesscodeanalysis.WitnessCodeAnalysis;
+import tech.pegasys.poc.witnesscodeanalysis.common.ContractData;
+import tech.pegasys.poc.witnesscodeanalysis.common.ContractDataScanner;
+import tech.pegasys.poc.witnesscodeanalysis.common.ContractRecord;
+import tech.pegasys.poc.witnesscodeanalysis.common.ContractRecordSource;
+import tech.pegasys.poc.witnesscodeanalysis.common.ParallelContractDataReader;
+
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.EnumSet;
+import java.util.Set;
+
+import static org.apache.logging.log4j.LogManager.getLogger;
+
+/**
+ * Measures how quickly the contract data file can be read, in MB/s of file read.
+ *
+ * Compares reading each line with Gson and then decoding the hex code, with the streaming
+ * scanner reading all fields, the fields used by the analysis, and only the addresses, and
+ * with the parallel reader using increasing numbers of threads.
+ * The whole file is read by each reader. Run it twice to see the figures with the file in
+ * the page cache.
+ *
+ * Usage: IngestBenchmark [contract data file]
+ */
+public class IngestBenchmark {
+  private static final Logger LOG = getLogger();
+
+  public static void main(String[] args) throws Exception {
+    String fileIn = args.length > 0 ? args[0] : MainNetContractDataSet.DEFAULT_FILE_IN;
+    long fileSize = Files.size(Paths.get(fileIn));
+    LOG.info("Reading {}: {} MB", fileIn, fileSize / (1024 * 1024));
+
+    gson(fileIn, fileSize);
+    scanner("Scanner, all fields", fileIn, fileSize, ContractDataScanner.allFields());
+    scanner("Scanner, analysis fields", fileIn, fileSize, WitnessCodeAnalysis.FIELDS);
+    scanner("Scanner, addresses only", fileIn, fileSize, EnumSet.of(ContractRecord.Field.CONTRACT_ADDRESS));
+    int numThreads = Runtime.getRuntime().availableProcessors();
+    for (int threads = 1; threads <= numThreads; threads *= 2) {
+      read("Parallel reader, " + threads + " threads, analysis fields", fileSize,
+          new ParallelContractDataReader(fileIn, WitnessCodeAnalysis.FIELDS, threads));
+    }
+  }
+
+  private static void gson(String fileIn, long fileSize) throws Exception {
+    long start = System.nanoTime();
+    MainNetContractDataSet dataSet = new MainNetContractDataSet(fileIn);
+    int numContracts = 0;
+    long codeBytes = 0;
+    ContractData contractData;
+    while ((contractData = dataSet.next()) != null) {
+      Bytes code = Bytes.fromHexString(contractData.getCode());
+      codeBytes += code.size();
+      numContracts++;
+    }
+    dataSet.close();
+    report("Gson", System.nanoTime() - start, fileSize, numContracts, codeBytes);
+  }
+
+  private static void scanner(String name, String fileIn, long fileSize, Set<ContractRecord.Field> fields) throws Exception {
+    read(name, fileSize, new ContractDataScanner(fileIn, fields));
+  }
+
+  private static void read(String name, long fileSize, ContractRecordSource dataSet) throws Exception {
+    long start = System.nanoTime();
+    int numContracts = 0;
+    long codeBytes = 0;
+    ContractRecord record;
+    while ((record = dataSet.next()) != null) {
+      codeBytes += record.getCodeLength();
+      numContracts++;
+    }
+    dataSet.close();
+    report(name, System.nanoTime() - start, fileSize, numContracts, codeBytes);
+  }
+
+  private static void report(String name, long nanos, long fileSize, int numContracts, long codeBytes) {
+    double seconds = nanos / 1_000_000_000.0;
+    LOG.info("{}: {} contracts, {} MB of code, {} s, {} MB/s", name, numContracts, codeBytes / (1024 * 1024),
+        String.format("%.2f", seconds), String.format("%.1f", fileSize / (1024.0 * 1024.0) / seconds));
+  }
+}
@@ -0,0 +1,85 @@
+/*
+ * Copyright ConsenSys AG.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+package tech.pegasys.poc.witnesscodeanalysis.benchmark;
+
+import org.apache.logging.log4j.Logger;
+import org.apache.tuweni.bytes.Bytes;
+import tech.pegasys.poc.witnesscodeanalysis.MainNetContractDataSet;
+import tech.pegasys.poc.witnesscodeanalysis.common.ContractData;
+
+import java.lang.management.ManagementFactory;
+
+import static org.apache.logging.log4j.LogManager.getLogger;
+
+/**
+ * Measures how much garbage the abstract interpreter creates while running the function id
+ * analysis over the full mainnet contract set.
+ *
+ * Only the analysis is measured: the bytes allocated by this thread are read before and after
+ * each contract is analysed, so reading and decoding the contract data set, and anything other
+ * threads allocate, are excluded. Run the benchmark against two versions of the code to compare
+ * them.
+ *
+ * Usage: InterpreterAllocationBenchmark [contract data file] [max contracts]
+ */
+public class InterpreterAllocationBenchmark {
+  private static final Logger LOG = getLogger();
+
+  public static void main(String[] args) throws Exception {
+    String fileIn = args.length > 0 ? args[0] : MainNetContractDataSet.DEFAULT_FILE_IN;
+    int maxContracts = args.length > 1 ? Integer.parseInt(args[1]) : Integer.MAX_VALUE;
+
+    com.sun.management.ThreadMXBean threadBean =
+        (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+    long threadId = Thread.currentThread().getId();
+
+    MainNetContractDataSet dataSet = new MainNetContractDataSet(fileIn);
+    int numContracts = 0;
+    int numFailed = 0;
+    long bytesAllocated = 0;
+    long maxBytesAllocated = 0;
+    long analysisNanos = 0;
+
+    ContractData contractData;
+    while (numContracts < maxContracts && (contractData = dataSet.next()) != null) {
+      Bytes code = Bytes.fromHexString(contractData.getCode());
+
+      long allocatedBefore = threadBean.getThreadAllocatedBytes(threadId);
+      long start = System.nanoTime();
+      if (!BenchmarkAnalysis.analyseFunctionIds(numContracts, code, null)) {
+        numFailed++;
+      }
+      analysisNanos += System.nanoTime() - start;
+      long allocated = threadBean.getThreadAllocatedBytes(threadId) - allocatedBefore;
+      bytesAllocated += allocated;
+      maxBytesAllocated = Math.max(maxBytesAllocated, allocated);
+
+      numContracts++;
+      if (numContracts % 10000 == 0) {
+        LOG.info("{} contracts", numContracts);
+      }
+    }
+    dataSet.close();
+
+    double seconds = analysisNanos / 1_000_000_000.0;
+
+    LOG.info("Contracts analysed: {} ({} could not be analysed)", numContracts, numFailed);
+    LOG.info("Analysis time: {} s, {} contracts/s", String.format("%.2f", seconds),
+        String.format("%.1f", numContracts / seconds));
+    LOG.info("Allocated by analysis: {} MB, {} bytes per contract", bytesAllocated / (1024 * 1024),
+        numContracts == 0 ? 0 : bytesAllocated / numContracts);
+    LOG.info("Most allocated for one contract: {} bytes", maxBytesAllocated);
+  }
+}
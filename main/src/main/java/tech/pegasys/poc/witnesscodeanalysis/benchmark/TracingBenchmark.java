@@ -0,0 +1,140 @@
+/*
+ * Copyright ConsenSys AG.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+package tech.pegasys.poc.witnesscodeanalysis.benchmark;
+
+import org.apache.logging.log4j.Logger;
+import org.apache.tuweni.bytes.Bytes;
+import tech.pegasys.poc.witnesscodeanalysis.MainNetContractDataSet;
+import tech.pegasys.poc.witnesscodeanalysis.common.ContractData;
+import tech.pegasys.poc.witnesscodeanalysis.common.PcUtils;
+import tech.pegasys.poc.witnesscodeanalysis.vm.ExecutionTracer;
+import tech.pegasys.poc.witnesscodeanalysis.vm.MessageFrame;
+import tech.pegasys.poc.witnesscodeanalysis.vm.RingBufferTracer;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.apache.logging.log4j.LogManager.getLogger;
+
+/**
+ * Compares the throughput of the function id analysis with tracing off, with the binary ring
+ * buffer tracer, and with a tracer which formats each step as text in the way the trace logging
+ * does.
+ *
+ * The contracts are read into memory before the runs start, and each configuration is run
+ * once to warm up before it is measured.
+ *
+ * Usage: TracingBenchmark [contract data file] [max contracts] [trace output file]
+ */
+public class TracingBenchmark {
+  private static final Logger LOG = getLogger();
+
+  private static final int RING_BUFFER_CAPACITY = 1 << 20;
+
+  public static void main(String[] args) throws Exception {
+    String fileIn = args.length > 0 ? args[0] : MainNetContractDataSet.DEFAULT_FILE_IN;
+    int maxContracts = args.length > 1 ? Integer.parseInt(args[1]) : 10000;
+    String traceFileOut = args.length > 2 ? args[2] : null;
+
+    List<Bytes> contracts = new ArrayList<>();
+    MainNetContractDataSet dataSet = new MainNetContractDataSet(fileIn);
+    ContractData contractData;
+    while (contracts.size() < maxContracts && (contractData = dataSet.next()) != null) {
+      contracts.add(Bytes.fromHexString(contractData.getCode()));
+    }
+    dataSet.close();
+    LOG.info("Loaded {} contracts", contracts.size());
+
+    RingBufferTracer ringBuffer = new RingBufferTracer(RING_BUFFER_CAPACITY);
+    TextTracer text = new TextTracer();
+
+    run("No tracing", contracts, null);
+    run("Ring buffer tracing", contracts, ringBuffer);
+    run("Text tracing", contracts, text);
+
+    LOG.info("Ring buffer records: {}, text characters formatted: {}", ringBuffer.getNumRecords(), text.charsFormatted);
+
+    if (traceFileOut != null) {
+      try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(traceFileOut)))) {
+        ringBuffer.writeTo(out);
+      }
+      LOG.info("Last {} ring buffer records written to {}", Math.min(ringBuffer.getNumRecords(), ringBuffer.getCapacity()), traceFileOut);
+    }
+  }
+
+  private static void run(String name, List<Bytes> contracts, ExecutionTracer tracer) {
+    // Warm up.
+    analyseAll(contracts, tracer);
+
+    long start = System.nanoTime();
+    int numAnalysed = analyseAll(contracts, tracer);
+    double seconds = (System.nanoTime() - start) / 1_000_000_000.0;
+    LOG.info("{}: {} contracts ({} analysed) in {} s, {} contracts/s", name, contracts.size(), numAnalysed,
+        String.format("%.2f", seconds), String.format("%.1f", contracts.size() / seconds));
+  }
+
+  private static int analyseAll(List<Bytes> contracts, ExecutionTracer tracer) {
+    int numAnalysed = 0;
+    for (int id = 0; id < contracts.size(); id++) {
+      if (BenchmarkAnalysis.analyseFunctionIds(id, contracts.get(id), tracer)) {
+        numAnalysed++;
+      }
+    }
+    return numAnalysed;
+  }
+
+  /**
+   * Formats each step as the trace logging does, including the whole stack, and then discards it.
+   * This is the cost tracing had when the strings were built for every operation.
+   */
+  private static class TextTracer implements ExecutionTracer {
+    long charsFormatted;
+
+    @Override
+    public void startContract(int contractId) {
+      this.charsFormatted += ("Contract: " + contractId).length();
+    }
+
+    @Override
+    public void enterSegment(int startingPc, int callingSegmentPc) {
+      this.charsFormatted += ("Segment: " + PcUtils.pcStr(startingPc) + " from " + PcUtils.pcStr(callingSegmentPc)).length();
+    }
+
+    @Override
+    public void skipSegment(int startingPc) {
+      this.charsFormatted += ("Skipping path as I have been to " + PcUtils.pcStr(startingPc) + " before").length();
+    }
+
+    @Override
+    public void operation(MessageFrame frame, int pc, int opcode, int jumpDest) {
+      String line = "PC: " + PcUtils.pcStr(pc) + ", Operation " + frame.getCurrentOperation().getName()
+          + ", Jump Destination: " + PcUtils.pcStr(jumpDest);
+      StringBuffer buf = new StringBuffer();
+      buf.append(" Stack:");
+      int stackSize = frame.stackSize();
+      for (int i = 0; i < stackSize; i++) {
+        buf.append(" [");
+        buf.append(i);
+        buf.append("]: ");
+        buf.append(frame.getStackItem(i));
+        buf.append(", ");
+      }
+      this.charsFormatted += line.length() + buf.length();
+    }
+  }
+}
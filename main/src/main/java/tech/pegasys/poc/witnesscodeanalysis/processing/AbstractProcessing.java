@@ -19,15 +19,24 @@ import com.google.gson.GsonBuilder;
 import org.apache.logging.log4j.Logger;
 import org.apache.tuweni.bytes.Bytes;
 
-import java.io.FileWriter;
+import java.io.DataOutputStream;
 import java.io.IOException;
 import java.io.PrintWriter;
 import java.io.StringWriter;
-import java.io.Writer;
+import java.nio.charset.StandardCharsets;
 
 import static org.apache.logging.log4j.LogManager.getLogger;
 
-abstract class AbstractProcessing {
+/**
+ * Base class for the analyses run over each contract. Processing a contract is split into two steps:
+ * analyse, which only looks at the contract and can be run on many threads at once, and record,
+ * which updates the counters and queues the result to be written, and must be called on one
+ * thread in contract id order. Results are serialised and written to the output file by an
+ * AsyncResultWriter, on a thread of its own.
+ *
+ * @param <T> Type of the per contract result passed from analyse to record.
+ */
+abstract class AbstractProcessing<T> {
   private static final Logger LOG = getLogger();
 
   public static final String DEFAULT_BASE_FILE_NAME =  "analysis_";
@@ -36,33 +45,111 @@ abstract class AbstractProcessing {
 
   public static final int THRESHOLD = 128;
 
+  // Compress the output files.
+  public static boolean GZIP_OUTPUT = false;
+  // Start a new output file when the output reaches this size. Zero for a single output file.
+  public static long MAX_OUTPUT_FILE_SIZE = 0;
 
-  Writer writer;
+  AsyncResultWriter<T> resultWriter;
   boolean json;
   String analysisName;
 
   Gson gson;
 
+  AnalysisCache<T> cache;
+
   int numberProcessed = 0;
   int numberProcessedSuccessfully = 0;
 
 
   public AbstractProcessing(String analysisName, boolean json) throws IOException {
+    this(analysisName, json, null);
+  }
+
+  /**
+   * @param resumeFrom State from a checkpoint to carry on from, or null to start a new output file.
+   *                   Subclass constructors must call restoreCounters once their fields are set up.
+   */
+  public AbstractProcessing(String analysisName, boolean json, ProcessingCheckpoint resumeFrom) throws IOException {
     String outputFileNameBase = DEFAULT_BASE_FILE_NAME + analysisName;
-    String outputFileName = json ? outputFileNameBase + JSON : outputFileNameBase + CSV;
     this.json = json;
-    this.writer = new FileWriter(outputFileName);
 
     //  Parsing the JSON file for contract code
     this.gson = new GsonBuilder().setLenient().create();
 
     this.analysisName = analysisName;
+
+    if (resumeFrom != null) {
+      LOG.info("{}: resuming from output file {} offset {}", analysisName,
+          resumeFrom.getOutputFileIndex(), resumeFrom.getOutputOffset());
+    }
+    // Set up last, as the writer thread uses the fields above.
+    this.resultWriter = new AsyncResultWriter<>(outputFileNameBase, outputExtension(),
+        GZIP_OUTPUT, MAX_OUTPUT_FILE_SIZE, createSerialiser(), resumeFrom);
   }
 
   public boolean process(int id, String[] deployedAddresses, Bytes code) {
+    return record(analyse(id, deployedAddresses, code));
+  }
+
+  public boolean process(int id, String[] deployedAddresses, Bytes code, Bytes codeHash) {
+    return record(analyse(id, deployedAddresses, code, codeHash));
+  }
+
+  /**
+   * Use a cache so that byte identical contracts are only analysed once. Null, the default,
+   * to analyse every contract.
+   */
+  public void setCache(AnalysisCache<T> cache) {
+    this.cache = cache;
+  }
+
+  public T analyse(int id, String[] deployedAddresses, Bytes code) {
+    return analyse(id, deployedAddresses, code, null);
+  }
+
+  /**
+   * Analyse a contract. This does not change any state of this object, and hence can be called
+   * from multiple threads at the same time.
+   *
+   * @param codeHash The code hash from the contract data, or null if it was not read.
+   * @return The result of the analysis, or null if the analysis failed.
+   */
+  public T analyse(int id, String[] deployedAddresses, Bytes code, Bytes codeHash) {
+    Bytes codeKey = null;
+    if (this.cache != null) {
+      codeKey = this.cache.key(code, codeHash);
+      T cached = this.cache.get(codeKey);
+      if (cached != null) {
+        return forContract(cached, id);
+      }
+    }
+    try {
+      T result = executeProcessing(id, deployedAddresses, code);
+      if (codeKey != null && result != null && cacheable(result)) {
+        this.cache.put(codeKey, result);
+      }
+      return result;
+    } catch (Throwable th) {
+      logStackTrace(th);
+      return null;
+    }
+  }
+
+  /**
+   * Update the counters and write out the result of analyse. Results must be recorded from
+   * a single thread, in the order they should appear in the output file.
+   *
+   * @param result Value returned by analyse.
+   * @return true if the contract was processed successfully.
+   */
+  public boolean record(T result) {
+    this.numberProcessed++;
+    if (result == null) {
+      return false;
+    }
     try {
-      this.numberProcessed++;
-      executeProcessing(id, deployedAddresses, code);
+      recordResult(result);
       this.numberProcessedSuccessfully++;
       return true;
     } catch (Throwable th) {
@@ -71,10 +158,93 @@ abstract class AbstractProcessing {
     }
   }
 
-  protected abstract void executeProcessing(int id, String[] deployedAddresses, Bytes code) throws Exception;
+  protected abstract T executeProcessing(int id, String[] deployedAddresses, Bytes code) throws Exception;
+
+  protected abstract void recordResult(T result) throws Exception;
+
+  /**
+   * @return The extension of the output file. Called from the constructor, so must not depend
+   *   on the fields of subclasses.
+   */
+  protected String outputExtension() {
+    return this.json ? JSON : CSV;
+  }
+
+  /**
+   * @return The serialiser for the results passed to resultWriter by recordResult. Called from
+   *   the constructor, so must not depend on the fields of subclasses. By default results are
+   *   written by serialise.
+   */
+  protected AsyncResultWriter.Serialiser<T> createSerialiser() {
+    return this::serialise;
+  }
+
+  /**
+   * Write a result to the output. Called on the result writer thread.
+   */
+  protected void serialise(T result, DataOutputStream out) throws IOException {
+    if (this.json) {
+      out.write(this.gson.toJson(result).getBytes(StandardCharsets.UTF_8));
+      out.write('\n');
+    }
+    else {
+      throw new Error("NOT IMPLEMENTED YET");
+    }
+  }
+
+  /**
+   * @return false for results which should not be reused for other contracts with the same
+   *   code, such as failures which may not happen again.
+   */
+  protected boolean cacheable(T result) {
+    return true;
+  }
+
+  /**
+   * Return a cached result as the result for the contract with the id. Results which include
+   * the id must be copied, as the cached result may be shared by many contracts.
+   */
+  protected T forContract(T cached, int id) {
+    return cached;
+  }
+
+  /**
+   * Flush the output and capture the state needed to resume from this point. Must be called
+   * from the thread recording results.
+   */
+  public ProcessingCheckpoint checkpoint() throws IOException {
+    this.resultWriter.flush();
+    ProcessingCheckpoint checkpoint = new ProcessingCheckpoint();
+    checkpoint.setOutputFileIndex(this.resultWriter.getFlushedFileIndex());
+    checkpoint.setOutputOffset(this.resultWriter.getFlushedOffset());
+    checkpoint.setOutputResultBytes(this.resultWriter.getFlushedResultBytes());
+    saveCounters(checkpoint);
+    return checkpoint;
+  }
+
+  /**
+   * Save the counters in a checkpoint. Subclasses with their own counters must extend this and
+   * restoreCounters.
+   */
+  protected void saveCounters(ProcessingCheckpoint checkpoint) {
+    checkpoint.setCounter("numberProcessed", this.numberProcessed);
+    checkpoint.setCounter("numberProcessedSuccessfully", this.numberProcessedSuccessfully);
+  }
+
+  protected void restoreCounters(ProcessingCheckpoint checkpoint) {
+    this.numberProcessed = checkpoint.getCounter("numberProcessed");
+    this.numberProcessedSuccessfully = checkpoint.getCounter("numberProcessedSuccessfully");
+  }
+
+  public String getAnalysisName() {
+    return analysisName;
+  }
 
   public void close() throws IOException {
-    writer.close();
+    this.resultWriter.close();
+    if (this.cache != null) {
+      this.cache.close();
+    }
   }
 
   public int getNumberProcessed() {
@@ -88,6 +258,13 @@ abstract class AbstractProcessing {
   public void showSummary() {
     LOG.info(" {}: Processed: {}, Processed Successfully: {}",
         analysisName.toUpperCase(), this.numberProcessed, this.numberProcessedSuccessfully);
+    showCacheSummary();
+  }
+
+  protected void showCacheSummary() {
+    if (this.cache != null) {
+      this.cache.showSummary(this.analysisName);
+    }
   }
 
   protected static void logStackTrace(Throwable th) {
@@ -0,0 +1,312 @@
+/*
+ * Copyright ConsenSys AG.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+package tech.pegasys.poc.witnesscodeanalysis.processing;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import org.apache.logging.log4j.Logger;
+import org.apache.tuweni.bytes.Bytes;
+import tech.pegasys.poc.witnesscodeanalysis.common.CodeNormaliser;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.apache.logging.log4j.LogManager.getLogger;
+
+/**
+ * Cache of analysis results, keyed by code hash, so that byte identical contracts are only
+ * analysed once.
+ *
+ * Recently used results are held in memory. Every result is also appended to a cache file,
+ * which is kept between runs. Results evicted from memory, or from earlier runs, are read back
+ * from the file. Each entry in the file is the 32 byte key, the length of the result, then the
+ * result as JSON. The file's header holds a hash of a description of the analysis and the
+ * settings it was run with. If they differ from those of an earlier run the file is emptied and
+ * rebuilt, so results from a different version of the analysis are never used.
+ *
+ * The cache can be used by several threads at once.
+ *
+ * @param <T> Type of the cached results.
+ */
+public class AnalysisCache<T> implements Closeable {
+  private static final Logger LOG = getLogger();
+
+  public static final String DEFAULT_BASE_FILE_NAME = "analysis_cache_";
+  public static final String NORMALISED_SUFFIX = "_normalised";
+  public static final int DEFAULT_MEMORY_CAPACITY = 100000;
+
+  private static final int MAGIC = 0x43574143; // "CWAC"
+  private static final int VERSION = 2;
+  private static final int KEY_SIZE = 32;
+  private static final int HEADER_SIZE = 8 + KEY_SIZE;
+
+  private final Class<T> resultType;
+  private final Bytes configurationHash;
+  private final Gson gson;
+  private final Map<Bytes, T> memory;
+  // Offset in the file of each entry.
+  private final Map<Bytes, Long> fileIndex = new ConcurrentHashMap<>();
+  private final FileChannel file;
+  // Guarded by this.file.
+  private long fileSize;
+  private final boolean normaliseCode;
+
+  private final AtomicLong memoryHits = new AtomicLong();
+  private final AtomicLong fileHits = new AtomicLong();
+  private final AtomicLong misses = new AtomicLong();
+
+  /**
+   * @param configuration Description of the version of the analysis and every setting which
+   *                      affects its results.
+   * @param normaliseCode Key results by the hash of the canonical form of the code, from
+   *                      CodeNormaliser, rather than the code hash. Results are then shared by
+   *                      contracts which only differ in their metadata or immutables. This is an
+   *                      approximation, see CodeNormaliser. The results are kept in a separate
+   *                      file from those keyed by code hash.
+   */
+  public AnalysisCache(String analysisName, String configuration, boolean normaliseCode, Class<T> resultType) throws IOException {
+    this(Paths.get(DEFAULT_BASE_FILE_NAME + analysisName + (normaliseCode ? NORMALISED_SUFFIX : "") + ".bin"),
+        configuration, normaliseCode, resultType, DEFAULT_MEMORY_CAPACITY);
+  }
+
+  public AnalysisCache(Path fileName, String configuration, boolean normaliseCode, Class<T> resultType, int memoryCapacity) throws IOException {
+    this.resultType = resultType;
+    this.normaliseCode = normaliseCode;
+    this.configurationHash = sha256(Bytes.wrap(configuration.getBytes(StandardCharsets.UTF_8)));
+    this.gson = new GsonBuilder().create();
+    // Least recently used results are evicted first.
+    this.memory = new LinkedHashMap<Bytes, T>(16, 0.75f, true) {
+      @Override
+      protected boolean removeEldestEntry(Map.Entry<Bytes, T> eldest) {
+        return size() > memoryCapacity;
+      }
+    };
+    this.file = FileChannel.open(fileName, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+    loadIndex();
+    LOG.info("Analysis cache {}: {} results from earlier runs", fileName, this.fileIndex.size());
+  }
+
+  /**
+   * Determine the key to cache the results for some code under, allowing for normalisation.
+   *
+   * @param code The code of the contract.
+   * @param codeHash The code hash from the contract data, or null if it was not read.
+   */
+  public Bytes key(Bytes code, Bytes codeHash) {
+    return this.normaliseCode ? CodeNormaliser.normalisedHash(code) : codeKey(code, codeHash);
+  }
+
+  /**
+   * Determine the key to cache the results for some code under.
+   *
+   * @param code The code of the contract.
+   * @param codeHash The code hash from the contract data, or null if it was not read. The
+   *                 SHA-256 hash of the code is used in its place.
+   */
+  public static Bytes codeKey(Bytes code, Bytes codeHash) {
+    if (codeHash != null) {
+      return codeHash;
+    }
+    return sha256(code);
+  }
+
+  private static Bytes sha256(Bytes data) {
+    try {
+      MessageDigest digest = MessageDigest.getInstance("SHA-256");
+      return Bytes.wrap(digest.digest(data.toArrayUnsafe()));
+    } catch (NoSuchAlgorithmException ex) {
+      throw new Error(ex);
+    }
+  }
+
+  /**
+   * @return The cached result for the key, or null if the code has not been analysed yet.
+   */
+  public T get(Bytes key) {
+    T result;
+    synchronized (this.memory) {
+      result = this.memory.get(key);
+    }
+    if (result != null) {
+      this.memoryHits.incrementAndGet();
+      return result;
+    }
+    Long offset = this.fileIndex.get(key);
+    if (offset != null) {
+      try {
+        result = readEntry(offset);
+        synchronized (this.memory) {
+          this.memory.put(key.copy(), result);
+        }
+        this.fileHits.incrementAndGet();
+        return result;
+      } catch (IOException ex) {
+        LOG.error("Unable to read cached analysis result: {}", ex.getMessage());
+      }
+    }
+    this.misses.incrementAndGet();
+    return null;
+  }
+
+  /**
+   * Add the result of analysing some code. The result must not be changed afterwards.
+   */
+  public void put(Bytes key, T result) {
+    if (key.size() != KEY_SIZE) {
+      throw new IllegalArgumentException("Cache keys must be " + KEY_SIZE + " bytes: " + key);
+    }
+    Bytes ownKey = key.copy();
+    synchronized (this.memory) {
+      this.memory.put(ownKey, result);
+    }
+    if (this.fileIndex.containsKey(ownKey)) {
+      return;
+    }
+    byte[] json = this.gson.toJson(result).getBytes(StandardCharsets.UTF_8);
+    ByteBuffer entry = ByteBuffer.allocate(KEY_SIZE + 4 + json.length);
+    entry.put(ownKey.toArrayUnsafe(), 0, KEY_SIZE);
+    entry.putInt(json.length);
+    entry.put(json);
+    entry.flip();
+    try {
+      synchronized (this.file) {
+        // Another thread may have analysed the same code at the same time.
+        if (this.fileIndex.containsKey(ownKey)) {
+          return;
+        }
+        long offset = this.fileSize;
+        while (entry.hasRemaining()) {
+          this.file.write(entry, offset + entry.position());
+        }
+        this.fileSize += entry.limit();
+        this.fileIndex.put(ownKey, offset);
+      }
+    } catch (IOException ex) {
+      LOG.error("Unable to write analysis result to cache: {}", ex.getMessage());
+    }
+  }
+
+  public long getMemoryHits() {
+    return this.memoryHits.get();
+  }
+
+  public long getFileHits() {
+    return this.fileHits.get();
+  }
+
+  public long getMisses() {
+    return this.misses.get();
+  }
+
+  public void showSummary(String analysisName) {
+    long hits = getMemoryHits() + getFileHits();
+    long lookups = hits + getMisses();
+    LOG.info("   {} Dedup: {} of {} contracts used a cached result ({}%), {} from memory, {} from file, {} unique codes",
+        analysisName.toUpperCase(), hits, lookups,
+        String.format("%.1f", lookups == 0 ? 0.0 : 100.0 * hits / lookups),
+        getMemoryHits(), getFileHits(), this.fileIndex.size());
+  }
+
+  @Override
+  public void close() throws IOException {
+    synchronized (this.file) {
+      this.file.force(false);
+      this.file.close();
+    }
+  }
+
+  private T readEntry(long offset) throws IOException {
+    ByteBuffer length = ByteBuffer.allocate(4);
+    readFully(length, offset + KEY_SIZE);
+    ByteBuffer json = ByteBuffer.allocate(length.getInt(0));
+    readFully(json, offset + KEY_SIZE + 4);
+    return this.gson.fromJson(new String(json.array(), StandardCharsets.UTF_8), this.resultType);
+  }
+
+  private void readFully(ByteBuffer buf, long offset) throws IOException {
+    while (buf.hasRemaining()) {
+      if (this.file.read(buf, offset + buf.position()) < 0) {
+        throw new IOException("Unexpected end of analysis cache file");
+      }
+    }
+  }
+
+  /**
+   * Index the entries already in the file. An entry left incomplete by an earlier run which
+   * was stopped part way through writing it is removed.
+   */
+  private void loadIndex() throws IOException {
+    long size = this.file.size();
+    ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+    if (size < HEADER_SIZE) {
+      writeHeader();
+      return;
+    }
+    readFully(header, 0);
+    if (header.getInt(0) != MAGIC) {
+      throw new IOException("Not an analysis cache file");
+    }
+    if (header.getInt(4) != VERSION || !Bytes.wrap(header.array(), 8, KEY_SIZE).equals(this.configurationHash)) {
+      LOG.info("Analysis cache was built by a different version of the analysis or with different settings, rebuilding it");
+      writeHeader();
+      return;
+    }
+
+    ByteBuffer entryHeader = ByteBuffer.allocate(KEY_SIZE + 4);
+    long offset = HEADER_SIZE;
+    while (offset + KEY_SIZE + 4 <= size) {
+      entryHeader.clear();
+      readFully(entryHeader, offset);
+      long end = offset + KEY_SIZE + 4 + entryHeader.getInt(KEY_SIZE);
+      if (end > size) {
+        break;
+      }
+      byte[] key = new byte[KEY_SIZE];
+      System.arraycopy(entryHeader.array(), 0, key, 0, KEY_SIZE);
+      this.fileIndex.put(Bytes.wrap(key), offset);
+      offset = end;
+    }
+    if (offset != size) {
+      LOG.warn("Removing incomplete entry at the end of the analysis cache");
+      this.file.truncate(offset);
+    }
+    this.fileSize = offset;
+  }
+
+  /**
+   * Empty the file, leaving just the header.
+   */
+  private void writeHeader() throws IOException {
+    ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+    header.putInt(MAGIC).putInt(VERSION).put(this.configurationHash.toArrayUnsafe()).flip();
+    this.file.truncate(0);
+    while (header.hasRemaining()) {
+      this.file.write(header, header.position());
+    }
+    this.fileSize = HEADER_SIZE;
+  }
+}
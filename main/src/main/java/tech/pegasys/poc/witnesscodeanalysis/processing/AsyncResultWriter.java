@@ -0,0 +1,364 @@
+/*
+ * Copyright ConsenSys AG.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+package tech.pegasys.poc.witnesscodeanalysis.processing;
+
+import org.apache.logging.log4j.Logger;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.zip.GZIPOutputStream;
+
+import static org.apache.logging.log4j.LogManager.getLogger;
+
+/**
+ * Writes results to an output file on a thread of its own. The thread recording results only
+ * puts them in a queue. The writer thread serialises them into a large buffer, which is written
+ * to the file when it is full.
+ *
+ * The output can be gzip compressed, and can be split into files of about a maximum size, before
+ * compression. When split, the files are numbered: name.0.json, name.1.json, and so on. Each flush ends a gzip
+ * member, so the output can be truncated at any flushed position and appended to, and the
+ * result is still a valid gzip file.
+ *
+ * @param <T> Type of the results.
+ */
+public class AsyncResultWriter<T> implements Closeable {
+  private static final Logger LOG = getLogger();
+
+  public static final String GZIP_EXTENSION = ".gz";
+  public static final int DEFAULT_QUEUE_CAPACITY = 10000;
+  public static final int BUFFER_SIZE = 4 * 1024 * 1024;
+
+  public interface Serialiser<T> {
+    void write(T result, DataOutputStream out) throws IOException;
+
+    /**
+     * Called when a new file is started, before any results are written to it.
+     */
+    default void startFile(DataOutputStream out) throws IOException {
+    }
+
+    /**
+     * Called when results are to be appended to a file from an earlier run, truncated at a
+     * checkpoint, before any results are written to it. The file may be empty.
+     */
+    default void resumeFile(Path file, boolean gzip, DataOutputStream out) throws IOException {
+    }
+
+    /**
+     * Called once all of the results have been written to a file.
+     */
+    default void endFile(DataOutputStream out) throws IOException {
+    }
+  }
+
+  private final String baseFileName;
+  private final String extension;
+  private final boolean gzip;
+  private final long maxFileSize;
+  private final Serialiser<T> serialiser;
+
+  private final BlockingQueue<Object> queue;
+  private final Thread thread;
+  private volatile Throwable failure;
+
+  // Only used by the writer thread.
+  private int fileIndex;
+  private FileOutputStream file;
+  private CountingOutputStream counter;
+  // Bytes of results written to the current file, before compression.
+  private long fileResultBytes;
+  private GZIPOutputStream gzipStream;
+  private DataOutputStream out;
+
+  // Position of the end of the output at the last flush.
+  private volatile int flushedFileIndex;
+  private volatile long flushedOffset;
+  private volatile long flushedResultBytes;
+
+  /**
+   * @param baseFileName Name of the output file, without the extension.
+   * @param extension Extension of the output file, such as .json.
+   * @param gzip True to compress the output. .gz is added to the extension.
+   * @param maxFileSize Size of results, before compression, at which to start a new file, or zero
+   *                    to write a single file.
+   * @param resumeFrom Checkpoint to append from, or null to start a new output.
+   */
+  public AsyncResultWriter(String baseFileName, String extension, boolean gzip, long maxFileSize,
+                           Serialiser<T> serialiser, ProcessingCheckpoint resumeFrom) throws IOException {
+    this.baseFileName = baseFileName;
+    this.extension = gzip ? extension + GZIP_EXTENSION : extension;
+    this.gzip = gzip;
+    this.maxFileSize = maxFileSize;
+    this.serialiser = serialiser;
+    this.queue = new ArrayBlockingQueue<>(DEFAULT_QUEUE_CAPACITY);
+
+    if (resumeFrom != null) {
+      this.fileIndex = resumeFrom.getOutputFileIndex();
+      // Remove anything written after the checkpoint, then append to the file.
+      try (FileChannel channel = FileChannel.open(fileName(this.fileIndex), StandardOpenOption.WRITE)) {
+        channel.truncate(resumeFrom.getOutputOffset());
+      }
+      if (this.maxFileSize > 0) {
+        for (int i = this.fileIndex + 1; Files.deleteIfExists(fileName(i)); i++) {
+          LOG.info("Removed {}, written after the checkpoint", fileName(i));
+        }
+      }
+      open(true, resumeFrom.getOutputResultBytes());
+    }
+    else {
+      this.fileIndex = 0;
+      open(false, 0);
+    }
+    this.flushedFileIndex = this.fileIndex;
+    this.flushedOffset = resumeFrom != null ? resumeFrom.getOutputOffset() : 0;
+    this.flushedResultBytes = this.fileResultBytes;
+
+    this.thread = new Thread(this::writeResults, "result-writer-" + Paths.get(baseFileName).getFileName());
+    this.thread.setDaemon(true);
+    this.thread.start();
+  }
+
+  /**
+   * Queue a result to be written. Blocks if the queue is full. The result must not be changed
+   * afterwards.
+   */
+  public void write(T result) throws IOException {
+    put(result);
+  }
+
+  /**
+   * Wait until every result queued so far has been written to the file.
+   */
+  public void flush() throws IOException {
+    FlushRequest request = new FlushRequest();
+    put(request);
+    try {
+      request.done.await();
+    } catch (InterruptedException ex) {
+      Thread.currentThread().interrupt();
+      throw new IOException("Interrupted while flushing results", ex);
+    }
+    checkFailure();
+  }
+
+  /**
+   * @return Index of the file being written at the last flush. Zero if the output is not split.
+   */
+  public int getFlushedFileIndex() {
+    return flushedFileIndex;
+  }
+
+  /**
+   * @return Offset of the end of the output in the file at the last flush.
+   */
+  public long getFlushedOffset() {
+    return flushedOffset;
+  }
+
+  /**
+   * @return Size of the results in the file at the last flush, before compression.
+   */
+  public long getFlushedResultBytes() {
+    return flushedResultBytes;
+  }
+
+  @Override
+  public void close() throws IOException {
+    flush();
+    this.thread.interrupt();
+    try {
+      this.thread.join();
+    } catch (InterruptedException ex) {
+      Thread.currentThread().interrupt();
+    }
+    if (this.failure == null) {
+      this.serialiser.endFile(this.out);
+    }
+    // Ends the last gzip member. Closing the stream does not close the file.
+    this.out.close();
+    this.file.close();
+  }
+
+  private void put(Object item) throws IOException {
+    checkFailure();
+    try {
+      this.queue.put(item);
+    } catch (InterruptedException ex) {
+      Thread.currentThread().interrupt();
+      throw new IOException("Interrupted while queueing result", ex);
+    }
+  }
+
+  private void checkFailure() throws IOException {
+    if (this.failure != null) {
+      throw new IOException("Failure writing results to " + fileName(this.flushedFileIndex), this.failure);
+    }
+  }
+
+  @SuppressWarnings("unchecked")
+  private void writeResults() {
+    try {
+      while (true) {
+        Object item = this.queue.take();
+        if (item instanceof FlushRequest) {
+          try {
+            if (this.failure == null) {
+              endOutput();
+              this.flushedFileIndex = this.fileIndex;
+              this.flushedOffset = this.counter.count;
+              this.flushedResultBytes = this.fileResultBytes;
+              startOutput();
+            }
+          } catch (Throwable th) {
+            this.failure = th;
+          }
+          ((FlushRequest) item).done.countDown();
+        }
+        else if (this.failure == null) {
+          try {
+            this.serialiser.write((T) item, this.out);
+            if (this.maxFileSize > 0 && this.fileResultBytes >= this.maxFileSize) {
+              this.serialiser.endFile(this.out);
+              endOutput();
+              this.file.close();
+              this.fileIndex++;
+              open(false, 0);
+            }
+          } catch (Throwable th) {
+            this.failure = th;
+          }
+        }
+      }
+    } catch (InterruptedException ex) {
+      // Closed.
+    }
+  }
+
+  /**
+   * @param resultBytes Size of the results already in the file, before compression.
+   */
+  private void open(boolean append, long resultBytes) throws IOException {
+    Path name = fileName(this.fileIndex);
+    this.file = new FileOutputStream(name.toFile(), append);
+    this.counter = new CountingOutputStream(this.file, append ? Files.size(name) : 0);
+    // Counted before compression, like the results written from now on.
+    this.fileResultBytes = resultBytes;
+    startOutput();
+    if (append) {
+      this.serialiser.resumeFile(name, this.gzip, this.out);
+    }
+    else {
+      this.serialiser.startFile(this.out);
+    }
+  }
+
+  /**
+   * Start a new buffer, and a new gzip member, on the current file.
+   */
+  private void startOutput() throws IOException {
+    OutputStream stream = this.counter;
+    if (this.gzip) {
+      this.gzipStream = new GZIPOutputStream(stream, BUFFER_SIZE);
+      stream = this.gzipStream;
+    }
+    stream = new BufferedOutputStream(stream, BUFFER_SIZE);
+    this.out = new DataOutputStream(new ResultByteCounter(stream));
+  }
+
+  /**
+   * Write out everything buffered, ending the gzip member, without closing the file.
+   */
+  private void endOutput() throws IOException {
+    this.out.flush();
+    if (this.gzip) {
+      this.gzipStream.finish();
+    }
+    this.file.flush();
+  }
+
+  private Path fileName(int index) {
+    return this.maxFileSize > 0
+        ? Paths.get(this.baseFileName + "." + index + this.extension)
+        : Paths.get(this.baseFileName + this.extension);
+  }
+
+  private static class FlushRequest {
+    final CountDownLatch done = new CountDownLatch(1);
+  }
+
+  /**
+   * Counts the bytes of results written to the current file, before buffering and compression.
+   */
+  private class ResultByteCounter extends FilterOutputStream {
+    ResultByteCounter(OutputStream out) {
+      super(out);
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+      this.out.write(b);
+      AsyncResultWriter.this.fileResultBytes++;
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+      this.out.write(b, off, len);
+      AsyncResultWriter.this.fileResultBytes += len;
+    }
+  }
+
+  /**
+   * Counts the bytes written to the file, including any written before it was opened.
+   */
+  private static class CountingOutputStream extends FilterOutputStream {
+    long count;
+
+    CountingOutputStream(OutputStream out, long initialCount) {
+      super(out);
+      this.count = initialCount;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+      this.out.write(b);
+      this.count++;
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+      this.out.write(b, off, len);
+      this.count += len;
+    }
+
+    @Override
+    public void close() {
+      // The file is closed separately, so that a new gzip member can be started on it.
+    }
+  }
+}
@@ -0,0 +1,117 @@
+/*
+ * Copyright ConsenSys AG.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+package tech.pegasys.poc.witnesscodeanalysis.processing;
+
+import tech.pegasys.poc.witnesscodeanalysis.functionid.FunctionIdAllResult;
+import tech.pegasys.poc.witnesscodeanalysis.functionid.FunctionIdBinaryFormat;
+import tech.pegasys.poc.witnesscodeanalysis.functionid.FunctionIdBinaryReader;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+/**
+ * Writes function id results in FunctionIdBinaryFormat, keeping the offset of each record so
+ * that the index can be written at the end of each file.
+ */
+public class FunctionIdBinarySerialiser implements AsyncResultWriter.Serialiser<FunctionIdAllResult> {
+  // Offset in the uncompressed file of the next record.
+  private long position;
+  private int[] ids = new int[1024];
+  private long[] offsets = new long[1024];
+  private int count;
+
+  @Override
+  public void startFile(DataOutputStream out) throws IOException {
+    FunctionIdBinaryFormat.writeHeader(out);
+    this.position = 8;
+    this.count = 0;
+  }
+
+  /**
+   * Rebuild the index of the records already in the file.
+   */
+  @Override
+  public void resumeFile(Path file, boolean gzip, DataOutputStream out) throws IOException {
+    if (Files.size(file) == 0) {
+      startFile(out);
+      return;
+    }
+    this.count = 0;
+    try (FunctionIdBinaryReader reader = new FunctionIdBinaryReader(file)) {
+      long recordStart = reader.getPosition();
+      FunctionIdAllResult result;
+      while ((result = reader.next()) != null) {
+        addToIndex(result.getId(), recordStart);
+        recordStart = reader.getPosition();
+      }
+      this.position = recordStart;
+    }
+  }
+
+  @Override
+  public void write(FunctionIdAllResult result, DataOutputStream out) throws IOException {
+    addToIndex(result.getId(), this.position);
+    this.position += FunctionIdBinaryFormat.writeRecord(result, out);
+  }
+
+  @Override
+  public void endFile(DataOutputStream out) throws IOException {
+    sortIndex();
+    // The index starts after the end of records marker.
+    FunctionIdBinaryFormat.writeIndex(out, this.ids, this.offsets, this.count, this.position + 4);
+  }
+
+  /**
+   * The reader does a binary search of the index. Results are normally written in contract id
+   * order, so this rarely has anything to do.
+   */
+  private void sortIndex() {
+    boolean sorted = true;
+    for (int i = 1; i < this.count && sorted; i++) {
+      sorted = this.ids[i - 1] <= this.ids[i];
+    }
+    if (sorted) {
+      return;
+    }
+    // Ids are not negative, so sorting id then position gives the id order.
+    long[] keys = new long[this.count];
+    for (int i = 0; i < this.count; i++) {
+      keys[i] = ((long) this.ids[i] << 32) | i;
+    }
+    Arrays.sort(keys);
+    int[] sortedIds = new int[this.count];
+    long[] sortedOffsets = new long[this.count];
+    for (int i = 0; i < this.count; i++) {
+      int from = (int) keys[i];
+      sortedIds[i] = this.ids[from];
+      sortedOffsets[i] = this.offsets[from];
+    }
+    this.ids = sortedIds;
+    this.offsets = sortedOffsets;
+  }
+
+  private void addToIndex(int id, long offset) {
+    if (this.count == this.ids.length) {
+      this.ids = Arrays.copyOf(this.ids, this.count * 2);
+      this.offsets = Arrays.copyOf(this.offsets, this.count * 2);
+    }
+    this.ids[this.count] = id;
+    this.offsets[this.count] = offset;
+    this.count++;
+  }
+}
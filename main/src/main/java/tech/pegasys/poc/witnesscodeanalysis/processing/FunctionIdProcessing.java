@@ -18,21 +18,50 @@ import org.apache.logging.log4j.Logger;
 import org.apache.tuweni.bytes.Bytes;
 import tech.pegasys.poc.witnesscodeanalysis.FunctionIdAnalysis;
 import tech.pegasys.poc.witnesscodeanalysis.common.SimpleAnalysis;
-import tech.pegasys.poc.witnesscodeanalysis.common.UnableToProcess;
 import tech.pegasys.poc.witnesscodeanalysis.common.UnableToProcessException;
 import tech.pegasys.poc.witnesscodeanalysis.common.UnableToProcessReason;
 import tech.pegasys.poc.witnesscodeanalysis.functionid.FunctionIdAllResult;
+import tech.pegasys.poc.witnesscodeanalysis.functionid.CodeVisitor;
+import tech.pegasys.poc.witnesscodeanalysis.functionid.FunctionIdBinaryFormat;
+import tech.pegasys.poc.witnesscodeanalysis.functionid.FunctionIdMerklePatriciaTrieLeafData;
 import tech.pegasys.poc.witnesscodeanalysis.functionid.FunctionIdProcess;
+import tech.pegasys.poc.witnesscodeanalysis.vm.AnalysisContext;
+import tech.pegasys.poc.witnesscodeanalysis.vm.RingBufferTracer;
 
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
 import static org.apache.logging.log4j.LogManager.getLogger;
 
 
-public class FunctionIdProcessing extends AbstractProcessing {
+public class FunctionIdProcessing extends AbstractProcessing<FunctionIdAllResult> {
   private static final Logger LOG = getLogger();
 
   public static final String DEFAULT_NAME =  "functionid";
 
+  // Increase whenever a change to the analysis changes its results, so that results cached by
+  // earlier versions are discarded.
+  public static final int ANALYSIS_VERSION = 1;
+
+  // Write results in FunctionIdBinaryFormat rather than as JSON.
+  public static boolean BINARY_OUTPUT = false;
+
+  // Number of interpreter steps to keep in the execution trace of each thread analysing contracts.
+  // The traces are written when closed, the first to trace_functionid.bin, and any others to
+  // trace_functionid_1.bin and so on. Decode them with ExecutionTraceDecoder. 0 to not trace.
+  public static int TRACE_CAPACITY = 0;
+  public static final int DEFAULT_TRACE_CAPACITY = 1 << 20;
+  public static final String TRACE_FILE_NAME = "trace_" + DEFAULT_NAME + ".bin";
+
+  // A tracer for each thread analysing contracts, or null if not tracing.
+  private final ThreadLocal<RingBufferTracer> tracer;
+  private final List<RingBufferTracer> tracers = Collections.synchronizedList(new ArrayList<>());
+
   private int numSuccessful = 0;
   private int numFailUnknownReason1 = 0;
   private int numFailUnknownReason2 = 0;
@@ -41,18 +70,37 @@ public class FunctionIdProcessing extends AbstractProcessing {
   private int numFailDynamicJump = 0;
   private int numFailEndFunctionIdBlockNotFound = 0;
   private int numFailCodePathsNotValid = 0;
+  private int numFailExplorationLimitExceeded = 0;
 
 
   public FunctionIdProcessing(boolean json) throws IOException {
-    super(DEFAULT_NAME, json);
+    this(json, null);
+  }
+
+  public FunctionIdProcessing(boolean json, ProcessingCheckpoint resumeFrom) throws IOException {
+    super(DEFAULT_NAME, json, resumeFrom);
+    if (resumeFrom != null) {
+      restoreCounters(resumeFrom);
+    }
+    this.tracer = TRACE_CAPACITY > 0 ? ThreadLocal.withInitial(this::newTracer) : null;
+  }
+
+  private RingBufferTracer newTracer() {
+    RingBufferTracer threadTracer = new RingBufferTracer(TRACE_CAPACITY);
+    this.tracers.add(threadTracer);
+    return threadTracer;
   }
 
   @Override
-  protected void executeProcessing(int id, String[] deployedAddresses, Bytes code) throws Exception {
+  protected FunctionIdAllResult executeProcessing(int id, String[] deployedAddresses, Bytes code) throws Exception {
     LOG.trace(" Function Id Analysis");
 
-    UnableToProcess unableToProcessInstance = UnableToProcess.getInstance();
-    unableToProcessInstance.clean();
+    AnalysisContext context = new AnalysisContext();
+    if (this.tracer != null) {
+      RingBufferTracer threadTracer = this.tracer.get();
+      threadTracer.startContract(id);
+      context.setExecutionTracer(threadTracer);
+    }
 
     UnableToProcessReason overallResult = null;
     FunctionIdAllResult result =  new FunctionIdAllResult();
@@ -65,64 +113,161 @@ public class FunctionIdProcessing extends AbstractProcessing {
 
 
       if (simple.getEndOfFunctionIdBlock() == -1) {
-        UnableToProcess.getInstance().unableToProcess(UnableToProcessReason.END_OF_FUNCTION_ID_BLOCK_NOT_FOUND);
+        context.unableToProcess(UnableToProcessReason.END_OF_FUNCTION_ID_BLOCK_NOT_FOUND);
       }
       else {
         // Should be able to analyse
-        FunctionIdProcess fidAnalysis = new FunctionIdProcess(code, simple.getEndOfFunctionIdBlock(), simple.getEndOfCode(), simple.getJumpDests());
+        FunctionIdProcess fidAnalysis = new FunctionIdProcess(simple.getInstructions(), simple.getEndOfFunctionIdBlock(), simple.getEndOfCode(), simple.getJumpDests(), context);
         fidAnalysis.executeAnalysis(result);
 
         LOG.trace("  Function Id Process found {} functions", result.getLeaves().size());
-        this.numSuccessful++;
         overallResult = UnableToProcessReason.SUCCESS;
       }
     } catch (UnableToProcessException ex) {
-      LOG.info(" Unable to Process: {}: {}", unableToProcessInstance.getReason(), unableToProcessInstance.getMessage());
+      LOG.info(" Unable to Process: {}: {}", context.getReason(), context.getMessage());
       FunctionIdProcess.addAllCodeLeaf(result, code);
 
       switch (ex.getReason()) {
         case END_OF_FUNCTION_ID_BLOCK_NOT_FOUND:
-          this.numFailEndFunctionIdBlockNotFound++;
-          overallResult = UnableToProcessReason.END_OF_FUNCTION_ID_BLOCK_NOT_FOUND;
-          break;
         case DYNAMIC_JUMP:
-          this.numFailDynamicJump++;
-          overallResult = UnableToProcessReason.DYNAMIC_JUMP;
-          break;
         case INVALID_JUMP_DEST:
-          this.numFailInvalidJumpDest++;
-          overallResult = UnableToProcessReason.INVALID_JUMP_DEST;
-          break;
         case CODECOPY_WITH_DYNAMIC_PARAMETERS:
-          this.numFailCodeCopyDynamicParameters++;
-          overallResult = UnableToProcessReason.CODECOPY_WITH_DYNAMIC_PARAMETERS;
-          break;
         case CODE_PATHS_NOT_VALID:
-          this.numFailCodePathsNotValid++;
-          overallResult = UnableToProcessReason.CODE_PATHS_NOT_VALID;
+        case EXPLORATION_LIMIT_EXCEEDED:
+          overallResult = ex.getReason();
           break;
         default:
           LOG.error("Unknown failure reason: {}", ex.getReason() );
           logStackTrace(ex);
-          this.numFailUnknownReason1++;
           overallResult = UnableToProcessReason.UNKNOWN_REASON1;
           break;
       }
     } catch (Throwable th) {
       logStackTrace(th);
-      this.numFailUnknownReason2++;
       overallResult = UnableToProcessReason.UNKNOWN_REASON2;
     }
     result.setOverallResult(overallResult);
+    return result;
+  }
+
+  @Override
+  protected void saveCounters(ProcessingCheckpoint checkpoint) {
+    super.saveCounters(checkpoint);
+    checkpoint.setCounter("numSuccessful", this.numSuccessful);
+    checkpoint.setCounter("numFailUnknownReason1", this.numFailUnknownReason1);
+    checkpoint.setCounter("numFailUnknownReason2", this.numFailUnknownReason2);
+    checkpoint.setCounter("numFailInvalidJumpDest", this.numFailInvalidJumpDest);
+    checkpoint.setCounter("numFailCodeCopyDynamicParameters", this.numFailCodeCopyDynamicParameters);
+    checkpoint.setCounter("numFailDynamicJump", this.numFailDynamicJump);
+    checkpoint.setCounter("numFailEndFunctionIdBlockNotFound", this.numFailEndFunctionIdBlockNotFound);
+    checkpoint.setCounter("numFailCodePathsNotValid", this.numFailCodePathsNotValid);
+    checkpoint.setCounter("numFailExplorationLimitExceeded", this.numFailExplorationLimitExceeded);
+  }
+
+  @Override
+  protected void restoreCounters(ProcessingCheckpoint checkpoint) {
+    super.restoreCounters(checkpoint);
+    this.numSuccessful = checkpoint.getCounter("numSuccessful");
+    this.numFailUnknownReason1 = checkpoint.getCounter("numFailUnknownReason1");
+    this.numFailUnknownReason2 = checkpoint.getCounter("numFailUnknownReason2");
+    this.numFailInvalidJumpDest = checkpoint.getCounter("numFailInvalidJumpDest");
+    this.numFailCodeCopyDynamicParameters = checkpoint.getCounter("numFailCodeCopyDynamicParameters");
+    this.numFailDynamicJump = checkpoint.getCounter("numFailDynamicJump");
+    this.numFailEndFunctionIdBlockNotFound = checkpoint.getCounter("numFailEndFunctionIdBlockNotFound");
+    this.numFailCodePathsNotValid = checkpoint.getCounter("numFailCodePathsNotValid");
+    this.numFailExplorationLimitExceeded = checkpoint.getCounter("numFailExplorationLimitExceeded");
+  }
 
-    if (this.json) {
-      gson.toJson(result, this.writer);
-      this.writer.append('\n');
+  /**
+   * Describe the version of the analysis and the settings which affect its results, for
+   * AnalysisCache.
+   */
+  public static String cacheConfiguration() {
+    return DEFAULT_NAME + " version: " + ANALYSIS_VERSION
+        + ", include code: " + FunctionIdMerklePatriciaTrieLeafData.INCLUDECODE
+        + ", exploration order: " + CodeVisitor.DEFAULT_EXPLORATION_ORDER
+        + ", max pending paths: " + CodeVisitor.DEFAULT_MAX_PENDING_PATHS
+        + ", max entry states per segment: " + CodeVisitor.DEFAULT_MAX_ENTRY_STATES_PER_SEGMENT;
+  }
+
+  @Override
+  protected String outputExtension() {
+    return BINARY_OUTPUT ? FunctionIdBinaryFormat.EXTENSION : super.outputExtension();
+  }
+
+  @Override
+  protected AsyncResultWriter.Serialiser<FunctionIdAllResult> createSerialiser() {
+    return BINARY_OUTPUT ? new FunctionIdBinarySerialiser() : super.createSerialiser();
+  }
+
+  /**
+   * Unexpected failures, such as running out of memory, may depend on what else was running
+   * at the time, so are not cached.
+   */
+  @Override
+  protected boolean cacheable(FunctionIdAllResult result) {
+    return result.getResult() != UnableToProcessReason.UNKNOWN_REASON2;
+  }
+
+  @Override
+  protected FunctionIdAllResult forContract(FunctionIdAllResult cached, int id) {
+    return cached.copyForContract(id);
+  }
+
+  @Override
+  protected void recordResult(FunctionIdAllResult result) throws Exception {
+    switch (result.getResult()) {
+      case SUCCESS:
+        this.numSuccessful++;
+        break;
+      case END_OF_FUNCTION_ID_BLOCK_NOT_FOUND:
+        this.numFailEndFunctionIdBlockNotFound++;
+        break;
+      case DYNAMIC_JUMP:
+        this.numFailDynamicJump++;
+        break;
+      case INVALID_JUMP_DEST:
+        this.numFailInvalidJumpDest++;
+        break;
+      case CODECOPY_WITH_DYNAMIC_PARAMETERS:
+        this.numFailCodeCopyDynamicParameters++;
+        break;
+      case CODE_PATHS_NOT_VALID:
+        this.numFailCodePathsNotValid++;
+        break;
+      case EXPLORATION_LIMIT_EXCEEDED:
+        this.numFailExplorationLimitExceeded++;
+        break;
+      case UNKNOWN_REASON1:
+        this.numFailUnknownReason1++;
+        break;
+      default:
+        this.numFailUnknownReason2++;
+        break;
+    }
+
+    if (this.json || BINARY_OUTPUT) {
+      this.resultWriter.write(result);
     }
     else {
       throw new Error("NOT IMPLEMENTED YET");
     }
+  }
 
+  @Override
+  public void close() throws IOException {
+    super.close();
+    synchronized (this.tracers) {
+      for (int i = 0; i < this.tracers.size(); i++) {
+        RingBufferTracer threadTracer = this.tracers.get(i);
+        String fileName = i == 0 ? TRACE_FILE_NAME : "trace_" + DEFAULT_NAME + "_" + i + ".bin";
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(fileName)))) {
+          threadTracer.writeTo(out);
+        }
+        LOG.info("Last {} of {} execution trace records written to {}",
+            Math.min(threadTracer.getNumRecords(), threadTracer.getCapacity()), threadTracer.getNumRecords(), fileName);
+      }
+    }
   }
 
   public void showSummary() {
@@ -130,8 +275,9 @@ public class FunctionIdProcessing extends AbstractProcessing {
         analysisName.toUpperCase(), this.numberProcessed, this.numSuccessful);
     LOG.info("   Fail(End Of FunctionId Block Not Found): {}, Fail(Dynamic Jump): {}, Fail(Invalid Jump Dest): {}, Fail(Copy Copy Dynamic): {}",
         this.numFailEndFunctionIdBlockNotFound, this.numFailDynamicJump, this.numFailInvalidJumpDest, this.numFailCodeCopyDynamicParameters);
-    LOG.info("   Fail(Code Paths Not Valid) {}, Fail(Unknown Reason1): {}, Fail(Processing Failed): {}",
-        this.numFailCodePathsNotValid, this.numFailUnknownReason1, this.numFailUnknownReason2);
+    LOG.info("   Fail(Code Paths Not Valid) {}, Fail(Exploration Limit Exceeded) {}, Fail(Unknown Reason1): {}, Fail(Processing Failed): {}",
+        this.numFailCodePathsNotValid, this.numFailExplorationLimitExceeded, this.numFailUnknownReason1, this.numFailUnknownReason2);
+    showCacheSummary();
 
   }
 
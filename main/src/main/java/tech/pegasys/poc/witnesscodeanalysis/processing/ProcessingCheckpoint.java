@@ -0,0 +1,67 @@
+/*
+ * Copyright ConsenSys AG.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+package tech.pegasys.poc.witnesscodeanalysis.processing;
+
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * State of one analysis at a checkpoint: the position of the end of its output and its counters.
+ */
+public class ProcessingCheckpoint {
+  private int outputFileIndex;
+  private long outputOffset;
+  private long outputResultBytes;
+  private Map<String, Integer> counters = new TreeMap<>();
+
+  /**
+   * @return Index of the output file being written, if the output is split into several files.
+   */
+  public int getOutputFileIndex() {
+    return outputFileIndex;
+  }
+
+  void setOutputFileIndex(int outputFileIndex) {
+    this.outputFileIndex = outputFileIndex;
+  }
+
+  public long getOutputOffset() {
+    return outputOffset;
+  }
+
+  void setOutputOffset(long outputOffset) {
+    this.outputOffset = outputOffset;
+  }
+
+  /**
+   * @return Size of the results in the output file, before compression.
+   */
+  public long getOutputResultBytes() {
+    return outputResultBytes;
+  }
+
+  void setOutputResultBytes(long outputResultBytes) {
+    this.outputResultBytes = outputResultBytes;
+  }
+
+  int getCounter(String name) {
+    Integer value = this.counters.get(name);
+    return value == null ? 0 : value;
+  }
+
+  void setCounter(String name, int value) {
+    this.counters.put(name, value);
+  }
+}
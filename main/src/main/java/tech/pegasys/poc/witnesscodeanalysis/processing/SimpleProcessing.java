@@ -23,7 +23,7 @@ import java.io.IOException;
 
 import static org.apache.logging.log4j.LogManager.getLogger;
 
-public class SimpleProcessing extends AbstractProcessing {
+public class SimpleProcessing extends AbstractProcessing<SimpleProcessing.Result> {
   private static final Logger LOG = getLogger();
 
   public static final String DEFAULT_NAME =  "simple";
@@ -36,33 +36,71 @@ public class SimpleProcessing extends AbstractProcessing {
 
 
   public SimpleProcessing(boolean json) throws IOException {
-    super(DEFAULT_NAME, json);
+    this(json, null);
+  }
+
+  public SimpleProcessing(boolean json, ProcessingCheckpoint resumeFrom) throws IOException {
+    super(DEFAULT_NAME, json, resumeFrom);
+    if (resumeFrom != null) {
+      restoreCounters(resumeFrom);
+    }
+  }
+
+  @Override
+  protected void saveCounters(ProcessingCheckpoint checkpoint) {
+    super.saveCounters(checkpoint);
+    checkpoint.setCounter("numSol", this.numSol);
+    checkpoint.setCounter("newSol", this.newSol);
+    checkpoint.setCounter("definitelySol", this.definitelySol);
+    checkpoint.setCounter("shouldBeAbleToAnalyse", this.shouldBeAbleToAnalyse);
+    checkpoint.setCounter("endOfCodeDetected", this.endOfCodeDetected);
+  }
+
+  @Override
+  protected void restoreCounters(ProcessingCheckpoint checkpoint) {
+    super.restoreCounters(checkpoint);
+    this.numSol = checkpoint.getCounter("numSol");
+    this.newSol = checkpoint.getCounter("newSol");
+    this.definitelySol = checkpoint.getCounter("definitelySol");
+    this.shouldBeAbleToAnalyse = checkpoint.getCounter("shouldBeAbleToAnalyse");
+    this.endOfCodeDetected = checkpoint.getCounter("endOfCodeDetected");
   }
 
   @Override
-  protected void executeProcessing(int id, String[] deployedAddresses, Bytes code) throws Exception {
+  protected Result executeProcessing(int id, String[] deployedAddresses, Bytes code) throws Exception {
     AuxData auxData = new AuxData(code);
     SimpleAnalysis simple = new SimpleAnalysis(code);
     //analysis.showBasicInfo();
 
-    if (simple.isProbablySolidity()) {
+    Result result = new Result();
+    result.probablySolidity = simple.isProbablySolidity();
+    result.newSolidity = simple.isNewSolidity();
+    // There is aux data and it indicates solc is the compiler.
+    result.definitelySolidity = auxData.isDefinitelySolidity();
+    result.shouldBeAbleToAnalyse = simple.getEndOfFunctionIdBlock() != -1;
+    result.endOfCodeDetected = simple.endOfCodeDetected();
+    return result;
+  }
+
+  @Override
+  protected void recordResult(Result result) {
+    if (result.probablySolidity) {
       numSol++;
     }
 
-    if (simple.isNewSolidity()) {
+    if (result.newSolidity) {
       this.newSol++;
     }
 
-    // There is aux data and it indicates solc is the compiler.
-    if (auxData.isDefinitelySolidity()) {
+    if (result.definitelySolidity) {
       definitelySol++;
     }
 
-    if (simple.getEndOfFunctionIdBlock() != -1) {
+    if (result.shouldBeAbleToAnalyse) {
       shouldBeAbleToAnalyse++;
     }
 
-    if (simple.endOfCodeDetected()) {
+    if (result.endOfCodeDetected) {
       this.endOfCodeDetected++;
     }
   }
@@ -87,4 +125,12 @@ public class SimpleProcessing extends AbstractProcessing {
         numSol, this.newSol, this.definitelySol, this.shouldBeAbleToAnalyse, this.endOfCodeDetected);
   }
 
+  public static class Result {
+    boolean probablySolidity;
+    boolean newSolidity;
+    boolean definitelySolidity;
+    boolean shouldBeAbleToAnalyse;
+    boolean endOfCodeDetected;
+  }
+
 }
@@ -0,0 +1,126 @@
+/*
+ * Copyright ConsenSys AG.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+package tech.pegasys.poc.witnesscodeanalysis.store;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+import static tech.pegasys.poc.witnesscodeanalysis.store.ContractStore.HEADER_SIZE;
+import static tech.pegasys.poc.witnesscodeanalysis.store.ContractStore.MAGIC;
+import static tech.pegasys.poc.witnesscodeanalysis.store.ContractStore.VERSION;
+
+/**
+ * Index from block number to the ids of the contracts deployed, or recently accessed, at that
+ * block. Written by ContractStoreWriter alongside the contract store.
+ *
+ * The file is the store header followed by (block number, contract id) pairs, sorted by block
+ * number then id. The contracts for a range of blocks are found with a binary search for the
+ * start of the range, followed by a scan to the end of the range.
+ */
+public class BlockIndex implements Closeable {
+  static final String DEPLOYED_AT_BLOCK_FILE = "deployed_at_block.idx";
+  static final String RECENT_ACCESSED_AT_BLOCK_FILE = "recent_accessed_at_block.idx";
+
+  static final int ENTRY_SIZE = 8;
+  // A multiple of the entry size, so that entries do not straddle segments.
+  private static final long SEGMENT_SIZE = 1L << 30;
+
+  private final MappedSegments entries;
+  private final long numEntries;
+
+  BlockIndex(Path file) throws IOException {
+    this.entries = new MappedSegments(file, SEGMENT_SIZE);
+    if (this.entries.size() < HEADER_SIZE || this.entries.getInt(0) != MAGIC || this.entries.getInt(4) != VERSION) {
+      throw new IOException(file + " is not a block index, or is an unsupported version");
+    }
+    this.numEntries = this.entries.getLong(8);
+  }
+
+  /**
+   * @return Index of the blocks contracts in the store in the directory were deployed at.
+   */
+  public static BlockIndex deployedAtBlock(Path dir) throws IOException {
+    return new BlockIndex(dir.resolve(DEPLOYED_AT_BLOCK_FILE));
+  }
+
+  /**
+   * @return Index of the blocks contracts in the store in the directory were recently accessed at.
+   */
+  public static BlockIndex recentAccessedAtBlock(Path dir) throws IOException {
+    return new BlockIndex(dir.resolve(RECENT_ACCESSED_AT_BLOCK_FILE));
+  }
+
+  /**
+   * @return True if the block indexes have been written for the store in the directory. Stores
+   *   converted before the indexes were added need to be converted again.
+   */
+  public static boolean exists(Path dir) {
+    return Files.exists(dir.resolve(DEPLOYED_AT_BLOCK_FILE)) && Files.exists(dir.resolve(RECENT_ACCESSED_AT_BLOCK_FILE));
+  }
+
+  public long getNumEntries() {
+    return numEntries;
+  }
+
+  /**
+   * @return The ids of the contracts at any block from start to end inclusive, in ascending
+   *   order and without duplicates.
+   */
+  public int[] findIds(int startBlock, int endBlock) {
+    // Find the first entry at or after the start block.
+    long first = 0;
+    long last = this.numEntries;
+    while (first < last) {
+      long mid = (first + last) >>> 1;
+      if (blockAt(mid) < startBlock) {
+        first = mid + 1;
+      }
+      else {
+        last = mid;
+      }
+    }
+
+    int[] ids = new int[16];
+    int numIds = 0;
+    for (long i = first; i < this.numEntries && blockAt(i) <= endBlock; i++) {
+      if (numIds == ids.length) {
+        ids = Arrays.copyOf(ids, numIds * 2);
+      }
+      ids[numIds++] = this.entries.getInt(HEADER_SIZE + i * ENTRY_SIZE + 4);
+    }
+
+    // Ids are only sorted within each block, and a contract can appear at several blocks.
+    Arrays.sort(ids, 0, numIds);
+    int numUnique = 0;
+    for (int i = 0; i < numIds; i++) {
+      if (numUnique == 0 || ids[numUnique - 1] != ids[i]) {
+        ids[numUnique++] = ids[i];
+      }
+    }
+    return Arrays.copyOf(ids, numUnique);
+  }
+
+  @Override
+  public void close() throws IOException {
+    this.entries.close();
+  }
+
+  private int blockAt(long index) {
+    return this.entries.getInt(HEADER_SIZE + index * ENTRY_SIZE);
+  }
+}
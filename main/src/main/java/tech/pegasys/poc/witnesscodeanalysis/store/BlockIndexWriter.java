@@ -0,0 +1,57 @@
+/*
+ * Copyright ConsenSys AG.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+package tech.pegasys.poc.witnesscodeanalysis.store;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+import static tech.pegasys.poc.witnesscodeanalysis.store.ContractStore.MAGIC;
+import static tech.pegasys.poc.witnesscodeanalysis.store.ContractStore.VERSION;
+
+/**
+ * Collects (block number, contract id) pairs in memory and writes them as a BlockIndex.
+ */
+class BlockIndexWriter {
+  // Block number in the top half and id in the bottom half, so that sorting the longs sorts
+  // by block number then id. Both are non-negative.
+  private long[] entries = new long[1024];
+  private int numEntries;
+
+  void add(int blockNumber, int id) {
+    if (blockNumber < 0) {
+      return;
+    }
+    if (this.numEntries == this.entries.length) {
+      this.entries = Arrays.copyOf(this.entries, this.numEntries * 2);
+    }
+    this.entries[this.numEntries++] = ((long) blockNumber << 32) | id;
+  }
+
+  void write(Path file) throws IOException {
+    Arrays.sort(this.entries, 0, this.numEntries);
+    try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file.toFile()), 1024 * 1024))) {
+      out.writeInt(MAGIC);
+      out.writeInt(VERSION);
+      out.writeLong(this.numEntries);
+      for (int i = 0; i < this.numEntries; i++) {
+        out.writeLong(this.entries[i]);
+      }
+    }
+  }
+}
@@ -0,0 +1,280 @@
+/*
+ * Copyright ConsenSys AG.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+package tech.pegasys.poc.witnesscodeanalysis.store;
+
+import org.apache.tuweni.bytes.Bytes;
+import tech.pegasys.poc.witnesscodeanalysis.common.ContractRecord;
+import tech.pegasys.poc.witnesscodeanalysis.common.ContractRecordSource;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+/**
+ * Read only, memory mapped access to the contracts of the contract data file, converted to a
+ * binary store by ContractStoreConverter.
+ *
+ * The store is a directory of three files, each starting with a magic number, version and
+ * count:
+ *   contracts.bin: the contract records, with the code as raw bytes.
+ *   ids.idx: the offset of each contract's record, indexed by contract id.
+ *   addresses.idx: 20 byte deployment addresses in ascending order, each with its contract id.
+ *
+ * The directory also holds the block indexes, see BlockIndex.
+ *
+ * A contract is found by id with one index lookup, and by address with a binary search.
+ * The store can be used by several threads at once.
+ */
+public class ContractStore implements Closeable {
+  public static final String DEFAULT_DIR = "contract_store";
+
+  static final String CONTRACTS_FILE = "contracts.bin";
+  static final String ID_INDEX_FILE = "ids.idx";
+  static final String ADDRESS_INDEX_FILE = "addresses.idx";
+
+  static final int MAGIC = 0x43575353; // "CWSS"
+  static final int VERSION = 1;
+  static final int HEADER_SIZE = 16;
+
+  static final int ADDRESS_SIZE = 20;
+  // Address, then id.
+  static final int ADDRESS_ENTRY_SIZE = ADDRESS_SIZE + 4;
+
+  static final long CONTRACTS_SEGMENT_SIZE = 1L << 30;
+  private static final long ID_INDEX_SEGMENT_SIZE = 1L << 30;
+  // A multiple of the entry size, so that entries do not straddle segments.
+  private static final long ADDRESS_INDEX_SEGMENT_SIZE = ADDRESS_ENTRY_SIZE * (1L << 25);
+
+  private final MappedSegments contracts;
+  private final MappedSegments ids;
+  private final MappedSegments addresses;
+  private final int numContracts;
+  private final long numAddresses;
+
+  public ContractStore() throws IOException {
+    this(Paths.get(DEFAULT_DIR));
+  }
+
+  public ContractStore(Path dir) throws IOException {
+    this.contracts = new MappedSegments(dir.resolve(CONTRACTS_FILE), CONTRACTS_SEGMENT_SIZE);
+    this.ids = new MappedSegments(dir.resolve(ID_INDEX_FILE), ID_INDEX_SEGMENT_SIZE);
+    this.addresses = new MappedSegments(dir.resolve(ADDRESS_INDEX_FILE), ADDRESS_INDEX_SEGMENT_SIZE);
+    this.numContracts = (int) checkHeader(this.contracts, CONTRACTS_FILE);
+    if (checkHeader(this.ids, ID_INDEX_FILE) != this.numContracts) {
+      throw new IOException("Contract store id index does not match the contracts");
+    }
+    this.numAddresses = checkHeader(this.addresses, ADDRESS_INDEX_FILE);
+  }
+
+  /**
+   * @return True if there is a store in the directory.
+   */
+  public static boolean exists(Path dir) {
+    return Files.exists(dir.resolve(CONTRACTS_FILE)) && Files.exists(dir.resolve(ID_INDEX_FILE))
+        && Files.exists(dir.resolve(ADDRESS_INDEX_FILE));
+  }
+
+  public int getNumContracts() {
+    return numContracts;
+  }
+
+  public long getNumAddresses() {
+    return numAddresses;
+  }
+
+  /**
+   * @return The contract with the id. The record is not shared, so can be kept.
+   */
+  public ContractRecord get(int id) {
+    long offset = recordOffset(id);
+    int codeLength = this.contracts.getInt(offset + 4);
+    offset += 8;
+    byte[] codeHash = null;
+    if (this.contracts.get(offset++) != 0) {
+      codeHash = this.contracts.get(offset, 32);
+      offset += 32;
+    }
+    int numAddresses = this.contracts.getInt(offset);
+    offset += 4;
+    String[] addresses = new String[numAddresses];
+    for (int i = 0; i < numAddresses; i++) {
+      addresses[i] = Bytes.wrap(this.contracts.get(offset, ADDRESS_SIZE)).toHexString();
+      offset += ADDRESS_SIZE;
+    }
+    int[] deployedAtBlock = readInts(offset);
+    offset += 4 + 4L * deployedAtBlock.length;
+    int[] recentAccessedAtBlock = readInts(offset);
+    offset += 4 + (recentAccessedAtBlock == null ? 0 : 4L * recentAccessedAtBlock.length);
+    byte[] code = this.contracts.get(offset, codeLength);
+    return new ContractRecord(id, code, codeHash, addresses, deployedAtBlock, recentAccessedAtBlock);
+  }
+
+  /**
+   * @return The code of the contract with the id, without decoding the rest of the record.
+   */
+  public Bytes getCode(int id) {
+    long offset = recordOffset(id);
+    int codeLength = this.contracts.getInt(offset + 4);
+    offset += 8;
+    if (this.contracts.get(offset++) != 0) {
+      offset += 32;
+    }
+    offset += 4 + (long) this.contracts.getInt(offset) * ADDRESS_SIZE;
+    offset += 4 + 4L * this.contracts.getInt(offset);
+    int numRecent = this.contracts.getInt(offset);
+    offset += 4 + (numRecent < 0 ? 0 : 4L * numRecent);
+    return Bytes.wrap(this.contracts.get(offset, codeLength));
+  }
+
+  /**
+   * @return The contracts with the ids, in the order of the ids. Closing the source does not
+   *   close the store.
+   */
+  public ContractRecordSource select(int[] ids) {
+    return new ContractRecordSource() {
+      private int next = 0;
+
+      @Override
+      public ContractRecord next() {
+        return this.next < ids.length ? get(ids[this.next++]) : null;
+      }
+
+      @Override
+      public boolean reusesRecords() {
+        return false;
+      }
+
+      @Override
+      public void close() {
+      }
+    };
+  }
+
+  /**
+   * @param address Address as a hex string, with or without 0x.
+   * @return The id of the contract deployed at the address, or -1 if there is none or the
+   *   string is not an address.
+   */
+  public int findId(String address) {
+    byte[] addressBytes;
+    try {
+      addressBytes = parseAddress(address);
+    } catch (IllegalArgumentException ex) {
+      return -1;
+    }
+    return findId(addressBytes);
+  }
+
+  public int findId(byte[] address) {
+    long high = longAt(address, 0);
+    long middle = longAt(address, 8);
+    int low = intAt(address, 16);
+
+    long first = 0;
+    long last = this.numAddresses - 1;
+    while (first <= last) {
+      long mid = (first + last) >>> 1;
+      long entry = ADDRESS_ENTRY_SIZE + mid * ADDRESS_ENTRY_SIZE;
+      int result = Long.compareUnsigned(this.addresses.getLong(entry), high);
+      if (result == 0) {
+        result = Long.compareUnsigned(this.addresses.getLong(entry + 8), middle);
+      }
+      if (result == 0) {
+        result = Integer.compareUnsigned(this.addresses.getInt(entry + 16), low);
+      }
+      if (result == 0) {
+        return this.addresses.getInt(entry + ADDRESS_SIZE);
+      }
+      if (result < 0) {
+        first = mid + 1;
+      }
+      else {
+        last = mid - 1;
+      }
+    }
+    return -1;
+  }
+
+  @Override
+  public void close() throws IOException {
+    this.contracts.close();
+    this.ids.close();
+    this.addresses.close();
+  }
+
+  private long recordOffset(int id) {
+    if (id < 0 || id >= this.numContracts) {
+      throw new IndexOutOfBoundsException("No contract with id " + id + ", store has " + this.numContracts);
+    }
+    return this.ids.getLong(HEADER_SIZE + 8L * id);
+  }
+
+  private int[] readInts(long offset) {
+    int count = this.contracts.getInt(offset);
+    if (count < 0) {
+      return null;
+    }
+    int[] values = new int[count];
+    for (int i = 0; i < count; i++) {
+      values[i] = this.contracts.getInt(offset + 4 + 4L * i);
+    }
+    return values;
+  }
+
+  private static long checkHeader(MappedSegments file, String name) throws IOException {
+    if (file.size() < HEADER_SIZE || file.getInt(0) != MAGIC) {
+      throw new IOException(name + " is not a contract store file");
+    }
+    if (file.getInt(4) != VERSION) {
+      throw new IOException(name + " has unsupported version " + file.getInt(4));
+    }
+    return file.getLong(8);
+  }
+
+  /**
+   * Parse a 20 byte address from a hex string, with or without 0x.
+   */
+  static byte[] parseAddress(String address) {
+    int start = address.startsWith("0x") || address.startsWith("0X") ? 2 : 0;
+    if (address.length() - start != ADDRESS_SIZE * 2) {
+      throw new IllegalArgumentException("Not a 20 byte address: " + address);
+    }
+    byte[] result = new byte[ADDRESS_SIZE];
+    for (int i = 0; i < ADDRESS_SIZE; i++) {
+      int hi = Character.digit(address.charAt(start + 2 * i), 16);
+      int lo = Character.digit(address.charAt(start + 2 * i + 1), 16);
+      if (hi < 0 || lo < 0) {
+        throw new IllegalArgumentException("Not a 20 byte address: " + address);
+      }
+      result[i] = (byte) ((hi << 4) | lo);
+    }
+    return result;
+  }
+
+  static long longAt(byte[] bytes, int offset) {
+    long result = 0;
+    for (int i = 0; i < 8; i++) {
+      result = (result << 8) | (bytes[offset + i] & 0xff);
+    }
+    return result;
+  }
+
+  static int intAt(byte[] bytes, int offset) {
+    return ((bytes[offset] & 0xff) << 24) | ((bytes[offset + 1] & 0xff) << 16)
+        | ((bytes[offset + 2] & 0xff) << 8) | (bytes[offset + 3] & 0xff);
+  }
+}
@@ -0,0 +1,55 @@
+/*
+ * Copyright ConsenSys AG.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+package tech.pegasys.poc.witnesscodeanalysis.store;
+
+import org.apache.logging.log4j.Logger;
+import tech.pegasys.poc.witnesscodeanalysis.MainNetContractDataSet;
+import tech.pegasys.poc.witnesscodeanalysis.common.ContractDataScanner;
+import tech.pegasys.poc.witnesscodeanalysis.common.ContractRecord;
+import tech.pegasys.poc.witnesscodeanalysis.common.ContractRecordSource;
+import tech.pegasys.poc.witnesscodeanalysis.common.ParallelContractDataReader;
+
+import java.nio.file.Paths;
+
+import static org.apache.logging.log4j.LogManager.getLogger;
+
+/**
+ * Converts the contract data file into a ContractStore. This only needs to be done once.
+ *
+ * Usage: ContractStoreConverter [contract data file] [store directory]
+ */
+public class ContractStoreConverter {
+  private static final Logger LOG = getLogger();
+
+  public static void main(String[] args) throws Exception {
+    String fileIn = args.length > 0 ? args[0] : MainNetContractDataSet.DEFAULT_FILE_IN;
+    String dirOut = args.length > 1 ? args[1] : ContractStore.DEFAULT_DIR;
+    LOG.info("Converting {} to contract store {}", fileIn, dirOut);
+
+    int numThreads = Math.max(1, Runtime.getRuntime().availableProcessors() / 2);
+    try (ContractRecordSource dataSet = new ParallelContractDataReader(fileIn, ContractDataScanner.allFields(), numThreads);
+         ContractStoreWriter writer = new ContractStoreWriter(Paths.get(dirOut))) {
+      ContractRecord record;
+      while ((record = dataSet.next()) != null) {
+        writer.add(record);
+        if (writer.getNumContracts() % 100000 == 0) {
+          LOG.info("{} contracts", writer.getNumContracts());
+        }
+      }
+      writer.finish();
+      LOG.info("Stored {} contracts, {} deployment addresses", writer.getNumContracts(), writer.getNumAddresses());
+    }
+  }
+}
@@ -0,0 +1,318 @@
+/*
+ * Copyright ConsenSys AG.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+package tech.pegasys.poc.witnesscodeanalysis.store;
+
+import org.apache.tuweni.bytes.Bytes;
+import tech.pegasys.poc.witnesscodeanalysis.common.ContractRecord;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+
+import static tech.pegasys.poc.witnesscodeanalysis.store.ContractStore.ADDRESS_ENTRY_SIZE;
+import static tech.pegasys.poc.witnesscodeanalysis.store.ContractStore.ADDRESS_INDEX_FILE;
+import static tech.pegasys.poc.witnesscodeanalysis.store.ContractStore.CONTRACTS_FILE;
+import static tech.pegasys.poc.witnesscodeanalysis.store.ContractStore.CONTRACTS_SEGMENT_SIZE;
+import static tech.pegasys.poc.witnesscodeanalysis.store.ContractStore.HEADER_SIZE;
+import static tech.pegasys.poc.witnesscodeanalysis.store.ContractStore.ID_INDEX_FILE;
+import static tech.pegasys.poc.witnesscodeanalysis.store.ContractStore.MAGIC;
+import static tech.pegasys.poc.witnesscodeanalysis.store.ContractStore.VERSION;
+
+/**
+ * Writes a contract store. Contracts must be added in id order, starting at id zero.
+ *
+ * The contract records and the id index are written as the contracts are added. The addresses
+ * and block numbers are held in memory, as primitive arrays, and the sorted address index and
+ * block indexes are written by finish.
+ *
+ * The address index is written last, under a temporary name that is then renamed, so
+ * ContractStore.exists only accepts a store that was finished. Closing without calling finish,
+ * for example after a failed conversion, leaves no address index behind.
+ */
+public class ContractStoreWriter implements Closeable {
+  private static final String TEMP_SUFFIX = ".tmp";
+
+  private final Path dir;
+  private final DataOutputStream contracts;
+  private final DataOutputStream ids;
+  private long contractsOffset;
+  private int numContracts;
+  private boolean closed;
+
+  // Addresses split into big endian longs, so that unsigned comparison gives byte order.
+  private long[] addressHigh = new long[1024];
+  private long[] addressMiddle = new long[1024];
+  private int[] addressLow = new int[1024];
+  private int[] addressIds = new int[1024];
+  private int numAddresses;
+
+  private final BlockIndexWriter deployedAtBlock = new BlockIndexWriter();
+  private final BlockIndexWriter recentAccessedAtBlock = new BlockIndexWriter();
+
+  public ContractStoreWriter(Path dir) throws IOException {
+    Files.createDirectories(dir);
+    this.dir = dir;
+    // Remove the indexes of any earlier store first, so that it can not be mistaken for this one.
+    Files.deleteIfExists(dir.resolve(ADDRESS_INDEX_FILE));
+    Files.deleteIfExists(dir.resolve(BlockIndex.DEPLOYED_AT_BLOCK_FILE));
+    Files.deleteIfExists(dir.resolve(BlockIndex.RECENT_ACCESSED_AT_BLOCK_FILE));
+    this.contracts = open(dir.resolve(CONTRACTS_FILE));
+    this.ids = open(dir.resolve(ID_INDEX_FILE));
+    writeHeader(this.contracts, 0);
+    writeHeader(this.ids, 0);
+    this.contractsOffset = HEADER_SIZE;
+  }
+
+  public void add(ContractRecord record) throws IOException {
+    if (record.getId() != this.numContracts) {
+      throw new IllegalArgumentException("Expected contract id " + this.numContracts + " but was " + record.getId());
+    }
+    String[] addresses = record.getContractAddresses() == null ? new String[0] : record.getContractAddresses();
+    int[] deployedAtBlock = record.getDeployedAtBlock() == null ? new int[0] : record.getDeployedAtBlock();
+    int[] recentAccessedAtBlock = record.getRecentAccessedAtBlock();
+    Bytes codeHash = record.getCodeHash();
+
+    long size = 4 + 4 + 1 + (codeHash != null ? 32 : 0)
+        + 4 + (long) addresses.length * ContractStore.ADDRESS_SIZE
+        + 4 + 4L * deployedAtBlock.length
+        + 4 + (recentAccessedAtBlock == null ? 0 : 4L * recentAccessedAtBlock.length)
+        + record.getCodeLength();
+    if (size > CONTRACTS_SEGMENT_SIZE) {
+      throw new IOException("Contract " + record.getId() + " is too large to store: " + size + " bytes");
+    }
+    // Records must not straddle a segment boundary, so that they can be read from one mapped buffer.
+    long segmentEnd = (this.contractsOffset / CONTRACTS_SEGMENT_SIZE + 1) * CONTRACTS_SEGMENT_SIZE;
+    if (this.contractsOffset + size > segmentEnd) {
+      while (this.contractsOffset < segmentEnd) {
+        this.contracts.write(0);
+        this.contractsOffset++;
+      }
+    }
+    this.ids.writeLong(this.contractsOffset);
+
+    this.contracts.writeInt(record.getId());
+    this.contracts.writeInt(record.getCodeLength());
+    this.contracts.writeByte(codeHash != null ? 1 : 0);
+    if (codeHash != null) {
+      this.contracts.write(codeHash.toArrayUnsafe(), 0, 32);
+    }
+    this.contracts.writeInt(addresses.length);
+    for (String address : addresses) {
+      byte[] addressBytes = ContractStore.parseAddress(address);
+      this.contracts.write(addressBytes);
+      addAddress(addressBytes, record.getId());
+    }
+    this.contracts.writeInt(deployedAtBlock.length);
+    for (int block : deployedAtBlock) {
+      this.contracts.writeInt(block);
+      this.deployedAtBlock.add(block, record.getId());
+    }
+    if (recentAccessedAtBlock == null) {
+      this.contracts.writeInt(-1);
+    }
+    else {
+      this.contracts.writeInt(recentAccessedAtBlock.length);
+      for (int block : recentAccessedAtBlock) {
+        this.contracts.writeInt(block);
+        this.recentAccessedAtBlock.add(block, record.getId());
+      }
+    }
+    this.contracts.write(record.getCode().toArrayUnsafe(), 0, record.getCodeLength());
+    this.contractsOffset += size;
+    this.numContracts++;
+  }
+
+  public int getNumContracts() {
+    return numContracts;
+  }
+
+  public int getNumAddresses() {
+    return numAddresses;
+  }
+
+  /**
+   * Complete the store once all contracts have been added: write the counts and the indexes.
+   */
+  public void finish() throws IOException {
+    close();
+    rewriteCount(this.dir.resolve(CONTRACTS_FILE), this.numContracts);
+    rewriteCount(this.dir.resolve(ID_INDEX_FILE), this.numContracts);
+    this.deployedAtBlock.write(this.dir.resolve(BlockIndex.DEPLOYED_AT_BLOCK_FILE));
+    this.recentAccessedAtBlock.write(this.dir.resolve(BlockIndex.RECENT_ACCESSED_AT_BLOCK_FILE));
+    Path addressIndex = this.dir.resolve(ADDRESS_INDEX_FILE);
+    Path tempAddressIndex = this.dir.resolve(ADDRESS_INDEX_FILE + TEMP_SUFFIX);
+    writeAddressIndex(tempAddressIndex);
+    Files.move(tempAddressIndex, addressIndex, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+  }
+
+  /**
+   * Close the files. Unless finish was called first, the store is left incomplete.
+   */
+  @Override
+  public void close() throws IOException {
+    if (!this.closed) {
+      this.closed = true;
+      this.contracts.close();
+      this.ids.close();
+    }
+  }
+
+  private void addAddress(byte[] address, int id) {
+    if (this.numAddresses == this.addressIds.length) {
+      int newLength = this.numAddresses * 2;
+      this.addressHigh = Arrays.copyOf(this.addressHigh, newLength);
+      this.addressMiddle = Arrays.copyOf(this.addressMiddle, newLength);
+      this.addressLow = Arrays.copyOf(this.addressLow, newLength);
+      this.addressIds = Arrays.copyOf(this.addressIds, newLength);
+    }
+    this.addressHigh[this.numAddresses] = ContractStore.longAt(address, 0);
+    this.addressMiddle[this.numAddresses] = ContractStore.longAt(address, 8);
+    this.addressLow[this.numAddresses] = ContractStore.intAt(address, 16);
+    this.addressIds[this.numAddresses] = id;
+    this.numAddresses++;
+  }
+
+  /**
+   * Sort the addresses and write them with their ids. If an address was deployed to more than
+   * once, the highest id is kept, matching the map built from the deployment address file.
+   */
+  private void writeAddressIndex(Path file) throws IOException {
+    sort(0, this.numAddresses - 1);
+
+    int numUnique = 0;
+    for (int i = 0; i < this.numAddresses; i++) {
+      if (numUnique > 0 && compare(i, numUnique - 1) == 0) {
+        // Sorting is not stable, so pick the highest id explicitly.
+        this.addressIds[numUnique - 1] = Math.max(this.addressIds[numUnique - 1], this.addressIds[i]);
+      }
+      else {
+        move(i, numUnique++);
+      }
+    }
+
+    try (DataOutputStream out = open(file)) {
+      writeHeader(out, numUnique);
+      // Pad the header to the entry size, so entries never straddle a mapped segment.
+      for (int i = HEADER_SIZE; i < ADDRESS_ENTRY_SIZE; i++) {
+        out.write(0);
+      }
+      for (int i = 0; i < numUnique; i++) {
+        out.writeLong(this.addressHigh[i]);
+        out.writeLong(this.addressMiddle[i]);
+        out.writeInt(this.addressLow[i]);
+        out.writeInt(this.addressIds[i]);
+      }
+    }
+  }
+
+  private int compare(int i, int j) {
+    int result = Long.compareUnsigned(this.addressHigh[i], this.addressHigh[j]);
+    if (result == 0) {
+      result = Long.compareUnsigned(this.addressMiddle[i], this.addressMiddle[j]);
+    }
+    if (result == 0) {
+      result = Integer.compareUnsigned(this.addressLow[i], this.addressLow[j]);
+    }
+    return result;
+  }
+
+  private void sort(int low, int high) {
+    while (high - low > 16) {
+      int pivot = partition(low, high);
+      // Recurse into the smaller part to bound the stack depth.
+      if (pivot - low < high - pivot) {
+        sort(low, pivot - 1);
+        low = pivot + 1;
+      }
+      else {
+        sort(pivot + 1, high);
+        high = pivot - 1;
+      }
+    }
+    for (int i = low + 1; i <= high; i++) {
+      for (int j = i; j > low && compare(j - 1, j) > 0; j--) {
+        swap(j - 1, j);
+      }
+    }
+  }
+
+  private int partition(int low, int high) {
+    int middle = (low + high) >>> 1;
+    // Median of three, left at high as the pivot.
+    if (compare(middle, low) < 0) {
+      swap(middle, low);
+    }
+    if (compare(high, low) < 0) {
+      swap(high, low);
+    }
+    if (compare(middle, high) < 0) {
+      swap(middle, high);
+    }
+    int store = low;
+    for (int i = low; i < high; i++) {
+      if (compare(i, high) < 0) {
+        swap(i, store++);
+      }
+    }
+    swap(store, high);
+    return store;
+  }
+
+  private void swap(int i, int j) {
+    long high = this.addressHigh[i];
+    this.addressHigh[i] = this.addressHigh[j];
+    this.addressHigh[j] = high;
+    long middle = this.addressMiddle[i];
+    this.addressMiddle[i] = this.addressMiddle[j];
+    this.addressMiddle[j] = middle;
+    int low = this.addressLow[i];
+    this.addressLow[i] = this.addressLow[j];
+    this.addressLow[j] = low;
+    int id = this.addressIds[i];
+    this.addressIds[i] = this.addressIds[j];
+    this.addressIds[j] = id;
+  }
+
+  private void move(int from, int to) {
+    this.addressHigh[to] = this.addressHigh[from];
+    this.addressMiddle[to] = this.addressMiddle[from];
+    this.addressLow[to] = this.addressLow[from];
+    this.addressIds[to] = this.addressIds[from];
+  }
+
+  private static DataOutputStream open(Path file) throws IOException {
+    return new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file.toFile()), 1024 * 1024));
+  }
+
+  private static void writeHeader(DataOutputStream out, long count) throws IOException {
+    out.writeInt(MAGIC);
+    out.writeInt(VERSION);
+    out.writeLong(count);
+  }
+
+  private static void rewriteCount(Path file, long count) throws IOException {
+    try (RandomAccessFile raf = new RandomAccessFile(file.toFile(), "rw")) {
+      raf.seek(8);
+      raf.writeLong(count);
+    }
+  }
+}
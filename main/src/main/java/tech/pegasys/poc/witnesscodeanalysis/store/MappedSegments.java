@@ -0,0 +1,95 @@
+/*
+ * Copyright ConsenSys AG.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+package tech.pegasys.poc.witnesscodeanalysis.store;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * A read only file mapped into memory as a series of segments, as a single mapped buffer can
+ * not be larger than 2GB.
+ *
+ * Values are read using absolute file offsets. The writer of the file must make sure that no
+ * int or long value straddles a segment boundary. Ranges of bytes may straddle segments.
+ */
+public class MappedSegments implements Closeable {
+  private final FileChannel channel;
+  private final long segmentSize;
+  private final long size;
+  private final ByteBuffer[] segments;
+
+  public MappedSegments(Path file, long segmentSize) throws IOException {
+    this.channel = FileChannel.open(file, StandardOpenOption.READ);
+    this.segmentSize = segmentSize;
+    this.size = this.channel.size();
+    int numSegments = (int) ((this.size + segmentSize - 1) / segmentSize);
+    this.segments = new ByteBuffer[numSegments];
+    for (int i = 0; i < numSegments; i++) {
+      long start = i * segmentSize;
+      this.segments[i] = this.channel.map(FileChannel.MapMode.READ_ONLY, start, Math.min(segmentSize, this.size - start));
+    }
+  }
+
+  public long size() {
+    return size;
+  }
+
+  public int getInt(long offset) {
+    return segment(offset).getInt(position(offset));
+  }
+
+  public long getLong(long offset) {
+    return segment(offset).getLong(position(offset));
+  }
+
+  public byte get(long offset) {
+    return segment(offset).get(position(offset));
+  }
+
+  public void get(long offset, byte[] dest, int destOffset, int length) {
+    while (length > 0) {
+      ByteBuffer buf = segment(offset).duplicate();
+      buf.position(position(offset));
+      int part = Math.min(length, buf.remaining());
+      buf.get(dest, destOffset, part);
+      offset += part;
+      destOffset += part;
+      length -= part;
+    }
+  }
+
+  public byte[] get(long offset, int length) {
+    byte[] result = new byte[length];
+    get(offset, result, 0, length);
+    return result;
+  }
+
+  @Override
+  public void close() throws IOException {
+    this.channel.close();
+  }
+
+  private ByteBuffer segment(long offset) {
+    return this.segments[(int) (offset / this.segmentSize)];
+  }
+
+  private int position(long offset) {
+    return (int) (offset % this.segmentSize);
+  }
+}
@@ -0,0 +1,180 @@
+/*
+ * Copyright ConsenSys AG.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+package tech.pegasys.poc.witnesscodeanalysis.processing;
+
+import org.apache.tuweni.bytes.Bytes;
+import org.junit.Test;
+import tech.pegasys.poc.witnesscodeanalysis.common.UnableToProcessReason;
+import tech.pegasys.poc.witnesscodeanalysis.functionid.FunctionIdAllResult;
+import tech.pegasys.poc.witnesscodeanalysis.functionid.FunctionIdBinaryReader;
+import tech.pegasys.poc.witnesscodeanalysis.functionid.FunctionIdMerklePatriciaTrieLeafData;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.TreeMap;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class FunctionIdBinarySerialiserTest {
+  private static final int NUM_IDS = 100;
+  private static final UnableToProcessReason[] REASONS = UnableToProcessReason.values();
+
+  // Every seventh contract has no result.
+  private static boolean hasResult(int id) {
+    return id % 7 != 3;
+  }
+
+  // Results cycle through every reason, and no reason.
+  private static FunctionIdAllResult result(int id) {
+    FunctionIdAllResult result = new FunctionIdAllResult();
+    result.setContractInfo(id);
+    int reason = id % (REASONS.length + 1);
+    result.setOverallResult(reason == REASONS.length ? null : REASONS[reason]);
+    result.setSolidityInfo(id % 2 == 0, id % 3 == 0);
+    for (int i = 0; i < id % 4; i++) {
+      TreeMap<Integer, Integer> blocks = new TreeMap<>();
+      for (int j = 0; j <= i; j++) {
+        blocks.put(id + 10 * j, j + 1);
+      }
+      Bytes functionId = Bytes.wrap(new byte[] {(byte) id, (byte) i, 0, 1});
+      result.addLeaf(new FunctionIdMerklePatriciaTrieLeafData(functionId, Bytes.wrap(new byte[1000]), blocks));
+    }
+    return result;
+  }
+
+  private static File writeResults(boolean complete) throws IOException {
+    File file = File.createTempFile("functionid", ".bin");
+    file.deleteOnExit();
+    FunctionIdBinarySerialiser serialiser = new FunctionIdBinarySerialiser();
+    try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)))) {
+      serialiser.startFile(out);
+      for (int id = 0; id < NUM_IDS; id++) {
+        if (hasResult(id)) {
+          serialiser.write(result(id), out);
+        }
+      }
+      if (complete) {
+        serialiser.endFile(out);
+      }
+    }
+    return file;
+  }
+
+  private static void assertResultEquals(FunctionIdAllResult expected, FunctionIdAllResult actual) {
+    assertEquals(expected.getId(), actual.getId());
+    assertEquals("result of " + expected.getId(), expected.getResult(), actual.getResult());
+    assertEquals(expected.isProbablySolidity(), actual.isProbablySolidity());
+    assertEquals(expected.isNewSolidity(), actual.isNewSolidity());
+    assertEquals(expected.getLeaves().size(), actual.getLeaves().size());
+    for (int i = 0; i < expected.getLeaves().size(); i++) {
+      assertEquals(expected.getLeaves().get(i).getFunctionId(), actual.getLeaves().get(i).getFunctionId());
+      assertArrayEquals(expected.getLeaves().get(i).getEncodedLeaf(), actual.getLeaves().get(i).getEncodedLeaf());
+    }
+  }
+
+  private static void checkGetById(FunctionIdBinaryReader reader) throws IOException {
+    // In reverse, so that nothing depends on reading in order.
+    for (int id = NUM_IDS - 1; id >= 0; id--) {
+      if (hasResult(id)) {
+        assertResultEquals(result(id), reader.get(id));
+      }
+      else {
+        assertNull(reader.get(id));
+      }
+    }
+    assertNull(reader.get(NUM_IDS));
+  }
+
+  @Test
+  public void roundTripInOrder() throws IOException {
+    try (FunctionIdBinaryReader reader = new FunctionIdBinaryReader(writeResults(true).getPath())) {
+      for (int id = 0; id < NUM_IDS; id++) {
+        if (hasResult(id)) {
+          assertResultEquals(result(id), reader.next());
+        }
+      }
+      assertNull(reader.next());
+    }
+  }
+
+  @Test
+  public void getByIdUsingIndex() throws IOException {
+    try (FunctionIdBinaryReader reader = new FunctionIdBinaryReader(writeResults(true).getPath())) {
+      assertTrue(reader.hasIndex());
+      checkGetById(reader);
+    }
+  }
+
+  @Test
+  public void getByIdWithoutIndex() throws IOException {
+    try (FunctionIdBinaryReader reader = new FunctionIdBinaryReader(writeResults(false).getPath())) {
+      assertFalse(reader.hasIndex());
+      checkGetById(reader);
+    }
+  }
+
+  // The stored codes must not change when reasons are added to UnableToProcessReason.
+  @Test
+  public void reasonCodesAreStable() throws IOException {
+    UnableToProcessReason[] reasons = {
+        UnableToProcessReason.CODECOPY_WITH_DYNAMIC_PARAMETERS,
+        UnableToProcessReason.INVALID_JUMP_DEST,
+        UnableToProcessReason.DYNAMIC_JUMP,
+        UnableToProcessReason.END_OF_FUNCTION_ID_BLOCK_NOT_FOUND,
+        UnableToProcessReason.CODE_PATHS_NOT_VALID,
+        UnableToProcessReason.EXPLORATION_LIMIT_EXCEEDED,
+        UnableToProcessReason.UNKNOWN_REASON1,
+        UnableToProcessReason.UNKNOWN_REASON2,
+        UnableToProcessReason.SUCCESS,
+    };
+    for (int code = 0; code < reasons.length; code++) {
+      File file = File.createTempFile("functionid", ".bin");
+      file.deleteOnExit();
+      FunctionIdAllResult result = new FunctionIdAllResult();
+      result.setOverallResult(reasons[code]);
+      try (DataOutputStream out = new DataOutputStream(new FileOutputStream(file))) {
+        FunctionIdBinarySerialiser serialiser = new FunctionIdBinarySerialiser();
+        serialiser.startFile(out);
+        serialiser.write(result, out);
+      }
+      // Header, then the record's length and id.
+      assertEquals(reasons[code].toString(), code, Files.readAllBytes(file.toPath())[8 + 4 + 4]);
+    }
+  }
+
+  @Test
+  public void version1FilesAreRejected() throws IOException {
+    File file = File.createTempFile("functionid", ".bin");
+    file.deleteOnExit();
+    try (DataOutputStream out = new DataOutputStream(new FileOutputStream(file))) {
+      out.writeInt(0x43574652);
+      out.writeInt(1);
+    }
+    try (FunctionIdBinaryReader reader = new FunctionIdBinaryReader(file.getPath())) {
+      fail("Read a version 1 file");
+    } catch (IOException expected) {
+      assertTrue(expected.getMessage(), expected.getMessage().contains("version 1"));
+    }
+  }
+}
@@ -0,0 +1,135 @@
+/*
+ * Copyright ConsenSys AG.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+package tech.pegasys.poc.witnesscodeanalysis.store;
+
+import org.apache.tuweni.bytes.Bytes;
+import org.junit.Test;
+import tech.pegasys.poc.witnesscodeanalysis.common.ContractRecord;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class ContractStoreTest {
+  private static final int NUM_CONTRACTS = 300;
+
+  private static byte[] code(int id) {
+    byte[] code = new byte[(id * 13) % 97];
+    for (int i = 0; i < code.length; i++) {
+      code[i] = (byte) (id + i);
+    }
+    return code;
+  }
+
+  private static String address(int n) {
+    return String.format("0x%08x%032x", n * 2654435761L & 0xffffffffL, n);
+  }
+
+  // Contracts deploy to one, two or no addresses. Every tenth contract also redeploys to the
+  // address of the contract before it, which then belongs to the later contract.
+  private static String[] addresses(int id) {
+    switch (id % 10) {
+      case 0:
+        return id == 0 ? new String[0] : new String[] {address(2 * id), address(2 * (id - 1))};
+      case 5:
+        return new String[] {address(2 * id), address(2 * id + 1)};
+      default:
+        return new String[] {address(2 * id)};
+    }
+  }
+
+  private static ContractRecord record(int id) {
+    byte[] codeHash = null;
+    if (id % 3 != 0) {
+      codeHash = new byte[32];
+      codeHash[31] = (byte) id;
+    }
+    int[] recent = id % 4 == 0 ? null : new int[] {id + 1000};
+    return new ContractRecord(id, code(id), codeHash, addresses(id), new int[] {id}, recent);
+  }
+
+  private static void writeStore(Path dir, int numContracts, boolean finish) throws IOException {
+    try (ContractStoreWriter writer = new ContractStoreWriter(dir)) {
+      for (int id = 0; id < numContracts; id++) {
+        writer.add(record(id));
+      }
+      if (finish) {
+        writer.finish();
+      }
+    }
+  }
+
+  @Test
+  public void roundTrip() throws IOException {
+    Path dir = Files.createTempDirectory("contract_store");
+    writeStore(dir, NUM_CONTRACTS, true);
+    assertTrue(ContractStore.exists(dir));
+    assertTrue(BlockIndex.exists(dir));
+
+    try (ContractStore store = new ContractStore(dir)) {
+      assertEquals(NUM_CONTRACTS, store.getNumContracts());
+      for (int id = 0; id < NUM_CONTRACTS; id++) {
+        assertEquals("code of " + id, Bytes.wrap(code(id)), store.getCode(id));
+
+        ContractRecord expected = record(id);
+        ContractRecord actual = store.get(id);
+        assertEquals(id, actual.getId());
+        assertEquals(expected.getCode(), actual.getCode());
+        assertEquals(expected.getCodeHash(), actual.getCodeHash());
+        assertArrayEquals(expected.getDeployedAtBlock(), actual.getDeployedAtBlock());
+        if (expected.getRecentAccessedAtBlock() == null) {
+          assertNull(actual.getRecentAccessedAtBlock());
+        }
+        else {
+          assertArrayEquals(expected.getRecentAccessedAtBlock(), actual.getRecentAccessedAtBlock());
+        }
+
+        String[] addresses = expected.getContractAddresses();
+        assertEquals(addresses.length, actual.getContractAddresses().length);
+        for (int i = 0; i < addresses.length; i++) {
+          assertEquals(addresses[i], actual.getContractAddresses()[i]);
+          // The first address of every contract ending in 9 is redeployed to by the next one.
+          int owner = id % 10 == 9 && i == 0 && id + 1 < NUM_CONTRACTS ? id + 1 : id;
+          assertEquals("id at " + addresses[i], owner, store.findId(addresses[i]));
+        }
+      }
+      assertEquals(-1, store.findId(address(2 * NUM_CONTRACTS)));
+      assertEquals(-1, store.findId("0x1234"));
+    }
+  }
+
+  @Test
+  public void unfinishedStoreDoesNotExist() throws IOException {
+    Path dir = Files.createTempDirectory("contract_store");
+    writeStore(dir, 10, false);
+    assertFalse(ContractStore.exists(dir));
+    assertFalse(BlockIndex.exists(dir));
+  }
+
+  @Test
+  public void failedConversionRemovesEarlierStore() throws IOException {
+    Path dir = Files.createTempDirectory("contract_store");
+    writeStore(dir, NUM_CONTRACTS, true);
+    assertTrue(ContractStore.exists(dir));
+    writeStore(dir, 10, false);
+    assertFalse(ContractStore.exists(dir));
+  }
+}